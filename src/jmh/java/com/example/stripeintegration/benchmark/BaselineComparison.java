@@ -0,0 +1,130 @@
+package com.example.stripeintegration.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Compares a JMH JSON result file with the stored baseline and fails when a benchmark got slower, or
+ * allocates more per operation, by more than the threshold. Run by the benchmarks profile after JMH:
+ *
+ * <pre>
+ * BaselineComparison &lt;baseline.json&gt; &lt;result.json&gt; &lt;thresholdPercent&gt; &lt;updateBaseline&gt;
+ * </pre>
+ *
+ * With updateBaseline=true, or when no baseline exists yet, the result replaces the baseline instead.
+ * Benchmarks missing on either side are reported but never fail the comparison.
+ */
+public final class BaselineComparison {
+
+	private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+	private BaselineComparison() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path baselinePath = Path.of(args[0]);
+		Path resultPath = Path.of(args[1]);
+		double threshold = Double.parseDouble(args[2]);
+		boolean update = Boolean.parseBoolean(args[3]);
+
+		ObjectMapper mapper = new ObjectMapper();
+		if (update || !Files.exists(baselinePath)) {
+			JsonNode runs = mapper.readTree(resultPath.toFile());
+			// Only scores are compared; the per-iteration samples would make the file hundreds of KB.
+			for (JsonNode run : runs) {
+				((ObjectNode) run.path("primaryMetric")).remove(List.of("rawData", "rawDataHistogram"));
+				for (JsonNode metric : run.path("secondaryMetrics")) {
+					((ObjectNode) metric).remove(List.of("rawData", "rawDataHistogram"));
+				}
+			}
+			Files.createDirectories(baselinePath.getParent());
+			mapper.writerWithDefaultPrettyPrinter().writeValue(baselinePath.toFile(), runs);
+			System.out.println("Stored " + resultPath + " as the benchmark baseline " + baselinePath);
+			return;
+		}
+
+		Map<String, JsonNode> baseline = index(mapper.readTree(baselinePath.toFile()));
+		Map<String, JsonNode> result = index(mapper.readTree(resultPath.toFile()));
+
+		int regressions = 0;
+		System.out.printf("%-90s %8s %14s %14s %9s%n", "Benchmark", "Metric", "Baseline", "Current", "Change");
+		for (Map.Entry<String, JsonNode> entry : result.entrySet()) {
+			JsonNode before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.printf("%-90s %8s%n", entry.getKey(), "new");
+				continue;
+			}
+			JsonNode after = entry.getValue();
+			boolean higherIsBetter = "thrpt".equals(after.path("mode").asText());
+			regressions += compare(entry.getKey(), "score", score(before), score(after), higherIsBetter, threshold);
+			Double allocationBefore = allocation(before);
+			Double allocationAfter = allocation(after);
+			if (allocationBefore != null && allocationAfter != null) {
+				regressions += compare(entry.getKey(), "B/op", allocationBefore, allocationAfter, false, threshold);
+			}
+		}
+		for (String name : baseline.keySet()) {
+			if (!result.containsKey(name)) {
+				System.out.printf("%-90s %8s%n", name, "not run");
+			}
+		}
+
+		if (regressions > 0) {
+			System.err.println(regressions + " benchmark metric(s) regressed by more than " + threshold + "% against " + baselinePath);
+			System.exit(1);
+		}
+	}
+
+	private static int compare(String name, String metric, double before, double after, boolean higherIsBetter, double threshold) {
+		double change = before == 0 ? (after == 0 ? 0 : 100) : (after - before) / before * 100;
+		double worse = higherIsBetter ? -change : change;
+		boolean regressed = worse > threshold;
+		System.out.printf("%-90s %8s %14.3f %14.3f %+8.1f%%%s%n", name, metric, before, after, change, regressed ? "  REGRESSION" : "");
+		return regressed ? 1 : 0;
+	}
+
+	// Keyed by benchmark name plus its @Param values, so each parameter combination is compared separately.
+	private static Map<String, JsonNode> index(JsonNode runs) {
+		Map<String, JsonNode> byName = new LinkedHashMap<>();
+		for (JsonNode run : runs) {
+			StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+			Map<String, String> params = new TreeMap<>();
+			Iterator<Map.Entry<String, JsonNode>> fields = run.path("params").fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				params.put(field.getKey(), field.getValue().asText());
+			}
+			if (!params.isEmpty()) {
+				key.append(params);
+			}
+			byName.put(key.toString(), run);
+		}
+		return byName;
+	}
+
+	private static double score(JsonNode run) {
+		return run.path("primaryMetric").path("score").asDouble();
+	}
+
+	// Older JMH versions prefix secondary metric names with a middle dot.
+	private static Double allocation(JsonNode run) {
+		Iterator<Map.Entry<String, JsonNode>> metrics = run.path("secondaryMetrics").fields();
+		while (metrics.hasNext()) {
+			Map.Entry<String, JsonNode> metric = metrics.next();
+			if (metric.getKey().endsWith(ALLOCATION_METRIC)) {
+				return metric.getValue().path("score").asDouble();
+			}
+		}
+		return null;
+	}
+}
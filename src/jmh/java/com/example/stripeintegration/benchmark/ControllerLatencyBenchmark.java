@@ -0,0 +1,99 @@
+package com.example.stripeintegration.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.example.stripeintegration.StripeintegrationApplication;
+
+/**
+ * End-to-end latency of the payment endpoints: HTTP client, Tomcat, controller, StripeService and the
+ * Stripe SDK, against a {@link StripeStub} on loopback and an in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ControllerLatencyBenchmark {
+
+	private static final String CREATE_PAYMENT_INTENT_BODY = "{\"amount\":2000,\"currency\":\"usd\",\"description\":\"Order #1234\"}";
+
+	private StripeStub stripe;
+	private ConfigurableApplicationContext context;
+	private HttpClient client;
+	private String baseUrl;
+
+	@Setup
+	public void start() throws Exception {
+		stripe = new StripeStub();
+		// Command-line style arguments, so they win over the MySQL settings in application.properties.
+		context = SpringApplication.run(StripeintegrationApplication.class,
+				"--server.port=0",
+				"--stripe.api-base=" + stripe.baseUrl(),
+				"--stripe.secret-key=sk_test_benchmark",
+				"--stripe.api.publishableKey=pk_test_benchmark",
+				"--stripe.webhook-secret=whsec_benchmark",
+				"--spring.datasource.url=jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1",
+				"--spring.datasource.driver-class-name=org.h2.Driver",
+				"--spring.datasource.username=sa",
+				"--spring.datasource.password=",
+				"--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+				"--spring.jpa.properties.hibernate.globally_quoted_identifiers=true",
+				"--spring.jpa.show-sql=false",
+				"--logging.level.root=WARN",
+				// Measure the full path to Stripe rather than the lookup cache.
+				"--stripe.cache.payment-methods.max-size=0",
+				"--webhook.log.dir=target/benchmark-webhook-log");
+		baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port") + "/api/payments";
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+	}
+
+	@TearDown
+	public void stop() {
+		context.close();
+		stripe.close();
+	}
+
+	@Benchmark
+	public String createPaymentIntent() throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/create-payment-intent"))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(CREATE_PAYMENT_INTENT_BODY))
+				.build();
+		return send(request);
+	}
+
+	@Benchmark
+	public String getCustomerPaymentMethods() throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/customers/cus_Qbenchmark/payment-methods"))
+				.GET()
+				.build();
+		return send(request);
+	}
+
+	private String send(HttpRequest request) throws Exception {
+		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() != 200) {
+			throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.body());
+		}
+		return response.body();
+	}
+}
@@ -0,0 +1,30 @@
+package com.example.stripeintegration.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canned Stripe payloads shared by the benchmarks, loaded from src/jmh/resources/fixtures.
+ */
+final class Fixtures {
+
+	static final String PAYMENT_INTENT_SUCCEEDED_EVENT = load("payment_intent_succeeded_event.json");
+	static final String PAYMENT_INTENT = load("payment_intent.json");
+	static final String PAYMENT_METHOD_LIST = load("payment_method_list.json");
+
+	private Fixtures() {
+	}
+
+	private static String load(String name) {
+		try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (in == null) {
+				throw new IllegalStateException("Missing benchmark fixture " + name);
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
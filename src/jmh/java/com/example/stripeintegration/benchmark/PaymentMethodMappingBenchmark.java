@@ -0,0 +1,63 @@
+package com.example.stripeintegration.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.stripeintegration.dto.PaymentMethodResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.PaymentMethodCollection;
+import com.stripe.net.ApiResource;
+
+/**
+ * The DTO mapping and JSON rendering done by getCustomerPaymentMethods for a customer's card list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentMethodMappingBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int cards;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private List<PaymentMethod> paymentMethods;
+
+	@Setup
+	public void load() {
+		List<PaymentMethod> fixture = ApiResource.GSON.fromJson(Fixtures.PAYMENT_METHOD_LIST, PaymentMethodCollection.class).getData();
+		paymentMethods = new ArrayList<>(cards);
+		for (int i = 0; i < cards; i++) {
+			paymentMethods.add(fixture.get(i % fixture.size()));
+		}
+	}
+
+	@Benchmark
+	public List<PaymentMethodResponse> map() {
+		return paymentMethods.stream()
+				.map(PaymentMethodResponse::from)
+				.collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public byte[] mapAndSerialize() throws Exception {
+		return objectMapper.writeValueAsBytes(map());
+	}
+}
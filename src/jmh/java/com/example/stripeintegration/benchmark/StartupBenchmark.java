@@ -0,0 +1,102 @@
+package com.example.stripeintegration.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time to first request: starts the application as a fresh process, polls a URL until it answers 2xx and
+ * reports how long that took from process launch, over several runs. Uses nothing but the JDK, so it runs
+ * straight from source (the faststart profile does this with -Dstartup.benchmark.skip=false):
+ *
+ * <pre>
+ * java StartupBenchmark.java &lt;url&gt; &lt;runs&gt; &lt;logDir&gt; &lt;command...&gt;
+ * </pre>
+ *
+ * For example, to compare a plain start with the AOT and CDS one:
+ *
+ * <pre>
+ * java StartupBenchmark.java http://localhost:8081/actuator/health 5 target/startup java -jar target/stripeintegration-0.0.1-SNAPSHOT.jar
+ * java StartupBenchmark.java http://localhost:8081/actuator/health/readiness 5 target/startup java -XX:SharedArchiveFile=target/app/application.jsa -Dspring.aot.enabled=true -Dspring.profiles.active=faststart -jar target/app/stripeintegration-0.0.1-SNAPSHOT.jar
+ * </pre>
+ *
+ * The application's own "Started ... in N seconds" figure is shown next to each run; the difference is JVM
+ * launch plus whatever happens between context refresh and the first answered request.
+ */
+public final class StartupBenchmark {
+
+	private static final Duration TIMEOUT = Duration.ofMinutes(2);
+	private static final Duration POLL_INTERVAL = Duration.ofMillis(20);
+	private static final Pattern STARTED = Pattern.compile("Started \\S+ in ([0-9.]+) seconds");
+
+	private StartupBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		URI url = URI.create(args[0]);
+		int runs = Integer.parseInt(args[1]);
+		Path logDir = Path.of(args[2]);
+		List<String> command = Arrays.asList(args).subList(3, args.length);
+		Files.createDirectories(logDir);
+
+		HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+		List<Long> timings = new ArrayList<>();
+		for (int run = 1; run <= runs; run++) {
+			Path log = logDir.resolve("startup-" + run + ".log");
+			long launched = System.nanoTime();
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+			try {
+				long millis = awaitFirstResponse(client, url, process, launched);
+				timings.add(millis);
+				System.out.printf("run %d: first request answered after %d ms (application reported %s)%n",
+						run, millis, reportedStartup(log));
+			} finally {
+				process.destroy();
+				if (!process.waitFor(30, TimeUnit.SECONDS)) {
+					process.destroyForcibly().waitFor();
+				}
+			}
+		}
+		Collections.sort(timings);
+		System.out.printf("time to first request over %d runs: min %d ms, median %d ms, max %d ms%n",
+				timings.size(), timings.get(0), timings.get(timings.size() / 2), timings.get(timings.size() - 1));
+	}
+
+	private static long awaitFirstResponse(HttpClient client, URI url, Process process, long launched)
+			throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(url).timeout(Duration.ofSeconds(5)).GET().build();
+		long deadline = launched + TIMEOUT.toNanos();
+		while (System.nanoTime() < deadline) {
+			if (!process.isAlive()) {
+				throw new IllegalStateException("Application exited with " + process.exitValue() + " before answering " + url);
+			}
+			try {
+				HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+				if (response.statusCode() / 100 == 2) {
+					return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launched);
+				}
+			} catch (IOException e) {
+				// Not listening yet.
+			}
+			Thread.sleep(POLL_INTERVAL.toMillis());
+		}
+		throw new IllegalStateException("No 2xx from " + url + " within " + TIMEOUT);
+	}
+
+	private static String reportedStartup(Path log) throws IOException {
+		Matcher matcher = STARTED.matcher(Files.readString(log));
+		return matcher.find() ? matcher.group(1) + " s" : "no startup line";
+	}
+}
@@ -0,0 +1,64 @@
+package com.example.stripeintegration.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal local stand-in for the Stripe API, so controller benchmarks measure our own overhead plus a
+ * loopback round trip instead of the public internet. Answers the calls the benchmarked endpoints make
+ * with canned fixtures; anything else gets a Stripe-style 404.
+ */
+final class StripeStub implements AutoCloseable {
+
+	private final HttpServer server;
+
+	StripeStub() throws IOException {
+		// Without TCP_NODELAY, delayed ACKs add ~40 ms to every loopback round trip and swamp the measurement.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	String baseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (InputStream body = exchange.getRequestBody()) {
+			body.readAllBytes();
+		}
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		if ("POST".equals(method) && "/v1/payment_intents".equals(path)) {
+			respond(exchange, 200, Fixtures.PAYMENT_INTENT);
+		} else if ("GET".equals(method) && "/v1/payment_methods".equals(path)) {
+			respond(exchange, 200, Fixtures.PAYMENT_METHOD_LIST);
+		} else {
+			respond(exchange, 404, "{\"error\":{\"type\":\"invalid_request_error\",\"message\":\"Unrecognized request URL (" + method + ": " + path + ")\"}}");
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.getResponseHeaders().set("Request-Id", "req_stub");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
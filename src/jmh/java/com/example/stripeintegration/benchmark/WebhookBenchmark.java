@@ -0,0 +1,74 @@
+package com.example.stripeintegration.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.stripeintegration.support.WebhookEventPeek;
+import com.example.stripeintegration.support.WebhookSignatureVerifier;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.net.ApiResource;
+import com.stripe.net.Webhook;
+
+/**
+ * Webhook receive cost: the SDK's verify-and-deserialize path against the split our pipeline uses
+ * (verify and peek over the raw bytes on the servlet thread, full deserialization on the consumer).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookBenchmark {
+
+	private static final String SECRET = "whsec_benchmark";
+	private static final long TOLERANCE_SECONDS = 300;
+
+	private final String payload = Fixtures.PAYMENT_INTENT_SUCCEEDED_EVENT;
+	private final byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+	private final WebhookSignatureVerifier verifier = new WebhookSignatureVerifier(SECRET, TOLERANCE_SECONDS);
+	private String sigHeader;
+
+	// Re-signed every iteration so the timestamp never falls outside the tolerance.
+	@Setup(Level.Iteration)
+	public void sign() throws Exception {
+		long timestamp = Webhook.Util.getTimeNow();
+		String signature = Webhook.Util.computeHmacSha256(SECRET, timestamp + "." + payload);
+		sigHeader = "t=" + timestamp + ",v1=" + signature;
+	}
+
+	@Benchmark
+	public Event constructEvent() throws SignatureVerificationException {
+		return Webhook.constructEvent(payload, sigHeader, SECRET, TOLERANCE_SECONDS);
+	}
+
+	// What the endpoint did while it read the body as a String.
+	@Benchmark
+	public boolean verifyStringHeader() throws SignatureVerificationException {
+		return Webhook.Signature.verifyHeader(new String(payloadBytes, StandardCharsets.UTF_8), sigHeader, SECRET, TOLERANCE_SECONDS);
+	}
+
+	@Benchmark
+	public WebhookEventPeek verifyAndPeek() throws Exception {
+		verifier.verify(payloadBytes, sigHeader);
+		return WebhookEventPeek.of(payloadBytes);
+	}
+
+	@Benchmark
+	public Event deserializeEvent() {
+		return ApiResource.GSON.fromJson(payload, Event.class);
+	}
+}
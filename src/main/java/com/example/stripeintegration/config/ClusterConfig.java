@@ -0,0 +1,33 @@
+package com.example.stripeintegration.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import com.example.stripeintegration.support.InMemorySharedStore;
+import com.example.stripeintegration.support.RedisSharedStore;
+import com.example.stripeintegration.support.SharedStore;
+
+/**
+ * The {@link SharedStore} only exists in cluster mode; components that use it take it as optional and
+ * keep their state local without it.
+ */
+@Configuration
+@EnableConfigurationProperties(ClusterProperties.class)
+public class ClusterConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "cluster", name = "enabled", havingValue = "true")
+    public SharedStore sharedStore(ClusterProperties cluster, ObjectProvider<RedisConnectionFactory> redisConnectionFactory) {
+        switch (cluster.getSharedStore()) {
+            case REDIS:
+                return new RedisSharedStore(redisConnectionFactory.getObject(), cluster.getRedisKeyPrefix());
+            case MEMORY:
+            default:
+                return new InMemorySharedStore(cluster.getMemoryMaxSize());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.stripeintegration.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Running several instances behind a load balancer ({@code cluster.*}). Off by default; a single node
+ * keeps all of its state in memory and its own database tables.
+ */
+@Data
+@ConfigurationProperties(prefix = "cluster")
+public class ClusterProperties {
+
+    private boolean enabled = false;
+    // This node's key in nodes.
+    private String nodeId = "local";
+    // Every node's ID and base URL, e.g. node-a=http://10.0.0.1:8080; must be the same list on every node.
+    private Map<String, String> nodes = new LinkedHashMap<>();
+    private int virtualNodes = 160;
+    private Duration forwardTimeout = Duration.ofSeconds(5);
+    private SharedStoreType sharedStore = SharedStoreType.MEMORY;
+    // Prefix of every Redis key and channel.
+    private String redisKeyPrefix = "stripeintegration:";
+    // Capacity of the in-memory store.
+    private long memoryMaxSize = 100_000;
+    // Stripe retries a webhook for up to three days.
+    private Duration webhookDedupTtl = Duration.ofDays(3);
+
+    public enum SharedStoreType {
+        // In this JVM only; for single-node cluster mode and tests.
+        MEMORY,
+        REDIS
+    }
+}
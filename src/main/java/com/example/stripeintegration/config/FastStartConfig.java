@@ -0,0 +1,29 @@
+package com.example.stripeintegration.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import com.example.stripeintegration.controller.PaymentController;
+import com.example.stripeintegration.service.IdempotencyStore;
+import com.example.stripeintegration.service.PaymentRecordWriter;
+import com.example.stripeintegration.service.WebhookDedupService;
+import com.example.stripeintegration.service.WebhookEventDispatcher;
+
+/**
+ * The faststart profile initializes beans lazily (see application-faststart.properties). The checkout
+ * path and the webhook pipeline are still created at startup: the first payment must not pay for building
+ * Stripe clients and pools, and webhook events left in the log must be replayed without waiting for a
+ * request. Beans with {@code @Scheduled} methods are kept eager by Spring Boot itself.
+ */
+@Configuration
+@Profile("faststart")
+public class FastStartConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(PaymentController.class, WebhookEventDispatcher.class,
+                WebhookDedupService.class, PaymentRecordWriter.class, IdempotencyStore.class);
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.stripeintegration.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs {@code @Scheduled} jobs, such as the nightly reconciliation, on Spring's task scheduler.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
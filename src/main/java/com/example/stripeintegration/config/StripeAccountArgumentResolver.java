@@ -0,0 +1,38 @@
+package com.example.stripeintegration.config;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import com.example.stripeintegration.service.StripeAccount;
+import com.example.stripeintegration.service.StripeAccountRegistry;
+
+/**
+ * Resolves a {@link StripeAccount} controller parameter from the X-Stripe-Account-Name header; requests
+ * without it use the default account.
+ */
+@Component
+public class StripeAccountArgumentResolver implements HandlerMethodArgumentResolver {
+
+    public static final String ACCOUNT_HEADER = "X-Stripe-Account-Name";
+
+    private final StripeAccountRegistry registry;
+
+    public StripeAccountArgumentResolver(StripeAccountRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return StripeAccount.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public StripeAccount resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                         NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        return registry.get(webRequest.getHeader(ACCOUNT_HEADER));
+    }
+}
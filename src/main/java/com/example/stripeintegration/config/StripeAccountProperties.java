@@ -0,0 +1,34 @@
+package com.example.stripeintegration.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * The Stripe accounts this service talks to ({@code stripe.accounts.<name>.*}). The "default" account
+ * falls back to the top-level stripe.secret-key, stripe.api.publishableKey and stripe.api-base settings.
+ */
+@Data
+@ConfigurationProperties(prefix = "stripe")
+public class StripeAccountProperties {
+
+    private Map<String, Account> accounts = new LinkedHashMap<>();
+
+    @Data
+    public static class Account {
+        private String secretKey;
+        private String publishableKey;
+        // Empty means api.stripe.com; set to e.g. http://localhost:12111 for stripe-mock.
+        private String apiBase;
+        // Connected account ID (acct_...) sent as Stripe-Account on every call; empty for a platform account.
+        private String stripeAccount;
+        // Null means stripe.http.max-concurrent-requests.
+        private Integer maxConcurrentRequests;
+        private int maxNetworkRetries = 2;
+        // 0 means unpaced.
+        private double maxRequestsPerSecond;
+    }
+}
@@ -1,53 +1,12 @@
 package com.example.stripeintegration.config;
 
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
-import com.stripe.Stripe;
-
-import io.github.cdimascio.dotenv.Dotenv;
-import jakarta.annotation.PostConstruct;
-
 
 @Configuration
+@EnableConfigurationProperties({StripeHttpProperties.class, StripeAccountProperties.class, StripeSchedulerProperties.class})
 public class StripeConfig {
-@Value("${stripe.secret-key}")
-    private String secretKey;
-
-    @PostConstruct
-    public void init() {
-        Stripe.apiKey = secretKey;
-      //  System.out.println("Stripe Secret Key loaded successfully.");
-    }
-
-    public String getSecretKey() {
-        return secretKey;
-    }
-
-
-
-/*private String secretKey;
-@PostConstruct
-public void init() {
-    Dotenv dotenv = Dotenv.load();
-    secretKey = dotenv.get("stripe.secret-key");
-    Stripe.apiKey = secretKey;
-    ///System.out.println("Loaded Stripe Key: " + secretKey);
-}
-
-// getter
-public String getSecretKey() {
-    return secretKey;
-}*/
-
-
-
-
-    /*  @Value("${stripe.secret-key}")
-    private String secretKey;
 
-    @PostConstruct
-    public void init() {
-        Stripe.apiKey = secretKey;
-    }*/
-    
+    // Stripe clients are built per account by StripeAccountRegistry; nothing here writes the static
+    // Stripe.apiKey or API base any more, so no request can see another account's settings.
 }
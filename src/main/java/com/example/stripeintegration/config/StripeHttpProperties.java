@@ -0,0 +1,82 @@
+package com.example.stripeintegration.config;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Transport settings for calls to the Stripe API ({@code stripe.http.*}).
+ */
+@Data
+@ConfigurationProperties(prefix = "stripe.http")
+public class StripeHttpProperties {
+
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    // Used for any operation without an entry in readTimeouts.
+    private Duration readTimeout = Duration.ofSeconds(30);
+    /**
+     * Per-operation response timeouts, keyed by "resource.method" (e.g. "payment_intents.post") or just
+     * "resource" (e.g. "payment_methods"), where resource is the first path segment after /v1.
+     */
+    private Map<String, Duration> readTimeouts = new HashMap<>();
+    // Requests beyond this wait for a slot (up to connectTimeout) instead of opening more connections.
+    private int maxConcurrentRequests = 200;
+    // Idle HTTP/1.1 connections kept open per JVM, and for how long.
+    private int maxIdleConnections = 64;
+    private Duration keepAlive = Duration.ofSeconds(30);
+    // Negotiate HTTP/2 (via ALPN) on https bases; plain-http bases such as stripe-mock always use HTTP/1.1.
+    private boolean http2 = true;
+    private RateLimit rateLimit = new RateLimit();
+    private Circuit circuitBreaker = new Circuit();
+    private Reactive reactive = new Reactive();
+
+    /**
+     * Per-resource request rate of each account, adapted to Stripe's 429s (additive increase,
+     * multiplicative decrease).
+     */
+    @Data
+    public static class RateLimit {
+        private double initialRate = 25;
+        private double minRate = 1;
+        private double maxRate = 100;
+        // Added per adjust-interval without a 429.
+        private double additiveIncrease = 1;
+        // Applied at most once per adjust-interval on 429.
+        private double decreaseFactor = 0.5;
+        private double burst = 10;
+        // Fraction of each resource's rate that background calls may use; interactive calls keep the rest.
+        private double backgroundShare = 0.5;
+        private Duration adjustInterval = Duration.ofSeconds(1);
+        // Beyond this a request fails locally with a 429 instead of queueing.
+        private Duration maxWait = Duration.ofSeconds(2);
+        // Background calls are not waited on by a customer, so they queue for a token longer.
+        private Duration backgroundMaxWait = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Per-account breaker over the outcome (5xx or network failure vs anything else) of recent calls.
+     */
+    @Data
+    public static class Circuit {
+        private int windowSize = 20;
+        private double failureRateThreshold = 0.5;
+        private Duration openDuration = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Connection pool of the non-blocking client behind /api/reactive/payments. Its calls hold a
+     * connection (or an HTTP/2 stream) but no thread while Stripe answers, so the pool, not a thread
+     * count, is what bounds them.
+     */
+    @Data
+    public static class Reactive {
+        private int maxConnections = 1000;
+        // Requests waiting for a pooled connection beyond this fail at once instead of queueing.
+        private int maxPendingAcquires = 50000;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(30);
+    }
+}
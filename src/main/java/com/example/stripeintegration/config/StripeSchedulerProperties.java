@@ -0,0 +1,38 @@
+package com.example.stripeintegration.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Priority lanes in front of Stripe calls ({@code stripe.scheduler.*}); budgets apply per account.
+ */
+@Data
+@ConfigurationProperties(prefix = "stripe.scheduler")
+public class StripeSchedulerProperties {
+
+    // Slots shared by both lanes; each lane is further capped by its own max-concurrent.
+    private int maxConcurrent = 64;
+    private Lane interactive = new Lane(4, 64, Duration.ofSeconds(2));
+    private Lane background = new Lane(1, 16, Duration.ofSeconds(30));
+
+    @Data
+    public static class Lane {
+        // Share of freed slots while both lanes have callers queued.
+        private double weight;
+        private int maxConcurrent;
+        // Beyond this a call fails instead of queueing further.
+        private Duration maxWait;
+
+        public Lane() {
+        }
+
+        public Lane(double weight, int maxConcurrent, Duration maxWait) {
+            this.weight = weight;
+            this.maxConcurrent = maxConcurrent;
+            this.maxWait = maxWait;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.stripeintegration.config;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.example.stripeintegration.service.TenantConcurrencyLimiter;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Applies the {@link TenantConcurrencyLimiter} to the Stripe-bound payment endpoints, blocking and
+ * reactive. The tenant is taken from the X-Tenant-Id header, but only IDs the limiter is configured
+ * with count as their own tenant. A request that goes async (a reactive endpoint or a streamed batch)
+ * keeps its permit until the async response completes, not just until the handler returns. Enabled
+ * by default whenever virtual threads are.
+ */
+@Component
+public class TenantConcurrencyFilter extends OncePerRequestFilter {
+
+    public static final String TENANT_HEADER = "X-Tenant-Id";
+
+    private final TenantConcurrencyLimiter limiter;
+    private final boolean enabled;
+
+    public TenantConcurrencyFilter(TenantConcurrencyLimiter limiter,
+                                   @Value("${stripe.concurrency.limiter-enabled:${spring.threads.virtual.enabled:false}}") boolean enabled) {
+        this.limiter = limiter;
+        this.enabled = enabled;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        String prefix = path.startsWith("/api/reactive/payments/") ? "/api/reactive/payments/" : "/api/payments/";
+        // Webhooks come from Stripe itself and /config never leaves the JVM.
+        return !enabled
+                || !path.startsWith(prefix)
+                || path.equals(prefix + "webhook")
+                || path.equals(prefix + "config");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String tenant = limiter.resolve(request.getHeader(TENANT_HEADER));
+        boolean acquired;
+        try {
+            acquired = limiter.tryAcquire(tenant);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+        if (!acquired) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader("Retry-After", "1");
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"message\":\"Too many concurrent payment requests for tenant.\"}");
+            return;
+        }
+        Permit permit = new Permit(tenant);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(permit);
+            } else {
+                permit.release();
+            }
+        }
+    }
+
+    // Gives the permit back exactly once: a timed-out or failed async request also completes.
+    private final class Permit implements AsyncListener {
+        private final String tenant;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String tenant) {
+            this.tenant = tenant;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(tenant);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Starting async again on a re-dispatch drops the listeners; stay registered until the end.
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.stripeintegration.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final StripeAccountArgumentResolver stripeAccountArgumentResolver;
+
+    public WebConfig(StripeAccountArgumentResolver stripeAccountArgumentResolver) {
+        this.stripeAccountArgumentResolver = stripeAccountArgumentResolver;
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(stripeAccountArgumentResolver);
+    }
+}
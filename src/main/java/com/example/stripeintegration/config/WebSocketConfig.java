@@ -0,0 +1,25 @@
+package com.example.stripeintegration.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+import com.example.stripeintegration.controller.PaymentStatusWebSocketHandler;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final PaymentStatusWebSocketHandler paymentStatusHandler;
+
+    public WebSocketConfig(PaymentStatusWebSocketHandler paymentStatusHandler) {
+        this.paymentStatusHandler = paymentStatusHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(paymentStatusHandler, "/ws/payment-status")
+                .setAllowedOrigins("http://localhost:8080");
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.stripeintegration.config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.stripeintegration.support.WebhookEventLog;
+
+@Configuration
+public class WebhookConfig {
+
+    @Bean(destroyMethod = "close")
+    public WebhookEventLog webhookEventLog(@Value("${webhook.log.dir}") String logDir,
+                                           @Value("${webhook.log.segment-bytes:67108864}") int segmentBytes,
+                                           @Value("${webhook.log.force-on-append:false}") boolean forceOnAppend) throws IOException {
+        return new WebhookEventLog(Path.of(logDir), segmentBytes, forceOnAppend);
+    }
+}
@@ -3,23 +3,29 @@ package com.example.stripeintegration.controller;
 //package com.example.stripepayment.controller;
 
 import com.example.stripeintegration.dto.*; // Import all DTOs
+import com.example.stripeintegration.service.BatchChargeService;
+import com.example.stripeintegration.service.StripeAccount;
 import com.example.stripeintegration.service.StripeService;
-import com.stripe.Stripe;
+import com.example.stripeintegration.service.WebhookIngestionService;
+import com.example.stripeintegration.service.WebhookPartitioner;
+import com.stripe.exception.IdempotencyException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Customer;
 import com.stripe.model.PaymentIntent;
 import com.stripe.model.PaymentMethod;
 import com.stripe.model.SetupIntent;
-import com.stripe.model.StripeObject;
 
-import io.github.cdimascio.dotenv.Dotenv;
-import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Optional;
-import org.springframework.beans.factory.annotation.Value;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.List;
 import java.util.Map;
@@ -31,56 +37,36 @@ import java.util.stream.Collectors;
 @CrossOrigin(origins = "http://localhost:8080")
 public class PaymentController {
 
-    private final StripeService stripeService;
-
-    //@Value("${stripe.api.publishableKey}")
-
-
-    //private String stripePublishableKey;
-
-    @Value("${stripe.api.publishableKey}")
-    private String stripePublishableKey;
-
-    @PostConstruct
-    public void init() {
-        Stripe.apiKey = stripePublishableKey;
-        System.out.println("Stripe Secret Key loaded successfully.");
-    }
-
-    public String getStripePublishableKey() {
-        return stripePublishableKey;
-    }
+    private static final Logger logger = LoggerFactory.getLogger(PaymentController.class);
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
-   /*  @PostConstruct
-    public void init() {
-        Dotenv dotenv = Dotenv.load();
-        stripePublishableKey = dotenv.get("stripe.api.publishableKey");
-         //Stripe.publishableKey
-       // System.out.println("Loaded Stripe Key: " + stripePublishableKey);
-    }
-
-    // getter
-    public String getStripePublishableKey() {
-        return stripePublishableKey;
-    }
-*/
+    private final StripeService stripeService;
+    private final WebhookIngestionService webhookIngestionService;
+    private final BatchChargeService batchChargeService;
+    private final ObjectMapper objectMapper;
 
-   // private String stripePublishableKey;
+    // Keys now come per request from the StripeAccount parameter (see StripeAccountRegistry); nothing
+    // here may write Stripe.apiKey, which used to be overwritten with the publishable key at startup.
 
-    public PaymentController(StripeService stripeService) {
+    public PaymentController(StripeService stripeService, WebhookIngestionService webhookIngestionService,
+            BatchChargeService batchChargeService, ObjectMapper objectMapper) {
         this.stripeService = stripeService;
+        this.webhookIngestionService = webhookIngestionService;
+        this.batchChargeService = batchChargeService;
+        this.objectMapper = objectMapper;
     }
 
     // --- Existing endpoints ---
     @GetMapping("/config")
-    public ResponseEntity<Map<String, String>> getStripeConfig() {
+    public ResponseEntity<Map<String, String>> getStripeConfig(StripeAccount account) {
         Map<String, String> config = new HashMap<>();
-        config.put("publishableKey", stripePublishableKey);
+        config.put("publishableKey", account.getPublishableKey());
         return ResponseEntity.ok(config);
     }
 
     @PostMapping("/create-payment-intent")
-    public ResponseEntity<CreatePaymentResponse> createPaymentIntent(@RequestBody CreatePayment createPayment) {
+    public ResponseEntity<CreatePaymentResponse> createPaymentIntent(StripeAccount account, @RequestBody CreatePayment createPayment,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             if (createPayment.getAmount() == null || createPayment.getAmount() <= 0) {
                 return ResponseEntity.badRequest().body(new CreatePaymentResponse("Amount must be positive."));
@@ -90,98 +76,73 @@ public class PaymentController {
             }
 
             PaymentIntent paymentIntent = stripeService.createPaymentIntent(
+                    account,
                     createPayment.getAmount(),
                     createPayment.getCurrency(),
-                    createPayment.getDescription());
+                    createPayment.getDescription(),
+                    idempotencyKey);
             return ResponseEntity.ok(new CreatePaymentResponse(paymentIntent.getClientSecret()));
 
+        } catch (IdempotencyException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body(new CreatePaymentResponse(e.getMessage()));
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Creating PaymentIntent", e);
+            return StripeErrorResponses.status(e)
                     .body(new CreatePaymentResponse("Error creating PaymentIntent: " + e.getMessage()));
         }
     }
 
     @PostMapping("/confirm-payment")
-    public ResponseEntity<Map<String, String>> confirmPayment(@RequestBody PaymentConfirmation confirmation) {
+    public ResponseEntity<Map<String, String>> confirmPayment(StripeAccount account, @RequestBody PaymentConfirmation confirmation) {
         try {
-            PaymentIntent paymentIntent = stripeService.retrievePaymentIntent(confirmation.getPaymentIntentId());
+            // Answered locally once a webhook or earlier call has seen a final status.
+            String paymentIntentId = confirmation.getPaymentIntentId();
+            String status = stripeService.retrievePaymentIntentStatus(account, paymentIntentId);
 
-            if ("succeeded".equals(paymentIntent.getStatus())) {
-                System.out.println("Backend Confirmed: PaymentIntent " + paymentIntent.getId() + " succeeded.");
+            if ("succeeded".equals(status)) {
+                logger.info("Backend confirmed PaymentIntent {} succeeded", paymentIntentId);
                 // YOUR APPLICATION LOGIC HERE: Update DB, send email, etc.
                 return ResponseEntity.ok(Map.of("message", "Payment confirmed successfully!"));
             } else {
-                System.out.println("Backend Confirmed: PaymentIntent " + paymentIntent.getId() + " status: "
-                        + paymentIntent.getStatus());
+                logger.info("Backend confirmed PaymentIntent {} with status {}", paymentIntentId, status);
                 return ResponseEntity.badRequest()
-                        .body(Map.of("message", "Payment not succeeded. Current status: " + paymentIntent.getStatus()));
+                        .body(Map.of("message", "Payment not succeeded. Current status: " + status));
             }
 
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Confirming payment", e);
+            return StripeErrorResponses.status(e)
                     .body(Map.of("message", "Error confirming payment: " + e.getMessage()));
         }
     }
 
     // Webhook Endpoint (KEEP THIS - and make sure to add your secret!)
+    // Only verifies and durably logs the event; WebhookEventDispatcher handles it off the request thread.
     @PostMapping("/webhook")
-    public ResponseEntity<String> handleStripeWebhook(@RequestBody String payload,
-            @RequestHeader(name = "Stripe-Signature", required = false) String sigHeader) {
+    public ResponseEntity<String> handleStripeWebhook(@RequestBody byte[] payload,
+            @RequestHeader(name = "Stripe-Signature", required = false) String sigHeader,
+            @RequestHeader(name = WebhookPartitioner.FORWARDED_BY_HEADER, required = false) String forwardedBy) {
         try {
-            final String webhookSecret = "whsec_YOUR_WEBHOOK_SECRET"; // REPLACE WITH YOUR ACTUAL WEBHOOK SECRET
-
-            com.stripe.model.Event event = com.stripe.net.Webhook.constructEvent(payload, sigHeader, webhookSecret);
-            System.out.println("Received Stripe Webhook Event: " + event.getType());
-
-            switch (event.getType()) {
-                case "payment_intent.succeeded":
-                    Optional<StripeObject> piObj = event.getDataObjectDeserializer().getObject();
-                    if (piObj.isPresent() && piObj.get() instanceof PaymentIntent) {
-                        PaymentIntent paymentIntent = (PaymentIntent) piObj.get();
-                        System.out.println("Webhook: PaymentIntent succeeded for ID: " + paymentIntent.getId()
-                                + ". Amount: " + paymentIntent.getAmount());
-                        // Update order status in DB to PAID
-                    } else {
-                        System.out.println("Webhook: Could not deserialize PaymentIntent object.");
-                    }
-                    break;
-                case "payment_intent.payment_failed":
-                    Optional<StripeObject> pfObj = event.getDataObjectDeserializer().getObject();
-                    if (pfObj.isPresent() && pfObj.get() instanceof PaymentIntent) {
-                        PaymentIntent paymentIntent = (PaymentIntent) pfObj.get();
-                        System.out.println("Webhook: PaymentIntent failed for ID: " + paymentIntent.getId()
-                                + ". Last error: " + paymentIntent.getLastPaymentError().getMessage());
-                        // Update order status to FAILED, notify user
-                    } else {
-                        System.out.println("Webhook: Could not deserialize PaymentIntent object.");
-                    }
-                    break;
-                case "setup_intent.succeeded":
-                    Optional<StripeObject> siObj = event.getDataObjectDeserializer().getObject();
-                    if (siObj.isPresent() && siObj.get() instanceof SetupIntent) {
-                        SetupIntent setupIntent = (SetupIntent) siObj.get();
-                        System.out.println("Webhook: SetupIntent succeeded for ID: " + setupIntent.getId()
-                                + ". Customer: " + setupIntent.getCustomer());
-                        // Payment method successfully saved. You might log this or update user profile.
-                    } else {
-                        System.out.println("Webhook: Could not deserialize SetupIntent object.");
-                    }
-                    break;
+            switch (webhookIngestionService.ingest(payload, sigHeader, forwardedBy)) {
+                case DUPLICATE:
+                    return ResponseEntity.ok("Duplicate webhook ignored.");
+                case IGNORED:
+                    return ResponseEntity.ok("Webhook type not handled.");
+                case FORWARDED:
+                    return ResponseEntity.ok("Webhook forwarded.");
                 default:
-                    System.out.println("Webhook: Unhandled event type: " + event.getType());
+                    return ResponseEntity.ok("Webhook received.");
             }
-            return ResponseEntity.ok("Webhook received and processed.");
         } catch (com.stripe.exception.SignatureVerificationException e) {
-            System.err.println("Error verifying webhook signature: " + e.getMessage());
+            logger.warn("Rejected webhook with invalid signature: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid signature.");
-        } catch (StripeException e) {
-            System.err.println("Error processing Stripe event: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing event.");
+        } catch (IOException e) {
+            // Not acknowledged, so Stripe will redeliver once the log is writable again.
+            logger.error("Could not log webhook event", e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Event log unavailable.");
         } catch (Exception e) {
-            System.err.println("Generic error in webhook handler: " + e.getMessage());
-            e.printStackTrace();
+            logger.error("Generic error in webhook handler", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Internal server error.");
         }
     }
@@ -193,16 +154,14 @@ public class PaymentController {
      * In a real app, this would be tied to your user registration.
      */
     @PostMapping("/customers")
-    public ResponseEntity<CustomerResponse> createCustomer(@RequestBody CreateCustomerRequest request) {
+    public ResponseEntity<CustomerResponse> createCustomer(StripeAccount account, @RequestBody CreateCustomerRequest request) {
         try {
-            Customer customer = stripeService.createStripeCustomer(request.getEmail(), request.getName());
-            // In a real application, you would save customer.getId() to your user's
-            // database record.
-            System.out.println("Created Stripe Customer: " + customer.getId());
+            Customer customer = stripeService.createStripeCustomer(account, request.getEmail(), request.getName());
+            logger.info("Created Stripe customer {}", customer.getId());
             return ResponseEntity.ok(new CustomerResponse(customer.getId(), customer.getEmail(), customer.getName()));
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Creating customer", e);
+            return StripeErrorResponses.status(e)
                     .body(new CustomerResponse(null, null, "Error creating customer: " + e.getMessage()));
         }
     }
@@ -212,17 +171,17 @@ public class PaymentController {
      * Assumes you already have a customerId (e.g., stored in user session or DB).
      */
     @PostMapping("/customers/{customerId}/setup-intent")
-    public ResponseEntity<SetupIntentResponse> createSetupIntent(@PathVariable String customerId) {
+    public ResponseEntity<SetupIntentResponse> createSetupIntent(StripeAccount account, @PathVariable String customerId) {
         try {
             // Verify if customerId exists in your DB first for security
             // If it doesn't exist, return 404 Not Found or 403 Forbidden
 
-            SetupIntent setupIntent = stripeService.createSetupIntent(customerId);
-            System.out.println("Created SetupIntent: " + setupIntent.getId() + " for customer " + customerId);
+            SetupIntent setupIntent = stripeService.createSetupIntent(account, customerId);
+            logger.info("Created SetupIntent {} for customer {}", setupIntent.getId(), customerId);
             return ResponseEntity.ok(new SetupIntentResponse(setupIntent.getClientSecret(), customerId));
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Creating SetupIntent", e);
+            return StripeErrorResponses.status(e)
                     .body(new SetupIntentResponse("Error creating SetupIntent: " + e.getMessage(), customerId));
         }
     }
@@ -233,24 +192,18 @@ public class PaymentController {
      * @param customerId The Stripe Customer ID.
      */
     @GetMapping("/customers/{customerId}/payment-methods")
-    public ResponseEntity<List<PaymentMethodResponse>> getCustomerPaymentMethods(@PathVariable String customerId) {
+    public ResponseEntity<List<PaymentMethodResponse>> getCustomerPaymentMethods(StripeAccount account, @PathVariable String customerId) {
         try {
-            List<PaymentMethod> paymentMethods = stripeService.listCustomerPaymentMethods(customerId, "card"); // Only
+            List<PaymentMethod> paymentMethods = stripeService.listCustomerPaymentMethods(account, customerId, "card"); // Only
                                                                                                                // list
                                                                                                                // cards
             List<PaymentMethodResponse> responses = paymentMethods.stream()
-                    .map(pm -> new PaymentMethodResponse(
-                            pm.getId(),
-                            pm.getType(),
-                            pm.getCard().getBrand(),
-                            pm.getCard().getLast4(),
-                            pm.getCard().getExpMonth(),
-                            pm.getCard().getExpYear()))
+                    .map(PaymentMethodResponse::from)
                     .collect(Collectors.toList());
             return ResponseEntity.ok(responses);
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Listing payment methods", e);
+            return StripeErrorResponses.status(e)
                     .body(null); // Or return an error DTO
         }
     }
@@ -261,14 +214,14 @@ public class PaymentController {
      * @param paymentMethodId The ID of the PaymentMethod to detach.
      */
     @DeleteMapping("/payment-methods/{paymentMethodId}")
-    public ResponseEntity<Map<String, String>> detachPaymentMethod(@PathVariable String paymentMethodId) {
+    public ResponseEntity<Map<String, String>> detachPaymentMethod(StripeAccount account, @PathVariable String paymentMethodId) {
         try {
-            PaymentMethod detachedPm = stripeService.detachPaymentMethod(paymentMethodId);
-            System.out.println("Detached PaymentMethod: " + detachedPm.getId());
+            PaymentMethod detachedPm = stripeService.detachPaymentMethod(account, paymentMethodId);
+            logger.info("Detached PaymentMethod {}", detachedPm.getId());
             return ResponseEntity.ok(Map.of("message", "Payment method detached successfully."));
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Detaching payment method", e);
+            return StripeErrorResponses.status(e)
                     .body(Map.of("message", "Error detaching payment method: " + e.getMessage()));
         }
     }
@@ -279,7 +232,8 @@ public class PaymentController {
      * Requires customerId and optionally paymentMethodId.
      */
     @PostMapping("/charge-customer")
-    public ResponseEntity<Map<String, String>> chargeCustomer(@RequestBody ChargeCustomerRequest request) {
+    public ResponseEntity<Map<String, String>> chargeCustomer(StripeAccount account, @RequestBody ChargeCustomerRequest request,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             // Validate input
             if (request.getCustomerId() == null || request.getCustomerId().isEmpty()) {
@@ -293,15 +247,16 @@ public class PaymentController {
             }
 
             PaymentIntent paymentIntent = stripeService.chargeCustomerWithSavedCard(
+                    account,
                     request.getCustomerId(),
                     request.getPaymentMethodId(), // Can be null to use default
                     request.getAmount(),
                     request.getCurrency(),
-                    request.getDescription());
+                    request.getDescription(),
+                    idempotencyKey);
 
             if ("succeeded".equals(paymentIntent.getStatus())) {
-                System.out.println("Charged existing customer " + request.getCustomerId() + ". PaymentIntent: "
-                        + paymentIntent.getId());
+                logger.info("Charged existing customer {} with PaymentIntent {}", request.getCustomerId(), paymentIntent.getId());
                 // YOUR APPLICATION LOGIC: Update order status in DB to PAID
                 return ResponseEntity
                         .ok(Map.of("message", "Payment successful!", "paymentIntentId", paymentIntent.getId()));
@@ -318,10 +273,66 @@ public class PaymentController {
                         .body(Map.of("message", "Payment not succeeded. Status: " + paymentIntent.getStatus()));
             }
 
+        } catch (IdempotencyException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(Map.of("message", e.getMessage()));
         } catch (StripeException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            StripeErrorResponses.log(logger, "Charging customer", e);
+            return StripeErrorResponses.status(e)
                     .body(Map.of("message", "Error charging customer: " + e.getMessage()));
         }
     }
+
+    /**
+     * Endpoint to charge many customers in one billing run.
+     * Results are streamed back as NDJSON, one line per item, in completion order. Resubmitting the same
+     * batchId resumes the batch: finished items are reported again with "resumed": true and only
+     * failed or never-attempted items are charged.
+     */
+    @PostMapping(value = "/charge-customers/batch", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> chargeCustomersBatch(StripeAccount account, @RequestBody BatchChargeRequest request) {
+        if (request.getBatchId() == null || request.getBatchId().isEmpty()) {
+            return ResponseEntity.badRequest().body(out -> out.write(
+                    objectMapper.writeValueAsBytes(Map.of("message", "Batch ID is required."))));
+        }
+        if (request.getItems() == null || request.getItems().isEmpty()) {
+            return ResponseEntity.badRequest().body(out -> out.write(
+                    objectMapper.writeValueAsBytes(Map.of("message", "At least one item is required."))));
+        }
+
+        StreamingResponseBody body = out -> {
+            AtomicBoolean clientGone = new AtomicBoolean();
+            try {
+                batchChargeService.chargeAll(account, request, result -> {
+                    // The batch keeps running if the client disconnects; it can fetch results later.
+                    if (clientGone.get()) {
+                        return;
+                    }
+                    synchronized (out) {
+                        try {
+                            out.write(objectMapper.writeValueAsBytes(result));
+                            out.write('\n');
+                            out.flush();
+                        } catch (IOException e) {
+                            clientGone.set(true);
+                        }
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * Endpoint to fetch the stored per-item results of a charge batch.
+     */
+    @GetMapping("/charge-customers/batch/{batchId}")
+    public ResponseEntity<List<BatchChargeItemResult>> getChargeBatch(@PathVariable String batchId) {
+        List<BatchChargeItemResult> results = batchChargeService.results(batchId);
+        if (results.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(results);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+package com.example.stripeintegration.controller;
+
+import com.example.stripeintegration.service.PaymentStatusBroadcaster;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WebSocket endpoint (/ws/payment-status) that pushes PaymentIntent and SetupIntent outcomes to the
+ * browser. The client sends {"subscribe": "&lt;client secret&gt;"} for each intent it is waiting on and
+ * then receives {"event", "id", "status", "message"} objects as the webhooks for it are handled.
+ */
+@Component
+public class PaymentStatusWebSocketHandler extends TextWebSocketHandler {
+
+    private final PaymentStatusBroadcaster broadcaster;
+    private final ObjectMapper objectMapper;
+    private final int maxMessageBytes;
+    // Raw session ID -> the decorated session the broadcaster sends to.
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+
+    public PaymentStatusWebSocketHandler(PaymentStatusBroadcaster broadcaster, ObjectMapper objectMapper,
+                                         @Value("${payment-status.max-message-bytes:1024}") int maxMessageBytes) {
+        this.broadcaster = broadcaster;
+        this.objectMapper = objectMapper;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        // Clients only ever send short subscribe messages.
+        session.setTextMessageSizeLimit(maxMessageBytes);
+        sessions.put(session.getId(), broadcaster.open(session));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        WebSocketSession decorated = sessions.get(session.getId());
+        JsonNode request = objectMapper.readTree(message.getPayload());
+        String clientSecret = request.path("subscribe").asText(null);
+        // Client secrets look like "pi_..._secret_..." or "seti_..._secret_...".
+        if (decorated == null || clientSecret == null || !clientSecret.contains("_secret_")) {
+            session.close(CloseStatus.BAD_DATA.withReason("Expected {\"subscribe\": client secret}"));
+            return;
+        }
+        if (!broadcaster.subscribe(decorated, clientSecret)) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Too many subscriptions"));
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        WebSocketSession decorated = sessions.remove(session.getId());
+        if (decorated != null) {
+            broadcaster.close(decorated);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.stripeintegration.controller;
+
+import com.example.stripeintegration.dto.ChargeCustomerRequest;
+import com.example.stripeintegration.dto.CreateCustomerRequest;
+import com.example.stripeintegration.dto.CreatePayment;
+import com.example.stripeintegration.dto.CreatePaymentResponse;
+import com.example.stripeintegration.dto.CustomerResponse;
+import com.example.stripeintegration.dto.PaymentConfirmation;
+import com.example.stripeintegration.dto.PaymentMethodResponse;
+import com.example.stripeintegration.dto.SetupIntentResponse;
+import com.example.stripeintegration.service.ReactiveStripeService;
+import com.example.stripeintegration.service.StripeAccount;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.StripeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The checkout endpoints of {@link PaymentController} under /api/reactive/payments, with the same
+ * requests and responses, backed by the non-blocking {@link ReactiveStripeService}.
+ *
+ * The handlers return a {@link Mono}, which Spring MVC completes asynchronously: the servlet thread is
+ * released as soon as the call to Stripe is sent, and the response is written when it completes. A
+ * request waiting on Stripe therefore holds a connection but no thread, in either execution mode.
+ * Webhooks and charge batches are only served by {@link PaymentController}.
+ */
+@RestController
+@RequestMapping("/api/reactive/payments")
+@CrossOrigin(origins = "http://localhost:8080")
+public class ReactivePaymentController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactivePaymentController.class);
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private final ReactiveStripeService stripeService;
+
+    public ReactivePaymentController(ReactiveStripeService stripeService) {
+        this.stripeService = stripeService;
+    }
+
+    @GetMapping("/config")
+    public ResponseEntity<Map<String, String>> getStripeConfig(StripeAccount account) {
+        return ResponseEntity.ok(Map.of("publishableKey", account.getPublishableKey()));
+    }
+
+    @PostMapping("/create-payment-intent")
+    public Mono<ResponseEntity<CreatePaymentResponse>> createPaymentIntent(StripeAccount account, @RequestBody CreatePayment createPayment,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        if (createPayment.getAmount() == null || createPayment.getAmount() <= 0) {
+            return Mono.just(ResponseEntity.badRequest().body(new CreatePaymentResponse("Amount must be positive.")));
+        }
+        if (createPayment.getCurrency() == null || createPayment.getCurrency().isEmpty()) {
+            createPayment.setCurrency("usd");
+        }
+        return stripeService.createPaymentIntent(account, createPayment.getAmount(), createPayment.getCurrency(),
+                        createPayment.getDescription(), idempotencyKey)
+                .map(paymentIntent -> ResponseEntity.ok(new CreatePaymentResponse(paymentIntent.getClientSecret())))
+                .onErrorResume(IdempotencyException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                        .body(new CreatePaymentResponse(e.getMessage()))))
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Creating PaymentIntent", e);
+                    return Mono.just(StripeErrorResponses.status(e)
+                            .body(new CreatePaymentResponse("Error creating PaymentIntent: " + e.getMessage())));
+                });
+    }
+
+    @PostMapping("/confirm-payment")
+    public Mono<ResponseEntity<Map<String, String>>> confirmPayment(StripeAccount account, @RequestBody PaymentConfirmation confirmation) {
+        String paymentIntentId = confirmation.getPaymentIntentId();
+        return stripeService.retrievePaymentIntentStatus(account, paymentIntentId)
+                .map(status -> {
+                    logger.info("Backend confirmed PaymentIntent {} with status {}", paymentIntentId, status);
+                    if ("succeeded".equals(status)) {
+                        return ResponseEntity.ok(Map.of("message", "Payment confirmed successfully!"));
+                    }
+                    return ResponseEntity.badRequest()
+                            .body(Map.of("message", "Payment not succeeded. Current status: " + status));
+                })
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Confirming payment", e);
+                    return Mono.just(StripeErrorResponses.status(e)
+                            .body(Map.of("message", "Error confirming payment: " + e.getMessage())));
+                });
+    }
+
+    @PostMapping("/customers")
+    public Mono<ResponseEntity<CustomerResponse>> createCustomer(StripeAccount account, @RequestBody CreateCustomerRequest request) {
+        return stripeService.createStripeCustomer(account, request.getEmail(), request.getName())
+                .map(customer -> {
+                    logger.info("Created Stripe customer {}", customer.getId());
+                    return ResponseEntity.ok(new CustomerResponse(customer.getId(), customer.getEmail(), customer.getName()));
+                })
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Creating customer", e);
+                    return Mono.just(StripeErrorResponses.status(e)
+                            .body(new CustomerResponse(null, null, "Error creating customer: " + e.getMessage())));
+                });
+    }
+
+    @PostMapping("/customers/{customerId}/setup-intent")
+    public Mono<ResponseEntity<SetupIntentResponse>> createSetupIntent(StripeAccount account, @PathVariable String customerId) {
+        return stripeService.createSetupIntent(account, customerId)
+                .map(setupIntent -> {
+                    logger.info("Created SetupIntent {} for customer {}", setupIntent.getId(), customerId);
+                    return ResponseEntity.ok(new SetupIntentResponse(setupIntent.getClientSecret(), customerId));
+                })
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Creating SetupIntent", e);
+                    return Mono.just(StripeErrorResponses.status(e)
+                            .body(new SetupIntentResponse("Error creating SetupIntent: " + e.getMessage(), customerId)));
+                });
+    }
+
+    @GetMapping("/customers/{customerId}/payment-methods")
+    public Mono<ResponseEntity<List<PaymentMethodResponse>>> getCustomerPaymentMethods(StripeAccount account,
+            @PathVariable String customerId) {
+        return stripeService.listCustomerPaymentMethods(account, customerId, "card")
+                .map(paymentMethods -> ResponseEntity.ok(paymentMethods.stream()
+                        .map(PaymentMethodResponse::from)
+                        .collect(Collectors.toList())))
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Listing payment methods", e);
+                    return Mono.just(StripeErrorResponses.status(e).<List<PaymentMethodResponse>>body(null));
+                });
+    }
+
+    @DeleteMapping("/payment-methods/{paymentMethodId}")
+    public Mono<ResponseEntity<Map<String, String>>> detachPaymentMethod(StripeAccount account, @PathVariable String paymentMethodId) {
+        return stripeService.detachPaymentMethod(account, paymentMethodId)
+                .map(detached -> {
+                    logger.info("Detached PaymentMethod {}", detached.getId());
+                    return ResponseEntity.ok(Map.of("message", "Payment method detached successfully."));
+                })
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Detaching payment method", e);
+                    return Mono.just(StripeErrorResponses.status(e)
+                            .body(Map.of("message", "Error detaching payment method: " + e.getMessage())));
+                });
+    }
+
+    @PostMapping("/charge-customer")
+    public Mono<ResponseEntity<Map<String, String>>> chargeCustomer(StripeAccount account, @RequestBody ChargeCustomerRequest request,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        if (request.getCustomerId() == null || request.getCustomerId().isEmpty()) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of("message", "Customer ID is required.")));
+        }
+        if (request.getAmount() == null || request.getAmount() <= 0) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of("message", "Amount must be positive.")));
+        }
+        if (request.getCurrency() == null || request.getCurrency().isEmpty()) {
+            request.setCurrency("usd");
+        }
+        return stripeService.chargeCustomerWithSavedCard(account, request.getCustomerId(), request.getPaymentMethodId(),
+                        request.getAmount(), request.getCurrency(), request.getDescription(), idempotencyKey)
+                .map(paymentIntent -> {
+                    if ("succeeded".equals(paymentIntent.getStatus())) {
+                        logger.info("Charged existing customer {} with PaymentIntent {}", request.getCustomerId(), paymentIntent.getId());
+                        return ResponseEntity.ok(Map.of("message", "Payment successful!", "paymentIntentId", paymentIntent.getId()));
+                    }
+                    if ("requires_action".equals(paymentIntent.getStatus())) {
+                        return ResponseEntity.ok(Map.of(
+                                "message", "Payment requires action.",
+                                "paymentIntentId", paymentIntent.getId(),
+                                "clientSecret", paymentIntent.getClientSecret()));
+                    }
+                    return ResponseEntity.badRequest()
+                            .body(Map.of("message", "Payment not succeeded. Status: " + paymentIntent.getStatus()));
+                })
+                .onErrorResume(IdempotencyException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                        .body(Map.of("message", e.getMessage()))))
+                .onErrorResume(StripeException.class, e -> {
+                    StripeErrorResponses.log(logger, "Charging customer", e);
+                    return Mono.just(StripeErrorResponses.status(e)
+                            .body(Map.of("message", "Error charging customer: " + e.getMessage())));
+                });
+    }
+}
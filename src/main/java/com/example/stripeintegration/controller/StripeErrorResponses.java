@@ -0,0 +1,46 @@
+package com.example.stripeintegration.controller;
+
+import com.example.stripeintegration.support.CircuitOpenException;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import org.slf4j.Logger;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * How the payment controllers log and answer a failed Stripe call.
+ */
+final class StripeErrorResponses {
+
+    private StripeErrorResponses() {
+    }
+
+    // Declines and validation errors are routine and only need the message; throttling, outages and
+    // anything unexpected keep the stack trace.
+    static void log(Logger logger, String action, StripeException e) {
+        Integer status = e.getStatusCode();
+        if (status != null && status < 500 && status != 429) {
+            logger.warn("{} failed: {} (code={}, requestId={})", action, e.getMessage(), e.getCode(), e.getRequestId());
+        } else {
+            logger.error("{} failed (requestId={})", action, e.getRequestId(), e);
+        }
+    }
+
+    // Throttling and Stripe outages are worth retrying later, so callers get 429/503 with a Retry-After
+    // instead of a 500; anything else is still reported as a server error.
+    static ResponseEntity.BodyBuilder status(StripeException e) {
+        if (e instanceof RateLimitException) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1");
+        }
+        if (e instanceof CircuitOpenException) {
+            long seconds = Math.max(1L, ((CircuitOpenException) e).getRetryAfter().toSeconds());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        }
+        if (e instanceof ApiConnectionException || (e.getStatusCode() != null && e.getStatusCode() >= 500)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "5");
+        }
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+}
@@ -2,30 +2,108 @@ package com.example.stripeintegration.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.example.stripeintegration.dto.CreatePayment;
 import com.example.stripeintegration.dto.CreatePaymentResponse;
 import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.service.StripeAccount;
+import com.example.stripeintegration.service.UserImportService;
 import com.example.stripeintegration.service.Userservice;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.stripe.exception.StripeException;
 import com.stripe.model.PaymentIntent;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
 @RestController
 @RequestMapping("/api/users")
 public class Usercontroller {
     @Autowired
     private  Userservice userService;
+    @Autowired
+    private UserImportService userImportService;
+    @Autowired
+    private ObjectMapper objectMapper;
     
+    // Registers the user, or updates the name of the one already registered with this email.
     @PostMapping("/adduser")
     public User addUser(@RequestBody User user) {
 
         return userService.addUser(user);
         
     }
+
+    // Looks a user up by email or by Stripe customer ID (exactly one of them).
+    @GetMapping
+    public ResponseEntity<User> findUser(@RequestParam(required = false) String email,
+                                         @RequestParam(required = false) String stripeCustomerId) {
+        if ((email == null) == (stripeCustomerId == null)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        Optional<User> user = email != null ? userService.findByEmail(email) : userService.findByStripeCustomerId(stripeCustomerId);
+        return user.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Bulk import from a CSV upload with an email and an optional name column.
+     * Streams back NDJSON: one line per rejected row (with its line number), the totals after every chunk,
+     * and the final totals with "done": true. With createStripeCustomers=true a Stripe customer is also
+     * created for every imported user that has none.
+     */
+    @PostMapping(value = "/import", consumes = "text/csv", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> importCsv(StripeAccount account, InputStream body,
+                                                           @RequestParam(defaultValue = "false") boolean createStripeCustomers) {
+        return importUsers(account, body, UserImportService.Format.CSV, createStripeCustomers);
+    }
+
+    /**
+     * Bulk import from NDJSON, one {"email": ..., "name": ...} object per line; answers like the CSV import.
+     */
+    @PostMapping(value = "/import", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> importNdjson(StripeAccount account, InputStream body,
+                                                              @RequestParam(defaultValue = "false") boolean createStripeCustomers) {
+        return importUsers(account, body, UserImportService.Format.NDJSON, createStripeCustomers);
+    }
+
+    private ResponseEntity<StreamingResponseBody> importUsers(StripeAccount account, InputStream body,
+                                                              UserImportService.Format format, boolean createStripeCustomers) {
+        StreamingResponseBody response = out -> {
+            AtomicBoolean clientGone = new AtomicBoolean();
+            Consumer<Object> writer = line -> {
+                // Stripe customers already requested are still created if the client disconnects.
+                if (clientGone.get()) {
+                    return;
+                }
+                synchronized (out) {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(line));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException e) {
+                        clientGone.set(true);
+                    }
+                }
+            };
+            try {
+                writer.accept(userImportService.importUsers(account, body, format, createStripeCustomers, writer::accept, writer::accept));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(response);
+    }
     
 }
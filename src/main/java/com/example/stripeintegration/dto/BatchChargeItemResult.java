@@ -0,0 +1,25 @@
+package com.example.stripeintegration.dto;
+
+import lombok.Data;
+
+@Data
+public class BatchChargeItemResult {
+    private String batchId;
+    private int index; // position of the item in the submitted list
+    private String customerId;
+    private String status; // "succeeded", "requires_action" or "failed"
+    private String paymentIntentId;
+    private String message;
+    private boolean resumed; // true if this result was recorded by an earlier run of the batch
+
+    public BatchChargeItemResult(String batchId, int index, String customerId, String status,
+                                 String paymentIntentId, String message, boolean resumed) {
+        this.batchId = batchId;
+        this.index = index;
+        this.customerId = customerId;
+        this.status = status;
+        this.paymentIntentId = paymentIntentId;
+        this.message = message;
+        this.resumed = resumed;
+    }
+}
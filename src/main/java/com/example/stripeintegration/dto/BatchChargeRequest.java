@@ -0,0 +1,11 @@
+package com.example.stripeintegration.dto;
+
+import java.util.List;
+
+import lombok.Data;
+
+@Data
+public class BatchChargeRequest {
+    private String batchId; // Client-chosen; resubmitting the same batchId resumes the batch
+    private List<ChargeCustomerRequest> items;
+}
@@ -1,5 +1,7 @@
 package com.example.stripeintegration.dto;
 
+import com.stripe.model.PaymentMethod;
+
 import lombok.Data;
 
 @Data
@@ -19,4 +21,12 @@ public class PaymentMethodResponse {
         this.expMonth = expMonth;
         this.expYear = expYear;
     }
+
+    public static PaymentMethodResponse from(PaymentMethod pm) {
+        PaymentMethod.Card card = pm.getCard();
+        if (card == null) {
+            return new PaymentMethodResponse(pm.getId(), pm.getType(), null, null, null, null);
+        }
+        return new PaymentMethodResponse(pm.getId(), pm.getType(), card.getBrand(), card.getLast4(), card.getExpMonth(), card.getExpYear());
+    }
 }
\ No newline at end of file
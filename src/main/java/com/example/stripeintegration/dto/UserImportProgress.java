@@ -0,0 +1,25 @@
+package com.example.stripeintegration.dto;
+
+import lombok.Data;
+
+@Data
+public class UserImportProgress {
+    private long rows; // data rows read so far, blank lines and the CSV header not counted
+    private long inserted;
+    private long updated; // rows whose email was already registered; only the name is updated
+    private long failed; // rows rejected; each one is also reported as a UserImportRowError
+    private long customersCreated;
+    private long customersFailed;
+    private boolean done; // true on the final summary only
+
+    public UserImportProgress(long rows, long inserted, long updated, long failed,
+                              long customersCreated, long customersFailed, boolean done) {
+        this.rows = rows;
+        this.inserted = inserted;
+        this.updated = updated;
+        this.failed = failed;
+        this.customersCreated = customersCreated;
+        this.customersFailed = customersFailed;
+        this.done = done;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.stripeintegration.dto;
+
+import lombok.Data;
+
+@Data
+public class UserImportRowError {
+    private long line; // 1-based line of the row in the uploaded file
+    private String email;
+    private String message;
+
+    public UserImportRowError(long line, String email, String message) {
+        this.line = line;
+        this.email = email;
+        this.message = message;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.stripeintegration.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.Data;
+
+@Entity
+@Table(name = "batch_charge_item", uniqueConstraints = @UniqueConstraint(name = "uk_batch_charge_item", columnNames = {"batchId", "itemIndex"}))
+@Data
+public class BatchChargeItem {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "batch_charge_item_seq")
+    @SequenceGenerator(name = "batch_charge_item_seq", sequenceName = "batch_charge_item_seq", allocationSize = 50)
+    private Long id;
+    private String batchId;
+    private int itemIndex;
+    private String customerId;
+    private int attempt; // bumped on the retry of a definitive failure; part of its Stripe idempotency key
+    private String status;
+    private boolean definitive; // for a failure: whether Stripe certainly did not charge (a decline, an invalid request)
+    private String paymentIntentId;
+    private String message;
+    private Instant updatedAt;
+}
@@ -0,0 +1,59 @@
+package com.example.stripeintegration.entity;
+
+import java.time.Instant;
+
+import org.springframework.data.domain.Persistable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Entity
+@Table(name = "idempotency_record", indexes = @Index(name = "idx_idempotency_record_created_at", columnList = "createdAt"))
+@Data
+@NoArgsConstructor
+public class IdempotencyRecord implements Persistable<String> {
+
+    @Id
+    @Column(name = "idempotency_key")
+    private String key;
+    private String fingerprint; // operation plus request parameters; a reused key must match it
+    @Lob
+    private String responseJson;
+    private Instant createdAt;
+
+    // Keys come from the client, so tell Spring Data to insert instead of select-then-merge.
+    @Transient
+    private boolean newEntity = true;
+
+    public IdempotencyRecord(String key, String fingerprint, String responseJson, Instant createdAt) {
+        this.key = key;
+        this.fingerprint = fingerprint;
+        this.responseJson = responseJson;
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String getId() {
+        return key;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newEntity = false;
+    }
+}
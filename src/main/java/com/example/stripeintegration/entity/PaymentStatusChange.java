@@ -0,0 +1,42 @@
+package com.example.stripeintegration.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One status transition of a PaymentIntent, as reported by a webhook. Insert-only history, at most one
+ * row per event.
+ */
+@Entity
+@Table(name = "payment_status_change", indexes = @Index(name = "idx_payment_status_change_intent", columnList = "paymentIntentId"))
+@Data
+@NoArgsConstructor
+public class PaymentStatusChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_status_change_seq")
+    @SequenceGenerator(name = "payment_status_change_seq", sequenceName = "payment_status_change_seq", allocationSize = 50)
+    private Long id;
+    private String paymentIntentId;
+    private String status;
+    @Column(unique = true)
+    private String eventId;
+    private Instant occurredAt;
+
+    public PaymentStatusChange(String paymentIntentId, String status, String eventId, Instant occurredAt) {
+        this.paymentIntentId = paymentIntentId;
+        this.status = status;
+        this.eventId = eventId;
+        this.occurredAt = occurredAt;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.stripeintegration.entity;
+
+import java.time.Instant;
+
+import org.springframework.data.domain.Persistable;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Entity
+@Table(name = "processed_webhook_event", indexes = @Index(name = "idx_processed_webhook_event_received_at", columnList = "receivedAt"))
+@Data
+@NoArgsConstructor
+public class ProcessedWebhookEvent implements Persistable<String> {
+
+    @Id
+    private String eventId;
+    private String type;
+    private Instant receivedAt;
+
+    // Event IDs are assigned by Stripe, so tell Spring Data to insert instead of select-then-merge.
+    @Transient
+    private boolean newEntity = true;
+
+    public ProcessedWebhookEvent(String eventId, String type, Instant receivedAt) {
+        this.eventId = eventId;
+        this.type = type;
+        this.receivedAt = receivedAt;
+    }
+
+    @Override
+    public String getId() {
+        return eventId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newEntity = false;
+    }
+}
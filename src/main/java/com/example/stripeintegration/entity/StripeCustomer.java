@@ -0,0 +1,30 @@
+package com.example.stripeintegration.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+@Entity
+@Table(name = "stripe_customer")
+@Data
+public class StripeCustomer {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stripe_customer_seq")
+    @SequenceGenerator(name = "stripe_customer_seq", sequenceName = "stripe_customer_seq", allocationSize = 50)
+    private Long id;
+    @Column(unique = true, nullable = false)
+    private String stripeCustomerId;
+    private String email;
+    private String name;
+    private Long lastEventCreated; // epoch seconds of the newest webhook applied; older ones are ignored
+    private Instant updatedAt;
+    private Instant lastReconciledAt; // last reconciliation run that found it in Stripe
+}
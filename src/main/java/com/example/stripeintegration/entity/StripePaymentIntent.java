@@ -0,0 +1,34 @@
+package com.example.stripeintegration.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+@Entity
+@Table(name = "stripe_payment_intent", indexes = @Index(name = "idx_stripe_payment_intent_customer", columnList = "customerId"))
+@Data
+public class StripePaymentIntent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stripe_payment_intent_seq")
+    @SequenceGenerator(name = "stripe_payment_intent_seq", sequenceName = "stripe_payment_intent_seq", allocationSize = 50)
+    private Long id;
+    @Column(unique = true, nullable = false)
+    private String paymentIntentId;
+    private String customerId;
+    private Long amount;
+    private String currency;
+    private String status;
+    private String lastError;
+    private Long lastEventCreated; // epoch seconds of the newest webhook applied; older ones are ignored
+    private Instant updatedAt;
+    private Instant lastReconciledAt; // last reconciliation run that found it in Stripe
+}
@@ -1,20 +1,37 @@
 package com.example.stripeintegration.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 import lombok.Data;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "uk_user_email", columnList = "email", unique = true),
+        @Index(name = "idx_user_stripe_customer_id", columnList = "stripeCustomerId")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user")
 @Data
 public class User {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
     private Long id;
     private String name;
     private String email;
+    private String stripeCustomerId;
+    // Card charged when no payment method is given; maintained from webhooks by DefaultPaymentMethodIndex.
+    private String defaultPaymentMethodId;
 
     
     
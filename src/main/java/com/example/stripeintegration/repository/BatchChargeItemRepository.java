@@ -0,0 +1,14 @@
+package com.example.stripeintegration.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.example.stripeintegration.entity.BatchChargeItem;
+
+@Repository
+public interface BatchChargeItemRepository extends JpaRepository<BatchChargeItem, Long> {
+
+    List<BatchChargeItem> findByBatchIdOrderByItemIndex(String batchId);
+}
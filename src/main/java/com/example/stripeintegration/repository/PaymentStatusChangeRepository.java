@@ -0,0 +1,19 @@
+package com.example.stripeintegration.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import com.example.stripeintegration.entity.PaymentStatusChange;
+
+@Repository
+public interface PaymentStatusChangeRepository extends JpaRepository<PaymentStatusChange, Long> {
+
+    List<PaymentStatusChange> findByPaymentIntentIdOrderByOccurredAt(String paymentIntentId);
+
+    @Query("select c.eventId from PaymentStatusChange c where c.eventId in :eventIds")
+    List<String> findExistingEventIds(Collection<String> eventIds);
+}
@@ -0,0 +1,32 @@
+package com.example.stripeintegration.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.stripeintegration.entity.ProcessedWebhookEvent;
+
+@Repository
+public interface ProcessedWebhookEventRepository extends JpaRepository<ProcessedWebhookEvent, String> {
+
+    @Query("select e.eventId from ProcessedWebhookEvent e order by e.receivedAt desc")
+    List<String> findRecentEventIds(Pageable pageable);
+
+    @Query("select e.eventId from ProcessedWebhookEvent e where e.eventId > :afterId order by e.eventId")
+    List<String> findEventIdsAfter(String afterId, Pageable pageable);
+
+    @Query("select e.eventId from ProcessedWebhookEvent e where e.eventId in :eventIds")
+    List<String> findExistingEventIds(Collection<String> eventIds);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ProcessedWebhookEvent e where e.receivedAt < :cutoff")
+    int deleteReceivedBefore(Instant cutoff);
+}
@@ -0,0 +1,33 @@
+package com.example.stripeintegration.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.stripeintegration.entity.StripeCustomer;
+
+@Repository
+public interface StripeCustomerRepository extends JpaRepository<StripeCustomer, Long> {
+
+    Optional<StripeCustomer> findByStripeCustomerId(String stripeCustomerId);
+
+    List<StripeCustomer> findByStripeCustomerIdIn(Collection<String> stripeCustomerIds);
+
+    @Transactional
+    @Modifying
+    @Query("update StripeCustomer c set c.lastReconciledAt = :reconciledAt where c.stripeCustomerId in :stripeCustomerIds")
+    int markReconciled(Collection<String> stripeCustomerIds, Instant reconciledAt);
+
+    // Keyset page of rows older than the run that it has not found in Stripe.
+    @Query("select c from StripeCustomer c where c.id > :afterId and c.updatedAt < :runStart"
+            + " and (c.lastReconciledAt is null or c.lastReconciledAt < :runStart) order by c.id")
+    List<StripeCustomer> findNotReconciledSince(Long afterId, Instant runStart, Pageable page);
+}
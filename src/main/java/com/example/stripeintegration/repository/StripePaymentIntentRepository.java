@@ -0,0 +1,33 @@
+package com.example.stripeintegration.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.stripeintegration.entity.StripePaymentIntent;
+
+@Repository
+public interface StripePaymentIntentRepository extends JpaRepository<StripePaymentIntent, Long> {
+
+    Optional<StripePaymentIntent> findByPaymentIntentId(String paymentIntentId);
+
+    List<StripePaymentIntent> findByPaymentIntentIdIn(Collection<String> paymentIntentIds);
+
+    @Transactional
+    @Modifying
+    @Query("update StripePaymentIntent p set p.lastReconciledAt = :reconciledAt where p.paymentIntentId in :paymentIntentIds")
+    int markReconciled(Collection<String> paymentIntentIds, Instant reconciledAt);
+
+    // Keyset page of rows older than the run that it has not found in Stripe.
+    @Query("select p from StripePaymentIntent p where p.id > :afterId and p.updatedAt < :runStart"
+            + " and (p.lastReconciledAt is null or p.lastReconciledAt < :runStart) order by p.id")
+    List<StripePaymentIntent> findNotReconciledSince(Long afterId, Instant runStart, Pageable page);
+}
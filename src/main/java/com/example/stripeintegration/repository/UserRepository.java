@@ -1,11 +1,53 @@
 package com.example.stripeintegration.repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import com.example.stripeintegration.entity.User;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
-    
+
+    String QUERY_CACHE_REGION = "user-queries";
+
+    // Both lookups go through the query cache (ID by key) and the entity cache (row by ID).
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
+    Optional<User> findByEmail(String email);
+
+    // A customer is linked to one user (by email), but the column itself is not unique.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
+    Optional<User> findFirstByStripeCustomerIdOrderById(String stripeCustomerId);
+
+    List<User> findByEmailIn(Collection<String> emails);
+
+    @Query("select u.defaultPaymentMethodId from User u where u.stripeCustomerId = :customerId and u.defaultPaymentMethodId is not null")
+    List<String> findDefaultPaymentMethodIds(String customerId);
+
+    @Query("select u from User u where u.id > :afterId and u.defaultPaymentMethodId is not null order by u.id")
+    List<User> findWithDefaultPaymentMethodAfter(Long afterId, Pageable page);
+
+    // Row locks for read-modify-write updates; these bypass the query cache and load into the entity cache.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<User> findLockedByEmail(String email);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<User> findLockedByStripeCustomerIdOrderById(String stripeCustomerId);
 }
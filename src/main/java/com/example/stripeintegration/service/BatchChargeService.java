@@ -0,0 +1,205 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.dto.BatchChargeItemResult;
+import com.example.stripeintegration.dto.BatchChargeRequest;
+import com.example.stripeintegration.dto.ChargeCustomerRequest;
+import com.example.stripeintegration.entity.BatchChargeItem;
+import com.example.stripeintegration.repository.BatchChargeItemRepository;
+import com.example.stripeintegration.support.TokenBucket;
+import com.stripe.exception.CardException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs off-session billing batches: charges many customers with bounded parallelism, paced to stay under
+ * Stripe's rate limit, and reports each item as soon as it finishes.
+ *
+ * Every item's outcome is stored in {@code batch_charge_item}. Submitting the same batch ID again skips
+ * items that already succeeded or need customer action and retries the rest. Each attempt carries the
+ * idempotency key {@code batchId:index:attempt}, so an item whose outcome was lost in a crash is replayed
+ * by Stripe instead of being charged twice. The attempt number only moves on after a definitive failure
+ * (a decline, an invalid request, a rate limit): a failure whose outcome is unknown, such as a timeout,
+ * a connection error or an open circuit, is retried with the same key, so a charge that did go through
+ * is replayed rather than made again.
+ */
+@Service
+public class BatchChargeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchChargeService.class);
+
+    public static final String SUCCEEDED = "succeeded";
+    public static final String REQUIRES_ACTION = "requires_action";
+    public static final String FAILED = "failed";
+
+    private static final String REQUIRES_PAYMENT_METHOD = "requires_payment_method";
+    private static final String CANCELED = "canceled";
+
+    private static final int SAVE_CHUNK_SIZE = 100;
+    private static final int MAX_RATE_LIMIT_RETRIES = 5;
+
+    private final StripeService stripeService;
+    private final BatchChargeItemRepository repository;
+    private final int parallelism;
+    private final double maxRequestsPerSecond;
+    private final Map<String, TokenBucket> pacers = new ConcurrentHashMap<>();
+
+    public BatchChargeService(StripeService stripeService,
+                              BatchChargeItemRepository repository,
+                              @Value("${stripe.batch.parallelism:32}") int parallelism,
+                              @Value("${stripe.batch.max-requests-per-second:50}") double maxRequestsPerSecond) {
+        this.stripeService = stripeService;
+        this.repository = repository;
+        this.parallelism = parallelism;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * Charges every item of a batch, resuming from any results stored for the same batch ID.
+     * @param account The Stripe account to charge in.
+     * @param request The batch; items are identified by their position in the list.
+     * @param sink Receives one result per item, from several threads, as items finish.
+     */
+    public void chargeAll(StripeAccount account, BatchChargeRequest request, Consumer<BatchChargeItemResult> sink)
+            throws InterruptedException {
+        String batchId = request.getBatchId();
+        // Shared by all running batches of the account, since Stripe's limit is per account rather than per batch.
+        TokenBucket pacer = pacers.computeIfAbsent(account.getName(),
+                name -> new TokenBucket(maxRequestsPerSecond, maxRequestsPerSecond));
+        Map<Integer, BatchChargeItem> previous = repository.findByBatchIdOrderByItemIndex(batchId).stream()
+                .collect(Collectors.toMap(BatchChargeItem::getItemIndex, item -> item));
+        List<BatchChargeItem> unsaved = new ArrayList<>();
+        Semaphore permits = new Semaphore(parallelism);
+        logger.info("Starting charge batch {} with {} items ({} already recorded)", batchId, request.getItems().size(), previous.size());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < request.getItems().size(); i++) {
+                BatchChargeItem prior = previous.get(i);
+                if (prior != null && !FAILED.equals(prior.getStatus())) {
+                    sink.accept(toResult(prior, true));
+                    continue;
+                }
+                int index = i;
+                ChargeCustomerRequest item = request.getItems().get(i);
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        BatchChargeItem outcome = chargeOne(account, pacer, batchId, index, item, prior);
+                        sink.accept(toResult(outcome, false));
+                        List<BatchChargeItem> chunk = null;
+                        synchronized (unsaved) {
+                            unsaved.add(outcome);
+                            if (unsaved.size() >= SAVE_CHUNK_SIZE) {
+                                chunk = new ArrayList<>(unsaved);
+                                unsaved.clear();
+                            }
+                        }
+                        if (chunk != null) {
+                            repository.saveAll(chunk);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        logger.error("Charge batch {} item {} could not be recorded", batchId, index, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        repository.saveAll(unsaved);
+        logger.info("Finished charge batch {}", batchId);
+    }
+
+    /**
+     * @return The stored result of every item of a batch that has been attempted so far.
+     */
+    public List<BatchChargeItemResult> results(String batchId) {
+        return repository.findByBatchIdOrderByItemIndex(batchId).stream()
+                .map(item -> toResult(item, true))
+                .collect(Collectors.toList());
+    }
+
+    private BatchChargeItem chargeOne(StripeAccount account, TokenBucket pacer, String batchId, int index,
+                                      ChargeCustomerRequest request, BatchChargeItem prior) throws InterruptedException {
+        BatchChargeItem item = prior != null ? prior : new BatchChargeItem();
+        item.setBatchId(batchId);
+        item.setItemIndex(index);
+        item.setCustomerId(request.getCustomerId());
+        item.setAttempt(prior == null ? 1 : prior.isDefinitive() ? prior.getAttempt() + 1 : prior.getAttempt());
+        item.setDefinitive(false);
+        item.setPaymentIntentId(null);
+        item.setMessage(null);
+        item.setUpdatedAt(Instant.now());
+
+        if (request.getCustomerId() == null || request.getCustomerId().isEmpty()) {
+            return failed(item, "Customer ID is required.", true);
+        }
+        if (request.getAmount() == null || request.getAmount() <= 0) {
+            return failed(item, "Amount must be positive.", true);
+        }
+        String currency = request.getCurrency() == null || request.getCurrency().isEmpty() ? "usd" : request.getCurrency();
+        String idempotencyKey = batchId + ":" + index + ":" + item.getAttempt();
+
+        for (int retry = 0; ; retry++) {
+            pacer.acquire();
+            try {
+                PaymentIntent paymentIntent = stripeService.chargeCustomerWithSavedCard(account, request.getCustomerId(),
+                        request.getPaymentMethodId(), request.getAmount(), currency, request.getDescription(), idempotencyKey);
+                item.setPaymentIntentId(paymentIntent.getId());
+                if (SUCCEEDED.equals(paymentIntent.getStatus())) {
+                    item.setStatus(SUCCEEDED);
+                } else if (REQUIRES_ACTION.equals(paymentIntent.getStatus())) {
+                    item.setStatus(REQUIRES_ACTION);
+                } else {
+                    // A processing payment may still succeed; only a PaymentIntent that needs a new card or was canceled is final.
+                    boolean definitive = REQUIRES_PAYMENT_METHOD.equals(paymentIntent.getStatus())
+                            || CANCELED.equals(paymentIntent.getStatus());
+                    return failed(item, "Payment not succeeded. Status: " + paymentIntent.getStatus(), definitive);
+                }
+                return item;
+            } catch (RateLimitException e) {
+                if (retry >= MAX_RATE_LIMIT_RETRIES) {
+                    // Stripe did not process a rate-limited request.
+                    return failed(item, "Rate limited by Stripe: " + e.getMessage(), true);
+                }
+                TimeUnit.MILLISECONDS.sleep(250L << retry);
+            } catch (CardException | InvalidRequestException e) {
+                return failed(item, e.getMessage(), true);
+            } catch (StripeException | RuntimeException e) {
+                // The charge may or may not have been made; the next attempt reuses this key.
+                return failed(item, e.getMessage(), false);
+            }
+        }
+    }
+
+    private static BatchChargeItem failed(BatchChargeItem item, String message, boolean definitive) {
+        item.setStatus(FAILED);
+        item.setDefinitive(definitive);
+        item.setMessage(message);
+        return item;
+    }
+
+    private static BatchChargeItemResult toResult(BatchChargeItem item, boolean resumed) {
+        return new BatchChargeItemResult(item.getBatchId(), item.getItemIndex(), item.getCustomerId(), item.getStatus(),
+                item.getPaymentIntentId(), item.getMessage(), resumed);
+    }
+}
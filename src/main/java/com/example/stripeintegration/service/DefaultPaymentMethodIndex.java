@@ -0,0 +1,168 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.SharedStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+/**
+ * Local index of customerId to the payment method charged when a charge names none.
+ *
+ * The entry is the customer's invoice default when Stripe has told us about one, otherwise the first
+ * card we saw attached. It is kept current from webhooks (setup_intent.succeeded, customer.updated,
+ * payment_method.*) and persisted on the {@code User} with the matching Stripe customer ID, so it
+ * survives restarts. The in-memory layer is bounded; a miss falls back to the user table, and a customer
+ * found in neither is resolved against Stripe by {@link StripeService} and recorded here.
+ *
+ * In cluster mode the webhooks of a customer are handled on the node that owns it, but charges can land
+ * on any node. After persisting a change the owner broadcasts the customer ID on a {@link SharedStore}
+ * channel, and every other node drops its entry and reads the user table on the next charge. Entries also
+ * expire after {@code stripe.default-payment-method-index.ttl} in case a broadcast is lost.
+ */
+@Service
+public class DefaultPaymentMethodIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultPaymentMethodIndex.class);
+    private static final String INVALIDATION_CHANNEL = "default-payment-method-changes";
+
+    private final UserRepository userRepository;
+    private final UserCacheInvalidator userCacheInvalidator;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache<String, String> entries;
+    private final SharedStore sharedStore;
+    private final String nodeId;
+
+    public DefaultPaymentMethodIndex(UserRepository userRepository,
+                                     UserCacheInvalidator userCacheInvalidator,
+                                     TransactionTemplate transactionTemplate,
+                                     Optional<SharedStore> sharedStore,
+                                     ClusterProperties cluster,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${stripe.default-payment-method-index.max-size:100000}") long maxSize,
+                                     @Value("${stripe.default-payment-method-index.ttl:PT10M}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.userCacheInvalidator = userCacheInvalidator;
+        this.transactionTemplate = transactionTemplate;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "stripe.default-payment-methods");
+        this.sharedStore = sharedStore.orElse(null);
+        this.nodeId = cluster.getNodeId();
+        if (this.sharedStore != null) {
+            this.sharedStore.subscribe(INVALIDATION_CHANNEL, this::applyRemoteInvalidation);
+        }
+    }
+
+    /**
+     * @param customerId The Stripe Customer ID.
+     * @return The payment method to charge, or null if the customer is not indexed.
+     */
+    public String find(String customerId) {
+        String paymentMethodId = entries.getIfPresent(customerId);
+        if (paymentMethodId != null) {
+            return paymentMethodId;
+        }
+        List<String> stored = userRepository.findDefaultPaymentMethodIds(customerId);
+        if (stored.isEmpty()) {
+            return null;
+        }
+        entries.put(customerId, stored.get(0));
+        return stored.get(0);
+    }
+
+    /**
+     * Records the customer's invoice default, replacing whatever was indexed.
+     */
+    public void recordDefault(String customerId, String paymentMethodId) {
+        if (customerId == null || paymentMethodId == null) {
+            return;
+        }
+        entries.put(customerId, paymentMethodId);
+        persist(customerId, current -> paymentMethodId);
+    }
+
+    /**
+     * Records a card the customer can be charged with, unless one is indexed already.
+     */
+    public void recordIfAbsent(String customerId, String paymentMethodId) {
+        if (customerId == null || paymentMethodId == null || find(customerId) != null) {
+            return;
+        }
+        entries.asMap().putIfAbsent(customerId, paymentMethodId);
+        persist(customerId, current -> current == null ? paymentMethodId : current);
+    }
+
+    /**
+     * Drops the entry if it still points at the given payment method, e.g. after it was detached.
+     */
+    public void removeIfMatches(String customerId, String paymentMethodId) {
+        if (customerId == null || paymentMethodId == null) {
+            return;
+        }
+        entries.asMap().remove(customerId, paymentMethodId);
+        persist(customerId, current -> paymentMethodId.equals(current) ? null : current);
+    }
+
+    // Updates the loaded users rather than running a bulk update, which would evict every cached user.
+    private void persist(String customerId, UnaryOperator<String> update) {
+        try {
+            List<Long> changed = transactionTemplate.execute(status -> {
+                List<Long> ids = new ArrayList<>();
+                for (User user : userRepository.findLockedByStripeCustomerIdOrderById(customerId)) {
+                    String updated = update.apply(user.getDefaultPaymentMethodId());
+                    if (!Objects.equals(updated, user.getDefaultPaymentMethodId())) {
+                        user.setDefaultPaymentMethodId(updated);
+                        ids.add(user.getId());
+                    }
+                }
+                return ids;
+            });
+            userCacheInvalidator.usersChanged(changed, false);
+            if (!changed.isEmpty()) {
+                broadcast(customerId);
+            }
+        } catch (RuntimeException e) {
+            // The in-memory entry is still right; the next webhook or charge for this customer rewrites it.
+            logger.error("Failed to persist default payment method of customer {}", customerId, e);
+        }
+    }
+
+    // "<origin node> <customer ID>", sent after the change is committed so other nodes reload the new value.
+    private void broadcast(String customerId) {
+        if (sharedStore == null) {
+            return;
+        }
+        try {
+            sharedStore.publish(INVALIDATION_CHANNEL, nodeId + ' ' + customerId);
+        } catch (RuntimeException e) {
+            // Other nodes fall back on the TTL for this entry.
+            logger.warn("Could not broadcast default payment method change of {}: {}", customerId, e.getMessage());
+        }
+    }
+
+    private void applyRemoteInvalidation(String message) {
+        String[] parts = message.split(" ", 2);
+        if (parts.length == 2 && !parts[0].equals(nodeId)) {
+            entries.invalidate(parts[1]);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.entity.IdempotencyRecord;
+import com.example.stripeintegration.repository.IdempotencyRecordRepository;
+import com.example.stripeintegration.support.SharedStore;
+import com.example.stripeintegration.support.SingleFlight;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.StripeObject;
+import com.stripe.net.ApiResource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local record of the responses to idempotent Stripe calls.
+ *
+ * A request whose idempotency key has already completed is answered from memory or from the
+ * {@code idempotency_record} table without calling Stripe. Concurrent requests with the same key
+ * coalesce: the first one makes the upstream call (with the key in its RequestOptions) and the others
+ * wait for its result. Reusing a key with different parameters fails the same way Stripe would.
+ * Records are kept for Stripe's own 24 hour key lifetime. Their age is checked on every read, so a
+ * record that has expired but not been purged yet is never replayed. Its key runs the call again,
+ * as Stripe would.
+ *
+ * In cluster mode completed records are also written to the {@link SharedStore}, which is checked before
+ * the table, so a retry that lands on another node is answered without a database read. Coalescing of
+ * concurrent requests stays per node; Stripe's own key handling covers two nodes racing on one key.
+ */
+@Service
+public class IdempotencyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private final IdempotencyRecordRepository repository;
+    private final SharedStore sharedStore;
+    private final Duration retention;
+    private final Cache<String, IdempotencyRecord> completed;
+    private final SingleFlight<String, IdempotencyRecord> inFlight = new SingleFlight<>();
+    private final ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "idempotency-purge"));
+
+    private final Counter replayed;
+    private final Counter executed;
+
+    public IdempotencyStore(IdempotencyRecordRepository repository,
+                            Optional<SharedStore> sharedStore,
+                            MeterRegistry meterRegistry,
+                            @Value("${stripe.idempotency.max-size:100000}") long maxSize,
+                            @Value("${stripe.idempotency.retention:PT24H}") Duration retention) {
+        this.repository = repository;
+        this.sharedStore = sharedStore.orElse(null);
+        this.retention = retention;
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(retention)
+                .build();
+        this.replayed = Counter.builder("stripe.idempotency.requests").tag("result", "replayed").register(meterRegistry);
+        FunctionCounter.builder("stripe.idempotency.requests", inFlight, SingleFlight::getFollowerCount)
+                .tag("result", "coalesced")
+                .register(meterRegistry);
+        this.executed = Counter.builder("stripe.idempotency.requests").tag("result", "executed").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        purger.scheduleWithFixedDelay(this::purgeExpired, 1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        purger.shutdownNow();
+    }
+
+    /**
+     * Runs an idempotent Stripe call at most once per key.
+     * @param key The idempotency key, also sent to Stripe.
+     * @param fingerprint Identifies the operation and its parameters; must match for a reused key.
+     * @param type The response type, used to rebuild stored responses.
+     * @param call The Stripe call to make if the key has not been seen.
+     * @return The response of the first call made with this key.
+     * @throws IdempotencyException if the key was used before with a different fingerprint.
+     * @throws StripeException if the Stripe call fails; failures are not stored, so the key can be retried.
+     */
+    public <T extends StripeObject> T execute(String key, String fingerprint, Class<T> type, StripeCall<T> call) throws StripeException {
+        IdempotencyRecord record = completed.getIfPresent(key);
+        if (record != null && isExpired(record)) {
+            // Loaded from storage late in its life; the cache's own expiry counts from the load.
+            completed.invalidate(key);
+            record = null;
+        }
+        if (record != null) {
+            replayed.increment();
+            return replay(record, key, fingerprint, type);
+        }
+
+        try {
+            record = inFlight.execute(key, () -> {
+                IdempotencyRecord loaded = findShared(key);
+                if (loaded == null || isExpired(loaded)) {
+                    loaded = repository.findById(key).orElse(null);
+                }
+                boolean expiredRow = loaded != null && isExpired(loaded);
+                if (loaded != null && !expiredRow) {
+                    replayed.increment();
+                } else {
+                    T response = call.call();
+                    executed.increment();
+                    loaded = new IdempotencyRecord(key, fingerprint, response.toJson(), Instant.now());
+                    // An expired row the purge has not reached yet is overwritten rather than inserted again.
+                    loaded.setNewEntity(!expiredRow);
+                    saveQuietly(loaded);
+                    putShared(loaded);
+                }
+                completed.put(key, loaded);
+                return loaded;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for a concurrent request with the same idempotency key", e);
+        }
+        return replay(record, key, fingerprint, type);
+    }
+
+    private boolean isExpired(IdempotencyRecord record) {
+        return record.getCreatedAt().isBefore(Instant.now().minus(retention));
+    }
+
+    private <T extends StripeObject> T replay(IdempotencyRecord record, String key, String fingerprint, Class<T> type)
+            throws IdempotencyException {
+        if (!record.getFingerprint().equals(fingerprint)) {
+            throw new IdempotencyException("Keys for idempotent requests can only be used with the same parameters they were first used with. Key: " + key,
+                    null, "idempotency_key_in_use", 400);
+        }
+        // Every caller gets its own copy, so no two requests share a mutable Stripe object.
+        return ApiResource.GSON.fromJson(record.getResponseJson(), type);
+    }
+
+    private void saveQuietly(IdempotencyRecord record) {
+        try {
+            repository.save(record);
+        } catch (RuntimeException e) {
+            // The in-memory copy and Stripe's own key replay still protect retries.
+            logger.error("Failed to persist idempotency record {}", record.getKey(), e);
+        }
+    }
+
+    private IdempotencyRecord findShared(String key) {
+        if (sharedStore == null) {
+            return null;
+        }
+        try {
+            String json = sharedStore.get(sharedKey(key));
+            if (json == null) {
+                return null;
+            }
+            SharedRecord shared = ApiResource.GSON.fromJson(json, SharedRecord.class);
+            IdempotencyRecord record = new IdempotencyRecord(key, shared.fingerprint, shared.responseJson,
+                    Instant.ofEpochMilli(shared.createdAt));
+            record.setNewEntity(false);
+            return record;
+        } catch (RuntimeException e) {
+            logger.warn("Could not read idempotency record {} from the shared store: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void putShared(IdempotencyRecord record) {
+        if (sharedStore == null) {
+            return;
+        }
+        try {
+            SharedRecord shared = new SharedRecord();
+            shared.fingerprint = record.getFingerprint();
+            shared.responseJson = record.getResponseJson();
+            shared.createdAt = record.getCreatedAt().toEpochMilli();
+            sharedStore.put(sharedKey(record.getKey()), ApiResource.GSON.toJson(shared), retention);
+        } catch (RuntimeException e) {
+            // The table still has it.
+            logger.warn("Could not write idempotency record {} to the shared store: {}", record.getKey(), e.getMessage());
+        }
+    }
+
+    private static String sharedKey(String key) {
+        return "idempotency:" + key;
+    }
+
+    private void purgeExpired() {
+        try {
+            repository.deleteCreatedBefore(Instant.now().minus(retention));
+        } catch (RuntimeException e) {
+            logger.error("Failed to purge expired idempotency records", e);
+        }
+    }
+
+    // The shared store's copy of a record.
+    private static final class SharedRecord {
+        private String fingerprint;
+        private String responseJson;
+        private long createdAt;
+    }
+
+    /**
+     * The upstream call made on behalf of the first request with a given key.
+     */
+    @FunctionalInterface
+    public interface StripeCall<T> {
+        T call() throws StripeException;
+    }
+}
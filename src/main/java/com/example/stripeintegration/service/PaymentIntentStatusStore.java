@@ -0,0 +1,156 @@
+package com.example.stripeintegration.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.stripe.model.PaymentIntent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Last known status of recent PaymentIntents, so confirm-payment can answer without asking Stripe.
+ *
+ * Entries are written when we create, charge or retrieve a PaymentIntent and advanced by the
+ * payment_intent.* webhooks. Each entry is one small immutable object: the account that created the
+ * PaymentIntent, a shared {@link Status} constant and the epoch second the status was observed at. Updates
+ * are atomic per PaymentIntent; an older observation never replaces a newer one, and a final status
+ * (succeeded, canceled) is never replaced at all, so webhooks may arrive in any order.
+ *
+ * Only final statuses are answered from here. Anything else can change on Stripe's side at any moment
+ * (the browser confirms directly with Stripe), so for those, and for PaymentIntents we never saw, callers
+ * go to Stripe and record what they get. The store is size-bounded with W-TinyLFU eviction and entries
+ * expire a fixed time after their last update; hits and misses are published as {@code cache.gets}
+ * tagged with cache=stripe.payment-intent-status.
+ */
+@Component
+public class PaymentIntentStatusStore {
+
+    /**
+     * PaymentIntent statuses, one shared constant each instead of a string per entry.
+     */
+    public enum Status {
+        REQUIRES_PAYMENT_METHOD("requires_payment_method", false),
+        REQUIRES_CONFIRMATION("requires_confirmation", false),
+        REQUIRES_ACTION("requires_action", false),
+        PROCESSING("processing", false),
+        REQUIRES_CAPTURE("requires_capture", false),
+        CANCELED("canceled", true),
+        SUCCEEDED("succeeded", true);
+
+        private static final Map<String, Status> BY_API_VALUE = new HashMap<>();
+
+        static {
+            for (Status status : values()) {
+                BY_API_VALUE.put(status.apiValue, status);
+            }
+        }
+
+        private final String apiValue;
+        private final boolean isFinal;
+
+        Status(String apiValue, boolean isFinal) {
+            this.apiValue = apiValue;
+            this.isFinal = isFinal;
+        }
+
+        /**
+         * @return The status as Stripe spells it, e.g. "succeeded".
+         */
+        public String apiValue() {
+            return apiValue;
+        }
+
+        /**
+         * @return true if Stripe never moves a PaymentIntent out of this status.
+         */
+        public boolean isFinal() {
+            return isFinal;
+        }
+
+        /**
+         * @return The status, or null for a value this enum does not know.
+         */
+        public static Status fromApiValue(String apiValue) {
+            return apiValue == null ? null : BY_API_VALUE.get(apiValue);
+        }
+    }
+
+    private final Cache<String, State> states;
+
+    public PaymentIntentStatusStore(MeterRegistry meterRegistry,
+                                    @Value("${stripe.payment-intent-status.max-size:200000}") long maxSize,
+                                    @Value("${stripe.payment-intent-status.ttl:PT1H}") Duration ttl) {
+        this.states = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, states, "stripe.payment-intent-status");
+    }
+
+    /**
+     * @param account The account asking; a PaymentIntent recorded for another account is never answered.
+     * @param paymentIntentId The PaymentIntent ID.
+     * @return The status if it is known and final, otherwise null.
+     */
+    public Status findFinal(String account, String paymentIntentId) {
+        State state = states.getIfPresent(paymentIntentId);
+        if (state == null || !state.status.isFinal() || state.account == null || !state.account.equals(account)) {
+            return null;
+        }
+        return state.status;
+    }
+
+    /**
+     * Records a PaymentIntent as returned by one of our own API calls, observed now.
+     * @param account The account the call was made for.
+     */
+    public void recordResponse(String account, PaymentIntent paymentIntent) {
+        record(account, paymentIntent.getId(), paymentIntent.getStatus(), Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Records a PaymentIntent as reported by a webhook. The event does not say which of our accounts it
+     * belongs to, so it only advances PaymentIntents we already know the account of, or is kept without
+     * one until an API call for it fills it in.
+     * @param eventCreated Epoch seconds of the event.
+     */
+    public void recordEvent(PaymentIntent paymentIntent, long eventCreated) {
+        record(null, paymentIntent.getId(), paymentIntent.getStatus(), eventCreated);
+    }
+
+    private void record(String account, String paymentIntentId, String apiStatus, long observedAt) {
+        Status status = Status.fromApiValue(apiStatus);
+        if (paymentIntentId == null || status == null) {
+            return;
+        }
+        states.asMap().compute(paymentIntentId, (id, current) -> {
+            if (current == null) {
+                return new State(account, status, observedAt);
+            }
+            String owner = current.account != null ? current.account : account;
+            if (current.status.isFinal() || observedAt < current.observedAt) {
+                return owner == current.account ? current : new State(owner, current.status, current.observedAt);
+            }
+            return new State(owner, status, observedAt);
+        });
+    }
+
+    private static final class State {
+        private final String account;
+        private final Status status;
+        private final long observedAt;
+
+        private State(String account, Status status, long observedAt) {
+            this.account = account;
+            this.status = status;
+            this.observedAt = observedAt;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.entity.PaymentStatusChange;
+import com.example.stripeintegration.entity.StripeCustomer;
+import com.example.stripeintegration.entity.StripePaymentIntent;
+import com.example.stripeintegration.repository.PaymentStatusChangeRepository;
+import com.example.stripeintegration.repository.StripeCustomerRepository;
+import com.example.stripeintegration.repository.StripePaymentIntentRepository;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentIntent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Write-behind store for the local copies of Stripe customers and PaymentIntents.
+ *
+ * Webhook handlers only queue changes. A flush takes everything queued, loads the affected rows with one
+ * IN query per table, applies the changes in memory and writes them back in a single transaction, so
+ * Hibernate sends them as JDBC batches (see {@code hibernate.jdbc.batch_size}). Several events for the
+ * same object within one flush collapse into one row write; an event older than the one already applied
+ * is kept in the status history but does not overwrite the current status. An event that is already in
+ * the history, redelivered by Stripe or replayed from the webhook log, is skipped.
+ *
+ * The webhook dispatcher flushes before each offset checkpoint, so a change is never lost to a crash
+ * once the log has been truncated past the event that produced it. A batch that fails because the
+ * database is unavailable stays queued and holds the checkpoint back. A batch that the database refuses
+ * because of its content is retried one update at a time instead. The updates that are refused on
+ * their own are dead-lettered: they are logged in full and counted in
+ * {@code payment.records.dead-lettered}, so they cannot hold the checkpoint back forever. The nightly
+ * reconciliation report lists the rows they leave out of date.
+ */
+@Service
+public class PaymentRecordWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentRecordWriter.class);
+    private static final int WRITE_BATCH_SIZE = 500;
+
+    private final StripeCustomerRepository customerRepository;
+    private final StripePaymentIntentRepository paymentIntentRepository;
+    private final PaymentStatusChangeRepository statusChangeRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ConcurrentLinkedQueue<CustomerUpdate> pendingCustomers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<PaymentIntentUpdate> pendingPaymentIntents = new ConcurrentLinkedQueue<>();
+    // Batches whose transaction failed; retried before anything newer so updates are applied in order.
+    private final List<CustomerUpdate> failedCustomers = new ArrayList<>();
+    private final List<PaymentIntentUpdate> failedPaymentIntents = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "payment-record-writer"));
+
+    private final Counter rowsWritten;
+    private final Counter flushFailures;
+    private final Counter deadLettered;
+
+    public PaymentRecordWriter(StripeCustomerRepository customerRepository,
+                               StripePaymentIntentRepository paymentIntentRepository,
+                               PaymentStatusChangeRepository statusChangeRepository,
+                               TransactionTemplate transactionTemplate,
+                               MeterRegistry meterRegistry) {
+        this.customerRepository = customerRepository;
+        this.paymentIntentRepository = paymentIntentRepository;
+        this.statusChangeRepository = statusChangeRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.rowsWritten = Counter.builder("payment.records.written").register(meterRegistry);
+        this.flushFailures = Counter.builder("payment.records.flush.failures").register(meterRegistry);
+        this.deadLettered = Counter.builder("payment.records.dead-lettered").register(meterRegistry);
+        Gauge.builder("payment.records.pending", this, PaymentRecordWriter::pendingCount).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, 200, 200, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    /**
+     * Queues the current state of a customer.
+     * @param customer The Stripe customer.
+     * @param eventCreated Epoch seconds of the event (or API response) the state comes from.
+     */
+    public void recordCustomer(Customer customer, long eventCreated) {
+        pendingCustomers.add(new CustomerUpdate(customer.getId(), customer.getEmail(), customer.getName(), eventCreated));
+    }
+
+    /**
+     * Queues the current state of a PaymentIntent together with a status history entry.
+     * @param paymentIntent The Stripe PaymentIntent.
+     * @param eventId The webhook event that reported the state.
+     * @param eventCreated Epoch seconds of that event.
+     */
+    public void recordPaymentIntent(PaymentIntent paymentIntent, String eventId, long eventCreated) {
+        String lastError = paymentIntent.getLastPaymentError() != null ? paymentIntent.getLastPaymentError().getMessage() : null;
+        pendingPaymentIntents.add(new PaymentIntentUpdate(paymentIntent.getId(), paymentIntent.getCustomer(),
+                paymentIntent.getAmount(), paymentIntent.getCurrency(), paymentIntent.getStatus(), lastError,
+                eventId, eventCreated));
+    }
+
+    /**
+     * Writes everything queued so far.
+     * @return false if a batch could not be written because the database is unavailable; it stays queued
+     *         for the next flush.
+     */
+    public synchronized boolean flush() {
+        boolean customersWritten = drain(pendingCustomers, failedCustomers, this::writeCustomers);
+        boolean paymentIntentsWritten = drain(pendingPaymentIntents, failedPaymentIntents, this::writePaymentIntents);
+        return customersWritten && paymentIntentsWritten;
+    }
+
+    private <T> boolean drain(ConcurrentLinkedQueue<T> pending, List<T> failed, Function<List<T>, Integer> writer) {
+        List<T> batch = new ArrayList<>(failed);
+        failed.clear();
+        T next;
+        while (batch.size() < WRITE_BATCH_SIZE && (next = pending.poll()) != null) {
+            batch.add(next);
+        }
+        while (!batch.isEmpty()) {
+            try {
+                rowsWritten.increment(transactionTemplate.execute(status -> writer.apply(batch)));
+            } catch (RuntimeException e) {
+                flushFailures.increment();
+                if (!isRefused(e)) {
+                    logger.error("Failed to write {} payment records; will retry", batch.size(), e);
+                    failed.addAll(batch);
+                    return false;
+                }
+                logger.warn("Database refused a batch of {} payment records, writing them one by one: {}", batch.size(),
+                        e.getMessage());
+                if (!writeOneByOne(batch, failed, writer)) {
+                    return false;
+                }
+            }
+            batch.clear();
+            while (batch.size() < WRITE_BATCH_SIZE && (next = pending.poll()) != null) {
+                batch.add(next);
+            }
+        }
+        return true;
+    }
+
+    // In order, so later updates of an object still land after earlier ones.
+    private <T> boolean writeOneByOne(List<T> batch, List<T> failed, Function<List<T>, Integer> writer) {
+        for (int i = 0; i < batch.size(); i++) {
+            T update = batch.get(i);
+            try {
+                rowsWritten.increment(transactionTemplate.execute(status -> writer.apply(List.of(update))));
+            } catch (RuntimeException e) {
+                if (!isRefused(e)) {
+                    logger.error("Failed to write payment records; will retry {} of them", batch.size() - i, e);
+                    failed.addAll(batch.subList(i, batch.size()));
+                    return false;
+                }
+                deadLettered.increment();
+                logger.error("Dead-lettering payment record {}, which the database refuses", update, e);
+            }
+        }
+        return true;
+    }
+
+    // Errors about the data written; a lost connection, a timeout or a failed transaction start say nothing about it.
+    private static boolean isRefused(RuntimeException e) {
+        return e instanceof NonTransientDataAccessException && !(e instanceof DataAccessResourceFailureException);
+    }
+
+    private int writeCustomers(List<CustomerUpdate> updates) {
+        Map<String, CustomerUpdate> latest = new LinkedHashMap<>();
+        for (CustomerUpdate update : updates) {
+            latest.merge(update.getCustomerId(), update, (a, b) -> b.getEventCreated() >= a.getEventCreated() ? b : a);
+        }
+        Map<String, StripeCustomer> rows = new LinkedHashMap<>();
+        for (StripeCustomer row : customerRepository.findByStripeCustomerIdIn(latest.keySet())) {
+            rows.put(row.getStripeCustomerId(), row);
+        }
+        List<StripeCustomer> changed = new ArrayList<>(latest.size());
+        for (CustomerUpdate update : latest.values()) {
+            StripeCustomer row = rows.get(update.getCustomerId());
+            if (row == null) {
+                row = new StripeCustomer();
+                row.setStripeCustomerId(update.getCustomerId());
+            } else if (row.getLastEventCreated() != null && row.getLastEventCreated() > update.getEventCreated()) {
+                continue;
+            }
+            row.setEmail(update.getEmail());
+            row.setName(update.getName());
+            row.setLastEventCreated(update.getEventCreated());
+            row.setUpdatedAt(Instant.now());
+            changed.add(row);
+        }
+        customerRepository.saveAll(changed);
+        return changed.size();
+    }
+
+    private int writePaymentIntents(List<PaymentIntentUpdate> updates) {
+        // An event already in the history was applied in full by an earlier flush, e.g. before a crash
+        // that kept the checkpoint from moving past it; redelivered, it would break the unique eventId.
+        Map<String, PaymentIntentUpdate> byEvent = new LinkedHashMap<>();
+        for (PaymentIntentUpdate update : updates) {
+            byEvent.putIfAbsent(update.getEventId(), update);
+        }
+        statusChangeRepository.findExistingEventIds(byEvent.keySet()).forEach(byEvent::remove);
+        Map<String, PaymentIntentUpdate> latest = new LinkedHashMap<>();
+        List<PaymentStatusChange> history = new ArrayList<>(byEvent.size());
+        for (PaymentIntentUpdate update : byEvent.values()) {
+            latest.merge(update.getPaymentIntentId(), update, (a, b) -> b.getEventCreated() >= a.getEventCreated() ? b : a);
+            history.add(new PaymentStatusChange(update.getPaymentIntentId(), update.getStatus(), update.getEventId(),
+                    Instant.ofEpochSecond(update.getEventCreated())));
+        }
+        Map<String, StripePaymentIntent> rows = new LinkedHashMap<>();
+        for (StripePaymentIntent row : paymentIntentRepository.findByPaymentIntentIdIn(latest.keySet())) {
+            rows.put(row.getPaymentIntentId(), row);
+        }
+        List<StripePaymentIntent> changed = new ArrayList<>(latest.size());
+        for (PaymentIntentUpdate update : latest.values()) {
+            StripePaymentIntent row = rows.get(update.getPaymentIntentId());
+            if (row == null) {
+                row = new StripePaymentIntent();
+                row.setPaymentIntentId(update.getPaymentIntentId());
+            } else if (row.getLastEventCreated() != null && row.getLastEventCreated() > update.getEventCreated()) {
+                continue;
+            }
+            row.setCustomerId(update.getCustomerId());
+            row.setAmount(update.getAmount());
+            row.setCurrency(update.getCurrency());
+            row.setStatus(update.getStatus());
+            row.setLastError(update.getLastError());
+            row.setLastEventCreated(update.getEventCreated());
+            row.setUpdatedAt(Instant.now());
+            changed.add(row);
+        }
+        paymentIntentRepository.saveAll(changed);
+        statusChangeRepository.saveAll(history);
+        return changed.size() + history.size();
+    }
+
+    private int pendingCount() {
+        return pendingCustomers.size() + pendingPaymentIntents.size();
+    }
+
+    @Value
+    private static class CustomerUpdate {
+        String customerId;
+        String email;
+        String name;
+        long eventCreated;
+    }
+
+    @Value
+    private static class PaymentIntentUpdate {
+        String paymentIntentId;
+        String customerId;
+        Long amount;
+        String currency;
+        String status;
+        String lastError;
+        String eventId;
+        long eventCreated;
+    }
+}
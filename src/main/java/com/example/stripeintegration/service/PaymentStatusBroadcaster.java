@@ -0,0 +1,229 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.support.SharedStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes PaymentIntent and SetupIntent status changes from the webhook pipeline to the browser sessions
+ * waiting for them, so a client learns the outcome without asking Stripe again.
+ *
+ * Sessions subscribe with the intent's client secret, which only the browser that created the intent
+ * holds, and events are matched on the client secret they carry. Each status is serialized once and the
+ * same message goes to every subscriber. Sends run on a small fan-out pool rather than the webhook
+ * consumer threads, and every session is wrapped in a {@link ConcurrentWebSocketSessionDecorator}, so a
+ * slow client is cut off once its buffer or send time limit is exceeded instead of holding up the rest.
+ * The latest status per client secret is kept for a while and replayed on subscribe, which covers
+ * webhooks that arrive before the browser subscribed.
+ *
+ * Subscriptions are per node. In cluster mode statuses are published on a {@link SharedStore} channel and
+ * every node, including the one that handled the webhook, pushes them to its own sessions; without a
+ * shared store a status only reaches sessions on the node that handled the webhook.
+ */
+@Service
+public class PaymentStatusBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentStatusBroadcaster.class);
+    private static final String SUBSCRIPTIONS_ATTRIBUTE = PaymentStatusBroadcaster.class.getName() + ".subscriptions";
+    private static final String STATUS_CHANNEL = "payment-status";
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final int sendTimeLimitMillis;
+    private final int bufferSizeLimit;
+    private final int maxSubscriptionsPerSession;
+    private final Map<String, Set<WebSocketSession>> subscribers = new ConcurrentHashMap<>();
+    private final Cache<String, TextMessage> latest;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ExecutorService fanout;
+    private final SharedStore sharedStore;
+
+    public PaymentStatusBroadcaster(ObjectMapper objectMapper, MeterRegistry meterRegistry, Optional<SharedStore> sharedStore,
+                                    @Value("${payment-status.send-time-limit:PT5S}") Duration sendTimeLimit,
+                                    @Value("${payment-status.buffer-size-limit:65536}") int bufferSizeLimit,
+                                    @Value("${payment-status.max-subscriptions-per-session:16}") int maxSubscriptionsPerSession,
+                                    @Value("${payment-status.fanout-threads:2}") int fanoutThreads,
+                                    @Value("${payment-status.replay.max-size:100000}") long replayMaxSize,
+                                    @Value("${payment-status.replay.ttl:PT10M}") Duration replayTtl) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.sendTimeLimitMillis = (int) sendTimeLimit.toMillis();
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.maxSubscriptionsPerSession = maxSubscriptionsPerSession;
+        this.latest = Caffeine.newBuilder()
+                .maximumSize(replayMaxSize)
+                .expireAfterWrite(replayTtl)
+                .build();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.fanout = Executors.newFixedThreadPool(fanoutThreads,
+                runnable -> new Thread(runnable, "payment-status-" + threadCount.incrementAndGet()));
+        Gauge.builder("payment.status.sessions", sessions, AtomicInteger::get)
+                .description("Open payment status WebSocket sessions")
+                .register(meterRegistry);
+        Gauge.builder("payment.status.subscriptions", subscribers, Map::size)
+                .description("Client secrets with at least one subscribed session")
+                .register(meterRegistry);
+        this.sharedStore = sharedStore.orElse(null);
+        if (this.sharedStore != null) {
+            this.sharedStore.subscribe(STATUS_CHANNEL, this::deliverPublished);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        fanout.shutdown();
+        fanout.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a new connection.
+     * @return The session to use from now on, safe for concurrent sends.
+     */
+    public WebSocketSession open(WebSocketSession session) {
+        session.getAttributes().put(SUBSCRIPTIONS_ATTRIBUTE, ConcurrentHashMap.newKeySet());
+        sessions.incrementAndGet();
+        return new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMillis, bufferSizeLimit,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.TERMINATE);
+    }
+
+    /**
+     * Subscribes a session opened with {@link #open} to the intent with the given client secret, and sends
+     * it the intent's latest known status, if any.
+     * @return false if the session already has the maximum number of subscriptions.
+     */
+    public boolean subscribe(WebSocketSession session, String clientSecret) {
+        Set<String> subscriptions = subscriptions(session);
+        if (!subscriptions.contains(clientSecret) && subscriptions.size() >= maxSubscriptionsPerSession) {
+            return false;
+        }
+        subscriptions.add(clientSecret);
+        subscribers.computeIfAbsent(clientSecret, key -> ConcurrentHashMap.newKeySet()).add(session);
+        // publish() records the status before it looks for subscribers, so one of the two sides always delivers.
+        TextMessage known = latest.getIfPresent(clientSecret);
+        if (known != null) {
+            fanout.execute(() -> send(session, known));
+        }
+        return true;
+    }
+
+    /**
+     * Drops every subscription of a closed session.
+     */
+    public void close(WebSocketSession session) {
+        for (String clientSecret : subscriptions(session)) {
+            subscribers.computeIfPresent(clientSecret, (key, sessionsForKey) -> {
+                sessionsForKey.remove(session);
+                return sessionsForKey.isEmpty() ? null : sessionsForKey;
+            });
+        }
+        sessions.decrementAndGet();
+    }
+
+    /**
+     * Pushes a status change to every session subscribed to the intent.
+     * @param clientSecret The intent's client secret; events without one are ignored.
+     * @param eventType The webhook event type, e.g. "payment_intent.succeeded".
+     * @param intentId The PaymentIntent or SetupIntent ID.
+     * @param status The intent's status.
+     * @param message The last payment error, or null.
+     */
+    public void publish(String clientSecret, String eventType, String intentId, String status, String message) {
+        if (clientSecret == null) {
+            return;
+        }
+        Map<String, String> payload = new LinkedHashMap<>();
+        payload.put("event", eventType);
+        payload.put("id", intentId);
+        payload.put("status", status);
+        payload.put("message", message);
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            logger.error("Could not serialize status of {}", intentId, e);
+            return;
+        }
+        if (sharedStore == null) {
+            deliver(clientSecret, new TextMessage(json));
+            return;
+        }
+        try {
+            // Client secrets never contain a newline.
+            sharedStore.publish(STATUS_CHANNEL, clientSecret + '\n' + json);
+        } catch (RuntimeException e) {
+            logger.warn("Could not publish status of {} to other nodes: {}", intentId, e.getMessage());
+            deliver(clientSecret, new TextMessage(json));
+        }
+    }
+
+    private void deliverPublished(String published) {
+        int separator = published.indexOf('\n');
+        if (separator > 0) {
+            deliver(published.substring(0, separator), new TextMessage(published.substring(separator + 1)));
+        }
+    }
+
+    private void deliver(String clientSecret, TextMessage textMessage) {
+        latest.put(clientSecret, textMessage);
+        Set<WebSocketSession> targets = subscribers.get(clientSecret);
+        if (targets == null || targets.isEmpty()) {
+            return;
+        }
+        fanout.execute(() -> {
+            for (WebSocketSession session : targets) {
+                send(session, textMessage);
+            }
+        });
+    }
+
+    private void send(WebSocketSession session, TextMessage message) {
+        String outcome = "sent";
+        try {
+            if (session.isOpen()) {
+                session.sendMessage(message);
+            } else {
+                outcome = "closed";
+            }
+        } catch (IOException | RuntimeException e) {
+            // Includes SessionLimitExceededException; the decorator has closed the session already.
+            outcome = "failed";
+            logger.debug("Could not push payment status to session {}: {}", session.getId(), e.getMessage());
+        }
+        Counter.builder("payment.status.pushed")
+                .description("Payment status messages pushed to WebSocket sessions, by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> subscriptions(WebSocketSession session) {
+        Object subscriptions = session.getAttributes().get(SUBSCRIPTIONS_ATTRIBUTE);
+        return subscriptions != null ? (Set<String>) subscriptions : Set.of();
+    }
+}
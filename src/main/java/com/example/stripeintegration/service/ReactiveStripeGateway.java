@@ -0,0 +1,425 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.StripeHttpProperties;
+import com.example.stripeintegration.support.AdaptiveRateLimiter;
+import com.example.stripeintegration.support.CircuitBreaker;
+import com.example.stripeintegration.support.CircuitOpenException;
+import com.example.stripeintegration.support.ResilientStripeHttpClient;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.AuthenticationException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.PermissionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.StripeError;
+import com.stripe.model.StripeObject;
+import com.stripe.net.ApiRequestParams;
+import com.stripe.net.ApiResource;
+import com.stripe.net.FormEncoder;
+import com.stripe.net.KeyValuePair;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of the stripe-java client, used by {@link ReactiveStripeService}.
+ *
+ * Requests go out through a {@link WebClient} on Reactor Netty with one connection pool per account. A
+ * call waiting on Stripe holds a pooled connection (or an HTTP/2 stream) but no thread; everything runs
+ * on Reactor Netty's fixed set of event-loop threads. Parameters are form-encoded with the SDK's
+ * {@link FormEncoder} and responses decoded with {@link ApiResource#GSON}, so callers get the usual model
+ * classes and {@link StripeException} subtypes.
+ *
+ * Each attempt follows the rules of {@link ResilientStripeHttpClient}, against the same per-account
+ * {@link AdaptiveRateLimiter} and {@link CircuitBreaker}, so both paths share one budget: the token is
+ * waited for on a timer rather than a sleeping thread, and retries back off with jitter, honour
+ * Retry-After and Stripe-Should-Retry, and only repeat GETs and POSTs, which always carry an
+ * Idempotency-Key.
+ */
+@Component
+public class ReactiveStripeGateway {
+
+    private static final String SHOULD_RETRY_HEADER = "Stripe-Should-Retry";
+    // The SDK's own bounds for retry delays.
+    private static final Duration MIN_RETRY_DELAY = Duration.ofMillis(500);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(5);
+
+    private final StripeHttpProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, WebClient> clients = new LinkedHashMap<>();
+    private final List<ConnectionProvider> connectionProviders = new ArrayList<>();
+
+    public ReactiveStripeGateway(StripeAccountRegistry accountRegistry, WebClient.Builder webClientBuilder,
+                                 StripeHttpProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        for (StripeAccount account : accountRegistry.all()) {
+            clients.put(account.getName(), buildClient(account, webClientBuilder.clone()));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (ConnectionProvider provider : connectionProviders) {
+            provider.dispose();
+        }
+    }
+
+    /**
+     * Sends a GET.
+     * @param account The account the call is made for.
+     * @param operation Names the call in metrics, e.g. "payment_intents.retrieve"; the part before the dot is
+     *                  the resource whose rate limit applies.
+     * @param uriTemplate The path, e.g. "/v1/payment_intents/{id}".
+     * @param params Query parameters, or null.
+     * @param type The model class the response is decoded into.
+     * @param uriVariables Values for the template's variables.
+     * @return The decoded response, or a {@link StripeException} error.
+     */
+    public <T extends StripeObject> Mono<T> get(StripeAccount account, String operation, String uriTemplate,
+                                                ApiRequestParams params, Class<T> type, Object... uriVariables) {
+        return call(account, HttpMethod.GET, operation, uriTemplate, params, null, type, uriVariables);
+    }
+
+    /**
+     * Sends a form-encoded POST.
+     * @param idempotencyKey The client's idempotency key, or null to send a generated one, so that retries
+     *                       are always safe.
+     * @return The decoded response, or a {@link StripeException} error.
+     * @see #get(StripeAccount, String, String, ApiRequestParams, Class, Object...)
+     */
+    public <T extends StripeObject> Mono<T> post(StripeAccount account, String operation, String uriTemplate,
+                                                 ApiRequestParams params, String idempotencyKey, Class<T> type,
+                                                 Object... uriVariables) {
+        return call(account, HttpMethod.POST, operation, uriTemplate, params,
+                idempotencyKey != null ? idempotencyKey : UUID.randomUUID().toString(), type, uriVariables);
+    }
+
+    private <T extends StripeObject> Mono<T> call(StripeAccount account, HttpMethod method, String operation, String uriTemplate,
+                                                  ApiRequestParams params, String idempotencyKey, Class<T> type,
+                                                  Object[] uriVariables) {
+        Request request = new Request(method, operation, uriTemplate, uriVariables, idempotencyKey);
+        Map<String, Object> paramMap = params == null ? Collections.emptyMap() : params.toMap();
+        if (method == HttpMethod.GET) {
+            request.addQuery(paramMap);
+        } else {
+            request.body = FormEncoder.createQueryString(paramMap);
+        }
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return exchange(account, request, 0)
+                    .flatMap(response -> decode(response, type))
+                    .doOnSuccess(result -> timed(account, operation, "none", start))
+                    .doOnError(e -> timed(account, operation, e.getClass().getSimpleName(), start));
+        });
+    }
+
+    private Mono<Response> exchange(StripeAccount account, Request request, int retry) {
+        boolean mayRetry = retry < account.maxNetworkRetries();
+        return attempt(account, request)
+                .onErrorResume(e -> Mono.just(Response.failed(e)))
+                .flatMap(response -> {
+                    String reason = mayRetry ? retryReason(response) : null;
+                    if (reason == null) {
+                        return response.failure != null ? Mono.error(response.failure) : Mono.just(response);
+                    }
+                    Counter.builder("stripe.http.client.retries")
+                            .tag("account", account.getName())
+                            .tag("uri", request.uriTemplate)
+                            .tag("reason", reason)
+                            .register(meterRegistry)
+                            .increment();
+                    return Mono.delay(backoff(retry, response.headers)).then(exchange(account, request, retry + 1));
+                });
+    }
+
+    private Mono<Response> attempt(StripeAccount account, Request request) {
+        String resource = request.resource();
+        long deadline = System.nanoTime() + properties.getRateLimit().getMaxWait().toNanos();
+        return acquireToken(account, resource, deadline).then(Mono.defer(() -> {
+            CircuitBreaker circuitBreaker = account.circuitBreaker();
+            CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+            if (permit == null) {
+                rejected(account, resource, "circuit_open");
+                return Mono.error(new CircuitOpenException("Stripe calls for account " + account.getName()
+                        + " are suspended after repeated failures", circuitBreaker.remainingOpen()));
+            }
+            WebClient.RequestBodySpec spec = clients.get(account.getName())
+                    .method(request.method)
+                    .uri(request.uriTemplate, request.uriVariables)
+                    .headers(headers -> {
+                        headers.setBearerAuth(account.secretKey());
+                        headers.set("Stripe-Version", Stripe.API_VERSION);
+                        if (account.stripeAccountId() != null) {
+                            headers.set("Stripe-Account", account.stripeAccountId());
+                        }
+                        if (request.idempotencyKey != null) {
+                            headers.set("Idempotency-Key", request.idempotencyKey);
+                        }
+                    });
+            if (request.body != null) {
+                spec.contentType(MediaType.APPLICATION_FORM_URLENCODED).bodyValue(request.body);
+            }
+            return spec.exchangeToMono(response -> response.bodyToMono(String.class)
+                            .defaultIfEmpty("")
+                            .map(body -> new Response(response.statusCode().value(), response.headers().asHttpHeaders(), body)))
+                    .timeout(StripeAccountRegistry.readTimeout(properties, request.resource() + "." + request.method.name().toLowerCase()))
+                    .doOnNext(response -> {
+                        if (response.status == 429) {
+                            account.rateLimiter().onThrottled(resource);
+                            permit.onIgnored();
+                        } else if (response.status >= 500) {
+                            permit.onFailure();
+                        } else {
+                            account.rateLimiter().onSuccess(resource);
+                            permit.onSuccess();
+                        }
+                    })
+                    // Everything failing here is a connect, read or timeout failure: Stripe did not answer.
+                    .onErrorMap(e -> {
+                        permit.onFailure();
+                        return new ApiConnectionException("IOException during API request to Stripe ("
+                                + account.apiBase() + "): " + e.getMessage(), e);
+                    })
+                    .doOnCancel(permit::onIgnored);
+        }));
+    }
+
+    // Waits on a timer, not a thread, until the resource's limiter has a token or the deadline would pass.
+    private Mono<Void> acquireToken(StripeAccount account, String resource, long deadline) {
+        return Mono.defer(() -> {
+            AdaptiveRateLimiter rateLimiter = account.rateLimiter();
+            long waitNanos = rateLimiter.reserveOrWait(resource);
+            if (waitNanos == 0L) {
+                return Mono.empty();
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                rejected(account, resource, "rate_limit");
+                return Mono.error(new RateLimitException(String.format("Client-side rate limit for %s on account %s (%.1f/s) had no capacity within %s",
+                        resource, account.getName(), rateLimiter.getRate(resource), properties.getRateLimit().getMaxWait()),
+                        null, null, "client_rate_limited", 429, null));
+            }
+            return Mono.delay(Duration.ofNanos(waitNanos)).then(acquireToken(account, resource, deadline));
+        });
+    }
+
+    // Returns what to tag the retry with, or null if the outcome is final.
+    private static String retryReason(Response response) {
+        if (response.failure != null) {
+            // Only failures with a transport cause; local rejections are not helped by an immediate retry.
+            return response.failure instanceof ApiConnectionException && response.failure.getCause() != null ? "io_error" : null;
+        }
+        String shouldRetry = response.headers.getFirst(SHOULD_RETRY_HEADER);
+        if ("false".equals(shouldRetry)) {
+            return null;
+        }
+        int status = response.status;
+        if ("true".equals(shouldRetry) || status == 409 || status == 429 || status == 502 || status == 503 || status == 504) {
+            return Integer.toString(status);
+        }
+        return null;
+    }
+
+    // Exponential with equal jitter, at least Retry-After when Stripe sends one.
+    private static Duration backoff(int retry, HttpHeaders headers) {
+        long step = Math.min(MAX_RETRY_DELAY.toNanos(), MIN_RETRY_DELAY.toNanos() << Math.min(retry, 20));
+        long delay = step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+        String retryAfter = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null) {
+            try {
+                long requested = TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim()));
+                delay = Math.max(delay, Math.min(requested, MAX_RETRY_DELAY.toNanos()));
+            } catch (NumberFormatException e) {
+                // An HTTP date; the computed backoff is close enough.
+            }
+        }
+        return Duration.ofNanos(delay);
+    }
+
+    private static <T extends StripeObject> Mono<T> decode(Response response, Class<T> type) {
+        if (response.status < 200 || response.status >= 300) {
+            return Mono.error(error(response));
+        }
+        return Mono.fromCallable(() -> ApiResource.GSON.fromJson(response.body, type));
+    }
+
+    // The same mapping from status and error body to exception type as the SDK's response getter.
+    private static StripeException error(Response response) {
+        String requestId = response.headers.getFirst("Request-Id");
+        StripeError error = null;
+        try {
+            JsonElement json = JsonParser.parseString(response.body).getAsJsonObject().get("error");
+            error = json == null ? null : ApiResource.GSON.fromJson(json, StripeError.class);
+        } catch (RuntimeException e) {
+            // Not a Stripe error body; reported as such below.
+        }
+        if (error == null) {
+            return new ApiException(String.format("Invalid response object from API: %s. (HTTP response code was %d)",
+                    response.body, response.status), requestId, null, response.status, null);
+        }
+        StripeException exception;
+        switch (response.status) {
+            case 400:
+            case 404:
+                if ("idempotency_error".equals(error.getType())) {
+                    exception = new IdempotencyException(error.getMessage(), requestId, error.getCode(), response.status);
+                } else {
+                    exception = new InvalidRequestException(error.getMessage(), error.getParam(), requestId, error.getCode(),
+                            response.status, null);
+                }
+                break;
+            case 401:
+                exception = new AuthenticationException(error.getMessage(), requestId, error.getCode(), response.status);
+                break;
+            case 402:
+                exception = new CardException(error.getMessage(), requestId, error.getCode(), error.getParam(),
+                        error.getDeclineCode(), error.getCharge(), response.status, null);
+                break;
+            case 403:
+                exception = new PermissionException(error.getMessage(), requestId, error.getCode(), response.status);
+                break;
+            case 429:
+                exception = new RateLimitException(error.getMessage(), error.getParam(), requestId, error.getCode(),
+                        response.status, null);
+                break;
+            default:
+                exception = new ApiException(error.getMessage(), requestId, error.getCode(), response.status, null);
+                break;
+        }
+        exception.setStripeError(error);
+        return exception;
+    }
+
+    private WebClient buildClient(StripeAccount account, WebClient.Builder builder) {
+        StripeHttpProperties.Reactive pool = properties.getReactive();
+        ConnectionProvider provider = ConnectionProvider.builder("stripe-" + account.getName())
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getMaxPendingAcquires())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(properties.getKeepAlive())
+                .metrics(true)
+                .build();
+        connectionProviders.add(provider);
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis());
+        // HTTP/2 needs TLS (ALPN); plain-http bases such as stripe-mock stay on HTTP/1.1.
+        if (properties.isHttp2() && account.apiBase().startsWith("https:")) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+        }
+        return builder.baseUrl(account.apiBase())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    private void timed(StripeAccount account, String operation, String exception, long start) {
+        Timer.builder("stripe.calls")
+                .description("Stripe operations as seen by callers, including queueing and retries")
+                .tag("account", account.getName())
+                .tag("lane", "reactive")
+                .tag("operation", operation)
+                .tag("exception", exception)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void rejected(StripeAccount account, String resource, String reason) {
+        Counter.builder("stripe.http.client.rejected")
+                .description("Stripe requests refused locally before being sent")
+                .tag("account", account.getName())
+                .tag("resource", resource)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static final class Request {
+        private final HttpMethod method;
+        private final String operation;
+        private String uriTemplate;
+        private Object[] uriVariables;
+        private final String idempotencyKey;
+        private String body;
+
+        private Request(HttpMethod method, String operation, String uriTemplate, Object[] uriVariables, String idempotencyKey) {
+            this.method = method;
+            this.operation = operation;
+            this.uriTemplate = uriTemplate;
+            this.uriVariables = uriVariables;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        // Query values go in as template variables, so the uri tag of http.client.requests stays low-cardinality.
+        private void addQuery(Map<String, Object> params) {
+            List<KeyValuePair<String, Object>> flattened = FormEncoder.flattenParams(params);
+            if (flattened.isEmpty()) {
+                return;
+            }
+            StringBuilder template = new StringBuilder(uriTemplate);
+            Object[] variables = Arrays.copyOf(uriVariables, uriVariables.length + flattened.size());
+            for (int i = 0; i < flattened.size(); i++) {
+                KeyValuePair<String, Object> param = flattened.get(i);
+                template.append(i == 0 ? '?' : '&').append(param.getKey()).append("={q").append(i).append('}');
+                variables[uriVariables.length + i] = param.getValue();
+            }
+            this.uriTemplate = template.toString();
+            this.uriVariables = variables;
+        }
+
+        private String resource() {
+            int dot = operation.indexOf('.');
+            return dot < 0 ? operation : operation.substring(0, dot);
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        private final HttpHeaders headers;
+        private final String body;
+        private final Throwable failure;
+
+        private Response(int status, HttpHeaders headers, String body) {
+            this(status, headers, body, null);
+        }
+
+        private Response(int status, HttpHeaders headers, String body, Throwable failure) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.failure = failure;
+        }
+
+        private static Response failed(Throwable failure) {
+            return new Response(0, null, null, failure);
+        }
+    }
+}
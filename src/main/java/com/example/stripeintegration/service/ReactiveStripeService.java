@@ -0,0 +1,265 @@
+package com.example.stripeintegration.service;
+
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.PaymentMethodCollection;
+import com.stripe.model.SetupIntent;
+import com.stripe.param.CustomerCreateParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentMethodListParams;
+import com.stripe.param.SetupIntentCreateParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+/**
+ * The operations of {@link StripeService}, for the reactive endpoints. Stripe calls go through the
+ * non-blocking {@link ReactiveStripeGateway}, so nothing here holds a thread while Stripe answers.
+ *
+ * The parts that still have to block (the user table behind {@link DefaultPaymentMethodIndex}, linking
+ * new customers to users, and invalidating {@link StripeLookupCache}, which publishes to the cluster) run
+ * on Reactor's bounded elastic scheduler. Client idempotency keys
+ * are passed straight to Stripe, which replays its stored response for a repeated key, instead of going
+ * through the local {@link IdempotencyStore}; reads are not served from {@link StripeLookupCache}, but
+ * writes still invalidate it so the blocking endpoints never see a stale entry. PaymentIntents are recorded
+ * in the same {@link PaymentIntentStatusStore} as the blocking path.
+ */
+@Service
+public class ReactiveStripeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveStripeService.class);
+    private static final long LIST_PAGE_SIZE = 100L;
+
+    private final ReactiveStripeGateway gateway;
+    private final StripeLookupCache lookupCache;
+    private final DefaultPaymentMethodIndex defaultPaymentMethods;
+    private final PaymentRecordWriter recordWriter;
+    private final Userservice userService;
+    private final PaymentIntentStatusStore statusStore;
+
+    public ReactiveStripeService(ReactiveStripeGateway gateway, StripeLookupCache lookupCache,
+                                 DefaultPaymentMethodIndex defaultPaymentMethods, PaymentRecordWriter recordWriter,
+                                 Userservice userService, PaymentIntentStatusStore statusStore) {
+        this.gateway = gateway;
+        this.lookupCache = lookupCache;
+        this.defaultPaymentMethods = defaultPaymentMethods;
+        this.recordWriter = recordWriter;
+        this.userService = userService;
+        this.statusStore = statusStore;
+    }
+
+    /**
+     * Creates a new PaymentIntent for a one-time charge.
+     * @param account The Stripe account to create it in.
+     * @param amount The amount to charge (in the smallest currency unit).
+     * @param currency The three-letter ISO currency code.
+     * @param description An optional description for the payment.
+     * @param idempotencyKey The client's idempotency key, or null.
+     * @return The created PaymentIntent.
+     */
+    public Mono<PaymentIntent> createPaymentIntent(StripeAccount account, Long amount, String currency, String description,
+                                                   String idempotencyKey) {
+        PaymentIntentCreateParams.Builder params = PaymentIntentCreateParams.builder()
+                .setAmount(amount)
+                .setCurrency(currency)
+                .addPaymentMethodType("card");
+        if (description != null && !description.isEmpty()) {
+            params.setDescription(description);
+        }
+        return gateway.post(account, "payment_intents.create", "/v1/payment_intents", params.build(), idempotencyKey,
+                        PaymentIntent.class)
+                .doOnNext(paymentIntent -> statusStore.recordResponse(account.getName(), paymentIntent));
+    }
+
+    /**
+     * @param account The Stripe account that owns the PaymentIntent.
+     * @param paymentIntentId The ID of the PaymentIntent to retrieve.
+     * @return The PaymentIntent.
+     */
+    public Mono<PaymentIntent> retrievePaymentIntent(StripeAccount account, String paymentIntentId) {
+        return gateway.get(account, "payment_intents.retrieve", "/v1/payment_intents/{id}", null, PaymentIntent.class,
+                        paymentIntentId)
+                .doOnNext(paymentIntent -> statusStore.recordResponse(account.getName(), paymentIntent));
+    }
+
+    /**
+     * Returns the status of a PaymentIntent, from the {@link PaymentIntentStatusStore} when it holds a final
+     * status for it and retrieved from Stripe otherwise.
+     * @param account The Stripe account that owns the PaymentIntent.
+     * @param paymentIntentId The ID of the PaymentIntent.
+     * @return The PaymentIntent's status, e.g. "succeeded".
+     */
+    public Mono<String> retrievePaymentIntentStatus(StripeAccount account, String paymentIntentId) {
+        PaymentIntentStatusStore.Status known = statusStore.findFinal(account.getName(), paymentIntentId);
+        if (known != null) {
+            return Mono.just(known.apiValue());
+        }
+        return retrievePaymentIntent(account, paymentIntentId).map(PaymentIntent::getStatus);
+    }
+
+    /**
+     * Creates a new Customer in Stripe, records it locally and links it to the user with the same email if
+     * that user has no Stripe customer yet.
+     * @param account The Stripe account to create the customer in.
+     * @param email Customer's email.
+     * @param name Customer's name.
+     * @return The created Customer.
+     */
+    public Mono<Customer> createStripeCustomer(StripeAccount account, String email, String name) {
+        CustomerCreateParams params = CustomerCreateParams.builder()
+                .setEmail(email)
+                .setName(name)
+                .build();
+        return gateway.post(account, "customers.create", "/v1/customers", params, null, Customer.class)
+                .flatMap(customer -> blocking(() -> {
+                    recordWriter.recordCustomer(customer, customer.getCreated());
+                    if (email != null) {
+                        userService.linkStripeCustomer(email, customer.getId());
+                    }
+                }).thenReturn(customer));
+    }
+
+    /**
+     * Creates a SetupIntent to collect and save a new payment method for a customer.
+     * @param account The Stripe account that owns the customer.
+     * @param customerId The Stripe Customer ID.
+     * @return The created SetupIntent.
+     */
+    public Mono<SetupIntent> createSetupIntent(StripeAccount account, String customerId) {
+        SetupIntentCreateParams params = SetupIntentCreateParams.builder()
+                .setCustomer(customerId)
+                .addPaymentMethodType("card")
+                .build();
+        return gateway.post(account, "setup_intents.create", "/v1/setup_intents", params, null, SetupIntent.class)
+                .flatMap(setupIntent -> blocking(() -> lookupCache.invalidatePaymentMethods(customerId)).thenReturn(setupIntent));
+    }
+
+    /**
+     * Lists the payment methods attached to a customer.
+     * @param account The Stripe account that owns the customer.
+     * @param customerId Stripe Customer ID.
+     * @param type Type of payment method (e.g., "card"). Use null or empty string for all types.
+     * @return The payment methods.
+     */
+    public Mono<List<PaymentMethod>> listCustomerPaymentMethods(StripeAccount account, String customerId, String type) {
+        // Follows has_more page by page, each page requested once the previous one has arrived.
+        return listPaymentMethodsPage(account, customerId, type, null)
+                .expand(page -> Boolean.TRUE.equals(page.getHasMore()) && !page.getData().isEmpty()
+                        ? listPaymentMethodsPage(account, customerId, type, page.getData().get(page.getData().size() - 1).getId())
+                        : Mono.empty())
+                .concatMapIterable(PaymentMethodCollection::getData)
+                .collectList();
+    }
+
+    private Mono<PaymentMethodCollection> listPaymentMethodsPage(StripeAccount account, String customerId, String type,
+                                                                 String startingAfter) {
+        PaymentMethodListParams.Builder params = PaymentMethodListParams.builder()
+                .setCustomer(customerId)
+                .setLimit(LIST_PAGE_SIZE);
+        if (startingAfter != null) {
+            params.setStartingAfter(startingAfter);
+        }
+        if (type != null && !type.isEmpty()) {
+            params.putExtraParam("type", type);
+        }
+        return gateway.get(account, "payment_methods.list", "/v1/payment_methods", params.build(), PaymentMethodCollection.class);
+    }
+
+    /**
+     * Detaches a PaymentMethod from its Customer.
+     * @param account The Stripe account that owns the payment method.
+     * @param paymentMethodId ID of the PaymentMethod to detach.
+     * @return The detached PaymentMethod.
+     */
+    public Mono<PaymentMethod> detachPaymentMethod(StripeAccount account, String paymentMethodId) {
+        return gateway.get(account, "payment_methods.retrieve", "/v1/payment_methods/{id}", null, PaymentMethod.class,
+                        paymentMethodId)
+                .flatMap(paymentMethod -> gateway.post(account, "payment_methods.detach", "/v1/payment_methods/{id}/detach",
+                                null, null, PaymentMethod.class, paymentMethodId)
+                        .flatMap(detached -> blocking(() -> {
+                            lookupCache.invalidatePaymentMethods(paymentMethod.getCustomer());
+                            defaultPaymentMethods.removeIfMatches(paymentMethod.getCustomer(), paymentMethodId);
+                        }).thenReturn(detached)));
+    }
+
+    /**
+     * Charges a customer off-session with a saved payment method: the given one, else the indexed default,
+     * else the customer's invoice default, else their first card.
+     * @param account The Stripe account that owns the customer.
+     * @param customerId The Stripe Customer ID.
+     * @param paymentMethodId The saved PaymentMethod to use, or null to pick one as above.
+     * @param amount The amount to charge (in the smallest currency unit).
+     * @param currency The currency.
+     * @param description Optional description for the payment.
+     * @param idempotencyKey The client's idempotency key, or null.
+     * @return The created and confirmed PaymentIntent.
+     */
+    public Mono<PaymentIntent> chargeCustomerWithSavedCard(StripeAccount account, String customerId, String paymentMethodId,
+                                                           Long amount, String currency, String description,
+                                                           String idempotencyKey) {
+        if (paymentMethodId != null && !paymentMethodId.isEmpty()) {
+            return charge(account, customerId, paymentMethodId, false, amount, currency, description, idempotencyKey);
+        }
+        return Mono.fromCallable(() -> defaultPaymentMethods.find(customerId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(indexed -> charge(account, customerId, indexed, true, amount, currency, description, idempotencyKey))
+                .switchIfEmpty(Mono.defer(() -> resolvePaymentMethod(account, customerId)
+                        .flatMap(resolved -> charge(account, customerId, resolved, false, amount, currency, description, idempotencyKey))));
+    }
+
+    // The customer's invoice default, else their first card; recorded in the index either way.
+    private Mono<String> resolvePaymentMethod(StripeAccount account, String customerId) {
+        return gateway.get(account, "customers.retrieve", "/v1/customers/{id}", null, Customer.class, customerId)
+                .flatMap(customer -> {
+                    if (customer.getInvoiceSettings() != null && customer.getInvoiceSettings().getDefaultPaymentMethod() != null) {
+                        String defaultPaymentMethod = customer.getInvoiceSettings().getDefaultPaymentMethod();
+                        logger.debug("Using default payment method {} of customer {}", defaultPaymentMethod, customerId);
+                        return blocking(() -> defaultPaymentMethods.recordDefault(customerId, defaultPaymentMethod))
+                                .thenReturn(defaultPaymentMethod);
+                    }
+                    return listCustomerPaymentMethods(account, customerId, "card").flatMap(paymentMethods -> {
+                        if (paymentMethods.isEmpty()) {
+                            return Mono.error(new RuntimeException("No payment method found for customer " + customerId
+                                    + " to charge. Please save a card first."));
+                        }
+                        String firstCard = paymentMethods.get(0).getId();
+                        logger.debug("Customer {} has no default payment method, using first card {}", customerId, firstCard);
+                        return blocking(() -> defaultPaymentMethods.recordIfAbsent(customerId, firstCard)).thenReturn(firstCard);
+                    });
+                });
+    }
+
+    private Mono<PaymentIntent> charge(StripeAccount account, String customerId, String paymentMethodId, boolean fromIndex,
+                                       Long amount, String currency, String description, String idempotencyKey) {
+        PaymentIntentCreateParams.Builder params = PaymentIntentCreateParams.builder()
+                .setAmount(amount)
+                .setCurrency(currency)
+                .setCustomer(customerId)
+                .setPaymentMethod(paymentMethodId)
+                .setConfirm(true)
+                .setOffSession(true);
+        if (description != null && !description.isEmpty()) {
+            params.setDescription(description);
+        }
+        return gateway.post(account, "payment_intents.create", "/v1/payment_intents", params.build(), idempotencyKey,
+                        PaymentIntent.class)
+                .doOnNext(paymentIntent -> statusStore.recordResponse(account.getName(), paymentIntent))
+                .onErrorResume(InvalidRequestException.class, e -> {
+                    // A detach we never heard about; drop the entry so the next charge resolves it against Stripe.
+                    if (fromIndex && "payment_method".equals(e.getParam())) {
+                        return blocking(() -> defaultPaymentMethods.removeIfMatches(customerId, paymentMethodId)).then(Mono.error(e));
+                    }
+                    return Mono.error(e);
+                });
+    }
+
+    private static Mono<Void> blocking(Runnable work) {
+        return Mono.fromRunnable(work).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.StripeCustomer;
+import com.example.stripeintegration.entity.StripePaymentIntent;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.StripeCustomerRepository;
+import com.example.stripeintegration.repository.StripePaymentIntentRepository;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.SharedStore;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.StripeCollection;
+import com.stripe.net.ApiResource;
+import com.stripe.param.CustomerListParams;
+import com.stripe.param.PaymentIntentListParams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the local customer, PaymentIntent and default payment method records with Stripe and writes
+ * every difference to a report, nightly by default ({@code reconciliation.cron}).
+ *
+ * Stripe's lists are walked one page at a time with {@code starting_after}, each page fetched in the
+ * background scheduler lane and compared against the local rows with one IN query, so memory stays
+ * constant however many objects the account holds. The local tables do not record which account a row
+ * belongs to, so every configured account is walked in turn and the local rows are compared against all
+ * of them together. Rows seen in Stripe are stamped with the run's start time; afterwards, local rows
+ * older than the run that no account stamped are reported as missing in Stripe, again by keyset pages.
+ * Default payment methods cannot be listed across customers, so each one is retrieved on its own, from
+ * each account in turn until one has it.
+ *
+ * The report is one JSON object per line in {@code report-<runId>.ndjson} under
+ * {@code reconciliation.dir}. After every page the phase, account and cursor are written to a checkpoint file, and
+ * a run interrupted by a crash or redeploy resumes from there instead of starting over, repeating at most
+ * the lines of the page it was interrupted in. In cluster mode only the node holding the lock in the
+ * {@link SharedStore} runs.
+ */
+@Service
+public class ReconciliationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReconciliationService.class);
+    private static final long STRIPE_PAGE_SIZE = 100L;
+    private static final int LOCAL_PAGE_SIZE = 500;
+    private static final String CHECKPOINT_FILE = "checkpoint.properties";
+    private static final String LOCK_KEY = "reconciliation:lock";
+
+    enum Phase {
+        CUSTOMERS,
+        PAYMENT_INTENTS,
+        LOCAL_CUSTOMERS,
+        LOCAL_PAYMENT_INTENTS,
+        DEFAULT_PAYMENT_METHODS,
+        DONE
+    }
+
+    private final StripeAccountRegistry accounts;
+    private final StripeCallScheduler scheduler;
+    private final StripeCustomerRepository customerRepository;
+    private final StripePaymentIntentRepository paymentIntentRepository;
+    private final UserRepository userRepository;
+    private final SharedStore sharedStore;
+    private final String nodeId;
+    private final MeterRegistry meterRegistry;
+    private final Path dir;
+    private final Duration lockTtl;
+
+    public ReconciliationService(StripeAccountRegistry accounts,
+                                 StripeCallScheduler scheduler,
+                                 StripeCustomerRepository customerRepository,
+                                 StripePaymentIntentRepository paymentIntentRepository,
+                                 UserRepository userRepository,
+                                 Optional<SharedStore> sharedStore,
+                                 ClusterProperties cluster,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${reconciliation.dir:data/reconciliation}") String dir,
+                                 @Value("${reconciliation.lock-ttl:PT6H}") Duration lockTtl) {
+        this.accounts = accounts;
+        this.scheduler = scheduler;
+        this.customerRepository = customerRepository;
+        this.paymentIntentRepository = paymentIntentRepository;
+        this.userRepository = userRepository;
+        this.sharedStore = sharedStore.orElse(null);
+        this.nodeId = cluster.getNodeId();
+        this.meterRegistry = meterRegistry;
+        this.dir = Paths.get(dir);
+        this.lockTtl = lockTtl;
+    }
+
+    @Scheduled(cron = "${reconciliation.cron:0 30 3 * * *}")
+    public void scheduledRun() {
+        // Unique to this run, so a run that outlived the TTL cannot release the lock of the node that took it over.
+        String lockToken = nodeId + ":" + UUID.randomUUID();
+        if (sharedStore != null && !sharedStore.putIfAbsent(LOCK_KEY, lockToken, lockTtl)) {
+            logger.info("Reconciliation skipped: another node holds the lock");
+            return;
+        }
+        try {
+            run();
+        } catch (IOException | StripeException | RuntimeException e) {
+            logger.error("Reconciliation failed; the next run resumes from the last checkpoint", e);
+        } finally {
+            if (sharedStore != null && !sharedStore.deleteIfEquals(LOCK_KEY, lockToken)) {
+                logger.warn("Reconciliation outlasted its lock ({}); another node may have run at the same time", lockTtl);
+            }
+        }
+    }
+
+    /**
+     * Runs a reconciliation to the end, resuming an unfinished one if a checkpoint is left.
+     * @return The path of the report.
+     * @throws IOException if the report or checkpoint cannot be written.
+     * @throws StripeException if a Stripe call fails; the run can be resumed.
+     */
+    public synchronized Path run() throws IOException, StripeException {
+        Files.createDirectories(dir);
+        List<StripeAccount> all = new ArrayList<>(accounts.all());
+        Run run = Run.load(dir.resolve(CHECKPOINT_FILE));
+        if (run == null || run.phase == Phase.DONE) {
+            run = new Run(UUID.randomUUID().toString(), Instant.now());
+            run.account = all.get(0).getName();
+            logger.info("Reconciliation {} started", run.runId);
+        } else {
+            logger.info("Reconciliation {} resumed at {} on account {} after {}", run.runId, run.phase, run.account, run.cursor);
+        }
+        Path report = dir.resolve("report-" + run.runId + ".ndjson");
+        try (BufferedWriter out = Files.newBufferedWriter(report, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (run.phase != Phase.DONE) {
+                boolean more;
+                switch (run.phase) {
+                    case CUSTOMERS:
+                        more = reconcileCustomerPage(account(all, run), run, out);
+                        break;
+                    case PAYMENT_INTENTS:
+                        more = reconcilePaymentIntentPage(account(all, run), run, out);
+                        break;
+                    case LOCAL_CUSTOMERS:
+                        more = reportLocalCustomerPage(run, out);
+                        break;
+                    case LOCAL_PAYMENT_INTENTS:
+                        more = reportLocalPaymentIntentPage(run, out);
+                        break;
+                    case DEFAULT_PAYMENT_METHODS:
+                        more = reconcileDefaultPaymentMethodPage(all, run, out);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected phase " + run.phase);
+                }
+                if (!more) {
+                    next(all, run);
+                }
+                // The report must hold everything before the cursor the checkpoint names.
+                out.flush();
+                run.save(dir.resolve(CHECKPOINT_FILE));
+            }
+        }
+        logger.info("Reconciliation {} finished: {} objects compared, {} discrepancies, report {}",
+                run.runId, run.objects, run.discrepancies, report);
+        return report;
+    }
+
+    // The account the Stripe phase is walking; one dropped from the configuration since the checkpoint restarts the phase.
+    private static StripeAccount account(List<StripeAccount> all, Run run) {
+        for (StripeAccount account : all) {
+            if (account.getName().equals(run.account)) {
+                return account;
+            }
+        }
+        logger.warn("Reconciliation {}: account {} is no longer configured, restarting {}", run.runId, run.account, run.phase);
+        run.account = all.get(0).getName();
+        run.cursor = null;
+        return all.get(0);
+    }
+
+    // Moves a Stripe phase on to the next account, and past the last one to the next phase.
+    private static void next(List<StripeAccount> all, Run run) {
+        run.cursor = null;
+        if (run.phase == Phase.CUSTOMERS || run.phase == Phase.PAYMENT_INTENTS) {
+            for (int i = 0; i < all.size() - 1; i++) {
+                if (all.get(i).getName().equals(run.account)) {
+                    run.account = all.get(i + 1).getName();
+                    return;
+                }
+            }
+        }
+        run.phase = Phase.values()[run.phase.ordinal() + 1];
+        run.account = run.phase == Phase.PAYMENT_INTENTS ? all.get(0).getName() : null;
+    }
+
+    private boolean reconcileCustomerPage(StripeAccount account, Run run, BufferedWriter out) throws IOException, StripeException {
+        CustomerListParams params = CustomerListParams.builder()
+                .setLimit(STRIPE_PAGE_SIZE)
+                .setStartingAfter(run.cursor)
+                .build();
+        StripeCollection<Customer> page = scheduler.call(account, StripeLane.BACKGROUND, "customers.list",
+                () -> account.client().customers().list(params, account.options()));
+        List<Customer> customers = page.getData();
+        if (customers.isEmpty()) {
+            return false;
+        }
+        Map<String, StripeCustomer> local = byId(customerRepository.findByStripeCustomerIdIn(ids(customers, Customer::getId)),
+                StripeCustomer::getStripeCustomerId);
+        for (Customer customer : customers) {
+            StripeCustomer row = local.get(customer.getId());
+            if (row == null) {
+                discrepancy(run, out, account, "customer", customer.getId(), "missing_locally", null);
+                continue;
+            }
+            Map<String, Object> fields = new LinkedHashMap<>();
+            compare(fields, "email", row.getEmail(), customer.getEmail());
+            compare(fields, "name", row.getName(), customer.getName());
+            if (!fields.isEmpty()) {
+                discrepancy(run, out, account, "customer", customer.getId(), "mismatch", fields);
+            }
+        }
+        if (!local.isEmpty()) {
+            customerRepository.markReconciled(local.keySet(), run.startedAt);
+        }
+        compared(run, "customer", customers.size());
+        run.cursor = customers.get(customers.size() - 1).getId();
+        return page.getHasMore();
+    }
+
+    private boolean reconcilePaymentIntentPage(StripeAccount account, Run run, BufferedWriter out) throws IOException, StripeException {
+        PaymentIntentListParams params = PaymentIntentListParams.builder()
+                .setLimit(STRIPE_PAGE_SIZE)
+                .setStartingAfter(run.cursor)
+                .build();
+        StripeCollection<PaymentIntent> page = scheduler.call(account, StripeLane.BACKGROUND, "payment_intents.list",
+                () -> account.client().paymentIntents().list(params, account.options()));
+        List<PaymentIntent> paymentIntents = page.getData();
+        if (paymentIntents.isEmpty()) {
+            return false;
+        }
+        Map<String, StripePaymentIntent> local = byId(
+                paymentIntentRepository.findByPaymentIntentIdIn(ids(paymentIntents, PaymentIntent::getId)),
+                StripePaymentIntent::getPaymentIntentId);
+        for (PaymentIntent paymentIntent : paymentIntents) {
+            StripePaymentIntent row = local.get(paymentIntent.getId());
+            if (row == null) {
+                // Only succeeded and failed attempts are recorded locally (from their webhooks).
+                if ("succeeded".equals(paymentIntent.getStatus()) || paymentIntent.getLastPaymentError() != null) {
+                    discrepancy(run, out, account, "payment_intent", paymentIntent.getId(), "missing_locally", null);
+                }
+                continue;
+            }
+            Map<String, Object> fields = new LinkedHashMap<>();
+            compare(fields, "status", row.getStatus(), paymentIntent.getStatus());
+            compare(fields, "amount", row.getAmount(), paymentIntent.getAmount());
+            compare(fields, "currency", row.getCurrency(), paymentIntent.getCurrency());
+            compare(fields, "customer", row.getCustomerId(), paymentIntent.getCustomer());
+            if (!fields.isEmpty()) {
+                discrepancy(run, out, account, "payment_intent", paymentIntent.getId(), "mismatch", fields);
+            }
+        }
+        if (!local.isEmpty()) {
+            paymentIntentRepository.markReconciled(local.keySet(), run.startedAt);
+        }
+        compared(run, "payment_intent", paymentIntents.size());
+        run.cursor = paymentIntents.get(paymentIntents.size() - 1).getId();
+        return page.getHasMore();
+    }
+
+    private boolean reportLocalCustomerPage(Run run, BufferedWriter out) throws IOException {
+        List<StripeCustomer> rows = customerRepository.findNotReconciledSince(localCursor(run), run.startedAt,
+                PageRequest.of(0, LOCAL_PAGE_SIZE));
+        for (StripeCustomer row : rows) {
+            discrepancy(run, out, null, "customer", row.getStripeCustomerId(), "missing_in_stripe", null);
+        }
+        if (rows.isEmpty()) {
+            return false;
+        }
+        run.cursor = String.valueOf(rows.get(rows.size() - 1).getId());
+        return rows.size() == LOCAL_PAGE_SIZE;
+    }
+
+    private boolean reportLocalPaymentIntentPage(Run run, BufferedWriter out) throws IOException {
+        List<StripePaymentIntent> rows = paymentIntentRepository.findNotReconciledSince(localCursor(run), run.startedAt,
+                PageRequest.of(0, LOCAL_PAGE_SIZE));
+        for (StripePaymentIntent row : rows) {
+            discrepancy(run, out, null, "payment_intent", row.getPaymentIntentId(), "missing_in_stripe", null);
+        }
+        if (rows.isEmpty()) {
+            return false;
+        }
+        run.cursor = String.valueOf(rows.get(rows.size() - 1).getId());
+        return rows.size() == LOCAL_PAGE_SIZE;
+    }
+
+    private boolean reconcileDefaultPaymentMethodPage(List<StripeAccount> all, Run run, BufferedWriter out)
+            throws IOException, StripeException {
+        List<User> users = userRepository.findWithDefaultPaymentMethodAfter(localCursor(run), PageRequest.of(0, (int) STRIPE_PAGE_SIZE));
+        for (User user : users) {
+            String paymentMethodId = user.getDefaultPaymentMethodId();
+            StripeAccount owner = null;
+            PaymentMethod paymentMethod = null;
+            for (StripeAccount account : all) {
+                paymentMethod = retrievePaymentMethod(account, paymentMethodId);
+                if (paymentMethod != null) {
+                    owner = account;
+                    break;
+                }
+            }
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("user_id", user.getId());
+            if (paymentMethod == null) {
+                discrepancy(run, out, null, "payment_method", paymentMethodId, "missing_in_stripe", fields);
+            } else {
+                compare(fields, "customer", user.getStripeCustomerId(), paymentMethod.getCustomer());
+                if (fields.size() > 1) {
+                    discrepancy(run, out, owner, "payment_method", paymentMethodId, "mismatch", fields);
+                }
+            }
+        }
+        if (users.isEmpty()) {
+            return false;
+        }
+        compared(run, "payment_method", users.size());
+        run.cursor = String.valueOf(users.get(users.size() - 1).getId());
+        return users.size() == STRIPE_PAGE_SIZE;
+    }
+
+    // Null if the account has no such payment method.
+    private PaymentMethod retrievePaymentMethod(StripeAccount account, String paymentMethodId) throws StripeException {
+        try {
+            return scheduler.call(account, StripeLane.BACKGROUND, "payment_methods.retrieve",
+                    () -> account.client().paymentMethods().retrieve(paymentMethodId, account.options()));
+        } catch (InvalidRequestException e) {
+            if (!Integer.valueOf(404).equals(e.getStatusCode())) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    private void discrepancy(Run run, BufferedWriter out, StripeAccount account, String type, String id, String kind,
+                             Map<String, Object> fields) throws IOException {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("run_id", run.runId);
+        if (account != null) {
+            line.put("account", account.getName());
+        }
+        line.put("type", type);
+        line.put("id", id);
+        line.put("kind", kind);
+        if (fields != null) {
+            line.putAll(fields);
+        }
+        out.write(ApiResource.GSON.toJson(line));
+        out.newLine();
+        run.discrepancies++;
+        Counter.builder("reconciliation.discrepancies")
+                .description("Differences between local records and Stripe found by reconciliation")
+                .tag("type", type)
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void compared(Run run, String type, int count) {
+        run.objects += count;
+        Counter.builder("reconciliation.objects")
+                .description("Stripe objects compared by reconciliation")
+                .tag("type", type)
+                .register(meterRegistry)
+                .increment(count);
+    }
+
+    // Records a differing field as {"<field>": {"local": ..., "stripe": ...}}.
+    private static void compare(Map<String, Object> fields, String field, Object local, Object stripe) {
+        if (!Objects.equals(local, stripe)) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("local", local);
+            values.put("stripe", stripe);
+            fields.put(field, values);
+        }
+    }
+
+    private static long localCursor(Run run) {
+        return run.cursor == null ? 0L : Long.parseLong(run.cursor);
+    }
+
+    private static <T> List<String> ids(List<T> objects, Function<T, String> id) {
+        List<String> ids = new ArrayList<>(objects.size());
+        for (T object : objects) {
+            ids.add(id.apply(object));
+        }
+        return ids;
+    }
+
+    private static <T> Map<String, T> byId(List<T> rows, Function<T, String> id) {
+        return rows.stream().collect(Collectors.toMap(id, Function.identity(), (first, second) -> first));
+    }
+
+    /**
+     * Progress of one reconciliation, as saved in the checkpoint file.
+     */
+    private static final class Run {
+
+        final String runId;
+        final Instant startedAt;
+        Phase phase = Phase.CUSTOMERS;
+        // The account the Stripe phases are walking; null in the others.
+        String account;
+        // Last Stripe ID of the previous page in the Stripe phases, last local row ID in the others.
+        String cursor;
+        long objects;
+        long discrepancies;
+
+        Run(String runId, Instant startedAt) {
+            this.runId = runId;
+            this.startedAt = startedAt;
+        }
+
+        static Run load(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+            Run run = new Run(properties.getProperty("runId"), Instant.parse(properties.getProperty("startedAt")));
+            run.phase = Phase.valueOf(properties.getProperty("phase"));
+            run.account = properties.getProperty("account");
+            run.cursor = properties.getProperty("cursor");
+            run.objects = Long.parseLong(properties.getProperty("objects", "0"));
+            run.discrepancies = Long.parseLong(properties.getProperty("discrepancies", "0"));
+            return run;
+        }
+
+        // Written to a temporary file and moved over the old one, so a crash never leaves half a checkpoint.
+        void save(Path file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("runId", runId);
+            properties.setProperty("startedAt", startedAt.toString());
+            properties.setProperty("phase", phase.name());
+            if (account != null) {
+                properties.setProperty("account", account);
+            }
+            if (cursor != null) {
+                properties.setProperty("cursor", cursor);
+            }
+            properties.setProperty("objects", String.valueOf(objects));
+            properties.setProperty("discrepancies", String.valueOf(discrepancies));
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
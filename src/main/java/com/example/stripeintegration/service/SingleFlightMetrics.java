@@ -0,0 +1,30 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.support.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publishes {@link SingleFlight} counters. {@code stripe.singleflight.calls} with result=coalesced is
+ * the number of Stripe calls saved.
+ */
+final class SingleFlightMetrics {
+
+    private SingleFlightMetrics() {
+    }
+
+    static void monitor(MeterRegistry registry, SingleFlight<?, ?> flight, String operation) {
+        FunctionCounter.builder("stripe.singleflight.calls", flight, SingleFlight::getLeaderCount)
+                .tag("operation", operation)
+                .tag("result", "upstream")
+                .register(registry);
+        FunctionCounter.builder("stripe.singleflight.calls", flight, SingleFlight::getFollowerCount)
+                .tag("operation", operation)
+                .tag("result", "coalesced")
+                .register(registry);
+        Gauge.builder("stripe.singleflight.in-flight", flight, SingleFlight::getInFlightCount)
+                .tag("operation", operation)
+                .register(registry);
+    }
+}
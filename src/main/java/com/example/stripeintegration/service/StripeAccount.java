@@ -0,0 +1,98 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.support.AdaptiveRateLimiter;
+import com.example.stripeintegration.support.CircuitBreaker;
+import com.stripe.StripeClient;
+import com.stripe.net.RequestOptions;
+
+/**
+ * One configured Stripe account: its client (with its own connection pool, retry budget and rate
+ * limit) and the options every call made for it must carry. The key, API base and resilience state are
+ * also handed to {@link ReactiveStripeGateway}, so both paths share one rate limit and circuit breaker.
+ */
+public class StripeAccount {
+
+    private final String name;
+    private final StripeClient client;
+    private final RequestOptions requestOptions;
+    private final String publishableKey;
+    private final String secretKey;
+    private final String apiBase;
+    private final String stripeAccountId;
+    private final int maxNetworkRetries;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+
+    public StripeAccount(String name, StripeClient client, String stripeAccountId, String publishableKey, String secretKey,
+                         String apiBase, int maxNetworkRetries, AdaptiveRateLimiter rateLimiter, CircuitBreaker circuitBreaker) {
+        this.name = name;
+        this.client = client;
+        this.stripeAccountId = stripeAccountId == null || stripeAccountId.isEmpty() ? null : stripeAccountId;
+        this.requestOptions = this.stripeAccountId == null
+                ? RequestOptions.getDefault()
+                : RequestOptions.builder().setStripeAccount(this.stripeAccountId).build();
+        this.publishableKey = publishableKey;
+        this.secretKey = secretKey;
+        this.apiBase = apiBase;
+        this.maxNetworkRetries = maxNetworkRetries;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StripeClient client() {
+        return client;
+    }
+
+    public String getPublishableKey() {
+        return publishableKey;
+    }
+
+    /**
+     * @return Options for a call made for this account.
+     */
+    public RequestOptions options() {
+        return requestOptions;
+    }
+
+    /**
+     * @param idempotencyKey The Stripe idempotency key, or null to send none.
+     * @return Options for a call made for this account, carrying the idempotency key.
+     */
+    public RequestOptions options(String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return requestOptions;
+        }
+        return requestOptions.toBuilder().setIdempotencyKey(idempotencyKey).build();
+    }
+
+    String secretKey() {
+        return secretKey;
+    }
+
+    String apiBase() {
+        return apiBase;
+    }
+
+    /**
+     * @return The connected account calls are made on behalf of, or null.
+     */
+    String stripeAccountId() {
+        return stripeAccountId;
+    }
+
+    int maxNetworkRetries() {
+        return maxNetworkRetries;
+    }
+
+    AdaptiveRateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.StripeAccountProperties;
+import com.example.stripeintegration.config.StripeHttpProperties;
+import com.example.stripeintegration.support.AdaptiveRateLimiter;
+import com.example.stripeintegration.support.CircuitBreaker;
+import com.example.stripeintegration.support.JdkStripeHttpClient;
+import com.example.stripeintegration.support.ResilientStripeHttpClient;
+import com.example.stripeintegration.support.TokenBucket;
+import com.stripe.StripeClient;
+import com.stripe.net.LiveStripeResponseGetter;
+import com.stripe.net.StripeResponseGetterOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds one {@link StripeClient} per configured account and hands them out by name.
+ *
+ * Nothing here touches the static {@code Stripe.apiKey}/{@code Stripe.overrideApiBase} settings: each
+ * client carries its own key, API base, retry budget and {@link JdkStripeHttpClient} (so its own
+ * connection pool, concurrency cap and optional request-rate limit), wrapped in a
+ * {@link ResilientStripeHttpClient} with its own adaptive per-resource rate limits and circuit breaker.
+ * A hot or throttled account can exhaust its own budgets but never another account's.
+ */
+@Component
+public class StripeAccountRegistry {
+
+    public static final String DEFAULT_ACCOUNT = "default";
+
+    private static final String FILES_BASE = "https://files.stripe.com";
+    private static final String CONNECT_BASE = "https://connect.stripe.com";
+    private static final String API_BASE = "https://api.stripe.com";
+
+    private final Map<String, StripeAccount> accounts;
+
+    public StripeAccountRegistry(StripeAccountProperties accountProperties,
+                                 StripeHttpProperties httpProperties,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${stripe.secret-key}") String defaultSecretKey,
+                                 @Value("${stripe.api.publishableKey}") String defaultPublishableKey,
+                                 @Value("${stripe.api-base:}") String defaultApiBase) {
+        Map<String, StripeAccountProperties.Account> configured = new LinkedHashMap<>(accountProperties.getAccounts());
+        StripeAccountProperties.Account fallback = new StripeAccountProperties.Account();
+        fallback.setSecretKey(defaultSecretKey);
+        fallback.setPublishableKey(defaultPublishableKey);
+        fallback.setApiBase(defaultApiBase);
+        configured.putIfAbsent(DEFAULT_ACCOUNT, fallback);
+
+        JdkStripeHttpClient.configureConnectionPool(httpProperties.getMaxIdleConnections(), httpProperties.getKeepAlive());
+        Map<String, StripeAccount> built = new LinkedHashMap<>();
+        for (Map.Entry<String, StripeAccountProperties.Account> entry : configured.entrySet()) {
+            built.put(entry.getKey(), build(entry.getKey(), entry.getValue(), httpProperties, meterRegistry));
+        }
+        this.accounts = Collections.unmodifiableMap(built);
+    }
+
+    /**
+     * @param name A configured account name, or null for the default account.
+     * @return The account.
+     * @throws UnknownStripeAccountException if no account has that name.
+     */
+    public StripeAccount get(String name) {
+        StripeAccount account = accounts.get(name == null || name.isBlank() ? DEFAULT_ACCOUNT : name);
+        if (account == null) {
+            throw new UnknownStripeAccountException(name);
+        }
+        return account;
+    }
+
+    public StripeAccount getDefault() {
+        return accounts.get(DEFAULT_ACCOUNT);
+    }
+
+    public Collection<StripeAccount> all() {
+        return accounts.values();
+    }
+
+    private static StripeAccount build(String name, StripeAccountProperties.Account account, StripeHttpProperties http,
+                                       MeterRegistry meterRegistry) {
+        int maxConcurrentRequests = account.getMaxConcurrentRequests() != null
+                ? account.getMaxConcurrentRequests()
+                : http.getMaxConcurrentRequests();
+        TokenBucket rateLimit = account.getMaxRequestsPerSecond() > 0
+                ? new TokenBucket(account.getMaxRequestsPerSecond(), account.getMaxRequestsPerSecond())
+                : null;
+        JdkStripeHttpClient transport = new JdkStripeHttpClient(name, http.getConnectTimeout(),
+                operation -> readTimeout(http, operation), maxConcurrentRequests, rateLimit, http.isHttp2(), meterRegistry);
+        StripeHttpProperties.RateLimit limits = http.getRateLimit();
+        AdaptiveRateLimiter resourceLimits = new AdaptiveRateLimiter(limits.getInitialRate(), limits.getMinRate(),
+                limits.getMaxRate(), limits.getAdditiveIncrease(), limits.getDecreaseFactor(), limits.getBurst(),
+                limits.getBackgroundShare(), limits.getAdjustInterval());
+        StripeHttpProperties.Circuit circuit = http.getCircuitBreaker();
+        CircuitBreaker circuitBreaker = new CircuitBreaker(circuit.getWindowSize(), circuit.getFailureRateThreshold(),
+                circuit.getOpenDuration());
+        ResilientStripeHttpClient httpClient = new ResilientStripeHttpClient(name, transport, resourceLimits, limits.getMaxWait(),
+                limits.getBackgroundMaxWait(), circuitBreaker, meterRegistry);
+        String apiBase = account.getApiBase() == null || account.getApiBase().isEmpty() ? API_BASE : account.getApiBase();
+        StripeResponseGetterOptions options = new AccountOptions(account.getSecretKey(), apiBase,
+                account.getMaxNetworkRetries(), (int) http.getConnectTimeout().toMillis(), (int) http.getReadTimeout().toMillis());
+        StripeClient client = new StripeClient(new LiveStripeResponseGetter(options, httpClient));
+        return new StripeAccount(name, client, account.getStripeAccount(), account.getPublishableKey(), account.getSecretKey(),
+                apiBase, account.getMaxNetworkRetries(), resourceLimits, circuitBreaker);
+    }
+
+    static Duration readTimeout(StripeHttpProperties properties, String operation) {
+        Duration timeout = properties.getReadTimeouts().get(operation);
+        if (timeout == null) {
+            timeout = properties.getReadTimeouts().get(operation.substring(0, operation.lastIndexOf('.')));
+        }
+        return timeout != null ? timeout : properties.getReadTimeout();
+    }
+
+    private static final class AccountOptions extends StripeResponseGetterOptions {
+        private final String apiKey;
+        private final String apiBase;
+        private final int maxNetworkRetries;
+        private final int connectTimeout;
+        private final int readTimeout;
+
+        private AccountOptions(String apiKey, String apiBase, int maxNetworkRetries, int connectTimeout, int readTimeout) {
+            this.apiKey = apiKey;
+            this.apiBase = apiBase;
+            this.maxNetworkRetries = maxNetworkRetries;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+
+        @Override
+        public String getApiKey() {
+            return apiKey;
+        }
+
+        @Override
+        public String getClientId() {
+            return null;
+        }
+
+        @Override
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        @Override
+        public Proxy getConnectionProxy() {
+            return null;
+        }
+
+        @Override
+        public int getMaxNetworkRetries() {
+            return maxNetworkRetries;
+        }
+
+        @Override
+        public PasswordAuthentication getProxyCredential() {
+            return null;
+        }
+
+        @Override
+        public String getApiBase() {
+            return apiBase;
+        }
+
+        @Override
+        public String getFilesBase() {
+            return FILES_BASE;
+        }
+
+        @Override
+        public String getConnectBase() {
+            return CONNECT_BASE;
+        }
+
+        @Override
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+    }
+}
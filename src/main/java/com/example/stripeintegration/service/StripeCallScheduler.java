@@ -0,0 +1,138 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.StripeSchedulerProperties;
+import com.example.stripeintegration.support.ResilientStripeHttpClient;
+import com.example.stripeintegration.support.WeightedFairScheduler;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Stripe calls in priority lanes, so off-session billing cannot crowd out customers at checkout.
+ *
+ * Each account gets a {@link WeightedFairScheduler} with an interactive and a background lane. The
+ * background lane's own budget is smaller than the shared one, so interactive calls always have slots
+ * left; when both lanes queue, freed slots go out in proportion to the lane weights. Queue depth, running
+ * calls and time spent waiting are exported per account and lane as {@code stripe.scheduler.*}, and every
+ * call is timed end to end (queueing, SDK retries and all) into {@code stripe.calls} per operation.
+ */
+@Component
+public class StripeCallScheduler {
+
+    private final StripeSchedulerProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, WeightedFairScheduler<StripeLane>> schedulers = new ConcurrentHashMap<>();
+
+    public StripeCallScheduler(StripeSchedulerProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs a Stripe call once its lane grants a slot.
+     * @param account The account the call is made for; lanes and budgets are per account.
+     * @param lane The call's priority.
+     * @param operation Names the call in metrics, e.g. "payment_intents.create".
+     * @param call The Stripe call.
+     * @return The call's result.
+     * @throws ApiConnectionException if no slot was granted within the lane's max-wait.
+     * @throws StripeException if the call fails.
+     */
+    public <T> T call(StripeAccount account, StripeLane lane, String operation, IdempotencyStore.StripeCall<T> call)
+            throws StripeException {
+        long start = System.nanoTime();
+        String outcome = "none";
+        try {
+            return schedule(account, lane, call);
+        } catch (StripeException | RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            Timer.builder("stripe.calls")
+                    .description("Stripe operations as seen by callers, including queueing and retries")
+                    .tag("account", account.getName())
+                    .tag("lane", tag(lane))
+                    .tag("operation", operation)
+                    .tag("exception", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private <T> T schedule(StripeAccount account, StripeLane lane, IdempotencyStore.StripeCall<T> call) throws StripeException {
+        WeightedFairScheduler<StripeLane> scheduler = schedulers.computeIfAbsent(account.getName(), this::create);
+        StripeSchedulerProperties.Lane settings = settings(lane);
+        long start = System.nanoTime();
+        boolean granted;
+        try {
+            granted = scheduler.acquire(lane, settings.getMaxWait().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for a " + lane + " Stripe slot on account " + account.getName(), e);
+        } finally {
+            Timer.builder("stripe.scheduler.wait")
+                    .description("Time Stripe calls spend queued in their lane")
+                    .tag("account", account.getName())
+                    .tag("lane", tag(lane))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!granted) {
+            Counter.builder("stripe.scheduler.rejected")
+                    .tag("account", account.getName())
+                    .tag("lane", tag(lane))
+                    .register(meterRegistry)
+                    .increment();
+            throw new ApiConnectionException("No " + tag(lane) + " Stripe slot on account " + account.getName()
+                    + " within " + settings.getMaxWait());
+        }
+        // The lane carries on to the rate limiter, which holds background calls to their share of each resource.
+        try (ResilientStripeHttpClient.BackgroundScope scope = lane == StripeLane.BACKGROUND ? ResilientStripeHttpClient.background() : null) {
+            return call.call();
+        } finally {
+            scheduler.release(lane);
+        }
+    }
+
+    private WeightedFairScheduler<StripeLane> create(String account) {
+        WeightedFairScheduler<StripeLane> scheduler = new WeightedFairScheduler<>(properties.getMaxConcurrent());
+        for (StripeLane lane : StripeLane.values()) {
+            StripeSchedulerProperties.Lane settings = settings(lane);
+            scheduler.lane(lane, settings.getWeight(), settings.getMaxConcurrent());
+            Gauge.builder("stripe.scheduler.queue.depth", scheduler, s -> s.getQueueDepth(lane))
+                    .tag("account", account)
+                    .tag("lane", tag(lane))
+                    .register(meterRegistry);
+            Gauge.builder("stripe.scheduler.running", scheduler, s -> s.getRunning(lane))
+                    .tag("account", account)
+                    .tag("lane", tag(lane))
+                    .register(meterRegistry);
+        }
+        return scheduler;
+    }
+
+    private StripeSchedulerProperties.Lane settings(StripeLane lane) {
+        switch (lane) {
+            case INTERACTIVE:
+                return properties.getInteractive();
+            case BACKGROUND:
+                return properties.getBackground();
+            default:
+                throw new IllegalArgumentException("Unknown lane " + lane);
+        }
+    }
+
+    private static String tag(StripeLane lane) {
+        return lane.name().toLowerCase();
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.stripeintegration.service;
+
+/**
+ * Priority lane a Stripe call is scheduled in by {@link StripeCallScheduler}.
+ */
+public enum StripeLane {
+    /** A customer is waiting on the call, e.g. at checkout. */
+    INTERACTIVE,
+    /** Off-session work such as charging saved cards; may queue behind interactive calls. */
+    BACKGROUND
+}
@@ -0,0 +1,209 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.support.SharedStore;
+import com.example.stripeintegration.support.SingleFlight;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentMethod;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache for Stripe customers and their payment method lists.
+ *
+ * Both caches hold one entry per customer ID, with the values loaded for it under each account (and, for
+ * payment methods, each type filter) inside, so invalidating a customer removes a single entry. They are
+ * size-bounded (in customers) with Caffeine's W-TinyLFU eviction and expire an entry a fixed time after
+ * a value was last added to it. Expiry is only a safety net: entries are invalidated as soon as a webhook or one
+ * of our own calls tells us they changed. Hit, miss and eviction counts are published as
+ * {@code cache.gets}/{@code cache.evictions} tagged with cache=stripe.customers or
+ * cache=stripe.payment-methods; a hit is a cached value for the exact account and type.
+ *
+ * Misses are loaded through a {@link SingleFlight}, outside of any cache lock, so a burst of requests for
+ * the same uncached customer makes one Stripe call per lane: a checkout request never waits behind a
+ * background load that is still queued for its own lane's slot. Upstream and coalesced loads are counted as
+ * {@code stripe.singleflight.calls} with operation=retrieve_customer or list_payment_methods.
+ *
+ * In cluster mode every node keeps its own entries, and invalidations are broadcast on a
+ * {@link SharedStore} channel so that a webhook or write handled on one node evicts the entry everywhere.
+ */
+@Component
+public class StripeLookupCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripeLookupCache.class);
+    private static final String INVALIDATION_CHANNEL = "stripe-cache-invalidation";
+    private static final String CUSTOMER = "customer";
+    private static final String PAYMENT_METHODS = "payment-methods";
+
+    // Customer ID -> (account or type@account -> value).
+    private final Cache<String, Map<String, Customer>> customers;
+    private final Cache<String, Map<String, List<PaymentMethod>>> paymentMethods;
+    private final StatsCounter customerStats = new ConcurrentStatsCounter();
+    private final StatsCounter paymentMethodStats = new ConcurrentStatsCounter();
+    private final SingleFlight<String, Customer> customerLoads = new SingleFlight<>();
+    private final SingleFlight<String, List<PaymentMethod>> paymentMethodLoads = new SingleFlight<>();
+    // Customer ID -> number of its last invalidation, so a load that raced with one is returned but not
+    // cached, while loads of other customers are. Numbers are never reused, and kept for as long as a value
+    // lives, far longer than any load takes.
+    private final AtomicLong invalidations = new AtomicLong();
+    private final Cache<String, Long> customerInvalidations;
+    private final Cache<String, Long> paymentMethodInvalidations;
+    private final SharedStore sharedStore;
+    private final String nodeId;
+
+    public StripeLookupCache(MeterRegistry meterRegistry,
+                             Optional<SharedStore> sharedStore,
+                             ClusterProperties cluster,
+                             @Value("${stripe.cache.customers.max-size:10000}") long customersMaxSize,
+                             @Value("${stripe.cache.customers.ttl:PT10M}") Duration customersTtl,
+                             @Value("${stripe.cache.payment-methods.max-size:10000}") long paymentMethodsMaxSize,
+                             @Value("${stripe.cache.payment-methods.ttl:PT10M}") Duration paymentMethodsTtl) {
+        this.customers = Caffeine.newBuilder()
+                .maximumSize(customersMaxSize)
+                .expireAfterWrite(customersTtl)
+                .recordStats(() -> customerStats)
+                .build();
+        this.paymentMethods = Caffeine.newBuilder()
+                .maximumSize(paymentMethodsMaxSize)
+                .expireAfterWrite(paymentMethodsTtl)
+                .recordStats(() -> paymentMethodStats)
+                .build();
+        this.customerInvalidations = Caffeine.newBuilder().expireAfterWrite(customersTtl).build();
+        this.paymentMethodInvalidations = Caffeine.newBuilder().expireAfterWrite(paymentMethodsTtl).build();
+        CaffeineCacheMetrics.monitor(meterRegistry, customers, "stripe.customers");
+        CaffeineCacheMetrics.monitor(meterRegistry, paymentMethods, "stripe.payment-methods");
+        SingleFlightMetrics.monitor(meterRegistry, customerLoads, "retrieve_customer");
+        SingleFlightMetrics.monitor(meterRegistry, paymentMethodLoads, "list_payment_methods");
+        this.sharedStore = sharedStore.orElse(null);
+        this.nodeId = cluster.getNodeId();
+        if (this.sharedStore != null) {
+            this.sharedStore.subscribe(INVALIDATION_CHANNEL, this::applyRemoteInvalidation);
+        }
+    }
+
+    public Customer getCustomer(String account, String customerId, StripeLane lane, StripeLoader<Customer> loader)
+            throws StripeException {
+        return getOrLoad(customers, customerStats, customerLoads, customerInvalidations, customerId, account, lane, loader);
+    }
+
+    public List<PaymentMethod> getPaymentMethods(String account, String customerId, String type, StripeLane lane,
+                                                 StripeLoader<List<PaymentMethod>> loader) throws StripeException {
+        return getOrLoad(paymentMethods, paymentMethodStats, paymentMethodLoads, paymentMethodInvalidations, customerId,
+                (type == null ? "" : type) + '@' + account, lane, () -> List.copyOf(loader.load()));
+    }
+
+    public void invalidateCustomer(String customerId) {
+        if (customerId != null) {
+            evictCustomer(customerId);
+            broadcast(CUSTOMER, customerId);
+        }
+    }
+
+    /**
+     * Drops every cached payment method list of a customer, whatever type filter or account it was loaded with.
+     */
+    public void invalidatePaymentMethods(String customerId) {
+        if (customerId != null) {
+            evictPaymentMethods(customerId);
+            broadcast(PAYMENT_METHODS, customerId);
+        }
+    }
+
+    private void evictCustomer(String customerId) {
+        customerInvalidations.put(customerId, invalidations.incrementAndGet());
+        customers.invalidate(customerId);
+    }
+
+    private void evictPaymentMethods(String customerId) {
+        paymentMethodInvalidations.put(customerId, invalidations.incrementAndGet());
+        paymentMethods.invalidate(customerId);
+    }
+
+    // "<origin node> <kind> <customer ID>"; the origin has evicted already.
+    private void broadcast(String kind, String customerId) {
+        if (sharedStore == null) {
+            return;
+        }
+        try {
+            sharedStore.publish(INVALIDATION_CHANNEL, nodeId + ' ' + kind + ' ' + customerId);
+        } catch (RuntimeException e) {
+            // Other nodes fall back on the TTL for this entry.
+            logger.warn("Could not broadcast {} invalidation of {}: {}", kind, customerId, e.getMessage());
+        }
+    }
+
+    private void applyRemoteInvalidation(String message) {
+        String[] parts = message.split(" ", 3);
+        if (parts.length != 3 || parts[0].equals(nodeId)) {
+            return;
+        }
+        if (CUSTOMER.equals(parts[1])) {
+            evictCustomer(parts[2]);
+        } else if (PAYMENT_METHODS.equals(parts[1])) {
+            evictPaymentMethods(parts[2]);
+        }
+    }
+
+    // The value is stored under the customer's entry, keyed by what else it was loaded for (the account,
+    // or type and account), so the same customer ID under two accounts never shares a value while
+    // invalidation, which only knows the customer, drops them all at once.
+    private static <V> V getOrLoad(Cache<String, Map<String, V>> cache, StatsCounter stats, SingleFlight<String, V> loads,
+                                   Cache<String, Long> invalidated, String customerId, String subKey, StripeLane lane,
+                                   StripeLoader<V> loader)
+            throws StripeException {
+        // asMap() reads do not count towards the stats; hits and misses are counted per value instead.
+        Map<String, V> entry = cache.asMap().get(customerId);
+        V cached = entry != null ? entry.get(subKey) : null;
+        if (cached != null) {
+            stats.recordHits(1);
+            return cached;
+        }
+        stats.recordMisses(1);
+        String key = customerId + ':' + subKey + ':' + lane;
+        try {
+            return loads.execute(key, () -> {
+                Long lastInvalidation = invalidated.getIfPresent(customerId);
+                V value = loader.load();
+                // Under the entry's lock, so an invalidation either runs first (and is seen here) or removes this value.
+                cache.asMap().compute(customerId, (id, values) -> {
+                    if (!Objects.equals(invalidated.getIfPresent(customerId), lastInvalidation)) {
+                        return values;
+                    }
+                    Map<String, V> updated = values != null ? new HashMap<>(values) : new HashMap<>();
+                    updated.put(subKey, value);
+                    return Map.copyOf(updated);
+                });
+                return value;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for a concurrent Stripe lookup of " + key, e);
+        }
+    }
+
+    /**
+     * A Stripe API call that produces the value for a cache miss.
+     */
+    @FunctionalInterface
+    public interface StripeLoader<V> {
+        V load() throws StripeException;
+    }
+}
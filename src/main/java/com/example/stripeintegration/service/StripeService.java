@@ -2,6 +2,9 @@ package com.example.stripeintegration.service;
 //
 //package com.example.stripepayment.service;
 
+import com.example.stripeintegration.support.SingleFlight;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.InvalidRequestException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Customer;
 import com.stripe.model.PaymentIntent;
@@ -9,25 +12,82 @@ import com.stripe.model.PaymentMethod;
 import com.stripe.model.SetupIntent;
 import com.stripe.param.CustomerCreateParams;
 import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentMethodListParams;
 import com.stripe.param.SetupIntentCreateParams;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Stripe operations used by the payment endpoints. Every call is made through the {@link StripeAccount}
+ * it is given, so the same service serves any configured account. Every Stripe call runs in a
+ * {@link StripeCallScheduler} lane: off-session charges in the background lane, everything a customer
+ * waits on in the interactive lane.
+ */
 @Service
 public class StripeService {
 
+    private static final Logger logger = LoggerFactory.getLogger(StripeService.class);
+    private static final long LIST_PAGE_SIZE = 100L;
+
+    private final StripeLookupCache lookupCache;
+    private final IdempotencyStore idempotencyStore;
+    private final DefaultPaymentMethodIndex defaultPaymentMethods;
+    private final PaymentRecordWriter recordWriter;
+    private final Userservice userService;
+    private final StripeCallScheduler scheduler;
+    private final PaymentIntentStatusStore statusStore;
+    private final SingleFlight<String, PaymentIntent> paymentIntentRetrievals = new SingleFlight<>();
+
+    public StripeService(StripeLookupCache lookupCache, IdempotencyStore idempotencyStore,
+                         DefaultPaymentMethodIndex defaultPaymentMethods, PaymentRecordWriter recordWriter,
+                         Userservice userService, StripeCallScheduler scheduler, PaymentIntentStatusStore statusStore,
+                         MeterRegistry meterRegistry) {
+        this.lookupCache = lookupCache;
+        this.idempotencyStore = idempotencyStore;
+        this.defaultPaymentMethods = defaultPaymentMethods;
+        this.recordWriter = recordWriter;
+        this.userService = userService;
+        this.scheduler = scheduler;
+        this.statusStore = statusStore;
+        SingleFlightMetrics.monitor(meterRegistry, paymentIntentRetrievals, "retrieve_payment_intent");
+    }
+
     /**
      * Creates a new PaymentIntent for a one-time charge.
+     * @param account The Stripe account to create it in.
      * @param amount The amount to charge (in the smallest currency unit, e.g., cents for USD).
      * @param currency The three-letter ISO currency code (e.g., "usd", "inr").
      * @param description An optional description for the payment.
      * @return The created PaymentIntent object.
      * @throws StripeException if the Stripe API call fails.
      */
-    public PaymentIntent createPaymentIntent(Long amount, String currency, String description) throws StripeException {
+    public PaymentIntent createPaymentIntent(StripeAccount account, Long amount, String currency, String description) throws StripeException {
+        return createPaymentIntent(account, amount, currency, description, null);
+    }
+
+    /**
+     * Same as {@link #createPaymentIntent(StripeAccount, Long, String, String)}, but a repeated idempotency key returns
+     * the PaymentIntent created by the first request instead of creating another one.
+     * @param idempotencyKey The client's idempotency key, or null to send none.
+     * @throws com.stripe.exception.IdempotencyException if the key was already used with different parameters.
+     */
+    public PaymentIntent createPaymentIntent(StripeAccount account, Long amount, String currency, String description,
+                                             String idempotencyKey) throws StripeException {
+        if (idempotencyKey == null) {
+            return doCreatePaymentIntent(account, amount, currency, description, null);
+        }
+        String fingerprint = fingerprint("create_payment_intent", amount, currency, description);
+        return idempotencyStore.execute(storeKey(account, idempotencyKey), fingerprint, PaymentIntent.class,
+                () -> doCreatePaymentIntent(account, amount, currency, description, idempotencyKey));
+    }
+
+    private PaymentIntent doCreatePaymentIntent(StripeAccount account, Long amount, String currency, String description,
+                                                String idempotencyKey) throws StripeException {
         PaymentIntentCreateParams.Builder paramsBuilder = PaymentIntentCreateParams.builder()
                 .setAmount(amount)
                 .setCurrency(currency)
@@ -38,83 +98,170 @@ public class StripeService {
         }
 
         PaymentIntentCreateParams params = paramsBuilder.build();
-        return PaymentIntent.create(params);
+        PaymentIntent paymentIntent = scheduler.call(account, StripeLane.INTERACTIVE, "payment_intents.create",
+                () -> account.client().paymentIntents().create(params, account.options(idempotencyKey)));
+        statusStore.recordResponse(account.getName(), paymentIntent);
+        return paymentIntent;
     }
 
     /**
-     * Retrieves an existing PaymentIntent from Stripe.
+     * Retrieves an existing PaymentIntent from Stripe. Concurrent retrievals of the same PaymentIntent
+     * share a single Stripe call, and all callers get the same object, which they must not modify.
+     * @param account The Stripe account that owns the PaymentIntent.
      * @param paymentIntentId The ID of the PaymentIntent to retrieve.
      * @return The PaymentIntent object.
      * @throws StripeException if the Stripe API call fails.
      */
-    public PaymentIntent retrievePaymentIntent(String paymentIntentId) throws StripeException {
-        return PaymentIntent.retrieve(paymentIntentId);
+    public PaymentIntent retrievePaymentIntent(StripeAccount account, String paymentIntentId) throws StripeException {
+        try {
+            return paymentIntentRetrievals.execute(account.getName() + '/' + paymentIntentId, () -> {
+                PaymentIntent paymentIntent = scheduler.call(account, StripeLane.INTERACTIVE, "payment_intents.retrieve",
+                        () -> account.client().paymentIntents().retrieve(paymentIntentId, account.options()));
+                statusStore.recordResponse(account.getName(), paymentIntent);
+                return paymentIntent;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for a concurrent retrieval of " + paymentIntentId, e);
+        }
+    }
+
+    /**
+     * Returns the status of a PaymentIntent, answered from the {@link PaymentIntentStatusStore} when it
+     * holds a final status for it and retrieved from Stripe otherwise.
+     * @param account The Stripe account that owns the PaymentIntent.
+     * @param paymentIntentId The ID of the PaymentIntent.
+     * @return The PaymentIntent's status, e.g. "succeeded".
+     * @throws StripeException if the status had to be retrieved and the Stripe API call fails.
+     */
+    public String retrievePaymentIntentStatus(StripeAccount account, String paymentIntentId) throws StripeException {
+        PaymentIntentStatusStore.Status known = statusStore.findFinal(account.getName(), paymentIntentId);
+        if (known != null) {
+            return known.apiValue();
+        }
+        return retrievePaymentIntent(account, paymentIntentId).getStatus();
     }
 
     /**
-     * Creates a new Customer object in Stripe.
+     * Creates a new Customer object in Stripe, records it locally and links it to the user with the
+     * same email if that user has no Stripe customer yet.
+     * @param account The Stripe account to create the customer in.
      * @param email Customer's email.
      * @param name Customer's name.
      * @return The created Customer object.
      * @throws StripeException if the Stripe API call fails.
      */
-    public Customer createStripeCustomer(String email, String name) throws StripeException {
+    public Customer createStripeCustomer(StripeAccount account, String email, String name) throws StripeException {
+        return createStripeCustomer(account, email, name, StripeLane.INTERACTIVE, null);
+    }
+
+    /**
+     * Same as {@link #createStripeCustomer(StripeAccount, String, String)}, for bulk work: the call is made
+     * in the given lane and may carry an idempotency key, so a retried import cannot create the customer twice.
+     * @param lane The scheduler lane to make the call in.
+     * @param idempotencyKey The idempotency key, or null to send none.
+     */
+    public Customer createStripeCustomer(StripeAccount account, String email, String name, StripeLane lane,
+                                         String idempotencyKey) throws StripeException {
         CustomerCreateParams.Builder paramsBuilder = CustomerCreateParams.builder()
                 .setEmail(email)
                 .setName(name);
         // You can add more parameters here like phone, address, metadata
-        return Customer.create(paramsBuilder.build());
+        Customer customer = scheduler.call(account, lane, "customers.create",
+                () -> account.client().customers().create(paramsBuilder.build(), account.options(idempotencyKey)));
+        recordWriter.recordCustomer(customer, customer.getCreated());
+        if (email != null) {
+            userService.linkStripeCustomer(email, customer.getId());
+        }
+        return customer;
     }
 
     /**
-     * Retrieves an existing Customer object from Stripe.
+     * Retrieves an existing Customer object, from the lookup cache when possible.
+     * @param account The Stripe account that owns the customer.
      * @param customerId Stripe Customer ID.
      * @return The Customer object.
      * @throws StripeException if the Stripe API call fails.
      */
-    public Customer retrieveStripeCustomer(String customerId) throws StripeException {
-        return Customer.retrieve(customerId);
+    public Customer retrieveStripeCustomer(StripeAccount account, String customerId) throws StripeException {
+        return retrieveStripeCustomer(account, customerId, StripeLane.INTERACTIVE);
+    }
+
+    private Customer retrieveStripeCustomer(StripeAccount account, String customerId, StripeLane lane) throws StripeException {
+        return lookupCache.getCustomer(account.getName(), customerId, lane,
+                () -> scheduler.call(account, lane, "customers.retrieve",
+                        () -> account.client().customers().retrieve(customerId, account.options())));
     }
 
     /**
      * Creates a SetupIntent to collect and save a new payment method for a customer.
+     * @param account The Stripe account that owns the customer.
      * @param customerId The Stripe Customer ID to associate the payment method with.
      * @return The created SetupIntent object.
      * @throws StripeException if the Stripe API call fails.
      */
-    public SetupIntent createSetupIntent(String customerId) throws StripeException {
+    public SetupIntent createSetupIntent(StripeAccount account, String customerId) throws StripeException {
         SetupIntentCreateParams params = SetupIntentCreateParams.builder()
                 .setCustomer(customerId)
                 .addPaymentMethodType("card") // Specify the payment method type you want to save
                 .build();
-        return SetupIntent.create(params);
+        SetupIntent setupIntent = scheduler.call(account, StripeLane.INTERACTIVE, "setup_intents.create",
+                () -> account.client().setupIntents().create(params, account.options()));
+        // The client lists cards right after confirming; don't let it see a list from before the new card.
+        lookupCache.invalidatePaymentMethods(customerId);
+        return setupIntent;
     }
 
     /**
-     * Lists all payment methods attached to a customer.
+     * Lists all payment methods attached to a customer, from the lookup cache when possible.
+     * @param account The Stripe account that owns the customer.
      * @param customerId Stripe Customer ID.
      * @param type Type of payment method (e.g., "card"). Use null or empty string for all types.
-     * @return A list of PaymentMethod objects.
+     * @return An unmodifiable list of PaymentMethod objects.
      * @throws StripeException if the Stripe API call fails.
      */
-    public List<PaymentMethod> listCustomerPaymentMethods(String customerId, String type) throws StripeException {
-        Map<String, Object> params = new HashMap<>();
-        params.put("customer", customerId);
-        if (type != null && !type.isEmpty()) {
-            params.put("type", type);
-        }
-        return PaymentMethod.list(params).getData();
+    public List<PaymentMethod> listCustomerPaymentMethods(StripeAccount account, String customerId, String type) throws StripeException {
+        return listCustomerPaymentMethods(account, customerId, type, StripeLane.INTERACTIVE);
+    }
+
+    private List<PaymentMethod> listCustomerPaymentMethods(StripeAccount account, String customerId, String type,
+                                                           StripeLane lane) throws StripeException {
+        return lookupCache.getPaymentMethods(account.getName(), customerId, type, lane, () -> {
+            PaymentMethodListParams.Builder params = PaymentMethodListParams.builder()
+                    .setCustomer(customerId)
+                    .setLimit(LIST_PAGE_SIZE);
+            if (type != null && !type.isEmpty()) {
+                params.putExtraParam("type", type);
+            }
+            // Every page, not just the first; customers with more cards than one page are rare, so the
+            // whole walk runs as one scheduled call.
+            return scheduler.call(account, lane, "payment_methods.list", () -> {
+                List<PaymentMethod> paymentMethods = new ArrayList<>();
+                for (PaymentMethod paymentMethod : account.client().paymentMethods().list(params.build(), account.options())
+                        .autoPagingIterable()) {
+                    paymentMethods.add(paymentMethod);
+                }
+                return paymentMethods;
+            });
+        });
     }
 
     /**
      * Detaches a PaymentMethod from a Customer, effectively unsaving it.
+     * @param account The Stripe account that owns the payment method.
      * @param paymentMethodId ID of the PaymentMethod to detach.
      * @return The detached PaymentMethod object.
      * @throws StripeException if the Stripe API call fails.
      */
-    public PaymentMethod detachPaymentMethod(String paymentMethodId) throws StripeException {
-        PaymentMethod paymentMethod = PaymentMethod.retrieve(paymentMethodId);
-        return paymentMethod.detach();
+    public PaymentMethod detachPaymentMethod(StripeAccount account, String paymentMethodId) throws StripeException {
+        PaymentMethod paymentMethod = scheduler.call(account, StripeLane.INTERACTIVE, "payment_methods.retrieve",
+                () -> account.client().paymentMethods().retrieve(paymentMethodId, account.options()));
+        String customerId = paymentMethod.getCustomer();
+        PaymentMethod detached = scheduler.call(account, StripeLane.INTERACTIVE, "payment_methods.detach",
+                () -> account.client().paymentMethods().detach(paymentMethodId, account.options()));
+        lookupCache.invalidatePaymentMethods(customerId);
+        defaultPaymentMethods.removeIfMatches(customerId, paymentMethodId);
+        return detached;
     }
 
     /**
@@ -122,6 +269,7 @@ public class StripeService {
      * If paymentMethodId is null or empty, it attempts to find and use the customer's default payment method.
      * If no default is set, it falls back to the first available card for that customer.
      *
+     * @param account The Stripe account that owns the customer.
      * @param customerId The Stripe Customer ID.
      * @param paymentMethodId The ID of the saved PaymentMethod to use (optional, if null, a default/first available will be used).
      * @param amount The amount to charge (in the smallest currency unit).
@@ -130,21 +278,51 @@ public class StripeService {
      * @return The created and confirmed PaymentIntent object.
      * @throws StripeException if the Stripe API call fails or no payment method is found.
      */
-    public PaymentIntent chargeCustomerWithSavedCard(String customerId, String paymentMethodId, Long amount, String currency, String description) throws StripeException {
-        // If no paymentMethodId is provided, attempt to find the customer's default
-        // or the first available card.
+    public PaymentIntent chargeCustomerWithSavedCard(StripeAccount account, String customerId, String paymentMethodId, Long amount,
+                                                     String currency, String description) throws StripeException {
+        return chargeCustomerWithSavedCard(account, customerId, paymentMethodId, amount, currency, description, null);
+    }
+
+    /**
+     * Same as {@link #chargeCustomerWithSavedCard(StripeAccount, String, String, Long, String, String)}, but sends an
+     * idempotency key so that retrying the same charge cannot create a second payment. A repeated key is
+     * answered from the local {@link IdempotencyStore} without calling Stripe.
+     * @param idempotencyKey The idempotency key, or null to send none.
+     * @throws com.stripe.exception.IdempotencyException if the key was already used with different parameters.
+     */
+    public PaymentIntent chargeCustomerWithSavedCard(StripeAccount account, String customerId, String paymentMethodId, Long amount,
+                                                     String currency, String description, String idempotencyKey) throws StripeException {
+        if (idempotencyKey == null) {
+            return doChargeCustomerWithSavedCard(account, customerId, paymentMethodId, amount, currency, description, null);
+        }
+        String fingerprint = fingerprint("charge_customer", customerId, paymentMethodId, amount, currency, description);
+        return idempotencyStore.execute(storeKey(account, idempotencyKey), fingerprint, PaymentIntent.class,
+                () -> doChargeCustomerWithSavedCard(account, customerId, paymentMethodId, amount, currency, description, idempotencyKey));
+    }
+
+    private PaymentIntent doChargeCustomerWithSavedCard(StripeAccount account, String customerId, String paymentMethodId, Long amount,
+                                                        String currency, String description, String idempotencyKey) throws StripeException {
+        // If no paymentMethodId is provided, use the indexed default, and only ask Stripe for the
+        // customer's default or first available card when the index has nothing.
         String actualPaymentMethodId = paymentMethodId;
+        boolean fromIndex = false;
         if (actualPaymentMethodId == null || actualPaymentMethodId.isEmpty()) {
-            Customer customer = Customer.retrieve(customerId);
+            actualPaymentMethodId = defaultPaymentMethods.find(customerId);
+            fromIndex = actualPaymentMethodId != null;
+        }
+        if (actualPaymentMethodId == null) {
+            Customer customer = retrieveStripeCustomer(account, customerId, StripeLane.BACKGROUND);
             if (customer.getInvoiceSettings() != null && customer.getInvoiceSettings().getDefaultPaymentMethod() != null) {
                 actualPaymentMethodId = customer.getInvoiceSettings().getDefaultPaymentMethod();
-                System.out.println("Using customer's default payment method: " + actualPaymentMethodId);
+                logger.debug("Using default payment method {} of customer {}", actualPaymentMethodId, customerId);
+                defaultPaymentMethods.recordDefault(customerId, actualPaymentMethodId);
             } else {
                 // Fallback: Retrieve the first available card if no default is set
-                List<PaymentMethod> pms = listCustomerPaymentMethods(customerId, "card");
+                List<PaymentMethod> pms = listCustomerPaymentMethods(account, customerId, "card", StripeLane.BACKGROUND);
                 if (!pms.isEmpty()) {
                     actualPaymentMethodId = pms.get(0).getId();
-                    System.out.println("No default set, using first available card: " + actualPaymentMethodId);
+                    logger.debug("Customer {} has no default payment method, using first card {}", customerId, actualPaymentMethodId);
+                    defaultPaymentMethods.recordIfAbsent(customerId, actualPaymentMethodId);
                 } else {
                     throw new RuntimeException("No payment method found for customer " + customerId + " to charge. Please save a card first.");
                 }
@@ -167,6 +345,32 @@ public class StripeService {
         // Requires previous consent (e.g., checkbox "save card for future payments").
         paramsBuilder.setOffSession(true);
 
-        return PaymentIntent.create(paramsBuilder.build());
+        try {
+            PaymentIntent paymentIntent = scheduler.call(account, StripeLane.BACKGROUND, "payment_intents.create",
+                    () -> account.client().paymentIntents().create(paramsBuilder.build(), account.options(idempotencyKey)));
+            statusStore.recordResponse(account.getName(), paymentIntent);
+            return paymentIntent;
+        } catch (InvalidRequestException e) {
+            // A detach we never heard about; drop the entry so the next charge resolves it against Stripe.
+            if (fromIndex && "payment_method".equals(e.getParam())) {
+                defaultPaymentMethods.removeIfMatches(customerId, actualPaymentMethodId);
+            }
+            throw e;
+        }
+    }
+
+    // Stripe scopes idempotency keys to an account, so the local store does too.
+    private static String storeKey(StripeAccount account, String idempotencyKey) {
+        return account.getName() + '/' + idempotencyKey;
+    }
+
+    // The request as the caller sent it; the resolved default payment method is deliberately left out
+    // so a retry still matches after the customer's default changes.
+    private static String fingerprint(String operation, Object... parts) {
+        StringBuilder fingerprint = new StringBuilder(operation);
+        for (Object part : parts) {
+            fingerprint.append('|').append(part);
+        }
+        return fingerprint.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.example.stripeintegration.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of Stripe-bound requests each tenant, and all tenants together, may have in flight.
+ *
+ * With virtual threads the servlet container no longer limits concurrency, so without this a single
+ * tenant could open thousands of simultaneous Stripe calls and run into Stripe's rate limits for the
+ * whole account. Callers that cannot get a permit within the acquire timeout are rejected.
+ *
+ * Tenants are a fixed list from configuration. Any other tenant ID a client sends is counted under
+ * {@link #DEFAULT_TENANT}, so inventing a new ID per request neither escapes the limit nor adds
+ * semaphores or meters; the global limit bounds the sum over all of them.
+ */
+@Component
+public class TenantConcurrencyLimiter {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    private final MeterRegistry meterRegistry;
+    private final Duration acquireTimeout;
+    private final Semaphore global;
+    // Built once from configuration and never modified.
+    private final Map<String, Semaphore> permits = new HashMap<>();
+
+    public TenantConcurrencyLimiter(MeterRegistry meterRegistry,
+                                    @Value("${stripe.concurrency.per-tenant-limit:100}") int perTenantLimit,
+                                    @Value("${stripe.concurrency.global-limit:400}") int globalLimit,
+                                    @Value("${stripe.concurrency.tenants:}") String[] tenants,
+                                    @Value("${stripe.concurrency.acquire-timeout:PT2S}") Duration acquireTimeout) {
+        this.meterRegistry = meterRegistry;
+        this.acquireTimeout = acquireTimeout;
+        this.global = new Semaphore(globalLimit, true);
+        Gauge.builder("stripe.concurrency.global.in-flight", global, s -> globalLimit - s.availablePermits())
+                .register(meterRegistry);
+        addTenant(DEFAULT_TENANT, perTenantLimit);
+        for (String tenant : tenants) {
+            if (!tenant.isBlank()) {
+                addTenant(tenant.trim(), perTenantLimit);
+            }
+        }
+    }
+
+    /**
+     * @param requested The tenant ID a request claims, possibly null.
+     * @return The tenant to count the request under: the ID itself if it is configured, otherwise the default tenant.
+     */
+    public String resolve(String requested) {
+        return requested != null && permits.containsKey(requested) ? requested : DEFAULT_TENANT;
+    }
+
+    /**
+     * Waits up to the acquire timeout for one of the tenant's permits and one of the global ones.
+     * @param tenant A tenant returned by {@link #resolve}.
+     * @return true if a permit was acquired and must be given back with {@link #release}.
+     */
+    public boolean tryAcquire(String tenant) throws InterruptedException {
+        long deadline = System.nanoTime() + acquireTimeout.toNanos();
+        Semaphore semaphore = permits.get(tenant);
+        if (!semaphore.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            rejected(tenant, "tenant");
+            return false;
+        }
+        boolean acquired = false;
+        try {
+            acquired = global.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } finally {
+            if (!acquired) {
+                semaphore.release();
+            }
+        }
+        if (!acquired) {
+            rejected(tenant, "global");
+        }
+        return acquired;
+    }
+
+    public void release(String tenant) {
+        global.release();
+        permits.get(tenant).release();
+    }
+
+    private void addTenant(String tenant, int perTenantLimit) {
+        Semaphore semaphore = new Semaphore(perTenantLimit, true);
+        if (permits.putIfAbsent(tenant, semaphore) == null) {
+            Gauge.builder("stripe.concurrency.in-flight", semaphore, s -> perTenantLimit - s.availablePermits())
+                    .tag("tenant", tenant)
+                    .register(meterRegistry);
+        }
+    }
+
+    private void rejected(String tenant, String limit) {
+        Counter.builder("stripe.concurrency.rejected")
+                .tag("tenant", tenant)
+                .tag("limit", limit)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.stripeintegration.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class UnknownStripeAccountException extends RuntimeException {
+
+    public UnknownStripeAccountException(String name) {
+        super("Unknown Stripe account: " + name);
+    }
+}
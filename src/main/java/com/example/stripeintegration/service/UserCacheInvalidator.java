@@ -0,0 +1,114 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.SharedStore;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the Hibernate second-level cache of {@link User} rows consistent across a cluster.
+ *
+ * On the node that writes, Hibernate maintains the cache itself: users are changed by loading and
+ * updating the entity, which replaces just that row in the cache. Other nodes learn nothing of the
+ * write, so every code path that changes users calls {@link #usersChanged} after committing with the
+ * IDs it changed, and the other nodes evict just those rows. Default payment method updates arrive with
+ * every card webhook, so they must not cost other nodes more than the rows they touch. Only when a
+ * change can alter which user a lookup finds (a new user, a newly linked customer) do the other nodes
+ * also drop their cached user lookups, and only a bulk import evicts the whole region.
+ */
+@Component
+public class UserCacheInvalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserCacheInvalidator.class);
+    private static final String INVALIDATION_CHANNEL = "user-cache-invalidation";
+    private static final String ROWS = "rows";
+    private static final String LOOKUPS = "lookups";
+    private static final String ALL = "all";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final SharedStore sharedStore;
+    private final String nodeId;
+
+    public UserCacheInvalidator(EntityManagerFactory entityManagerFactory, Optional<SharedStore> sharedStore,
+                                ClusterProperties cluster) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.sharedStore = sharedStore.orElse(null);
+        this.nodeId = cluster.getNodeId();
+        if (this.sharedStore != null) {
+            this.sharedStore.subscribe(INVALIDATION_CHANNEL, this::applyRemoteInvalidation);
+        }
+    }
+
+    /**
+     * Tells the other nodes that user rows changed; a no-op outside cluster mode.
+     * @param userIds The users that changed.
+     * @param lookupKeysChanged Whether a user was added or got a new email or Stripe customer ID, which
+     *                          makes cached lookups by those keys stale as well.
+     */
+    public void usersChanged(Collection<Long> userIds, boolean lookupKeysChanged) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        broadcast((lookupKeysChanged ? LOOKUPS : ROWS) + ' '
+                + userIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * Tells the other nodes to drop all of their cached users, after a bulk change such as an import.
+     */
+    public void allUsersChanged() {
+        broadcast(ALL);
+    }
+
+    /**
+     * Drops every cached user row and user query result on this node.
+     */
+    public void evictAll() {
+        entityManagerFactory.getCache().evict(User.class);
+        evictLookups();
+    }
+
+    private void evictLookups() {
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegion(UserRepository.QUERY_CACHE_REGION);
+    }
+
+    // "<origin node> all" or "<origin node> rows|lookups <ID>,<ID>..."; the origin has nothing to evict.
+    private void broadcast(String change) {
+        if (sharedStore == null) {
+            return;
+        }
+        try {
+            sharedStore.publish(INVALIDATION_CHANNEL, nodeId + ' ' + change);
+        } catch (RuntimeException e) {
+            // Other nodes fall back on the region TTL (hibernate-cache.conf).
+            logger.warn("Could not broadcast user cache invalidation: {}", e.getMessage());
+        }
+    }
+
+    private void applyRemoteInvalidation(String message) {
+        String[] parts = message.split(" ", 3);
+        if (parts[0].equals(nodeId)) {
+            return;
+        }
+        if (parts.length < 3) {
+            // "all", or a message this version does not understand.
+            evictAll();
+            return;
+        }
+        for (String id : parts[2].split(",")) {
+            entityManagerFactory.getCache().evict(User.class, Long.valueOf(id));
+        }
+        if (LOOKUPS.equals(parts[1])) {
+            evictLookups();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.dto.UserImportProgress;
+import com.example.stripeintegration.dto.UserImportRowError;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.TokenBucket;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk user import from CSV (a header line naming an {@code email} and optionally a {@code name} column)
+ * or NDJSON (one {@code {"email": ..., "name": ...}} object per line).
+ *
+ * The upload is read line by line and written in chunks of {@code user-import.chunk-size} rows, one
+ * transaction each: the emails of a chunk that are already registered are looked up with one query, the
+ * new users are persisted and Hibernate sends the inserts and name updates as JDBC batches, taking their
+ * IDs from the pooled {@code user_seq}. Like {@link Userservice#addUser}, an email that is already
+ * registered only has its name updated, and within a chunk the last row for an email wins. If a chunk
+ * fails on a constraint (a concurrent registration, a value too long for its column) it is retried row by
+ * row, so only the offending rows are rejected.
+ *
+ * Optionally a Stripe customer is created for every imported user that has none, in the background lane
+ * with bounded parallelism and paced per account, with the idempotency key {@code user-import:<userId>};
+ * reading stops while all slots are busy, so a large file is never buffered. Rows that cannot be imported
+ * are reported with their line number, progress after every chunk.
+ */
+@Service
+public class UserImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserImportService.class);
+
+    private static final int MAX_EMAIL_LENGTH = 255;
+    private static final int MAX_RATE_LIMIT_RETRIES = 5;
+
+    /** Upload formats. */
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    private final UserRepository userRepository;
+    private final Userservice userService;
+    private final StripeService stripeService;
+    private final TransactionTemplate transactionTemplate;
+    private final UserCacheInvalidator cacheInvalidator;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final int stripeParallelism;
+    private final double stripeMaxRequestsPerSecond;
+    private final Map<String, TokenBucket> pacers = new ConcurrentHashMap<>();
+
+    public UserImportService(UserRepository userRepository, Userservice userService, StripeService stripeService,
+                             TransactionTemplate transactionTemplate, UserCacheInvalidator cacheInvalidator,
+                             ObjectMapper objectMapper,
+                             @Value("${user-import.chunk-size:500}") int chunkSize,
+                             @Value("${user-import.stripe.parallelism:8}") int stripeParallelism,
+                             @Value("${user-import.stripe.max-requests-per-second:20}") double stripeMaxRequestsPerSecond) {
+        this.userRepository = userRepository;
+        this.userService = userService;
+        this.stripeService = stripeService;
+        this.transactionTemplate = transactionTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.stripeParallelism = stripeParallelism;
+        this.stripeMaxRequestsPerSecond = stripeMaxRequestsPerSecond;
+    }
+
+    /**
+     * Imports every row of an upload.
+     * @param account The Stripe account to create customers in; unused unless createStripeCustomers is set.
+     * @param in The upload, read incrementally as UTF-8.
+     * @param format The upload format.
+     * @param createStripeCustomers Whether to create a Stripe customer for imported users that have none.
+     * @param errors Receives one error per rejected row, from several threads.
+     * @param progress Receives the totals after every chunk.
+     * @return The final totals.
+     * @throws IOException if the upload cannot be read; rows already written stay imported.
+     */
+    public UserImportProgress importUsers(StripeAccount account, InputStream in, Format format, boolean createStripeCustomers,
+                                          Consumer<UserImportRowError> errors, Consumer<UserImportProgress> progress)
+            throws IOException, InterruptedException {
+        Totals totals = new Totals();
+        TokenBucket pacer = createStripeCustomers
+                ? pacers.computeIfAbsent(account.getName(),
+                        name -> new TokenBucket(stripeMaxRequestsPerSecond, stripeMaxRequestsPerSecond))
+                : null;
+        Semaphore permits = new Semaphore(stripeParallelism);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        logger.info("Starting {} user import{}", format, createStripeCustomers ? " with Stripe customers" : "");
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<String, Row> chunk = new LinkedHashMap<>();
+            int[] columns = null;
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (format == Format.CSV && columns == null) {
+                    columns = csvColumns(line);
+                    if (columns == null) {
+                        errors.accept(new UserImportRowError(lineNumber, null, "The CSV header must name an email column."));
+                        break;
+                    }
+                    continue;
+                }
+                totals.rows.incrementAndGet();
+                Row row;
+                try {
+                    row = format == Format.CSV ? csvRow(lineNumber, line, columns) : jsonRow(lineNumber, line);
+                } catch (IllegalArgumentException e) {
+                    reject(totals, errors, lineNumber, null, e.getMessage());
+                    continue;
+                }
+                if (row.email == null || row.email.isEmpty()) {
+                    reject(totals, errors, lineNumber, null, "Email is required.");
+                    continue;
+                }
+                if (row.email.length() > MAX_EMAIL_LENGTH || row.email.indexOf('@') <= 0 || row.email.chars().anyMatch(Character::isWhitespace)) {
+                    reject(totals, errors, lineNumber, row.email, "Email is not valid.");
+                    continue;
+                }
+                if (chunk.put(row.email, row) != null) {
+                    // Applied on top of the earlier row for the same email.
+                    totals.updated.incrementAndGet();
+                }
+                if (chunk.size() >= chunkSize) {
+                    writeChunk(account, new ArrayList<>(chunk.values()), createStripeCustomers, pacer, permits, executor, totals, errors);
+                    chunk.clear();
+                    progress.accept(totals.snapshot(false));
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(account, new ArrayList<>(chunk.values()), createStripeCustomers, pacer, permits, executor, totals, errors);
+                progress.accept(totals.snapshot(false));
+            }
+        } finally {
+            cacheInvalidator.allUsersChanged();
+        }
+        UserImportProgress result = totals.snapshot(true);
+        logger.info("Finished user import: {}", result);
+        return result;
+    }
+
+    private void writeChunk(StripeAccount account, List<Row> rows, boolean createStripeCustomers, TokenBucket pacer,
+                            Semaphore permits, ExecutorService executor, Totals totals,
+                            Consumer<UserImportRowError> errors) throws InterruptedException {
+        try {
+            transactionTemplate.executeWithoutResult(status -> saveChunk(rows));
+            for (Row row : rows) {
+                (row.inserted ? totals.inserted : totals.updated).incrementAndGet();
+            }
+        } catch (DataIntegrityViolationException e) {
+            logger.info("User import chunk rejected by a constraint, retrying its {} rows one by one", rows.size());
+            for (Row row : rows) {
+                row.user = null;
+                try {
+                    boolean known = userService.findByEmail(row.email).isPresent();
+                    User user = new User();
+                    user.setEmail(row.email);
+                    user.setName(row.name);
+                    row.user = userService.addUser(user);
+                    (known ? totals.updated : totals.inserted).incrementAndGet();
+                } catch (DataAccessException rowError) {
+                    reject(totals, errors, row.line, row.email, "User not saved: " + rowError.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        if (!createStripeCustomers) {
+            return;
+        }
+        for (Row row : rows) {
+            if (row.user == null || row.user.getStripeCustomerId() != null) {
+                continue;
+            }
+            permits.acquire();
+            executor.execute(() -> {
+                try {
+                    createCustomer(account, pacer, row.user);
+                    totals.customersCreated.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (StripeException | RuntimeException e) {
+                    totals.customersFailed.incrementAndGet();
+                    errors.accept(new UserImportRowError(row.line, row.email,
+                            "User imported, but no Stripe customer was created: " + e.getMessage()));
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    private void saveChunk(List<Row> rows) {
+        Map<String, User> existing = userRepository.findByEmailIn(rows.stream().map(row -> row.email).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(User::getEmail, Function.identity()));
+        List<User> created = new ArrayList<>();
+        for (Row row : rows) {
+            User user = existing.get(row.email);
+            if (user == null) {
+                user = new User();
+                user.setEmail(row.email);
+                created.add(user);
+                row.inserted = true;
+            }
+            user.setName(row.name);
+            row.user = user;
+        }
+        userRepository.saveAll(created);
+    }
+
+    private void createCustomer(StripeAccount account, TokenBucket pacer, User user) throws StripeException, InterruptedException {
+        for (int retry = 0; ; retry++) {
+            pacer.acquire();
+            try {
+                Customer customer = stripeService.createStripeCustomer(account, user.getEmail(), user.getName(),
+                        StripeLane.BACKGROUND, "user-import:" + user.getId());
+                user.setStripeCustomerId(customer.getId());
+                return;
+            } catch (RateLimitException e) {
+                if (retry >= MAX_RATE_LIMIT_RETRIES) {
+                    throw e;
+                }
+                TimeUnit.MILLISECONDS.sleep(250L << retry);
+            }
+        }
+    }
+
+    private static void reject(Totals totals, Consumer<UserImportRowError> errors, long line, String email, String message) {
+        totals.failed.incrementAndGet();
+        errors.accept(new UserImportRowError(line, email, message));
+    }
+
+    // Positions of the email and name columns (name -1 if absent), or null without an email column.
+    private static int[] csvColumns(String header) {
+        List<String> names = csvFields(header);
+        int email = -1;
+        int name = -1;
+        for (int i = 0; i < names.size(); i++) {
+            String column = names.get(i).trim().toLowerCase(Locale.ROOT);
+            if (i == 0 && column.startsWith("\uFEFF")) {
+                column = column.substring(1);
+            }
+            if ("email".equals(column)) {
+                email = i;
+            } else if ("name".equals(column)) {
+                name = i;
+            }
+        }
+        return email < 0 ? null : new int[] {email, name};
+    }
+
+    private static Row csvRow(long line, String text, int[] columns) {
+        List<String> fields = csvFields(text);
+        String email = columns[0] < fields.size() ? fields.get(columns[0]) : null;
+        String name = columns[1] >= 0 && columns[1] < fields.size() ? fields.get(columns[1]) : null;
+        return new Row(line, email, name);
+    }
+
+    // RFC 4180 fields of one line; quoted fields may contain commas and doubled quotes, but not line breaks.
+    private static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field.");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private Row jsonRow(long line, String text) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Not a JSON object: " + e.getOriginalMessage());
+        }
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Not a JSON object.");
+        }
+        JsonNode email = node.get("email");
+        JsonNode name = node.get("name");
+        return new Row(line,
+                email == null || email.isNull() ? null : email.asText(),
+                name == null || name.isNull() ? null : name.asText());
+    }
+
+    private static class Row {
+        final long line;
+        final String email;
+        final String name;
+        boolean inserted;
+        User user;
+
+        Row(long line, String email, String name) {
+            this.line = line;
+            this.email = email == null ? null : email.trim();
+            this.name = name == null || name.isBlank() ? null : name.trim();
+        }
+    }
+
+    private static class Totals {
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong updated = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong customersCreated = new AtomicLong();
+        final AtomicLong customersFailed = new AtomicLong();
+
+        UserImportProgress snapshot(boolean done) {
+            return new UserImportProgress(rows.get(), inserted.get(), updated.get(), failed.get(),
+                    customersCreated.get(), customersFailed.get(), done);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.example.stripeintegration.service;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.example.stripeintegration.entity.User;
 import com.example.stripeintegration.repository.UserRepository;
@@ -9,11 +13,77 @@ import com.example.stripeintegration.repository.UserRepository;
 @Service
 public class Userservice {
 
-    @Autowired
-    private UserRepository userRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final UserCacheInvalidator cacheInvalidator;
+
+    public Userservice(UserRepository userRepository, TransactionTemplate transactionTemplate,
+                       UserCacheInvalidator cacheInvalidator) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+    }
 
+    /**
+     * Registers a user, or updates the name of the user already registered with the same email. The
+     * Stripe customer and default payment method of an existing user are left alone; they are only ever
+     * set by Stripe calls and webhooks.
+     * @param user The user to add; its ID is ignored.
+     * @return The stored user.
+     */
     public User addUser(User user) {
-        return userRepository.save(user);
+        User stored;
+        try {
+            stored = upsert(user);
+        } catch (DataIntegrityViolationException e) {
+            // Another request registered the same email between the lookup and the insert; update that row.
+            stored = upsert(user);
+        }
+        cacheInvalidator.usersChanged(List.of(stored.getId()), true);
+        return stored;
+    }
+
+    /**
+     * Links the user registered with the email to a newly created Stripe customer, unless it already has one.
+     * @param email The email the customer was created with.
+     * @param customerId The Stripe Customer ID.
+     */
+    public void linkStripeCustomer(String email, String customerId) {
+        Long linked = transactionTemplate.execute(status -> userRepository.findLockedByEmail(email)
+                .filter(user -> user.getStripeCustomerId() == null)
+                .map(user -> {
+                    user.setStripeCustomerId(customerId);
+                    return user.getId();
+                })
+                .orElse(null));
+        if (linked != null) {
+            cacheInvalidator.usersChanged(List.of(linked), true);
+        }
+    }
+
+    /**
+     * @return The user registered with the email, from the second-level cache when possible.
+     */
+    public Optional<User> findByEmail(String email) {
+        return userRepository.findByEmail(email);
+    }
+
+    /**
+     * @return The user linked to the Stripe customer, from the second-level cache when possible.
+     */
+    public Optional<User> findByStripeCustomerId(String stripeCustomerId) {
+        return userRepository.findFirstByStripeCustomerIdOrderById(stripeCustomerId);
+    }
+
+    private User upsert(User user) {
+        return transactionTemplate.execute(status -> {
+            User existing = user.getEmail() == null ? null : userRepository.findByEmail(user.getEmail()).orElse(null);
+            if (existing == null) {
+                user.setId(null);
+                return userRepository.saveAndFlush(user);
+            }
+            existing.setName(user.getName());
+            return existing;
+        });
     }
-    
 }
@@ -0,0 +1,254 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.ProcessedWebhookEvent;
+import com.example.stripeintegration.repository.ProcessedWebhookEventRepository;
+import com.example.stripeintegration.support.BoundedLruSet;
+import com.example.stripeintegration.support.RotatingBloomFilter;
+import com.example.stripeintegration.support.SharedStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which Stripe event IDs have already been received so that at-least-once redeliveries are
+ * acknowledged without being logged or handled again.
+ *
+ * Lookups go through an exact LRU set of recent IDs, with a time-windowed Bloom filter deciding whether
+ * an LRU miss needs to be confirmed against the persisted {@code processed_webhook_event} table. The
+ * Bloom filter rotates once per retention period, so it remembers every ID for at least as long as the
+ * table keeps it, and on startup it is loaded with every ID in the table; until that load has finished,
+ * every LRU miss is checked against the table. The common cases (new event, recent duplicate) never
+ * leave memory. Handled events are written to the table in batches off the request thread.
+ *
+ * In cluster mode an event ID that is new to this node is also claimed in the {@link SharedStore}, so a
+ * redelivery that reaches a different owner after the cluster was resized is still recognized.
+ */
+@Service
+public class WebhookDedupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookDedupService.class);
+    private static final int WRITE_BATCH_SIZE = 500;
+    private static final int BLOOM_LOAD_PAGE_SIZE = 10_000;
+
+    private final ProcessedWebhookEventRepository repository;
+    private final SharedStore sharedStore;
+    private final Duration sharedTtl;
+    private final BoundedLruSet recentIds;
+    private final RotatingBloomFilter bloomFilter;
+    private final Duration retention;
+    private volatile boolean bloomFilterLoaded;
+    private final ConcurrentLinkedQueue<ProcessedWebhookEvent> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "webhook-dedup"));
+
+    private final Counter duplicates;
+    private final Counter uniques;
+    private final Counter tableLookups;
+
+    public WebhookDedupService(ProcessedWebhookEventRepository repository,
+                               Optional<SharedStore> sharedStore,
+                               ClusterProperties cluster,
+                               MeterRegistry meterRegistry,
+                               @Value("${webhook.dedup.lru-capacity:100000}") int lruCapacity,
+                               @Value("${webhook.dedup.bloom-expected-per-retention:3500000}") int bloomExpectedPerRetention,
+                               @Value("${webhook.dedup.retention:P7D}") Duration retention) {
+        this.repository = repository;
+        this.sharedStore = sharedStore.orElse(null);
+        this.sharedTtl = cluster.getWebhookDedupTtl();
+        this.recentIds = new BoundedLruSet(lruCapacity);
+        this.bloomFilter = new RotatingBloomFilter(bloomExpectedPerRetention, 0.01);
+        this.retention = retention;
+
+        this.duplicates = Counter.builder("webhook.dedup.lookups").tag("result", "duplicate").register(meterRegistry);
+        this.uniques = Counter.builder("webhook.dedup.lookups").tag("result", "unique").register(meterRegistry);
+        this.tableLookups = Counter.builder("webhook.dedup.table.lookups")
+                .description("LRU misses the Bloom filter could not rule out").register(meterRegistry);
+        Gauge.builder("webhook.dedup.hit.ratio", this, WebhookDedupService::hitRatio).register(meterRegistry);
+        Gauge.builder("webhook.dedup.index.size", recentIds, BoundedLruSet::size).register(meterRegistry);
+        Gauge.builder("webhook.dedup.index.bytes", this, WebhookDedupService::indexSizeInBytes)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        List<String> recent = repository.findRecentEventIds(PageRequest.of(0, Math.max(1, recentIds.capacity())));
+        // Oldest first, so the most recent IDs end up as the most recently used LRU entries.
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            remember(recent.get(i));
+        }
+        logger.info("Webhook dedup index warmed with {} event IDs", recent.size());
+        scheduler.execute(this::loadBloomFilter);
+        scheduler.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(bloomFilter::rotate, retention.toMillis(), retention.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::purgeExpired, 1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    /**
+     * Records a delivery and reports whether it is the first one seen for this event ID.
+     * @param eventId The Stripe event ID.
+     * @return true if the event should be processed, false if it is a duplicate.
+     */
+    public boolean firstDelivery(String eventId) {
+        boolean maybeSeen = !bloomFilterLoaded || bloomFilter.mightContain(eventId);
+        if (!recentIds.add(eventId)) {
+            duplicates.increment();
+            return false;
+        }
+        if (maybeSeen) {
+            // A Bloom false positive, an ID that has aged out of the LRU set, or the filter is still loading.
+            tableLookups.increment();
+            if (repository.existsById(eventId)) {
+                duplicates.increment();
+                return false;
+            }
+        }
+        if (sharedStore != null && !sharedStore.putIfAbsent(sharedKey(eventId), "1", sharedTtl)) {
+            duplicates.increment();
+            return false;
+        }
+        bloomFilter.put(eventId);
+        uniques.increment();
+        return true;
+    }
+
+    /**
+     * Adds an ID to the in-memory index without counting it as a delivery, e.g. when replaying the log.
+     */
+    public void remember(String eventId) {
+        recentIds.add(eventId);
+        bloomFilter.put(eventId);
+    }
+
+    /**
+     * Withdraws an ID accepted by {@link #firstDelivery} whose event could not be stored, so that
+     * Stripe's redelivery is accepted again.
+     */
+    public void forget(String eventId) {
+        recentIds.remove(eventId);
+        if (sharedStore != null) {
+            sharedStore.delete(sharedKey(eventId));
+        }
+    }
+
+    private static String sharedKey(String eventId) {
+        return "webhook-event:" + eventId;
+    }
+
+    /**
+     * Queues a handled event for the persisted index.
+     */
+    public void markProcessed(String eventId, String type) {
+        pendingWrites.add(new ProcessedWebhookEvent(eventId, type, Instant.now()));
+    }
+
+    /**
+     * Writes every queued ID to the table. IDs the table already holds, e.g. of an event replayed from the
+     * log after a restart, are skipped; a batch that cannot be written is queued again.
+     * @return true if everything queued before the call is now stored.
+     */
+    public boolean flush() {
+        // One flush at a time, so a caller never returns while another is still writing what it polled.
+        synchronized (flushLock) {
+            List<ProcessedWebhookEvent> failed = new ArrayList<>();
+            List<ProcessedWebhookEvent> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+            ProcessedWebhookEvent next;
+            while ((next = pendingWrites.poll()) != null) {
+                batch.add(next);
+                if (batch.size() == WRITE_BATCH_SIZE) {
+                    saveBatch(batch, failed);
+                    batch = new ArrayList<>(WRITE_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                saveBatch(batch, failed);
+            }
+            pendingWrites.addAll(failed);
+            return failed.isEmpty();
+        }
+    }
+
+    private void saveBatch(List<ProcessedWebhookEvent> batch, List<ProcessedWebhookEvent> failed) {
+        try {
+            Map<String, ProcessedWebhookEvent> unique = new LinkedHashMap<>();
+            batch.forEach(event -> unique.putIfAbsent(event.getEventId(), event));
+            repository.findExistingEventIds(unique.keySet()).forEach(unique::remove);
+            if (!unique.isEmpty()) {
+                repository.saveAll(unique.values());
+            }
+        } catch (RuntimeException e) {
+            // Most likely another node stored one of the IDs in the meantime; the retry skips it.
+            logger.error("Failed to persist {} processed webhook event IDs, retrying on the next flush", batch.size(), e);
+            failed.addAll(batch);
+        }
+    }
+
+    // Every retained ID, so that one that has left the LRU set is still found after a restart.
+    private void loadBloomFilter() {
+        try {
+            int loaded = 0;
+            String after = "";
+            List<String> page;
+            do {
+                page = repository.findEventIdsAfter(after, PageRequest.of(0, BLOOM_LOAD_PAGE_SIZE));
+                page.forEach(bloomFilter::put);
+                loaded += page.size();
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1);
+                }
+            } while (page.size() == BLOOM_LOAD_PAGE_SIZE);
+            bloomFilterLoaded = true;
+            logger.info("Webhook dedup Bloom filter loaded with {} event IDs", loaded);
+        } catch (RuntimeException e) {
+            // LRU misses keep going to the table; the next start tries again.
+            logger.error("Failed to load the webhook dedup Bloom filter", e);
+        }
+    }
+
+    private void purgeExpired() {
+        try {
+            int deleted = repository.deleteReceivedBefore(Instant.now().minus(retention));
+            if (deleted > 0) {
+                logger.info("Purged {} processed webhook event IDs older than {}", deleted, retention);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to purge processed webhook event IDs", e);
+        }
+    }
+
+    private double hitRatio() {
+        double total = duplicates.count() + uniques.count();
+        return total == 0 ? 0.0 : duplicates.count() / total;
+    }
+
+    private double indexSizeInBytes() {
+        return recentIds.estimatedSizeInBytes() + bloomFilter.sizeInBytes();
+    }
+}
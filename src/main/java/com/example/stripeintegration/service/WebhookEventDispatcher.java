@@ -0,0 +1,344 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.support.KeyedExecutor;
+import com.example.stripeintegration.support.WebhookEventLog;
+import com.stripe.model.Event;
+import com.stripe.net.ApiResource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails the {@link WebhookEventLog} and hands events of the subscribed types to a {@link KeyedExecutor}.
+ *
+ * Events are keyed by the ordering key stored with them (the customer, else the object, else the event),
+ * so the events of one customer or PaymentIntent are handled one at a time in log order, while different
+ * keys are handled in parallel on one lane per core by default. Records logged without a key are keyed by
+ * event ID. Events that still arrive out of order from Stripe are caught by the handler on their created
+ * timestamp. When a lane falls behind the tailing thread blocks on it, so backpressure stops at the log
+ * instead of reaching the servlet threads that append to it. The lowest offset that is not yet fully handled is checkpointed periodically,
+ * once the handlers' and the {@link WebhookDedupService}'s pending writes are stored; after a crash the dispatcher replays from that checkpoint, so handlers see each event at least once.
+ * Handling is timed per event type and outcome into {@code webhook.handled}.
+ *
+ * A handler that fails is retried a few times with a doubling pause, on its lane so later events of
+ * the same key still wait. An event that keeps failing is parked: the checkpoint stays below it, so the
+ * log keeps it (and a restart replays it), and it is resubmitted every redrive interval until it is
+ * handled or has been parked for longer than give-up-after. Parked events are counted in
+ * {@code webhook.consumer.parked}; giving up on one is logged with its offset, which
+ * {@code webhook.consumer.replay-from-offset} can replay from.
+ */
+@Component
+public class WebhookEventDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookEventDispatcher.class);
+    private static final String CHECKPOINT_FILE = "consumer.offset";
+    private static final long TAIL_MIN_BACKOFF_MILLIS = 100;
+    private static final long TAIL_MAX_BACKOFF_MILLIS = 30_000;
+
+    private final WebhookEventLog eventLog;
+    private final WebhookEventHandler eventHandler;
+    private final WebhookDedupService dedupService;
+    private final Path checkpointPath;
+    private final long replayFromOffset;
+    private final MeterRegistry meterRegistry;
+
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration redriveInterval;
+    private final Duration giveUpAfter;
+
+    private final KeyedExecutor consumers;
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    // Offset of each parked event -> when it was first parked.
+    private final ConcurrentSkipListMap<Long, Instant> parked = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "webhook-checkpoint"));
+    private final ScheduledExecutorService redriver = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "webhook-redrive"));
+
+    private volatile long readOffset;
+    private volatile boolean running;
+    private long lastCheckpoint = -1;
+    private Thread tailThread;
+
+    public WebhookEventDispatcher(WebhookEventLog eventLog,
+                                  WebhookEventHandler eventHandler,
+                                  WebhookDedupService dedupService,
+                                  @Value("${webhook.log.dir}") String logDir,
+                                  @Value("${webhook.consumer.threads:0}") int threads,
+                                  @Value("${webhook.consumer.queue-capacity:1000}") int queueCapacity,
+                                  @Value("${webhook.consumer.replay-from-offset:-1}") long replayFromOffset,
+                                  @Value("${webhook.consumer.retry.max-attempts:3}") int maxAttempts,
+                                  @Value("${webhook.consumer.retry.backoff:PT0.2S}") Duration retryBackoff,
+                                  @Value("${webhook.consumer.retry.redrive-interval:PT1M}") Duration redriveInterval,
+                                  @Value("${webhook.consumer.retry.give-up-after:P3D}") Duration giveUpAfter,
+                                  MeterRegistry meterRegistry) {
+        this.eventLog = eventLog;
+        this.eventHandler = eventHandler;
+        this.dedupService = dedupService;
+        this.checkpointPath = Path.of(logDir, CHECKPOINT_FILE);
+        this.replayFromOffset = replayFromOffset;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoff = retryBackoff;
+        this.redriveInterval = redriveInterval;
+        this.giveUpAfter = giveUpAfter;
+        this.meterRegistry = meterRegistry;
+        // 0 means one lane per core.
+        int lanes = threads > 0 ? threads : Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.consumers = new KeyedExecutor("webhook-consumer", lanes, queueCapacity);
+        Gauge.builder("webhook.consumer.pending", consumers, KeyedExecutor::size)
+                .description("Webhook events queued or being handled")
+                .register(meterRegistry);
+        Gauge.builder("webhook.consumer.parked", parked, Map::size)
+                .description("Webhook events whose handler kept failing, waiting to be retried")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        long start = replayFromOffset >= 0 ? replayFromOffset : readCheckpoint();
+        readOffset = Math.max(start, eventLog.getStartOffset());
+        if (readOffset < eventLog.getEndOffset()) {
+            logger.info("Replaying webhook events from offset {} to {}", readOffset, eventLog.getEndOffset());
+            rememberPending(readOffset);
+        }
+        running = true;
+        tailThread = new Thread(this::tail, "webhook-tail");
+        tailThread.start();
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, 1, 1, TimeUnit.SECONDS);
+        redriver.scheduleWithFixedDelay(this::redrive, redriveInterval.toMillis(), redriveInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        tailThread.interrupt();
+        tailThread.join(TimeUnit.SECONDS.toMillis(5));
+        redriver.shutdownNow();
+        consumers.shutdown(10, TimeUnit.SECONDS);
+        checkpointer.shutdown();
+        checkpoint();
+    }
+
+    /**
+     * @return The lowest offset whose event has not been handled yet.
+     */
+    public long committedOffset() {
+        // Read the tail position before the in-flight set, and that before the parked events, in the order a
+        // record moves between them, so one moving concurrently is never skipped.
+        long committed = readOffset;
+        Long lowestInFlight = inFlight.isEmpty() ? null : inFlight.first();
+        if (lowestInFlight != null) {
+            committed = Math.min(committed, lowestInFlight);
+        }
+        Long lowestParked = parked.isEmpty() ? null : parked.firstKey();
+        if (lowestParked != null) {
+            committed = Math.min(committed, lowestParked);
+        }
+        return committed;
+    }
+
+    private void tail() {
+        long backoffMillis = TAIL_MIN_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                WebhookEventLog.Entry entry = eventLog.read(readOffset);
+                if (entry == null) {
+                    eventLog.awaitData(readOffset, 500, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                // Ingestion no longer logs other types, but older log segments may still hold some.
+                if (WebhookEventHandler.SUBSCRIBED_TYPES.contains(entry.getType())) {
+                    submit(entry);
+                }
+                readOffset = entry.getNextOffset();
+                backoffMillis = TAIL_MIN_BACKOFF_MILLIS;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                // Never give up on the log: the offset did not move, so the same record is retried after a pause.
+                logger.error("Webhook tail failed at offset {}, retrying in {} ms", readOffset, backoffMillis, e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, TAIL_MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    // Events still waiting in the log are not in the persisted dedup table yet; index them so a
+    // redelivery that arrives before the replay catches up is still recognized.
+    private void rememberPending(long from) {
+        for (WebhookEventLog.Entry entry = eventLog.read(from); entry != null; entry = eventLog.read(entry.getNextOffset())) {
+            dedupService.remember(entry.getEventId());
+        }
+    }
+
+    // Runs on a fixed delay; an exception escaping it would cancel every later checkpoint.
+    private void checkpoint() {
+        try {
+            checkpointOnce();
+        } catch (RuntimeException e) {
+            logger.error("Webhook consumer checkpoint failed, retrying on the next run", e);
+        }
+    }
+
+    private void checkpointOnce() {
+        long committed = committedOffset();
+        if (committed == lastCheckpoint) {
+            return;
+        }
+        // Handlers write behind, and so does the dedup table; both must be durable before the log can drop
+        // the events, or a crash would let Stripe's redelivery of one through as a first delivery.
+        if (!eventHandler.flush() || !dedupService.flush()) {
+            return;
+        }
+        try {
+            eventLog.flush();
+            Path tmp = checkpointPath.resolveSibling(CHECKPOINT_FILE + ".tmp");
+            Files.writeString(tmp, Long.toString(committed), StandardCharsets.UTF_8);
+            Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            eventLog.truncateBefore(committed);
+            lastCheckpoint = committed;
+        } catch (IOException e) {
+            logger.error("Failed to checkpoint webhook consumer offset {}", committed, e);
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return 0L;
+        }
+        return Long.parseLong(Files.readString(checkpointPath, StandardCharsets.UTF_8).trim());
+    }
+
+    private void submit(WebhookEventLog.Entry entry) throws InterruptedException {
+        String key = entry.getOrderingKey() != null ? entry.getOrderingKey() : entry.getEventId();
+        inFlight.add(entry.getOffset());
+        try {
+            consumers.execute(key, () -> handle(entry));
+        } catch (InterruptedException | RuntimeException e) {
+            inFlight.remove(entry.getOffset());
+            throw e;
+        }
+    }
+
+    private void handle(WebhookEventLog.Entry entry) {
+        boolean handled = false;
+        try {
+            long backoffMillis = retryBackoff.toMillis();
+            for (int attempt = 1; !handled; attempt++) {
+                handled = handleOnce(entry, attempt);
+                if (!handled) {
+                    if (attempt >= maxAttempts || !running) {
+                        break;
+                    }
+                    Thread.sleep(backoffMillis);
+                    backoffMillis *= 2;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Parked before it leaves the in-flight set, so the checkpoint never passes it.
+            if (handled) {
+                parked.remove(entry.getOffset());
+            } else if (parked.putIfAbsent(entry.getOffset(), Instant.now()) == null) {
+                logger.warn("Parked webhook event {} at offset {} after {} failed attempts", entry.getEventId(),
+                        entry.getOffset(), maxAttempts);
+            }
+            inFlight.remove(entry.getOffset());
+        }
+    }
+
+    private boolean handleOnce(WebhookEventLog.Entry entry, int attempt) {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            Event event = ApiResource.GSON.fromJson(
+                    new InputStreamReader(new ByteArrayInputStream(entry.getPayload()), StandardCharsets.UTF_8), Event.class);
+            eventHandler.handle(event);
+            dedupService.markProcessed(entry.getEventId(), entry.getType());
+            return true;
+        } catch (RuntimeException e) {
+            outcome = "failure";
+            logger.error("Webhook handler failed for event {} at offset {} (attempt {})", entry.getEventId(),
+                    entry.getOffset(), attempt, e);
+            return false;
+        } finally {
+            Timer.builder("webhook.handled")
+                    .description("Webhook events handled by the consumers, by event type and outcome")
+                    .tag("type", entry.getType())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Runs on a fixed delay; an exception escaping it would stop parked events from ever being retried.
+    private void redrive() {
+        try {
+            redriveOnce();
+        } catch (RuntimeException e) {
+            logger.error("Redriving parked webhook events failed, retrying on the next run", e);
+        }
+    }
+
+    // Resubmits parked events; they stay parked until a handler succeeds, so the checkpoint cannot pass them meanwhile.
+    private void redriveOnce() {
+        Instant giveUpBefore = Instant.now().minus(giveUpAfter);
+        for (Map.Entry<Long, Instant> parkedEvent : parked.entrySet()) {
+            long offset = parkedEvent.getKey();
+            if (inFlight.contains(offset)) {
+                continue;
+            }
+            WebhookEventLog.Entry entry = eventLog.read(offset);
+            if (entry == null || parkedEvent.getValue().isBefore(giveUpBefore)) {
+                logger.error("Giving up on webhook event {} at offset {}, parked since {}",
+                        entry != null ? entry.getEventId() : null, offset, parkedEvent.getValue());
+                parked.remove(offset);
+                continue;
+            }
+            try {
+                submit(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Could not resubmit parked webhook event {} at offset {}: {}", entry.getEventId(), offset,
+                        e.getMessage());
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.support.EventOrderGuard;
+import com.stripe.model.Customer;
+import com.stripe.model.Event;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.SetupIntent;
+import com.stripe.model.StripeObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Business handling for Stripe webhook events. Runs on the webhook consumer threads, never on the
+ * servlet thread that received the event. PaymentIntent and SetupIntent outcomes are also pushed to the
+ * browsers waiting on them through the {@link PaymentStatusBroadcaster}, and PaymentIntent statuses advance
+ * the {@link PaymentIntentStatusStore}.
+ *
+ * The dispatcher hands over the events of one customer or object one at a time, but Stripe may still
+ * deliver them out of order. An event older (by its created timestamp) than one already applied to the
+ * same object is recorded in the PaymentIntent status history but has no other effect, so a late
+ * payment_failed can never undo a succeeded, nor a late attach a detach.
+ */
+@Service
+public class WebhookEventHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookEventHandler.class);
+
+    /** Event types that are handled; anything else is acknowledged and skipped. */
+    public static final Set<String> SUBSCRIBED_TYPES = Set.of(
+            "payment_intent.succeeded",
+            "payment_intent.payment_failed",
+            "setup_intent.succeeded",
+            "payment_method.attached",
+            "payment_method.detached",
+            "customer.updated");
+
+    private final StripeLookupCache lookupCache;
+    private final DefaultPaymentMethodIndex defaultPaymentMethods;
+    private final PaymentRecordWriter recordWriter;
+    private final PaymentStatusBroadcaster statusBroadcaster;
+    private final PaymentIntentStatusStore statusStore;
+    private final EventOrderGuard orderGuard;
+
+    public WebhookEventHandler(StripeLookupCache lookupCache, DefaultPaymentMethodIndex defaultPaymentMethods,
+                               PaymentRecordWriter recordWriter, PaymentStatusBroadcaster statusBroadcaster,
+                               PaymentIntentStatusStore statusStore,
+                               @Value("${webhook.order-guard.max-size:100000}") long orderGuardMaxSize) {
+        this.lookupCache = lookupCache;
+        this.defaultPaymentMethods = defaultPaymentMethods;
+        this.recordWriter = recordWriter;
+        this.statusBroadcaster = statusBroadcaster;
+        this.statusStore = statusStore;
+        this.orderGuard = new EventOrderGuard(orderGuardMaxSize);
+    }
+
+    /**
+     * Applies a single webhook event.
+     * @param event The deserialized Stripe event.
+     */
+    public void handle(Event event) {
+        switch (event.getType()) {
+            case "payment_intent.succeeded":
+                Optional<StripeObject> piObj = event.getDataObjectDeserializer().getObject();
+                if (piObj.isPresent() && piObj.get() instanceof PaymentIntent) {
+                    PaymentIntent paymentIntent = (PaymentIntent) piObj.get();
+                    logger.info("Webhook: PaymentIntent succeeded for ID: {}. Amount: {}",
+                            paymentIntent.getId(), paymentIntent.getAmount());
+                    recordWriter.recordPaymentIntent(paymentIntent, event.getId(), event.getCreated());
+                    if (current(event, paymentIntent.getId())) {
+                        statusStore.recordEvent(paymentIntent, event.getCreated());
+                        statusBroadcaster.publish(paymentIntent.getClientSecret(), event.getType(), paymentIntent.getId(),
+                                paymentIntent.getStatus(), null);
+                    }
+                } else {
+                    logger.warn("Webhook: Could not deserialize PaymentIntent object for event {}", event.getId());
+                }
+                break;
+            case "payment_intent.payment_failed":
+                Optional<StripeObject> pfObj = event.getDataObjectDeserializer().getObject();
+                if (pfObj.isPresent() && pfObj.get() instanceof PaymentIntent) {
+                    PaymentIntent paymentIntent = (PaymentIntent) pfObj.get();
+                    logger.info("Webhook: PaymentIntent failed for ID: {}. Last error: {}", paymentIntent.getId(),
+                            paymentIntent.getLastPaymentError() != null ? paymentIntent.getLastPaymentError().getMessage() : null);
+                    recordWriter.recordPaymentIntent(paymentIntent, event.getId(), event.getCreated());
+                    if (current(event, paymentIntent.getId())) {
+                        statusStore.recordEvent(paymentIntent, event.getCreated());
+                        statusBroadcaster.publish(paymentIntent.getClientSecret(), event.getType(), paymentIntent.getId(),
+                                paymentIntent.getStatus(),
+                                paymentIntent.getLastPaymentError() != null ? paymentIntent.getLastPaymentError().getMessage() : null);
+                    }
+                } else {
+                    logger.warn("Webhook: Could not deserialize PaymentIntent object for event {}", event.getId());
+                }
+                break;
+            case "setup_intent.succeeded":
+                Optional<StripeObject> siObj = event.getDataObjectDeserializer().getObject();
+                if (siObj.isPresent() && siObj.get() instanceof SetupIntent) {
+                    SetupIntent setupIntent = (SetupIntent) siObj.get();
+                    logger.info("Webhook: SetupIntent succeeded for ID: {}. Customer: {}",
+                            setupIntent.getId(), setupIntent.getCustomer());
+                    // Payment method successfully saved; it becomes the card to charge if the customer has none yet.
+                    defaultPaymentMethods.recordIfAbsent(setupIntent.getCustomer(), setupIntent.getPaymentMethod());
+                    statusBroadcaster.publish(setupIntent.getClientSecret(), event.getType(), setupIntent.getId(),
+                            setupIntent.getStatus(), null);
+                } else {
+                    logger.warn("Webhook: Could not deserialize SetupIntent object for event {}", event.getId());
+                }
+                break;
+            case "payment_method.attached":
+            case "payment_method.detached":
+                Optional<StripeObject> pmObj = event.getDataObjectDeserializer().getObject();
+                if (pmObj.isPresent() && pmObj.get() instanceof PaymentMethod) {
+                    PaymentMethod paymentMethod = (PaymentMethod) pmObj.get();
+                    // A detached payment method no longer names its customer; the old value is in previous_attributes.
+                    String customerId = paymentMethod.getCustomer() != null
+                            ? paymentMethod.getCustomer()
+                            : previousAttribute(event, "customer");
+                    lookupCache.invalidatePaymentMethods(customerId);
+                    if (!current(event, paymentMethod.getId())) {
+                        break;
+                    }
+                    if ("payment_method.attached".equals(event.getType())) {
+                        if ("card".equals(paymentMethod.getType())) {
+                            defaultPaymentMethods.recordIfAbsent(customerId, paymentMethod.getId());
+                        }
+                    } else {
+                        defaultPaymentMethods.removeIfMatches(customerId, paymentMethod.getId());
+                    }
+                } else {
+                    logger.warn("Webhook: Could not deserialize PaymentMethod object for event {}", event.getId());
+                }
+                break;
+            case "customer.updated":
+                Optional<StripeObject> cuObj = event.getDataObjectDeserializer().getObject();
+                if (cuObj.isPresent() && cuObj.get() instanceof Customer) {
+                    Customer customer = (Customer) cuObj.get();
+                    lookupCache.invalidateCustomer(customer.getId());
+                    recordWriter.recordCustomer(customer, event.getCreated());
+                    if (!current(event, customer.getId())) {
+                        break;
+                    }
+                    String defaultPaymentMethod = customer.getInvoiceSettings() != null
+                            ? customer.getInvoiceSettings().getDefaultPaymentMethod()
+                            : null;
+                    if (defaultPaymentMethod != null) {
+                        defaultPaymentMethods.recordDefault(customer.getId(), defaultPaymentMethod);
+                    } else {
+                        // The default was cleared; forget it, whichever card is left gets resolved on the next charge.
+                        defaultPaymentMethods.removeIfMatches(customer.getId(), previousDefaultPaymentMethod(event));
+                    }
+                } else {
+                    logger.warn("Webhook: Could not deserialize Customer object for event {}", event.getId());
+                }
+                break;
+            default:
+                logger.debug("Webhook: Unhandled event type: {}", event.getType());
+        }
+    }
+
+    /**
+     * Persists the effects of every event handled so far.
+     * @return false if some of them could not be written yet.
+     */
+    public boolean flush() {
+        return recordWriter.flush();
+    }
+
+    // False, after logging it, for an event older than one already applied to the object.
+    private boolean current(Event event, String objectId) {
+        if (orderGuard.advance(objectId, event.getCreated())) {
+            return true;
+        }
+        logger.info("Webhook: Skipping event {} ({}) for {}, a newer event was already applied",
+                event.getId(), event.getType(), objectId);
+        return false;
+    }
+
+    private static String previousDefaultPaymentMethod(Event event) {
+        if (event.getData() == null || event.getData().getPreviousAttributes() == null) {
+            return null;
+        }
+        Object invoiceSettings = event.getData().getPreviousAttributes().get("invoice_settings");
+        if (!(invoiceSettings instanceof Map)) {
+            return null;
+        }
+        Object value = ((Map<?, ?>) invoiceSettings).get("default_payment_method");
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static String previousAttribute(Event event, String name) {
+        if (event.getData() == null || event.getData().getPreviousAttributes() == null) {
+            return null;
+        }
+        Object value = event.getData().getPreviousAttributes().get(name);
+        return value instanceof String ? (String) value : null;
+    }
+}
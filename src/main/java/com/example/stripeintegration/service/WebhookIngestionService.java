@@ -0,0 +1,120 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.support.WebhookEventLog;
+import com.example.stripeintegration.support.WebhookEventPeek;
+import com.example.stripeintegration.support.WebhookSignatureVerifier;
+import com.stripe.exception.SignatureVerificationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+
+/**
+ * Front half of the webhook pipeline: verifies the Stripe signature, acknowledges event types that are
+ * not handled without keeping them, drops redeliveries of events that were already received and durably
+ * appends new ones to the {@link WebhookEventLog}. The body stays the bytes it arrived as throughout: it is
+ * verified, peeked at and logged without being decoded into a String or an object graph. Handling happens
+ * later on the {@link WebhookEventDispatcher} consumers, so the servlet thread can acknowledge Stripe as
+ * soon as the append returns. In cluster mode a delivery for an event another node owns is passed on to
+ * that node by the {@link WebhookPartitioner} before it is deduplicated. Deliveries are counted per event
+ * type and outcome in {@code webhook.received}.
+ */
+@Service
+public class WebhookIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookIngestionService.class);
+
+    /**
+     * What became of a verified delivery.
+     */
+    public enum Result {
+        LOGGED,
+        DUPLICATE,
+        // Not one of WebhookEventHandler.SUBSCRIBED_TYPES; acknowledged and dropped.
+        IGNORED,
+        // Acknowledged by the node that owns the event.
+        FORWARDED
+    }
+
+    private final WebhookEventLog eventLog;
+    private final WebhookDedupService dedupService;
+    private final WebhookPartitioner partitioner;
+    private final WebhookSignatureVerifier signatureVerifier;
+    private final MeterRegistry meterRegistry;
+
+    public WebhookIngestionService(WebhookEventLog eventLog,
+                                   WebhookDedupService dedupService,
+                                   WebhookPartitioner partitioner,
+                                   @Value("${stripe.webhook-secret}") String webhookSecret,
+                                   @Value("${stripe.webhook-tolerance-seconds:300}") long toleranceSeconds,
+                                   MeterRegistry meterRegistry) {
+        this.eventLog = eventLog;
+        this.dedupService = dedupService;
+        this.partitioner = partitioner;
+        this.signatureVerifier = new WebhookSignatureVerifier(webhookSecret, toleranceSeconds);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Verifies and records a webhook delivery. The payload is only scanned for its top-level id, type
+     * and created fields and the object and customer it concerns here; the full Event is built by the
+     * consumer that handles it.
+     * @param payload The raw request body.
+     * @param sigHeader The value of the Stripe-Signature header.
+     * @param forwardedBy The node that forwarded the delivery here, or null if it came from Stripe.
+     * @return Whether the event was logged here, was a duplicate, is of a type that is not handled or was
+     *         taken by its owning node.
+     * @throws SignatureVerificationException if the signature does not match.
+     * @throws IOException if the payload is malformed or the event could not be written to the log.
+     */
+    public Result ingest(byte[] payload, String sigHeader, String forwardedBy) throws SignatureVerificationException, IOException {
+        try {
+            signatureVerifier.verify(payload, sigHeader);
+        } catch (SignatureVerificationException e) {
+            // The payload is not trusted, so its type is not either.
+            count("unknown", "invalid_signature");
+            throw e;
+        }
+        WebhookEventPeek peek = WebhookEventPeek.of(payload);
+        if (!WebhookEventHandler.SUBSCRIBED_TYPES.contains(peek.getType())) {
+            count(peek.getType(), "ignored");
+            return Result.IGNORED;
+        }
+        if (forwardedBy == null) {
+            String owner = partitioner.remoteOwner(peek.getCustomerId(), peek.getId());
+            // An unreachable owner must not cost the event; it is handled here instead, possibly out of order.
+            if (owner != null && partitioner.forward(owner, payload, sigHeader)) {
+                count(peek.getType(), "forwarded");
+                return Result.FORWARDED;
+            }
+        }
+        if (!dedupService.firstDelivery(peek.getId())) {
+            logger.debug("Ignoring duplicate delivery of webhook event {}", peek.getId());
+            count(peek.getType(), "duplicate");
+            return Result.DUPLICATE;
+        }
+        try {
+            eventLog.append(peek.getType(), peek.getId(), peek.getOrderingKey(), peek.getCreated(), payload);
+        } catch (IOException | RuntimeException e) {
+            dedupService.forget(peek.getId());
+            count(peek.getType(), "log_failed");
+            throw e;
+        }
+        logger.debug("Logged webhook event {} of type {}", peek.getId(), peek.getType());
+        count(peek.getType(), "logged");
+        return Result.LOGGED;
+    }
+
+    private void count(String type, String outcome) {
+        Counter.builder("webhook.received")
+                .description("Webhook deliveries by event type and outcome")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.stripeintegration.service;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.support.ConsistentHashRing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Assigns every webhook event to one owning node in cluster mode, by consistent hash of the customer it
+ * concerns (or of its event ID when it concerns none), and forwards deliveries that reached another node.
+ *
+ * Events of one customer are therefore logged, deduplicated and handled on one node, in the order they
+ * reached it, whichever node Stripe's delivery landed on. Forwarding passes the original body and
+ * Stripe-Signature on, so the owner verifies the event itself and a forwarded request needs no trust
+ * between nodes. Forwards are counted in {@code webhook.forwarded} by outcome.
+ */
+@Component
+public class WebhookPartitioner {
+
+    /** Marks a delivery forwarded by another node; the receiving node handles it without forwarding again. */
+    public static final String FORWARDED_BY_HEADER = "X-Webhook-Forwarded-By";
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookPartitioner.class);
+
+    private final ClusterProperties cluster;
+    private final ConsistentHashRing<String> ring;
+    private final HttpClient httpClient;
+    private final MeterRegistry meterRegistry;
+
+    public WebhookPartitioner(ClusterProperties cluster, MeterRegistry meterRegistry) {
+        this.cluster = cluster;
+        this.meterRegistry = meterRegistry;
+        if (cluster.isEnabled() && !cluster.getNodes().isEmpty()) {
+            if (!cluster.getNodes().containsKey(cluster.getNodeId())) {
+                throw new IllegalStateException("cluster.node-id " + cluster.getNodeId() + " is not one of cluster.nodes");
+            }
+            this.ring = new ConsistentHashRing<>(cluster.getNodes().keySet(), cluster.getVirtualNodes());
+            this.httpClient = HttpClient.newBuilder()
+                    .connectTimeout(cluster.getForwardTimeout())
+                    .build();
+        } else {
+            this.ring = null;
+            this.httpClient = null;
+        }
+    }
+
+    /**
+     * @param customerId The customer the event concerns, or null.
+     * @param eventId The event ID, which partitions events that concern no customer.
+     * @return The ID of the node that owns the event, or null if it is this one.
+     */
+    public String remoteOwner(String customerId, String eventId) {
+        if (ring == null) {
+            return null;
+        }
+        String owner = ring.nodeFor(customerId != null ? customerId : eventId);
+        return owner.equals(cluster.getNodeId()) ? null : owner;
+    }
+
+    /**
+     * Sends a delivery to its owner's webhook endpoint.
+     * @param owner A node ID returned by {@link #remoteOwner}.
+     * @return true if the owner acknowledged it; false if it has to be handled here instead.
+     */
+    public boolean forward(String owner, byte[] payload, String sigHeader) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(cluster.getNodes().get(owner) + "/api/payments/webhook"))
+                .timeout(cluster.getForwardTimeout())
+                .header("Content-Type", "application/json")
+                .header("Stripe-Signature", sigHeader == null ? "" : sigHeader)
+                .header(FORWARDED_BY_HEADER, cluster.getNodeId())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                .build();
+        String outcome;
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            outcome = response.statusCode() / 100 == 2 ? "acknowledged" : "rejected";
+            if (!"acknowledged".equals(outcome)) {
+                logger.warn("Node {} answered a forwarded webhook with {}", owner, response.statusCode());
+            }
+        } catch (IOException e) {
+            outcome = "unreachable";
+            logger.warn("Could not forward webhook to node {}: {}", owner, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = "unreachable";
+        }
+        Counter.builder("webhook.forwarded")
+                .description("Webhook deliveries forwarded to their owning node, by outcome")
+                .tag("node", owner)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+        return "acknowledged".equals(outcome);
+    }
+}
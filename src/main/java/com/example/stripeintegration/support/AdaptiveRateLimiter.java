@@ -0,0 +1,136 @@
+package com.example.stripeintegration.support;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link TokenBucket} per key (a Stripe resource such as "payment_intents") whose rate follows
+ * additive-increase/multiplicative-decrease: every 429 cuts the rate by {@code decreaseFactor}, and each
+ * interval that saw successes and no 429 raises it by {@code additiveIncrease}, between the min and max
+ * rate. Adjustments are limited to one per interval per key, so a burst of 429s answering requests sent
+ * in the same window only counts once.
+ *
+ * Background work goes through {@link #tryAcquireBackground}, which first takes a token from a second
+ * bucket running at {@code backgroundShare} of the key's rate. Background callers can therefore never use
+ * more than that share, and the rest of the rate is always left to interactive callers.
+ */
+public class AdaptiveRateLimiter {
+
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final double burst;
+    private final double backgroundShare;
+    private final long adjustIntervalNanos;
+    private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<>();
+
+    public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double additiveIncrease,
+                               double decreaseFactor, double burst, double backgroundShare, Duration adjustInterval) {
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.burst = burst;
+        this.backgroundShare = backgroundShare;
+        this.adjustIntervalNanos = adjustInterval.toNanos();
+    }
+
+    /**
+     * Waits for a token for the key.
+     * @return false if none became available within the timeout.
+     */
+    public boolean tryAcquire(String key, long timeout, TimeUnit unit) throws InterruptedException {
+        return limit(key).bucket.tryAcquire(timeout, unit);
+    }
+
+    /**
+     * Waits for a token for the key on behalf of background work, which is held to its share of the rate.
+     * @return false if none became available within the timeout.
+     */
+    public boolean tryAcquireBackground(String key, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Limit limit = limit(key);
+        // A share token taken for a request that then times out is simply lost; background only slows down.
+        return limit.background.tryAcquire(timeout, unit)
+                && limit.bucket.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes a token for the key without blocking.
+     * @return 0 if a token was taken, otherwise how many nanoseconds until the next one is due.
+     */
+    public long reserveOrWait(String key) {
+        return limit(key).bucket.reserveOrWait();
+    }
+
+    /**
+     * Records a request for the key that Stripe did not throttle.
+     */
+    public void onSuccess(String key) {
+        Limit limit = limit(key);
+        synchronized (limit) {
+            long now = System.nanoTime();
+            if (now - limit.lastAdjustNanos >= adjustIntervalNanos && limit.bucket.getRate() < maxRate) {
+                limit.setRate(Math.min(maxRate, limit.bucket.getRate() + additiveIncrease));
+                limit.lastAdjustNanos = now;
+            }
+        }
+    }
+
+    /**
+     * Records a 429 for the key.
+     */
+    public void onThrottled(String key) {
+        Limit limit = limit(key);
+        synchronized (limit) {
+            long now = System.nanoTime();
+            if (now - limit.lastDecreaseNanos >= adjustIntervalNanos) {
+                limit.setRate(Math.max(minRate, limit.bucket.getRate() * decreaseFactor));
+                limit.lastDecreaseNanos = now;
+                // Hold off the next increase for a full interval as well.
+                limit.lastAdjustNanos = now;
+            }
+        }
+    }
+
+    /**
+     * @return The current rate for the key in requests per second.
+     */
+    public double getRate(String key) {
+        return limit(key).bucket.getRate();
+    }
+
+    private Limit limit(String key) {
+        Limit limit = limits.get(key);
+        if (limit != null) {
+            return limit;
+        }
+        return limits.computeIfAbsent(key, k -> new Limit(initialRate, burst, backgroundShare, adjustIntervalNanos));
+    }
+
+    private static final class Limit {
+        private final TokenBucket bucket;
+        private final TokenBucket background;
+        private final double backgroundShare;
+        private long lastAdjustNanos;
+        private long lastDecreaseNanos;
+
+        private Limit(double rate, double burst, double backgroundShare, long adjustIntervalNanos) {
+            this.bucket = new TokenBucket(rate, burst);
+            this.background = new TokenBucket(rate * backgroundShare, Math.max(1, burst * backgroundShare));
+            this.backgroundShare = backgroundShare;
+            this.lastAdjustNanos = System.nanoTime();
+            // The first 429 always counts.
+            this.lastDecreaseNanos = lastAdjustNanos - adjustIntervalNanos;
+        }
+
+        private void setRate(double rate) {
+            bucket.setRate(rate);
+            background.setRate(rate * backgroundShare);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.stripeintegration.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exact, size-bounded set that evicts the least recently added or touched key. All operations are
+ * O(1) under a single monitor, which is cheap next to the network work done per key.
+ */
+public class BoundedLruSet {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Boolean> entries;
+    private long keyChars;
+
+    public BoundedLruSet(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                if (size() > BoundedLruSet.this.maxSize) {
+                    keyChars -= eldest.getKey().length();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true if the key was not present and has been added.
+     */
+    public synchronized boolean add(String key) {
+        if (entries.get(key) != null) {
+            return false;
+        }
+        keyChars += key.length();
+        entries.put(key, Boolean.TRUE);
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        if (entries.remove(key) != null) {
+            keyChars -= key.length();
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.get(key) != null;
+    }
+
+    public int capacity() {
+        return maxSize;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Approximate heap held by the set: entry and string overhead plus the key characters.
+     */
+    public synchronized long estimatedSizeInBytes() {
+        return entries.size() * 96L + keyChars;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.stripeintegration.support;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Count-based circuit breaker. It tracks the outcome of the last {@code windowSize} calls and opens once
+ * at least {@code failureRateThreshold} of a full window failed. While open, calls are refused without
+ * being attempted. After {@code openDuration} a single probe call is let through (half-open); its success
+ * closes the breaker with a fresh window, its failure opens it again. Calls still running from before the
+ * breaker opened cannot close it: only the probe's outcome decides.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final boolean[] window;
+    private final double failureRateThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int position;
+    private int recorded;
+    private int failures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long generation;
+
+    public CircuitBreaker(int windowSize, double failureRateThreshold, Duration openDuration) {
+        this.window = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Asks for permission to make a call. Every permit must be released with exactly one of
+     * {@link Permit#onSuccess()}, {@link Permit#onFailure()} or {@link Permit#onIgnored()}.
+     * @return The permit, or null if the breaker is open.
+     */
+    public synchronized Permit tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return new Permit(generation, false);
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return null;
+                }
+                transition(State.HALF_OPEN);
+                probeInFlight = true;
+                return new Permit(generation, true);
+            default:
+                if (probeInFlight) {
+                    return null;
+                }
+                probeInFlight = true;
+                return new Permit(generation, true);
+        }
+    }
+
+    private synchronized void onSuccess(Permit permit) {
+        if (permit.generation != generation) {
+            // Let through before the last state change; a half-open breaker waits for its probe alone.
+            return;
+        }
+        if (permit.probe) {
+            transition(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    private synchronized void onFailure(Permit permit) {
+        if (permit.generation != generation) {
+            return;
+        }
+        if (permit.probe) {
+            transition(State.OPEN);
+            return;
+        }
+        record(true);
+        if (recorded == window.length && failures >= failureRateThreshold * window.length) {
+            transition(State.OPEN);
+        }
+    }
+
+    private synchronized void onIgnored(Permit permit) {
+        if (permit.probe && permit.generation == generation) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return How long the breaker stays open from now; zero unless it is open.
+     */
+    public synchronized Duration remainingOpen() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0L, openNanos - (System.nanoTime() - openedAt)));
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[position]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[position] = failure;
+        if (failure) {
+            failures++;
+        }
+        position = (position + 1) % window.length;
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+        probeInFlight = false;
+        if (next == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (next == State.CLOSED) {
+            position = 0;
+            recorded = 0;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Permission for one call, tied to the state the breaker was in when it was given. Outcomes of calls
+     * permitted before the breaker last changed state are dropped. Only the first release counts.
+     */
+    public final class Permit {
+
+        private final long generation;
+        private final boolean probe;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long generation, boolean probe) {
+            this.generation = generation;
+            this.probe = probe;
+        }
+
+        public void onSuccess() {
+            if (released.compareAndSet(false, true)) {
+                CircuitBreaker.this.onSuccess(this);
+            }
+        }
+
+        public void onFailure() {
+            if (released.compareAndSet(false, true)) {
+                CircuitBreaker.this.onFailure(this);
+            }
+        }
+
+        /**
+         * Releases a permitted call whose outcome says nothing about the remote side's health.
+         */
+        public void onIgnored() {
+            if (released.compareAndSet(false, true)) {
+                CircuitBreaker.this.onIgnored(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.stripeintegration.support;
+
+import java.time.Duration;
+
+import com.stripe.exception.ApiConnectionException;
+
+/**
+ * Thrown instead of calling Stripe while the {@link CircuitBreaker} of an account is open.
+ */
+public class CircuitOpenException extends ApiConnectionException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public CircuitOpenException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return How long until the breaker lets a probe call through.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.stripeintegration.support;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping keys to nodes. Each node is placed at a number of virtual points, so keys
+ * spread evenly and adding or removing a node only moves the keys of the arcs it gains or loses. Every
+ * node that builds the ring from the same node list agrees on every key's owner. Immutable.
+ *
+ * @param <N> The node identity; its toString() determines its points on the ring.
+ */
+public class ConsistentHashRing<N> {
+
+    private final NavigableMap<Long, N> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<N> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        for (N node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return The node owning the key: the first point at or after the key's hash, wrapping around.
+     */
+    public N nodeFor(String key) {
+        Map.Entry<Long, N> owner = ring.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    // The first 8 bytes of an MD5 digest: stable across JVMs and well mixed, unlike String.hashCode().
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.stripeintegration.support;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Remembers the creation time of the latest event applied per Stripe object, so that an older event
+ * delivered after a newer one can be recognized. Stripe does not guarantee delivery order, and every
+ * event carries a full snapshot of its object, so an older snapshot must not overwrite a newer one.
+ *
+ * Event timestamps have one-second resolution: an event from the same second as the latest one counts as
+ * current and is applied in arrival order. Bounded; an object evicted from here is treated as unseen.
+ */
+public class EventOrderGuard {
+
+    private final Cache<String, Long> latest;
+
+    public EventOrderGuard(long maxSize) {
+        this.latest = Caffeine.newBuilder().maximumSize(maxSize).build();
+    }
+
+    /**
+     * Records an event unless a newer one was already recorded for its object.
+     * @param objectId The ID of the object the event is about.
+     * @param created The event's creation time in epoch seconds.
+     * @return true if the event is current and should be applied; false if a newer one has been.
+     */
+    public boolean advance(String objectId, long created) {
+        if (objectId == null) {
+            return true;
+        }
+        boolean[] current = new boolean[1];
+        latest.asMap().compute(objectId, (id, applied) -> {
+            current[0] = applied == null || created >= applied;
+            return current[0] ? created : applied;
+        });
+        return current[0];
+    }
+}
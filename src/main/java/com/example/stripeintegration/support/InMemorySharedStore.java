@@ -0,0 +1,125 @@
+package com.example.stripeintegration.support;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * {@link SharedStore} inside this JVM, for running cluster mode on a single node and in tests. Only
+ * components of the same process share it. Entries expire individually; messages are delivered on one
+ * background thread, so listeners see them in publish order, as they would from Redis.
+ */
+public class InMemorySharedStore implements SharedStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemorySharedStore.class);
+
+    private final Cache<String, Entry> entries;
+    private final Map<String, List<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "shared-store-pubsub"));
+
+    public InMemorySharedStore(long maxSize) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public String get(String key) {
+        Entry entry = entries.getIfPresent(key);
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public void put(String key, String value, Duration ttl) {
+        entries.put(key, new Entry(value, ttl));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, Duration ttl) {
+        return entries.asMap().putIfAbsent(key, new Entry(value, ttl)) == null;
+    }
+
+    @Override
+    public void delete(String key) {
+        entries.invalidate(key);
+    }
+
+    @Override
+    public boolean deleteIfEquals(String key, String value) {
+        Entry entry = entries.getIfPresent(key);
+        // Removes this very entry, not one put after the check.
+        return entry != null && entry.value.equals(value) && entries.asMap().remove(key, entry);
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        List<Consumer<String>> subscribed = listeners.get(channel);
+        if (subscribed == null) {
+            return;
+        }
+        delivery.execute(() -> {
+            for (Consumer<String> listener : subscribed) {
+                try {
+                    listener.accept(message);
+                } catch (RuntimeException e) {
+                    logger.error("Listener on channel {} failed", channel, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<String> listener) {
+        listeners.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @Override
+    public void close() {
+        delivery.shutdown();
+        try {
+            delivery.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long ttlNanos;
+
+        private Entry(String value, Duration ttl) {
+            this.value = value;
+            this.ttlNanos = ttl.toNanos();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.stripeintegration.support;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.HttpContent;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import com.stripe.net.StripeResponseStream;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * stripe-java transport on top of {@link java.net.http.HttpClient}, replacing the SDK's default
+ * HttpURLConnection client.
+ *
+ * One JDK client is shared by every call, so connections are kept alive and reused (HTTP/2 multiplexes
+ * requests over a single connection where the server supports it). Concurrency towards Stripe is capped
+ * by a semaphore, which also bounds the HTTP/1.1 connection count; a streamed response holds its slot until
+ * its body has been read or closed. Requests can additionally be paced by a
+ * {@link TokenBucket}. Every request is timed into {@code stripe.http.client.requests}, tagged with the
+ * account, method, a templated uri (object IDs replaced by {id}), status and negotiated protocol version, with a percentile histogram so tail latency can be
+ * attributed per endpoint. Rate limiting, retries and circuit breaking are layered on top by
+ * {@link ResilientStripeHttpClient}.
+ */
+public class JdkStripeHttpClient extends com.stripe.net.HttpClient {
+
+    // Managed by the JDK client; setting them explicitly is rejected.
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final String account;
+    private final HttpClient client;
+    private final Function<String, Duration> readTimeouts;
+    private final Duration permitTimeout;
+    private final boolean http2;
+    private final Semaphore permits;
+    private final TokenBucket rateLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+    private final Timer permitWait;
+
+    /**
+     * @param account Name of the Stripe account this client serves; tags its metrics.
+     * @param connectTimeout TCP/TLS connect timeout; also how long a request waits for a concurrency slot.
+     * @param readTimeouts Response timeout for an operation key ("resource.method", see {@link #operationKey}).
+     * @param maxConcurrentRequests Upper bound on requests in flight to Stripe.
+     * @param rateLimit Paces requests before they take a concurrency slot, or null for no pacing.
+     * @param http2 Whether to negotiate HTTP/2 on https connections.
+     */
+    public JdkStripeHttpClient(String account, Duration connectTimeout, Function<String, Duration> readTimeouts,
+                               int maxConcurrentRequests, TokenBucket rateLimit, boolean http2, MeterRegistry meterRegistry) {
+        this.account = account;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.readTimeouts = readTimeouts;
+        this.permitTimeout = connectTimeout;
+        this.http2 = http2;
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.rateLimit = rateLimit;
+        this.meterRegistry = meterRegistry;
+        this.permitWait = Timer.builder("stripe.http.client.permit.wait")
+                .description("Time spent waiting for a free Stripe request slot")
+                .tag("account", account)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("stripe.http.client.in-flight", inFlight, AtomicInteger::get).tag("account", account).register(meterRegistry);
+    }
+
+    /**
+     * Sizes the JDK's HTTP/1.1 keep-alive pool. The JDK reads these once, when its first client is
+     * created, so this must run before any {@link HttpClient} is built in this JVM; values already set
+     * on the command line win.
+     */
+    public static void configureConnectionPool(int maxIdleConnections, Duration keepAlive) {
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", Integer.toString(maxIdleConnections));
+        }
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", Long.toString(keepAlive.toSeconds()));
+        }
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws StripeException {
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8), false);
+        return new StripeResponse(response.statusCode(), HttpHeaders.of(response.headers().map()), response.body());
+    }
+
+    /**
+     * The body is still being received when this returns, so the request keeps its concurrency slot until
+     * the body has been read to the end or closed.
+     */
+    @Override
+    public StripeResponseStream requestStream(StripeRequest request) throws StripeException {
+        HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream(), true);
+        return new StripeResponseStream(response.statusCode(), HttpHeaders.of(response.headers().map()),
+                new PermitReleasingInputStream(response.body()));
+    }
+
+    // With holdPermit, a response that is returned keeps its slot; the caller must release it.
+    private <T> HttpResponse<T> send(StripeRequest request, HttpResponse.BodyHandler<T> bodyHandler, boolean holdPermit)
+            throws StripeException {
+        String method = request.method().name();
+        String uri = uriTemplate(request.url().getPath());
+        acquirePermit(method, uri);
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        String status = "IO_ERROR";
+        String version = "unknown";
+        boolean held = false;
+        try {
+            HttpResponse<T> response = client.send(toHttpRequest(request, uri), bodyHandler);
+            status = Integer.toString(response.statusCode());
+            version = response.version().name();
+            held = holdPermit;
+            return response;
+        } catch (IOException e) {
+            throw new ApiConnectionException(String.format(
+                    "IOException during API request to Stripe (%s): %s Please check your internet connection and try again. "
+                            + "If this problem persists, you should check Stripe's service status at https://status.stripe.com/, "
+                            + "or let us know at support@stripe.com.", request.url(), e.getMessage()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted during API request to Stripe (" + request.url() + ")", e);
+        } finally {
+            if (!held) {
+                releasePermit();
+            }
+            Timer.builder("stripe.http.client.requests")
+                    .tag("account", account)
+                    .tag("method", method)
+                    .tag("uri", uri)
+                    .tag("status", status)
+                    .tag("version", version)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void acquirePermit(String method, String uri) throws ApiConnectionException {
+        long start = System.nanoTime();
+        try {
+            if (rateLimit != null) {
+                rateLimit.acquire();
+            }
+            if (!permits.tryAcquire(permitTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new ApiConnectionException("No free Stripe request slot within " + permitTimeout + " for " + method + " " + uri
+                        + " on account " + account);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for a Stripe request slot for account " + account, e);
+        } finally {
+            permitWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void releasePermit() {
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+
+    private HttpRequest toHttpRequest(StripeRequest request, String uri) throws ApiConnectionException {
+        URI target;
+        try {
+            target = request.url().toURI();
+        } catch (URISyntaxException e) {
+            throw new ApiConnectionException("Invalid Stripe request URL " + request.url(), e);
+        }
+        HttpContent content = request.content();
+        HttpRequest.BodyPublisher body = content == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(content.byteArrayContent());
+        HttpRequest.Builder builder = HttpRequest.newBuilder(target)
+                .method(request.method().name(), body)
+                .timeout(readTimeouts.apply(operationKey(request.method().name(), uri)))
+                .version(http2 && "https".equals(target.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+        for (Map.Entry<String, List<String>> header : request.headers().map().entrySet()) {
+            if (RESTRICTED_HEADERS.contains(header.getKey().toLowerCase())) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        builder.setHeader("User-Agent", buildUserAgentString());
+        builder.setHeader("X-Stripe-Client-User-Agent", buildXStripeClientUserAgentString());
+        if (content != null) {
+            builder.setHeader("Content-Type", content.contentType());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return "resource.method" for a templated path, e.g. "payment_intents.post" for POST /v1/payment_intents/{id}/confirm.
+     */
+    public static String operationKey(String method, String uriTemplate) {
+        return resource(uriTemplate) + "." + method.toLowerCase();
+    }
+
+    /**
+     * @return The first path segment after /v1, e.g. "payment_intents" for /v1/payment_intents/{id}/confirm.
+     */
+    static String resource(String uriTemplate) {
+        String[] segments = uriTemplate.split("/");
+        return segments.length > 2 ? segments[2] : uriTemplate;
+    }
+
+    // Stripe object IDs ("cus_Qx3...", "pi_3P...") have a prefix and carry digits or upper case; resource names never do.
+    static String uriTemplate(String path) {
+        String[] segments = path.split("/");
+        StringBuilder template = new StringBuilder();
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            template.append('/');
+            template.append(isObjectId(segment) ? "{id}" : segment);
+        }
+        return template.length() == 0 ? "/" : template.toString();
+    }
+
+    private static boolean isObjectId(String segment) {
+        if (segment.indexOf('_') < 0) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (Character.isDigit(c) || Character.isUpperCase(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Gives the request's slot back once, when the body reaches its end or is closed, whichever comes first.
+    private class PermitReleasingInputStream extends FilterInputStream {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PermitReleasingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return released(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return released(super.read(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private int released(int read) {
+            if (read < 0) {
+                release();
+            }
+            return read;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                releasePermit();
+            }
+        }
+    }
+}
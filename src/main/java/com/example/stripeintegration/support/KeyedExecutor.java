@@ -0,0 +1,100 @@
+package com.example.stripeintegration.support;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks one at a time per key and in parallel across keys.
+ *
+ * Keys are hashed onto a fixed number of lanes, each a single thread with a bounded queue, so tasks for
+ * one key run in submission order and never concurrently, while different keys spread over every lane.
+ * Two keys that share a lane also share its order, which costs parallelism but never correctness.
+ * A full lane blocks the submitter instead of rejecting, which carries backpressure to the caller.
+ */
+public class KeyedExecutor {
+
+    private final ThreadPoolExecutor[] lanes;
+    private final Semaphore[] capacity;
+
+    /**
+     * @param name Thread name prefix.
+     * @param laneCount Number of lanes, i.e. the maximum parallelism.
+     * @param queueCapacity Tasks each lane may hold, queued or running.
+     */
+    public KeyedExecutor(String name, int laneCount, int queueCapacity) {
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        this.capacity = new Semaphore[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                    runnable -> new Thread(runnable, threadName));
+            // Held from submission until the task has run, so queued plus running never exceeds the queue's
+            // capacity and execute() never has to reject. One more would not do: the running task gives its
+            // permit back before the worker takes the next task, and the queue is still full at that moment.
+            capacity[i] = new Semaphore(queueCapacity);
+        }
+    }
+
+    /**
+     * Queues a task behind every task submitted earlier with the same key.
+     * @throws InterruptedException if interrupted while waiting for room in the key's lane.
+     * @throws java.util.concurrent.RejectedExecutionException if the executor was shut down.
+     */
+    public void execute(String key, Runnable task) throws InterruptedException {
+        int lane = lane(key);
+        Semaphore slots = capacity[lane];
+        slots.acquire();
+        try {
+            lanes[lane].execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Tasks queued or running across all lanes.
+     */
+    public int size() {
+        int size = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            size += lane.getQueue().size() + lane.getActiveCount();
+        }
+        return size;
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Stops accepting tasks and waits for the queued ones to finish.
+     * @return true if every lane finished within the timeout.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = true;
+        for (ThreadPoolExecutor lane : lanes) {
+            terminated &= lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        return terminated;
+    }
+
+    private int lane(String key) {
+        int hash = key.hashCode();
+        // Spread the high bits, as HashMap does, so similar IDs do not crowd into a few lanes.
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.stripeintegration.support;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * {@link SharedStore} on Redis: plain string keys with an expiry, SET NX for {@link #putIfAbsent}, a Lua
+ * script for {@link #deleteIfEquals}, and pub/sub for channels. Keys are prefixed so several deployments
+ * can share one Redis.
+ */
+public class RedisSharedStore implements SharedStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisSharedStore.class);
+    private static final RedisScript<Long> DELETE_IF_EQUALS = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listeners;
+    private final String keyPrefix;
+
+    public RedisSharedStore(RedisConnectionFactory connectionFactory, String keyPrefix) {
+        this.redis = new StringRedisTemplate(connectionFactory);
+        this.listeners = new RedisMessageListenerContainer();
+        this.listeners.setConnectionFactory(connectionFactory);
+        this.listeners.afterPropertiesSet();
+        this.listeners.start();
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public String get(String key) {
+        return redis.opsForValue().get(keyPrefix + key);
+    }
+
+    @Override
+    public void put(String key, String value, Duration ttl) {
+        redis.opsForValue().set(keyPrefix + key, value, ttl);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, Duration ttl) {
+        return Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(keyPrefix + key, value, ttl));
+    }
+
+    @Override
+    public void delete(String key) {
+        redis.delete(keyPrefix + key);
+    }
+
+    @Override
+    public boolean deleteIfEquals(String key, String value) {
+        return Long.valueOf(1L).equals(redis.execute(DELETE_IF_EQUALS, List.of(keyPrefix + key), value));
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        redis.convertAndSend(keyPrefix + channel, message);
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<String> listener) {
+        listeners.addMessageListener((message, pattern) -> {
+            try {
+                listener.accept(new String(message.getBody(), StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                logger.error("Listener on channel {} failed", channel, e);
+            }
+        }, new ChannelTopic(keyPrefix + channel));
+    }
+
+    @Override
+    public void close() {
+        try {
+            listeners.destroy();
+        } catch (Exception e) {
+            logger.warn("Could not stop the Redis listener container", e);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.stripeintegration.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import com.stripe.net.StripeResponseStream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Decides whether a Stripe request is sent, and whether it is sent again, before handing it to the
+ * transport it wraps.
+ *
+ * Each attempt first takes a token from the {@link AdaptiveRateLimiter} of its resource, which slows down
+ * as Stripe answers 429, and then asks the account's {@link CircuitBreaker}, which refuses calls while
+ * Stripe answers with 5xx or not at all. Neither waits long: a caller that cannot get through gets a
+ * {@link RateLimitException} or a {@link CircuitOpenException} straight away. Requests sent inside
+ * {@link #background()} take their token from the background share of the resource instead, and may wait
+ * longer for it, so background work cannot use up the tokens checkout calls need.
+ *
+ * Retries replace the SDK's own loop. They back off exponentially with jitter, honour Retry-After and
+ * Stripe-Should-Retry, and only happen when sending the request twice cannot apply it twice: GET and
+ * DELETE, or a POST that carries an Idempotency-Key (the SDK adds one to every POST when retries are
+ * enabled, and caller-supplied keys are passed through), which Stripe answers from its stored result.
+ */
+public class ResilientStripeHttpClient extends com.stripe.net.HttpClient {
+
+    private static final String SHOULD_RETRY_HEADER = "Stripe-Should-Retry";
+    private static final ThreadLocal<Boolean> BACKGROUND = new ThreadLocal<>();
+
+    private final String account;
+    private final com.stripe.net.HttpClient delegate;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final Duration rateLimitWait;
+    private final Duration backgroundRateLimitWait;
+    private final CircuitBreaker circuitBreaker;
+    private final MeterRegistry meterRegistry;
+    private final Set<String> gaugedResources = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param account Name of the Stripe account this client serves; tags its metrics.
+     * @param delegate The transport that actually sends requests.
+     * @param rateLimitWait How long an attempt may wait for a token of its resource.
+     * @param backgroundRateLimitWait The same for attempts sent inside {@link #background()}.
+     */
+    public ResilientStripeHttpClient(String account, com.stripe.net.HttpClient delegate, AdaptiveRateLimiter rateLimiter,
+                                     Duration rateLimitWait, Duration backgroundRateLimitWait, CircuitBreaker circuitBreaker,
+                                     MeterRegistry meterRegistry) {
+        this.account = account;
+        this.delegate = delegate;
+        this.rateLimiter = rateLimiter;
+        this.rateLimitWait = rateLimitWait;
+        this.backgroundRateLimitWait = backgroundRateLimitWait;
+        this.circuitBreaker = circuitBreaker;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("stripe.http.client.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("0 closed, 1 open, 2 half-open")
+                .tag("account", account)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Marks the requests the current thread sends as background work until the returned scope is closed.
+     * @return The scope; closing it restores what was in effect before.
+     */
+    public static BackgroundScope background() {
+        Boolean previous = BACKGROUND.get();
+        BACKGROUND.set(Boolean.TRUE);
+        return () -> {
+            if (previous == null) {
+                BACKGROUND.remove();
+            }
+        };
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws StripeException {
+        return send(request, delegate::request, StripeResponse::code);
+    }
+
+    @Override
+    public StripeResponseStream requestStream(StripeRequest request) throws StripeException {
+        return send(request, delegate::requestStream, StripeResponseStream::code);
+    }
+
+    @Override
+    public StripeResponse requestWithRetries(StripeRequest request) throws StripeException {
+        return sendWithBackoff(request, this::requestWithTelemetry, StripeResponse::code, StripeResponse::headers, response -> null);
+    }
+
+    @Override
+    public StripeResponseStream requestStreamWithRetries(StripeRequest request) throws StripeException {
+        return sendWithBackoff(request, this::requestStreamWithTelemetry, StripeResponseStream::code, StripeResponseStream::headers,
+                StripeResponseStream::body);
+    }
+
+    private <T> T send(StripeRequest request, Attempt<T> attempt, ToIntFunction<T> code) throws StripeException {
+        String uri = JdkStripeHttpClient.uriTemplate(request.url().getPath());
+        String resource = JdkStripeHttpClient.resource(uri);
+        if (gaugedResources.add(resource)) {
+            Gauge.builder("stripe.http.client.rate-limit", rateLimiter, limiter -> limiter.getRate(resource))
+                    .description("Current adaptive request rate per second")
+                    .tag("account", account)
+                    .tag("resource", resource)
+                    .register(meterRegistry);
+        }
+        boolean background = BACKGROUND.get() != null;
+        Duration wait = background ? backgroundRateLimitWait : rateLimitWait;
+        try {
+            boolean acquired = background
+                    ? rateLimiter.tryAcquireBackground(resource, wait.toNanos(), TimeUnit.NANOSECONDS)
+                    : rateLimiter.tryAcquire(resource, wait.toNanos(), TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                rejected(resource, "rate_limit");
+                throw new RateLimitException(String.format("Client-side rate limit for %s on account %s (%.1f/s) had no capacity within %s",
+                        resource, account, rateLimiter.getRate(resource), wait), null, null, "client_rate_limited", 429, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for the " + resource + " rate limit of account " + account, e);
+        }
+        CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (permit == null) {
+            rejected(resource, "circuit_open");
+            throw new CircuitOpenException("Stripe calls for account " + account + " are suspended after repeated failures",
+                    circuitBreaker.remainingOpen());
+        }
+
+        T response;
+        try {
+            response = attempt.apply(request);
+        } catch (ApiConnectionException e) {
+            // Only network failures say something about Stripe; a full local request pool does not.
+            if (e.getCause() instanceof IOException) {
+                permit.onFailure();
+            } else {
+                permit.onIgnored();
+            }
+            throw e;
+        } catch (StripeException | RuntimeException e) {
+            permit.onIgnored();
+            throw e;
+        }
+        int status = code.applyAsInt(response);
+        if (status == 429) {
+            rateLimiter.onThrottled(resource);
+            permit.onIgnored();
+        } else if (status >= 500) {
+            permit.onFailure();
+        } else {
+            rateLimiter.onSuccess(resource);
+            permit.onSuccess();
+        }
+        return response;
+    }
+
+    private <T> T sendWithBackoff(StripeRequest request, Attempt<T> attempt, ToIntFunction<T> code,
+                                  Function<T, HttpHeaders> headers, Function<T, Closeable> body) throws StripeException {
+        Integer configured = request.options().getMaxNetworkRetries();
+        int maxRetries = configured == null ? 0 : configured;
+        for (int retry = 0; ; retry++) {
+            T response = null;
+            StripeException failure = null;
+            try {
+                response = attempt.apply(request);
+            } catch (StripeException e) {
+                failure = e;
+            }
+            String reason = retry < maxRetries && isIdempotent(request)
+                    ? retryReason(response == null ? 0 : code.applyAsInt(response), response == null ? null : headers.apply(response), failure)
+                    : null;
+            if (reason == null) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+            if (response != null) {
+                discard(body.apply(response));
+            }
+            Counter.builder("stripe.http.client.retries")
+                    .tag("account", account)
+                    .tag("uri", JdkStripeHttpClient.uriTemplate(request.url().getPath()))
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+            try {
+                TimeUnit.NANOSECONDS.sleep(backoff(retry, response == null ? null : headers.apply(response)).toNanos());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+        }
+    }
+
+    private static boolean isIdempotent(StripeRequest request) {
+        String method = request.method().name();
+        return "GET".equals(method) || "DELETE".equals(method) || request.headers().firstValue("Idempotency-Key").isPresent();
+    }
+
+    // Returns what to tag the retry with, or null if the outcome is final.
+    private static String retryReason(int status, HttpHeaders headers, StripeException failure) {
+        if (failure != null) {
+            // Local rejections (rate limit, open circuit, no free slot) are not helped by an immediate retry.
+            return failure instanceof ApiConnectionException && failure.getCause() instanceof IOException ? "io_error" : null;
+        }
+        String shouldRetry = headers.firstValue(SHOULD_RETRY_HEADER).orElse(null);
+        if ("false".equals(shouldRetry)) {
+            return null;
+        }
+        if ("true".equals(shouldRetry) || status == 409 || status == 429 || status == 502 || status == 503 || status == 504) {
+            return Integer.toString(status);
+        }
+        return null;
+    }
+
+    // Exponential with equal jitter: half the step is fixed, half random, so callers that failed together spread out.
+    private static Duration backoff(int retry, HttpHeaders headers) {
+        long step = Math.min(maxNetworkRetriesDelay.toNanos(), minNetworkRetriesDelay.toNanos() << Math.min(retry, 20));
+        long delay = step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+        Optional<String> retryAfter = headers == null ? Optional.empty() : headers.firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            try {
+                long requested = TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.get().trim()));
+                delay = Math.max(delay, Math.min(requested, maxNetworkRetriesDelay.toNanos()));
+            } catch (NumberFormatException e) {
+                // An HTTP date; the computed backoff is close enough.
+            }
+        }
+        return Duration.ofNanos(delay);
+    }
+
+    private void rejected(String resource, String reason) {
+        Counter.builder("stripe.http.client.rejected")
+                .description("Stripe requests refused locally before being sent")
+                .tag("account", account)
+                .tag("resource", resource)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static void discard(Closeable body) {
+        if (body == null) {
+            return;
+        }
+        try {
+            body.close();
+        } catch (IOException e) {
+            // The connection is dropped either way.
+        }
+    }
+
+    /**
+     * Ends a {@link #background()} section; closing it throws nothing.
+     */
+    @FunctionalInterface
+    public interface BackgroundScope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @FunctionalInterface
+    private interface Attempt<T> {
+        T apply(StripeRequest request) throws StripeException;
+    }
+}
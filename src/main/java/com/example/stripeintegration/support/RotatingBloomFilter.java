@@ -0,0 +1,91 @@
+package com.example.stripeintegration.support;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A time-windowed Bloom filter made of two generations. New keys go into the current generation and
+ * lookups check both; {@link #rotate()} drops the older generation, so a key is remembered for
+ * between one and two windows while memory stays fixed. Lock-free apart from rotation.
+ */
+public class RotatingBloomFilter {
+
+    private final int bitCount;
+    private final int hashCount;
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+
+    /**
+     * @param expectedKeysPerWindow Keys expected within one window.
+     * @param falsePositiveRate Target false-positive probability per generation, e.g. 0.01.
+     */
+    public RotatingBloomFilter(int expectedKeysPerWindow, double falsePositiveRate) {
+        double bits = -expectedKeysPerWindow * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, Math.ceil(bits)));
+        this.hashCount = Math.max(1, (int) Math.round(bitCount / (double) expectedKeysPerWindow * Math.log(2)));
+        this.current = new AtomicLongArray((bitCount + 63) / 64);
+        this.previous = new AtomicLongArray((bitCount + 63) / 64);
+    }
+
+    public void put(CharSequence key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        AtomicLongArray bits = current;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long value = bits.get(word);
+            while ((value & mask) == 0 && !bits.compareAndSet(word, value, value | mask)) {
+                value = bits.get(word);
+            }
+        }
+    }
+
+    /**
+     * @return false if the key was definitely not added in the last two windows.
+     */
+    public boolean mightContain(CharSequence key) {
+        long hash = hash(key);
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    public synchronized void rotate() {
+        previous = current;
+        current = new AtomicLongArray(previous.length());
+    }
+
+    /**
+     * @return Bytes held by both generations.
+     */
+    public long sizeInBytes() {
+        return 2L * current.length() * Long.BYTES;
+    }
+
+    private boolean contains(AtomicLongArray bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64-bit FNV-1a followed by a murmur3 finalizer; the two halves feed double hashing.
+    private static long hash(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
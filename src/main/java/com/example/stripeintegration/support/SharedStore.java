@@ -0,0 +1,46 @@
+package com.example.stripeintegration.support;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Key-value store and message channel shared by every node of a cluster.
+ *
+ * Values are strings with a time to live; callers namespace their own keys. Messages published on a
+ * channel are delivered to every subscriber on every node, including the publishing one, on a thread
+ * owned by the store, in the order they were published.
+ */
+public interface SharedStore extends AutoCloseable {
+
+    /**
+     * @return The value, or null if the key is absent or expired.
+     */
+    String get(String key);
+
+    void put(String key, String value, Duration ttl);
+
+    /**
+     * Sets the key only if it is absent or expired.
+     * @return true if this call set it.
+     */
+    boolean putIfAbsent(String key, String value, Duration ttl);
+
+    void delete(String key);
+
+    /**
+     * Deletes the key only if it holds the value, so a lock whose TTL ran out is not released for the
+     * node that took it over.
+     * @return true if this call deleted it.
+     */
+    boolean deleteIfEquals(String key, String value);
+
+    void publish(String channel, String message);
+
+    /**
+     * Registers a listener for every message published on the channel from now on.
+     */
+    void subscribe(String channel, Consumer<String> listener);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,107 @@
+package com.example.stripeintegration.support;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent calls for the same key into one.
+ *
+ * The first caller for a key becomes the leader: it registers a future, runs the call on its own thread
+ * and completes the future. Callers that arrive while the call is running wait on that future instead of
+ * running the call again. Nothing is remembered once the call finishes; this is not a cache.
+ *
+ * The only shared state is a ConcurrentHashMap, so callers for different keys never wait on each other
+ * and a waiter's lookup is a lock-free read.
+ *
+ * @param <K> The key identifying identical calls.
+ * @param <V> The call result, shared by every caller of the same flight.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+
+    /**
+     * Runs the call, or joins an identical call already in flight.
+     * @param key The call's identity.
+     * @param call The work to run if no identical call is in flight.
+     * @return The result of the leader's call.
+     * @throws E the exception thrown by the leader's call.
+     * @throws InterruptedException if interrupted while waiting for the leader.
+     */
+    public <E extends Exception> V execute(K key, Call<V, E> call) throws E, InterruptedException {
+        CompletableFuture<V> flight = flights.get(key);
+        if (flight == null) {
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            flight = flights.putIfAbsent(key, mine);
+            if (flight == null) {
+                return lead(key, mine, call);
+            }
+        }
+        followers.increment();
+        return await(flight);
+    }
+
+    /**
+     * @return How many calls actually ran.
+     */
+    public long getLeaderCount() {
+        return leaders.sum();
+    }
+
+    /**
+     * @return How many callers shared another caller's result instead of running their own call.
+     */
+    public long getFollowerCount() {
+        return followers.sum();
+    }
+
+    /**
+     * @return The number of calls currently in flight.
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    private <E extends Exception> V lead(K key, CompletableFuture<V> flight, Call<V, E> call) throws E {
+        leaders.increment();
+        try {
+            V value = call.call();
+            flight.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    // The leader's call can only throw E or an unchecked exception, so the cast below is safe.
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> V await(CompletableFuture<V> flight) throws E, InterruptedException {
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (E) cause;
+        }
+    }
+
+    /**
+     * The work behind a flight.
+     */
+    @FunctionalInterface
+    public interface Call<V, E extends Exception> {
+        V call() throws E;
+    }
+}
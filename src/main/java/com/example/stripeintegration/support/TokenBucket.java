@@ -0,0 +1,88 @@
+package com.example.stripeintegration.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that paces callers to a target rate while allowing short bursts up to its capacity.
+ * The rate can be changed at runtime, which lets callers slow down when Stripe starts returning 429s.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a token is available.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = reserveOrWait()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Blocks until a token is available or the timeout elapses.
+     * @return true if a token was taken.
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long waitNanos;
+        while ((waitNanos = reserveOrWait()) > 0) {
+            if (System.nanoTime() + waitNanos > deadline) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a token if one is available right now.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized double getRate() {
+        return ratePerSecond;
+    }
+
+    public synchronized void setRate(double ratePerSecond) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    /**
+     * Takes a token if one is available right now; for callers that must not block while they wait.
+     * @return 0 after taking a token, otherwise how many nanoseconds until the next one is due.
+     */
+    public synchronized long reserveOrWait() {
+        refill();
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return 0L;
+        }
+        return Math.max(1L, (long) ((1.0 - tokens) / ratePerSecond * 1_000_000_000L));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / 1e9 * ratePerSecond);
+        lastRefillNanos = now;
+    }
+}
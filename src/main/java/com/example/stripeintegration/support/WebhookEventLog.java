@@ -0,0 +1,327 @@
+package com.example.stripeintegration.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import lombok.Value;
+
+/**
+ * Append-only, file-backed log of verified webhook events.
+ *
+ * The log is split into fixed-size segments that are memory-mapped; each segment file is named after
+ * the offset of its first byte, so an offset is simply a byte position in the logical stream. Records
+ * are framed as {@code [int length][int crc32][body]} and a zero length marks the end of written data
+ * (fresh segments are zero-filled by the OS). On open, the tail segment is scanned and anything after
+ * the last record with a valid checksum is discarded, which drops a record torn by a crash.
+ *
+ * Appends are serialized; reads are lock-free and only ever see records below the published end offset.
+ */
+public class WebhookEventLog implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_HEADER_BYTES = 8;
+    // Version 2 added the ordering key; version 1 records are still read, with a null key.
+    private static final byte FORMAT_VERSION = 2;
+    private static final byte FORMAT_VERSION_WITHOUT_KEY = 1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean forceOnAppend;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object appendMonitor = new Object();
+
+    private Segment active;
+    private volatile long endOffset;
+
+    public WebhookEventLog(Path directory, int segmentBytes, boolean forceOnAppend) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.forceOnAppend = forceOnAppend;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Appends an event to the log without an ordering key.
+     * @see #append(String, String, String, long, byte[])
+     */
+    public long append(String type, String eventId, long created, byte[] payload) throws IOException {
+        return append(type, eventId, null, created, payload);
+    }
+
+    /**
+     * Appends an event to the log.
+     * @param type The Stripe event type (e.g., "payment_intent.succeeded").
+     * @param eventId The Stripe event ID.
+     * @param orderingKey The key the event must be handled in order with, or null.
+     * @param created The event creation time in epoch seconds.
+     * @param payload The raw, signature-verified event JSON.
+     * @return The offset of the appended record.
+     * @throws IOException if a new segment cannot be created.
+     */
+    public long append(String type, String eventId, String orderingKey, long created, byte[] payload) throws IOException {
+        byte[] body = encode(type, eventId, orderingKey, created, payload);
+        int frameLength = FRAME_HEADER_BYTES + body.length;
+        if (frameLength + 4 > segmentBytes) {
+            throw new IOException("Webhook event of " + body.length + " bytes does not fit in a log segment of " + segmentBytes + " bytes");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        synchronized (appendMonitor) {
+            // Keep room for a trailing zero length so readers can always detect the end of a segment.
+            if (active.writePosition + frameLength + 4 > segmentBytes) {
+                active = openSegment(endOffset, true);
+            }
+            long offset = endOffset;
+            ByteBuffer buffer = active.buffer;
+            int position = active.writePosition;
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.put(position + FRAME_HEADER_BYTES, body);
+            // The length goes in last so a torn write is never mistaken for a complete record.
+            buffer.putInt(position, body.length);
+            if (forceOnAppend) {
+                active.buffer.force();
+            }
+            active.writePosition = position + frameLength;
+            endOffset = offset + frameLength;
+            appendMonitor.notifyAll();
+            return offset;
+        }
+    }
+
+    /**
+     * Reads the record at the given offset.
+     * @param offset A record offset previously returned by {@link #append} or {@link Entry#getNextOffset()}.
+     * @return The record, or null if nothing has been written at that offset yet.
+     */
+    public Entry read(long offset) {
+        if (offset >= endOffset) {
+            return null;
+        }
+        Map.Entry<Long, Segment> floor = segments.floorEntry(offset);
+        if (floor == null) {
+            throw new IllegalArgumentException("Offset " + offset + " has already been truncated from the webhook event log");
+        }
+        Segment segment = floor.getValue();
+        int position = (int) (offset - floor.getKey());
+        ByteBuffer view = segment.buffer.duplicate();
+        int length = view.getInt(position);
+        if (length <= 0) {
+            // End of this segment; the next record starts the following segment.
+            Long next = segments.higherKey(floor.getKey());
+            return next == null ? null : read(next);
+        }
+        byte[] body = new byte[length];
+        view.get(position + FRAME_HEADER_BYTES, body);
+        return decode(offset, offset + FRAME_HEADER_BYTES + length, body);
+    }
+
+    /**
+     * Blocks until a record exists at the given offset or the timeout elapses.
+     * @return true if data is available at the offset.
+     */
+    public boolean awaitData(long offset, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (appendMonitor) {
+            while (offset >= endOffset) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(appendMonitor, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Forces all written records to the storage device.
+     */
+    public void flush() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Deletes segments that only contain records below the given offset.
+     * @param offset The lowest offset that must stay readable.
+     */
+    public void truncateBefore(long offset) throws IOException {
+        synchronized (appendMonitor) {
+            for (Map.Entry<Long, Segment> entry : segments.headMap(offset, true).entrySet()) {
+                Long next = segments.higherKey(entry.getKey());
+                if (next == null || next > offset || entry.getValue() == active) {
+                    break;
+                }
+                segments.remove(entry.getKey());
+                entry.getValue().channel.close();
+                Files.deleteIfExists(segmentPath(entry.getKey()));
+            }
+        }
+    }
+
+    public long getStartOffset() {
+        return segments.firstKey();
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendMonitor) {
+            flush();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            segments.clear();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> baseOffsets = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(baseOffsets::add);
+        }
+        if (baseOffsets.isEmpty()) {
+            active = openSegment(0L, true);
+            endOffset = 0L;
+            return;
+        }
+        for (Long baseOffset : baseOffsets) {
+            active = openSegment(baseOffset, false);
+        }
+        active.writePosition = scanValidEnd(active.buffer);
+        // Wipe whatever follows the last intact record so it can never be read back as data.
+        for (int i = active.writePosition; i < segmentBytes; i++) {
+            active.buffer.put(i, (byte) 0);
+        }
+        endOffset = baseOffsets.get(baseOffsets.size() - 1) + active.writePosition;
+    }
+
+    private int scanValidEnd(ByteBuffer buffer) {
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (position + FRAME_HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_HEADER_BYTES + length > segmentBytes) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(position + FRAME_HEADER_BYTES, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private Segment openSegment(long baseOffset, boolean create) throws IOException {
+        Path path = segmentPath(baseOffset);
+        FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        Segment segment = new Segment(channel, buffer);
+        segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return directory.resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encode(String type, String eventId, String orderingKey, long created, byte[] payload) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        byte[] idBytes = eventId.getBytes(StandardCharsets.UTF_8);
+        // An empty key stands for none.
+        byte[] keyBytes = orderingKey == null ? new byte[0] : orderingKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + typeBytes.length + 2 + idBytes.length + 2 + keyBytes.length
+                + 8 + 4 + payload.length);
+        body.put(FORMAT_VERSION);
+        body.putShort((short) typeBytes.length).put(typeBytes);
+        body.putShort((short) idBytes.length).put(idBytes);
+        body.putShort((short) keyBytes.length).put(keyBytes);
+        body.putLong(created);
+        body.putInt(payload.length).put(payload);
+        return body.array();
+    }
+
+    private static Entry decode(long offset, long nextOffset, byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_WITHOUT_KEY) {
+            throw new UncheckedIOException(new IOException("Unsupported webhook log record version " + version + " at offset " + offset));
+        }
+        String type = readString(buffer);
+        String eventId = readString(buffer);
+        String orderingKey = null;
+        if (version == FORMAT_VERSION) {
+            orderingKey = readString(buffer);
+            if (orderingKey.isEmpty()) {
+                orderingKey = null;
+            }
+        }
+        long created = buffer.getLong();
+        byte[] payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+        return new Entry(offset, nextOffset, type, eventId, orderingKey, created, payload);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(FileChannel channel, MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * A record read back from the log.
+     */
+    @Value
+    public static class Entry {
+        long offset;
+        long nextOffset;
+        String type;
+        String eventId;
+        // Null if the event was logged without one.
+        String orderingKey;
+        long created;
+        byte[] payload;
+    }
+}
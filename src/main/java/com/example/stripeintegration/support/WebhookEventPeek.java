@@ -0,0 +1,141 @@
+package com.example.stripeintegration.support;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.Value;
+
+/**
+ * Top-level identity of a Stripe event, read with a streaming parser so that nested objects are
+ * skipped token by token instead of being materialized. The only nested values read are the ID of the
+ * event's object and the customer it belongs to, which webhook handling is ordered and partitioned by.
+ */
+@Value
+public class WebhookEventPeek {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    String id;
+    String type;
+    long created;
+    // data.object.id; null if the payload has no data object.
+    String objectId;
+    // data.object.customer (or, once detached, data.previous_attributes.customer), or data.object.id for
+    // customer events; null if the event concerns no customer.
+    String customerId;
+
+    /**
+     * @param payload The raw event JSON.
+     * @return The event's id, type, created timestamp, object and customer.
+     * @throws IOException if the payload is not a JSON object or lacks an id or type.
+     */
+    public static WebhookEventPeek of(byte[] payload) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            return read(parser);
+        }
+    }
+
+    private static WebhookEventPeek read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Webhook payload is not a JSON object");
+        }
+        String id = null;
+        String type = null;
+        long created = 0L;
+        DataObject data = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id":
+                    id = parser.getValueAsString();
+                    break;
+                case "type":
+                    type = parser.getValueAsString();
+                    break;
+                case "created":
+                    created = parser.getValueAsLong();
+                    break;
+                case "data":
+                    data = new DataObject();
+                    if (value == JsonToken.START_OBJECT) {
+                        readData(parser, data);
+                    } else if (value == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+            }
+            if (id != null && type != null && created != 0L && data != null) {
+                break;
+            }
+        }
+        if (id == null || type == null) {
+            throw new IOException("Webhook payload is missing id or type");
+        }
+        if (data == null) {
+            data = new DataObject();
+        }
+        String customerId = data.customer != null ? data.customer
+                : data.previousCustomer != null ? data.previousCustomer
+                : "customer".equals(data.objectType) ? data.objectId
+                : null;
+        return new WebhookEventPeek(id, type, created, data.objectId, customerId);
+    }
+
+    /**
+     * @return The key events must be handled in order by: the customer, else the object, else the event itself.
+     */
+    public String getOrderingKey() {
+        return customerId != null ? customerId : objectId != null ? objectId : id;
+    }
+
+    // Positioned on data's START_OBJECT; consumes it up to its END_OBJECT.
+    private static void readData(JsonParser parser, DataObject data) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("object".equals(field) && value == JsonToken.START_OBJECT) {
+                readObject(parser, data, false);
+            } else if ("previous_attributes".equals(field) && value == JsonToken.START_OBJECT) {
+                readObject(parser, data, true);
+            } else if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readObject(JsonParser parser, DataObject data, boolean previous) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                // Also skips an expanded customer object; webhook payloads carry the ID.
+                parser.skipChildren();
+            } else if ("customer".equals(field)) {
+                if (previous) {
+                    data.previousCustomer = parser.getValueAsString();
+                } else {
+                    data.customer = parser.getValueAsString();
+                }
+            } else if (!previous && "id".equals(field)) {
+                data.objectId = parser.getValueAsString();
+            } else if (!previous && "object".equals(field)) {
+                data.objectType = parser.getValueAsString();
+            }
+        }
+    }
+
+    private static final class DataObject {
+        private String objectId;
+        private String objectType;
+        private String customer;
+        private String previousCustomer;
+    }
+}
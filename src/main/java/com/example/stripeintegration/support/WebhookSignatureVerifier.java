@@ -0,0 +1,117 @@
+package com.example.stripeintegration.support;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.net.Webhook;
+
+/**
+ * Checks a Stripe-Signature header against the raw request body, with the same rules and messages as
+ * {@link Webhook.Signature#verifyHeader} but without decoding the body into a String first: the HMAC is
+ * computed over the timestamp, a dot and the body bytes as received, with one keyed {@link Mac} per thread.
+ */
+public class WebhookSignatureVerifier {
+
+    private static final String SCHEME = Webhook.Signature.EXPECTED_SCHEME;
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final long toleranceSeconds;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param secret The endpoint's signing secret.
+     * @param toleranceSeconds How old a signature may be; 0 or less accepts any age.
+     */
+    public WebhookSignatureVerifier(String secret, long toleranceSeconds) {
+        this.toleranceSeconds = toleranceSeconds;
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+    }
+
+    /**
+     * @param payload The request body exactly as received.
+     * @param sigHeader The value of the Stripe-Signature header.
+     * @throws SignatureVerificationException if no signature in the header matches or it is too old.
+     */
+    public void verify(byte[] payload, String sigHeader) throws SignatureVerificationException {
+        long timestamp = -1L;
+        List<String> signatures = new ArrayList<>(2);
+        if (sigHeader != null) {
+            for (String item : sigHeader.split(",")) {
+                int eq = item.indexOf('=');
+                if (eq <= 0) {
+                    continue;
+                }
+                String name = item.substring(0, eq).trim();
+                String value = item.substring(eq + 1).trim();
+                if ("t".equals(name)) {
+                    try {
+                        timestamp = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        timestamp = -1L;
+                    }
+                } else if (SCHEME.equals(name)) {
+                    signatures.add(value);
+                }
+            }
+        }
+        if (timestamp < 0) {
+            throw new SignatureVerificationException("Unable to extract timestamp and signatures from header", sigHeader);
+        }
+        if (signatures.isEmpty()) {
+            throw new SignatureVerificationException("No signatures found with expected scheme", sigHeader);
+        }
+        byte[] expected = sign(timestamp, payload);
+        boolean matched = false;
+        for (String signature : signatures) {
+            byte[] decoded = decodeHex(signature);
+            matched |= decoded != null && MessageDigest.isEqual(expected, decoded);
+        }
+        if (!matched) {
+            throw new SignatureVerificationException("No signatures found matching the expected signature for payload", sigHeader);
+        }
+        if (toleranceSeconds > 0 && timestamp < Webhook.Util.getTimeNow() - toleranceSeconds) {
+            throw new SignatureVerificationException("Timestamp outside the tolerance zone", sigHeader);
+        }
+    }
+
+    private byte[] sign(long timestamp, byte[] payload) {
+        Mac mac = macs.get();
+        mac.update(Long.toString(timestamp).getBytes(StandardCharsets.US_ASCII));
+        mac.update((byte) '.');
+        mac.update(payload);
+        return mac.doFinal();
+    }
+
+    // Null if the value is not hex; such a signature can never match.
+    private static byte[] decodeHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
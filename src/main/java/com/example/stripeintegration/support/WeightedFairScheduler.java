@@ -0,0 +1,196 @@
+package com.example.stripeintegration.support;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out a bounded number of concurrent slots to callers queued in lanes, in weighted fair order.
+ *
+ * Every lane has a weight and its own concurrency budget; all lanes together share a total budget.
+ * While slots are free callers go straight through. Once callers have to queue, each freed slot goes to
+ * the head of the backlogged lane with the lowest virtual pass, and granting a slot advances that lane's
+ * pass by 1/weight (stride scheduling), so under contention lanes get slots in proportion to their
+ * weights. A lane that was idle re-enters at the current virtual time rather than with credit saved up,
+ * and a lane that is at its own budget is skipped, so a low-weight lane can never hold more than its
+ * budget however much work it queues.
+ *
+ * @param <L> The lane identifier, typically an enum.
+ */
+public class WeightedFairScheduler<L> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<L, Lane> lanes = new LinkedHashMap<>();
+    private final int maxConcurrent;
+    private int running;
+    private int waiting;
+    private double virtualTime;
+
+    /**
+     * @param maxConcurrent Slots shared by all lanes.
+     */
+    public WeightedFairScheduler(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Adds a lane. Lanes must all be added before the scheduler is used.
+     * @param weight Relative share of slots while several lanes are backlogged.
+     * @param maxConcurrent Slots this lane may hold at once.
+     * @return this.
+     */
+    public WeightedFairScheduler<L> lane(L lane, double weight, int maxConcurrent) {
+        lanes.put(lane, new Lane(weight, maxConcurrent));
+        return this;
+    }
+
+    /**
+     * Waits for a slot in the lane. A caller that gets one must {@link #release} it.
+     * @return false if no slot was granted within the timeout.
+     */
+    public boolean acquire(L laneId, long timeout, TimeUnit unit) throws InterruptedException {
+        Lane lane = lane(laneId);
+        lock.lock();
+        try {
+            if (waiting == 0 && canRun(lane)) {
+                grant(lane);
+                return true;
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            if (lane.queue.isEmpty()) {
+                lane.pass = Math.max(lane.pass, virtualTime);
+            }
+            lane.queue.addLast(waiter);
+            waiting++;
+            dispatch();
+            long remaining = unit.toNanos(timeout);
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0L) {
+                        lane.queue.remove(waiter);
+                        waiting--;
+                        return false;
+                    }
+                    remaining = waiter.signal.awaitNanos(remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // Too late to back out; hand the slot on instead of leaking it.
+                    releaseLocked(lane);
+                } else {
+                    lane.queue.remove(waiter);
+                    waiting--;
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(L laneId) {
+        Lane lane = lane(laneId);
+        lock.lock();
+        try {
+            releaseLocked(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Callers queued in the lane.
+     */
+    public int getQueueDepth(L laneId) {
+        Lane lane = lane(laneId);
+        lock.lock();
+        try {
+            return lane.queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Slots the lane holds right now.
+     */
+    public int getRunning(L laneId) {
+        Lane lane = lane(laneId);
+        lock.lock();
+        try {
+            return lane.running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked(Lane lane) {
+        lane.running--;
+        running--;
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (waiting > 0 && running < maxConcurrent) {
+            Lane next = null;
+            for (Lane lane : lanes.values()) {
+                if (!lane.queue.isEmpty() && lane.running < lane.maxConcurrent && (next == null || lane.pass < next.pass)) {
+                    next = lane;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Waiter waiter = next.queue.removeFirst();
+            waiting--;
+            virtualTime = next.pass;
+            grant(next);
+            waiter.granted = true;
+            waiter.signal.signal();
+        }
+    }
+
+    private boolean canRun(Lane lane) {
+        return running < maxConcurrent && lane.running < lane.maxConcurrent;
+    }
+
+    private void grant(Lane lane) {
+        lane.running++;
+        running++;
+        lane.pass += 1.0 / lane.weight;
+    }
+
+    private Lane lane(L laneId) {
+        Lane lane = lanes.get(laneId);
+        if (lane == null) {
+            throw new IllegalArgumentException("Unknown lane " + laneId);
+        }
+        return lane;
+    }
+
+    private static final class Lane {
+        private final double weight;
+        private final int maxConcurrent;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private int running;
+        private double pass;
+
+        private Lane(double weight, int maxConcurrent) {
+            this.weight = weight;
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    private static final class Waiter {
+        private final Condition signal;
+        private boolean granted;
+
+        private Waiter(Condition signal) {
+            this.signal = signal;
+        }
+    }
+}
@@ -29,6 +29,57 @@ const listCardsButton = document.getElementById('list-cards-button');
 const chargeCustomerButton = document.getElementById('charge-customer-button');
 
 
+// --- Payment status pushed by the backend (WebSocket) ---
+// The backend pushes PaymentIntent/SetupIntent outcomes as their webhooks are handled, so the page
+// never has to ask the backend (and the backend never has to ask Stripe) whether a payment went through.
+const statusWatchers = new Map(); // intent ID -> { clientSecret, onUpdate }
+let statusSocket;
+// How long to wait for a push before asking the backend directly (socket down, webhook delayed).
+const STATUS_PUSH_TIMEOUT_MS = 10000;
+
+function connectStatusSocket() {
+    const protocol = location.protocol === 'https:' ? 'wss:' : 'ws:';
+    statusSocket = new WebSocket(`${protocol}//${location.host}/ws/payment-status`);
+    statusSocket.addEventListener('open', () => {
+        // After a reconnect; the backend replays the latest known status of each intent.
+        statusWatchers.forEach(watcher => statusSocket.send(JSON.stringify({ subscribe: watcher.clientSecret })));
+    });
+    statusSocket.addEventListener('message', event => {
+        const update = JSON.parse(event.data);
+        const watcher = statusWatchers.get(update.id);
+        if (watcher) {
+            watcher.onUpdate(update);
+        }
+    });
+    statusSocket.addEventListener('close', () => setTimeout(connectStatusSocket, 2000));
+}
+
+// Calls onUpdate with every pushed status of the intent until stopWatchingIntent is called.
+function watchIntentStatus(clientSecret, onUpdate) {
+    const intentId = clientSecret.split('_secret_')[0];
+    statusWatchers.set(intentId, { clientSecret, onUpdate });
+    if (statusSocket.readyState === WebSocket.OPEN) {
+        statusSocket.send(JSON.stringify({ subscribe: clientSecret }));
+    }
+}
+
+function stopWatchingIntent(intentId) {
+    statusWatchers.delete(intentId);
+}
+
+// Runs fallback if the intent is still watched after STATUS_PUSH_TIMEOUT_MS, i.e. no final status was pushed.
+function fallBackIfNotPushed(intentId, fallback) {
+    setTimeout(() => {
+        if (statusWatchers.has(intentId)) {
+            stopWatchingIntent(intentId);
+            fallback();
+        }
+    }, STATUS_PUSH_TIMEOUT_MS);
+}
+
+connectStatusSocket();
+
+
 // --- Initial setup on page load ---
 // Fetches publishable key from backend and initializes Stripe elements
 fetch('/api/payments/config')
@@ -158,6 +209,13 @@ saveCardButton.addEventListener('click', async () => {
         if (response.ok) {
             setupIntentClientSecret = data.clientSecret;
             saveCardStatusDisplay.textContent = 'SetupIntent created. Confirming card details...';
+            // The card list is refreshed once the backend has handled setup_intent.succeeded.
+            watchIntentStatus(setupIntentClientSecret, update => {
+                if (update.event === 'setup_intent.succeeded') {
+                    stopWatchingIntent(update.id);
+                    listCustomerCards();
+                }
+            });
 
             // Step 2: Confirm the SetupIntent on the client-side using Stripe.js
             const { setupIntent, error } = await stripe.confirmCardSetup(setupIntentClientSecret, {
@@ -180,6 +238,8 @@ saveCardButton.addEventListener('click', async () => {
                 saveCardStatusDisplay.textContent = `Card saved successfully! Payment Method ID: ${setupIntent.paymentMethod}`;
                 saveCardStatusDisplay.className = 'success-message';
                 listCustomerCards(); // Refresh the list of saved cards after successful save
+                // Refreshed again on the push; without one, once more after the timeout.
+                fallBackIfNotPushed(setupIntent.id, listCustomerCards);
             } else {
                 saveCardStatusDisplay.textContent = `Setup status: ${setupIntent.status}`;
                 saveCardStatusDisplay.className = 'error-message';
@@ -319,15 +379,17 @@ async function chargeCustomerWithSavedCard(paymentMethodId = null) {
         if (response.ok) {
             if (data.clientSecret) { // Payment requires action (e.g., 3D Secure)
                 chargeStatusDisplay.textContent = 'Payment requires action, redirecting for authentication...';
+                watchIntentStatus(data.clientSecret, update => showPushedPaymentStatus(update, chargeStatusDisplay));
                 // Handle 3D Secure or other required actions
                 const { error: confirmError } = await stripe.confirmCardPayment(data.clientSecret);
                 if (confirmError) {
                     chargeStatusDisplay.textContent = `Authentication failed: ${confirmError.message}`;
                     chargeStatusDisplay.className = 'error-message';
                 } else {
-                    // Payment succeeded after authentication
-                    chargeStatusDisplay.textContent = 'Payment authenticated and succeeded (check webhook/dashboard).';
-                    chargeStatusDisplay.className = 'success-message';
+                    // Authenticated; the final status is pushed once the backend has handled the webhook.
+                    chargeStatusDisplay.textContent = 'Payment authenticated, waiting for confirmation...';
+                    const paymentIntentId = data.clientSecret.split('_secret_')[0];
+                    fallBackIfNotPushed(paymentIntentId, () => confirmPaymentWithBackend(paymentIntentId, chargeStatusDisplay));
                 }
             } else { // Payment succeeded directly without further action
                 chargeStatusDisplay.textContent = `Charge successful! PaymentIntent ID: ${data.paymentIntentId}`;
@@ -379,6 +441,8 @@ async function createPaymentIntentAndConfirm() {
         if (response.ok) {
             clientSecret = data.clientSecret;
             statusDisplay.textContent = 'PaymentIntent created. Confirming card...';
+            // Subscribe before confirming so the webhook's outcome cannot arrive before we listen for it.
+            watchIntentStatus(clientSecret, update => showPushedPaymentStatus(update, statusDisplay));
 
             const { paymentIntent, error } = await stripe.confirmCardPayment(clientSecret, {
                 payment_method: {
@@ -395,16 +459,10 @@ async function createPaymentIntentAndConfirm() {
                 statusDisplay.textContent = 'Payment failed.';
                 statusDisplay.className = 'error-message';
             } else if (paymentIntent.status === 'succeeded') {
-                statusDisplay.textContent = 'Payment succeeded! Transaction ID: ' + paymentIntent.id;
+                // The backend pushes its own confirmation when the webhook arrives; /confirm-payment only if it doesn't.
+                statusDisplay.textContent = 'Payment succeeded! Transaction ID: ' + paymentIntent.id + '. Waiting for confirmation...';
                 statusDisplay.className = 'success-message';
-
-                // Optional: Notify your backend of the successful confirmation for final record update
-                await fetch('/api/payments/confirm-payment', {
-                    method: 'POST',
-                    headers: { 'Content-Type': 'application/json' },
-                    body: JSON.stringify({ paymentIntentId: paymentIntent.id })
-                });
-
+                fallBackIfNotPushed(paymentIntent.id, () => confirmPaymentWithBackend(paymentIntent.id, statusDisplay));
             } else {
                 statusDisplay.textContent = `Payment status: ${paymentIntent.status}`;
                 statusDisplay.className = 'error-message';
@@ -421,4 +479,39 @@ async function createPaymentIntentAndConfirm() {
     } finally {
         submitButton.disabled = false;
     }
-}
\ No newline at end of file
+}
+
+// Shows a pushed PaymentIntent outcome; a failed attempt keeps watching, since the customer may retry.
+function showPushedPaymentStatus(update, display) {
+    if (update.event === 'payment_intent.succeeded') {
+        stopWatchingIntent(update.id);
+        display.textContent = `Payment confirmed! Transaction ID: ${update.id}`;
+        display.className = 'success-message';
+    } else if (update.event === 'payment_intent.payment_failed') {
+        display.textContent = `Payment failed: ${update.message || update.status}`;
+        display.className = 'error-message';
+    }
+}
+
+// Asks the backend for the final status of a payment whose confirmation was not pushed in time.
+async function confirmPaymentWithBackend(paymentIntentId, display) {
+    try {
+        const response = await fetch('/api/payments/confirm-payment', {
+            method: 'POST',
+            headers: { 'Content-Type': 'application/json' },
+            body: JSON.stringify({ paymentIntentId: paymentIntentId })
+        });
+        const data = await response.json();
+        if (response.ok) {
+            display.textContent = `Payment confirmed! Transaction ID: ${paymentIntentId}`;
+            display.className = 'success-message';
+        } else {
+            display.textContent = data.message || 'Payment could not be confirmed.';
+            display.className = 'error-message';
+        }
+    } catch (error) {
+        console.error('Error confirming payment with backend:', error);
+        display.textContent = 'Payment could not be confirmed. Please check your payment history.';
+        display.className = 'error-message';
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.stripeintegration.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.example.stripeintegration.service.TenantConcurrencyLimiter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+class TenantConcurrencyFilterTest {
+
+	private final TenantConcurrencyLimiter limiter = new TenantConcurrencyLimiter(new SimpleMeterRegistry(), 1, 10,
+			new String[0], Duration.ZERO);
+	private final TenantConcurrencyFilter filter = new TenantConcurrencyFilter(limiter, true);
+
+	@Test
+	void anAsyncResponseKeepsItsPermitUntilItCompletes() throws Exception {
+		MockHttpServletRequest request = request("/api/reactive/payments/create-payment-intent");
+		request.setAsyncSupported(true);
+		filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new HttpServlet() {
+			@Override
+			protected void service(HttpServletRequest req, HttpServletResponse resp) {
+				req.startAsync();
+			}
+		}));
+		assertFalse(limiter.tryAcquire(TenantConcurrencyLimiter.DEFAULT_TENANT));
+
+		((MockAsyncContext) request.getAsyncContext()).complete();
+		assertTrue(limiter.tryAcquire(TenantConcurrencyLimiter.DEFAULT_TENANT));
+	}
+
+	@Test
+	void aBlockingResponseReleasesItsPermitOnReturn() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request("/api/payments/charge-customer"), response, new MockFilterChain());
+		assertEquals(200, response.getStatus());
+		assertTrue(limiter.tryAcquire(TenantConcurrencyLimiter.DEFAULT_TENANT));
+	}
+
+	@Test
+	void skipsWebhooksAndConfigOnBothStacks() throws Exception {
+		assertTrue(limiter.tryAcquire(TenantConcurrencyLimiter.DEFAULT_TENANT));
+		for (String path : new String[] { "/api/payments/webhook", "/api/payments/config", "/api/reactive/payments/config" }) {
+			MockHttpServletResponse response = new MockHttpServletResponse();
+			filter.doFilter(request(path), response, new MockFilterChain());
+			assertEquals(200, response.getStatus(), path);
+		}
+		MockHttpServletResponse limited = new MockHttpServletResponse();
+		filter.doFilter(request("/api/reactive/payments/customers"), limited, new MockFilterChain());
+		assertEquals(429, limited.getStatus());
+	}
+
+	private static MockHttpServletRequest request(String path) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+		request.addHeader(TenantConcurrencyFilter.TENANT_HEADER, "someone-new");
+		return request;
+	}
+}
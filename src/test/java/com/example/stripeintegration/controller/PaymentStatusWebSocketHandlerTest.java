@@ -0,0 +1,63 @@
+package com.example.stripeintegration.controller;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.example.stripeintegration.service.PaymentStatusBroadcaster;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentStatusWebSocketHandlerTest {
+
+	private final PaymentStatusBroadcaster broadcaster = new PaymentStatusBroadcaster(new ObjectMapper(), new SimpleMeterRegistry(),
+			Optional.empty(), Duration.ofSeconds(5), 65536, 2, 1, 1000, Duration.ofMinutes(10));
+	private final PaymentStatusWebSocketHandler handler = new PaymentStatusWebSocketHandler(broadcaster, new ObjectMapper(), 1024);
+
+	@AfterEach
+	void stop() throws Exception {
+		broadcaster.stop();
+	}
+
+	@Test
+	void closesASessionThatSubscribesTooOften() throws Exception {
+		WebSocketSession session = session();
+		handler.afterConnectionEstablished(session);
+
+		handler.handleMessage(session, new TextMessage("{\"subscribe\":\"pi_1_secret_a\"}"));
+		handler.handleMessage(session, new TextMessage("{\"subscribe\":\"pi_2_secret_b\"}"));
+		verify(session, never()).close(CloseStatus.POLICY_VIOLATION.withReason("Too many subscriptions"));
+
+		handler.handleMessage(session, new TextMessage("{\"subscribe\":\"pi_3_secret_c\"}"));
+		verify(session).close(CloseStatus.POLICY_VIOLATION.withReason("Too many subscriptions"));
+	}
+
+	@Test
+	void closesASessionThatSendsSomethingElse() throws Exception {
+		WebSocketSession session = session();
+		handler.afterConnectionEstablished(session);
+
+		handler.handleMessage(session, new TextMessage("{\"subscribe\":\"pi_1\"}"));
+		verify(session).close(CloseStatus.BAD_DATA.withReason("Expected {\"subscribe\": client secret}"));
+	}
+
+	private static WebSocketSession session() {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn("s1");
+		when(session.isOpen()).thenReturn(true);
+		when(session.getAttributes()).thenReturn(new HashMap<>());
+		return session;
+	}
+}
@@ -0,0 +1,112 @@
+package com.example.stripeintegration.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closed-loop load generator for the charge-customer endpoint, used to compare the platform-thread and
+ * virtual-thread execution modes of /api/payments, and either of them with the non-blocking
+ * /api/reactive/payments. Not a unit test; run it by hand against a running instance.
+ *
+ * <pre>
+ * docker run --rm -p 12111:12111 stripe/stripe-mock
+ * STRIPE_API_BASE=http://localhost:12111 STRIPE_SECRET_KEY=sk_test_123 VIRTUAL_THREADS_ENABLED=false ./mvnw spring-boot:run
+ * ./mvnw test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.example.stripeintegration.load.ChargeLoadDriver \
+ *     -Dexec.args="http://localhost:8081 platform 1000,2500,5000,10000"
+ * # same instance, reactive endpoints: -Dexec.args="http://localhost:8081 reactive 1000,10000,25000 reactive"
+ * # restart with VIRTUAL_THREADS_ENABLED=true (and a per-tenant limit above the tested concurrency) and rerun with "virtual"
+ * </pre>
+ *
+ * The optional fourth argument picks the endpoint set, "mvc" (default) or "reactive". Levels in the tens
+ * of thousands need a matching open-files limit (ulimit -n) on both sides, and a Stripe stand-in that
+ * keeps up; stripe-mock answers at once, so add latency in front of it to see requests pile up.
+ *
+ * Each concurrency level keeps that many charges in flight until 5x as many have completed, then prints
+ * one row: throughput, latency percentiles, errors and 429s (from the tenant limiter on the MVC path, the
+ * client-side rate limit on either).
+ */
+public class ChargeLoadDriver {
+
+	private static final String BODY = "{\"customerId\":\"cus_load\",\"paymentMethodId\":\"pm_card_visa\",\"amount\":1000,\"currency\":\"usd\"}";
+
+	public static void main(String[] args) throws Exception {
+		String baseUrl = args.length > 0 ? args[0] : "http://localhost:8081";
+		String label = args.length > 1 ? args[1] : "unlabelled";
+		int[] levels = Arrays.stream((args.length > 2 ? args[2] : "1000,2500,5000,10000").split(","))
+				.mapToInt(Integer::parseInt).toArray();
+		String api = args.length > 3 ? args[3] : "mvc";
+		String path = "reactive".equals(api) ? "/api/reactive/payments/charge-customer" : "/api/payments/charge-customer";
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			HttpClient client = HttpClient.newBuilder()
+					.executor(executor)
+					.connectTimeout(Duration.ofSeconds(10))
+					.build();
+			URI uri = URI.create(baseUrl + path);
+			System.out.printf("%-10s %8s %10s %9s %9s %9s %8s %8s%n",
+					"mode", "inflight", "req/s", "p50 ms", "p95 ms", "p99 ms", "errors", "429s");
+			for (int level : levels) {
+				run(client, executor, uri, label, level, level * 5);
+			}
+		}
+	}
+
+	private static void run(HttpClient client, ExecutorService executor, URI uri, String label, int inFlight, int total)
+			throws InterruptedException {
+		long[] latencies = new long[total];
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger errors = new AtomicInteger();
+		AtomicInteger throttled = new AtomicInteger();
+		Semaphore window = new Semaphore(inFlight);
+		CountDownLatch done = new CountDownLatch(total);
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/json")
+				.timeout(Duration.ofSeconds(60))
+				.POST(HttpRequest.BodyPublishers.ofString(BODY))
+				.build();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < total; i++) {
+			window.acquire();
+			executor.execute(() -> {
+				long sent = System.nanoTime();
+				try {
+					HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+					if (response.statusCode() == 429) {
+						throttled.incrementAndGet();
+					} else if (response.statusCode() >= 400) {
+						errors.incrementAndGet();
+					}
+				} catch (Exception e) {
+					errors.incrementAndGet();
+				} finally {
+					latencies[next.getAndIncrement()] = System.nanoTime() - sent;
+					window.release();
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(latencies);
+		System.out.printf("%-10s %8d %10.0f %9.1f %9.1f %9.1f %8d %8d%n",
+				label, inFlight, total / seconds,
+				percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+				errors.get(), throttled.get());
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))] / 1e6;
+	}
+}
@@ -0,0 +1,111 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.example.stripeintegration.dto.BatchChargeItemResult;
+import com.example.stripeintegration.dto.BatchChargeRequest;
+import com.example.stripeintegration.dto.ChargeCustomerRequest;
+import com.example.stripeintegration.entity.BatchChargeItem;
+import com.example.stripeintegration.repository.BatchChargeItemRepository;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.CardException;
+import com.stripe.model.PaymentIntent;
+
+class BatchChargeServiceTest {
+
+	private final StripeAccount account = new StripeAccount("default", null, null, null, null, null, 0, null, null);
+	private final StripeService stripeService = mock(StripeService.class);
+	private final BatchChargeItemRepository repository = mock(BatchChargeItemRepository.class);
+	private final List<BatchChargeItem> stored = new ArrayList<>();
+	private final BatchChargeService service = new BatchChargeService(stripeService, repository, 4, 1000);
+
+	BatchChargeServiceTest() {
+		when(repository.findByBatchIdOrderByItemIndex("batch-1")).thenAnswer(invocation -> List.copyOf(stored));
+		when(repository.saveAll(any())).thenAnswer(invocation -> {
+			Iterable<BatchChargeItem> items = invocation.getArgument(0);
+			items.forEach(item -> {
+				stored.removeIf(existing -> existing.getItemIndex() == item.getItemIndex());
+				stored.add(item);
+			});
+			return items;
+		});
+	}
+
+	@Test
+	void reusesTheIdempotencyKeyWhenTheOutcomeIsUnknown() throws Exception {
+		when(stripeService.chargeCustomerWithSavedCard(eq(account), anyString(), isNull(), anyLong(), anyString(), isNull(), anyString()))
+				.thenThrow(new ApiConnectionException("Read timed out"))
+				.thenThrow(new ApiConnectionException("Circuit open"))
+				.thenReturn(paymentIntent("succeeded"));
+
+		assertEquals("failed", run().get(0).getStatus());
+		assertEquals("failed", run().get(0).getStatus());
+		assertEquals("succeeded", run().get(0).getStatus());
+		assertEquals(List.of("batch-1:0:1", "batch-1:0:1", "batch-1:0:1"), keysSent());
+	}
+
+	@Test
+	void movesToANewKeyAfterADefinitiveFailure() throws Exception {
+		when(stripeService.chargeCustomerWithSavedCard(eq(account), anyString(), isNull(), anyLong(), anyString(), isNull(), anyString()))
+				.thenThrow(new CardException("Your card was declined.", null, "card_declined", null, "generic_decline", null, 402, null))
+				.thenThrow(new ApiConnectionException("Read timed out"))
+				.thenReturn(paymentIntent("succeeded"));
+
+		run();
+		run();
+		run();
+		assertEquals(List.of("batch-1:0:1", "batch-1:0:2", "batch-1:0:2"), keysSent());
+	}
+
+	@Test
+	void skipsItemsThatAlreadySucceeded() throws Exception {
+		when(stripeService.chargeCustomerWithSavedCard(eq(account), anyString(), isNull(), anyLong(), anyString(), isNull(), anyString()))
+				.thenReturn(paymentIntent("succeeded"));
+
+		run();
+		List<BatchChargeItemResult> resumed = run();
+		assertEquals(1, resumed.size());
+		assertEquals(true, resumed.get(0).isResumed());
+		assertEquals(List.of("batch-1:0:1"), keysSent());
+	}
+
+	private List<BatchChargeItemResult> run() throws InterruptedException {
+		ChargeCustomerRequest item = new ChargeCustomerRequest();
+		item.setCustomerId("cus_1");
+		item.setAmount(1000L);
+		BatchChargeRequest request = new BatchChargeRequest();
+		request.setBatchId("batch-1");
+		request.setItems(List.of(item));
+		List<BatchChargeItemResult> results = new ArrayList<>();
+		service.chargeAll(account, request, results::add);
+		return results;
+	}
+
+	private List<String> keysSent() throws Exception {
+		ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+		Mockito.verify(stripeService, Mockito.atLeastOnce()).chargeCustomerWithSavedCard(eq(account), anyString(), isNull(), anyLong(),
+				anyString(), isNull(), keys.capture());
+		return keys.getAllValues();
+	}
+
+	private static PaymentIntent paymentIntent(String status) {
+		PaymentIntent paymentIntent = new PaymentIntent();
+		paymentIntent.setId("pi_1");
+		paymentIntent.setStatus(status);
+		return paymentIntent;
+	}
+}
@@ -0,0 +1,112 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.InMemorySharedStore;
+import com.example.stripeintegration.support.SharedStore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DefaultPaymentMethodIndexTest {
+
+	private final User user = new User();
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+	DefaultPaymentMethodIndexTest() {
+		user.setId(1L);
+		user.setStripeCustomerId("cus_1");
+		when(userRepository.findLockedByStripeCustomerIdOrderById("cus_1")).thenReturn(List.of(user));
+		when(userRepository.findDefaultPaymentMethodIds(anyString())).thenAnswer(invocation ->
+				"cus_1".equals(invocation.getArgument(0)) && user.getDefaultPaymentMethodId() != null
+						? List.of(user.getDefaultPaymentMethodId())
+						: List.of());
+		when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+				invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(mock(TransactionStatus.class)));
+	}
+
+	@Test
+	void recordIfAbsentKeepsTheIndexedPaymentMethod() {
+		DefaultPaymentMethodIndex index = index(null, "local");
+		index.recordIfAbsent("cus_1", "pm_1");
+		index.recordIfAbsent("cus_1", "pm_2");
+
+		assertEquals("pm_1", index.find("cus_1"));
+		assertEquals("pm_1", user.getDefaultPaymentMethodId());
+	}
+
+	@Test
+	void recordIfAbsentKeepsAPaymentMethodStoredBeforeARestart() {
+		user.setDefaultPaymentMethodId("pm_stored");
+		DefaultPaymentMethodIndex index = index(null, "local");
+		index.recordIfAbsent("cus_1", "pm_new");
+
+		assertEquals("pm_stored", index.find("cus_1"));
+		assertEquals("pm_stored", user.getDefaultPaymentMethodId());
+	}
+
+	@Test
+	void recordDefaultReplacesTheIndexedPaymentMethod() {
+		DefaultPaymentMethodIndex index = index(null, "local");
+		index.recordIfAbsent("cus_1", "pm_first_card");
+		index.recordDefault("cus_1", "pm_default");
+
+		assertEquals("pm_default", index.find("cus_1"));
+		assertEquals("pm_default", user.getDefaultPaymentMethodId());
+	}
+
+	@Test
+	void removeIfMatchesOnlyDropsTheSamePaymentMethod() {
+		DefaultPaymentMethodIndex index = index(null, "local");
+		index.recordDefault("cus_1", "pm_1");
+
+		index.removeIfMatches("cus_1", "pm_other");
+		assertEquals("pm_1", index.find("cus_1"));
+		assertEquals("pm_1", user.getDefaultPaymentMethodId());
+
+		index.removeIfMatches("cus_1", "pm_1");
+		assertNull(index.find("cus_1"));
+		assertNull(user.getDefaultPaymentMethodId());
+	}
+
+	@Test
+	void otherNodesDropTheirEntryWhenTheOwnerChangesIt() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(1000)) {
+			DefaultPaymentMethodIndex owner = index(store, "a");
+			DefaultPaymentMethodIndex charger = index(store, "b");
+			owner.recordDefault("cus_1", "pm_old");
+			assertEquals("pm_old", charger.find("cus_1"));
+
+			owner.recordDefault("cus_1", "pm_new");
+			long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+			while (!"pm_new".equals(charger.find("cus_1")) && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals("pm_new", charger.find("cus_1"));
+		}
+	}
+
+	private DefaultPaymentMethodIndex index(SharedStore store, String nodeId) {
+		ClusterProperties cluster = new ClusterProperties();
+		cluster.setNodeId(nodeId);
+		return new DefaultPaymentMethodIndex(userRepository, mock(UserCacheInvalidator.class), transactionTemplate,
+				Optional.ofNullable(store), cluster, new SimpleMeterRegistry(), 1000, Duration.ofMinutes(10));
+	}
+}
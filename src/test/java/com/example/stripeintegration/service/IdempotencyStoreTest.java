@@ -0,0 +1,115 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.example.stripeintegration.entity.IdempotencyRecord;
+import com.example.stripeintegration.repository.IdempotencyRecordRepository;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.model.PaymentIntent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class IdempotencyStoreTest {
+
+	private final IdempotencyRecordRepository repository = mock(IdempotencyRecordRepository.class);
+	private final IdempotencyStore store = new IdempotencyStore(repository, Optional.empty(), new SimpleMeterRegistry(),
+			1000, Duration.ofHours(24));
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@Test
+	void concurrentRequestsWithOneKeyMakeOneCall() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		List<Future<PaymentIntent>> results = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			results.add(callers.submit(() -> store.execute("key-1", "create|1000", PaymentIntent.class, () -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return paymentIntent("pi_" + calls.incrementAndGet());
+			})));
+		}
+		Thread.sleep(100);
+		release.countDown();
+		for (Future<PaymentIntent> result : results) {
+			assertEquals("pi_1", result.get(5, TimeUnit.SECONDS).getId());
+		}
+		callers.shutdown();
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	void replaysACompletedKeyAndRejectsOtherParameters() throws Exception {
+		assertEquals("pi_1", store.execute("key-1", "create|1000", PaymentIntent.class, this::call).getId());
+		assertEquals("pi_1", store.execute("key-1", "create|1000", PaymentIntent.class, this::call).getId());
+		assertThrows(IdempotencyException.class, () -> store.execute("key-1", "create|2000", PaymentIntent.class, this::call));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	void doesNotStoreFailures() throws Exception {
+		assertThrows(ApiConnectionException.class, () -> store.execute("key-1", "create|1000", PaymentIntent.class, () -> {
+			calls.incrementAndGet();
+			throw new ApiConnectionException("Read timed out");
+		}));
+		assertEquals("pi_2", store.execute("key-1", "create|1000", PaymentIntent.class, this::call).getId());
+	}
+
+	@Test
+	void doesNotReplayARecordOlderThanTheRetention() throws Exception {
+		IdempotencyRecord expired = new IdempotencyRecord("key-1", "create|1000", paymentIntent("pi_old").toJson(),
+				Instant.now().minus(Duration.ofHours(25)));
+		expired.setNewEntity(false);
+		when(repository.findById("key-1")).thenReturn(Optional.of(expired));
+
+		assertEquals("pi_1", store.execute("key-1", "create|1000", PaymentIntent.class, this::call).getId());
+		ArgumentCaptor<IdempotencyRecord> saved = ArgumentCaptor.forClass(IdempotencyRecord.class);
+		verify(repository).save(saved.capture());
+		// Overwrites the row the purge has not removed yet.
+		assertFalse(saved.getValue().isNew());
+	}
+
+	@Test
+	void replaysAFreshRecordFromTheTable() throws Exception {
+		IdempotencyRecord stored = new IdempotencyRecord("key-1", "create|1000", paymentIntent("pi_stored").toJson(),
+				Instant.now().minus(Duration.ofHours(23)));
+		when(repository.findById(any())).thenReturn(Optional.of(stored));
+
+		assertEquals("pi_stored", store.execute("key-1", "create|1000", PaymentIntent.class, this::call).getId());
+		assertEquals(0, calls.get());
+	}
+
+	private PaymentIntent call() {
+		return paymentIntent("pi_" + calls.incrementAndGet());
+	}
+
+	private static PaymentIntent paymentIntent(String id) {
+		PaymentIntent paymentIntent = new PaymentIntent();
+		paymentIntent.setId(id);
+		return paymentIntent;
+	}
+}
@@ -0,0 +1,71 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import com.stripe.model.PaymentIntent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentIntentStatusStoreTest {
+
+	private final PaymentIntentStatusStore store = new PaymentIntentStatusStore(new SimpleMeterRegistry(), 1000, Duration.ofHours(1));
+	private final long now = Instant.now().getEpochSecond();
+
+	@Test
+	void anOlderEventDoesNotReplaceANewerStatus() {
+		store.recordResponse("default", paymentIntent("requires_action"));
+		store.recordEvent(paymentIntent("succeeded"), now - 60);
+		assertNull(store.findFinal("default", "pi_1"));
+
+		store.recordEvent(paymentIntent("succeeded"), now + 1);
+		assertEquals(PaymentIntentStatusStore.Status.SUCCEEDED, store.findFinal("default", "pi_1"));
+	}
+
+	@Test
+	void aFinalStatusSticks() {
+		store.recordResponse("default", paymentIntent("canceled"));
+		store.recordEvent(paymentIntent("processing"), now + 60);
+		store.recordResponse("default", paymentIntent("requires_payment_method"));
+
+		assertEquals(PaymentIntentStatusStore.Status.CANCELED, store.findFinal("default", "pi_1"));
+	}
+
+	@Test
+	void onlyAnswersFinalStatuses() {
+		store.recordResponse("default", paymentIntent("processing"));
+		assertNull(store.findFinal("default", "pi_1"));
+		assertNull(store.findFinal("default", "pi_unknown"));
+	}
+
+	@Test
+	void onlyAnswersTheAccountThatRecordedIt() {
+		store.recordResponse("default", paymentIntent("succeeded"));
+
+		assertEquals(PaymentIntentStatusStore.Status.SUCCEEDED, store.findFinal("default", "pi_1"));
+		assertNull(store.findFinal("eu", "pi_1"));
+	}
+
+	@Test
+	void anEventOnlyEntryIsAnsweredOnceAnApiCallNamesItsAccount() {
+		store.recordEvent(paymentIntent("succeeded"), now - 10);
+		assertNull(store.findFinal("default", "pi_1"));
+
+		// A stale response does not change the status, but it does fill in the account.
+		store.recordResponse("default", paymentIntent("processing"));
+		assertEquals(PaymentIntentStatusStore.Status.SUCCEEDED, store.findFinal("default", "pi_1"));
+		assertNull(store.findFinal("eu", "pi_1"));
+	}
+
+	private static PaymentIntent paymentIntent(String status) {
+		PaymentIntent paymentIntent = new PaymentIntent();
+		paymentIntent.setId("pi_1");
+		paymentIntent.setStatus(status);
+		return paymentIntent;
+	}
+}
@@ -0,0 +1,136 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.stripeintegration.entity.PaymentStatusChange;
+import com.example.stripeintegration.entity.StripeCustomer;
+import com.example.stripeintegration.repository.PaymentStatusChangeRepository;
+import com.example.stripeintegration.repository.StripeCustomerRepository;
+import com.example.stripeintegration.repository.StripePaymentIntentRepository;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentIntent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentRecordWriterTest {
+
+	private final StripeCustomerRepository customerRepository = mock(StripeCustomerRepository.class);
+	private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final StripePaymentIntentRepository paymentIntentRepository = mock(StripePaymentIntentRepository.class);
+	private final PaymentStatusChangeRepository statusChangeRepository = mock(PaymentStatusChangeRepository.class);
+	private final PaymentRecordWriter writer = new PaymentRecordWriter(customerRepository, paymentIntentRepository,
+			statusChangeRepository, transactionTemplate, meterRegistry);
+	private final List<String> saved = new ArrayList<>();
+	private final List<String> events = new ArrayList<>();
+	private final AtomicBoolean databaseDown = new AtomicBoolean();
+
+	PaymentRecordWriterTest() {
+		when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+			TransactionCallback<?> callback = invocation.getArgument(0);
+			return callback.doInTransaction(null);
+		});
+		when(customerRepository.saveAll(any())).thenAnswer(invocation -> {
+			if (databaseDown.get()) {
+				throw new CannotGetJdbcConnectionException("Connection is not available");
+			}
+			Iterable<StripeCustomer> rows = invocation.getArgument(0);
+			List<String> ids = new ArrayList<>();
+			rows.forEach(row -> ids.add(row.getStripeCustomerId()));
+			if (ids.contains("cus_bad")) {
+				throw new DataIntegrityViolationException("Data too long for column 'email'");
+			}
+			saved.addAll(ids);
+			return rows;
+		});
+		when(statusChangeRepository.findExistingEventIds(anyCollection())).thenAnswer(invocation ->
+				events.stream().filter(invocation.<Collection<?>>getArgument(0)::contains).toList());
+		when(statusChangeRepository.saveAll(any())).thenAnswer(invocation -> {
+			Iterable<PaymentStatusChange> rows = invocation.getArgument(0);
+			rows.forEach(row -> {
+				// The unique eventId column.
+				if (events.contains(row.getEventId())) {
+					throw new DataIntegrityViolationException("Duplicate entry '" + row.getEventId() + "'");
+				}
+				events.add(row.getEventId());
+			});
+			return rows;
+		});
+	}
+
+	@Test
+	void deadLettersARefusedRowAndWritesTheRest() {
+		record("cus_1");
+		record("cus_bad");
+		record("cus_2");
+
+		assertTrue(writer.flush());
+		assertEquals(List.of("cus_1", "cus_2"), saved);
+		assertEquals(1, meterRegistry.counter("payment.records.dead-lettered").count());
+
+		// Not retried on the next flush.
+		record("cus_3");
+		assertTrue(writer.flush());
+		assertEquals(List.of("cus_1", "cus_2", "cus_3"), saved);
+	}
+
+	@Test
+	void keepsEverythingQueuedWhileTheDatabaseIsDown() {
+		databaseDown.set(true);
+		record("cus_1");
+		record("cus_2");
+		assertFalse(writer.flush());
+		assertFalse(writer.flush());
+
+		databaseDown.set(false);
+		assertTrue(writer.flush());
+		assertEquals(List.of("cus_1", "cus_2"), saved);
+		assertEquals(0, meterRegistry.counter("payment.records.dead-lettered").count());
+	}
+
+	@Test
+	void recordsEachEventOnce() {
+		recordPaymentIntent("evt_1", "processing", 1700000000L);
+		recordPaymentIntent("evt_1", "processing", 1700000000L);
+		assertTrue(writer.flush());
+		assertEquals(List.of("evt_1"), events);
+
+		// Redelivered after the flush, e.g. replayed from the log after a crash.
+		recordPaymentIntent("evt_1", "processing", 1700000000L);
+		recordPaymentIntent("evt_2", "succeeded", 1700000005L);
+		assertTrue(writer.flush());
+		assertEquals(List.of("evt_1", "evt_2"), events);
+		assertEquals(0, meterRegistry.counter("payment.records.dead-lettered").count());
+	}
+
+	private void recordPaymentIntent(String eventId, String status, long eventCreated) {
+		PaymentIntent paymentIntent = new PaymentIntent();
+		paymentIntent.setId("pi_1");
+		paymentIntent.setStatus(status);
+		writer.recordPaymentIntent(paymentIntent, eventId, eventCreated);
+	}
+
+	private void record(String customerId) {
+		Customer customer = new Customer();
+		customer.setId(customerId);
+		customer.setEmail(customerId + "@example.com");
+		writer.recordCustomer(customer, 1700000000L);
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.example.stripeintegration.support.InMemorySharedStore;
+import com.example.stripeintegration.support.SharedStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentStatusBroadcasterTest {
+
+	private static final String SECRET = "pi_1_secret_abc";
+
+	private final List<PaymentStatusBroadcaster> broadcasters = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void stop() throws Exception {
+		for (PaymentStatusBroadcaster broadcaster : broadcasters) {
+			broadcaster.stop();
+		}
+	}
+
+	@Test
+	void replaysTheLatestStatusOnSubscribe() throws Exception {
+		PaymentStatusBroadcaster broadcaster = broadcaster(null, 16);
+		broadcaster.publish(SECRET, "payment_intent.processing", "pi_1", "processing", null);
+		broadcaster.publish(SECRET, "payment_intent.succeeded", "pi_1", "succeeded", null);
+
+		List<String> received = new CopyOnWriteArrayList<>();
+		assertTrue(broadcaster.subscribe(broadcaster.open(session("s1", received)), SECRET));
+
+		awaitMessages(received, 1);
+		assertEquals(List.of("{\"event\":\"payment_intent.succeeded\",\"id\":\"pi_1\",\"status\":\"succeeded\",\"message\":null}"),
+				received);
+	}
+
+	@Test
+	void pushesToEverySubscriberOfTheIntentOnly() throws Exception {
+		PaymentStatusBroadcaster broadcaster = broadcaster(null, 16);
+		List<String> first = new CopyOnWriteArrayList<>();
+		List<String> second = new CopyOnWriteArrayList<>();
+		List<String> other = new CopyOnWriteArrayList<>();
+		broadcaster.subscribe(broadcaster.open(session("s1", first)), SECRET);
+		broadcaster.subscribe(broadcaster.open(session("s2", second)), SECRET);
+		broadcaster.subscribe(broadcaster.open(session("s3", other)), "pi_2_secret_def");
+
+		broadcaster.publish(SECRET, "payment_intent.payment_failed", "pi_1", "requires_payment_method", "Card declined");
+
+		awaitMessages(first, 1);
+		awaitMessages(second, 1);
+		assertTrue(first.get(0).contains("\"message\":\"Card declined\""));
+		assertEquals(List.of(), other);
+	}
+
+	@Test
+	void capsTheSubscriptionsOfASession() {
+		PaymentStatusBroadcaster broadcaster = broadcaster(null, 2);
+		WebSocketSession session = broadcaster.open(session("s1", new CopyOnWriteArrayList<>()));
+
+		assertTrue(broadcaster.subscribe(session, "pi_1_secret_a"));
+		assertTrue(broadcaster.subscribe(session, "pi_2_secret_b"));
+		assertFalse(broadcaster.subscribe(session, "pi_3_secret_c"));
+		// Subscribing again to an intent the session already follows does not count.
+		assertTrue(broadcaster.subscribe(session, "pi_1_secret_a"));
+	}
+
+	@Test
+	void reachesSessionsOnOtherNodes() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(1000)) {
+			PaymentStatusBroadcaster webhookNode = broadcaster(store, 16);
+			PaymentStatusBroadcaster sessionNode = broadcaster(store, 16);
+			List<String> received = new CopyOnWriteArrayList<>();
+			sessionNode.subscribe(sessionNode.open(session("s1", received)), SECRET);
+
+			webhookNode.publish(SECRET, "payment_intent.succeeded", "pi_1", "succeeded", null);
+
+			awaitMessages(received, 1);
+		}
+	}
+
+	private PaymentStatusBroadcaster broadcaster(SharedStore store, int maxSubscriptionsPerSession) {
+		PaymentStatusBroadcaster broadcaster = new PaymentStatusBroadcaster(new ObjectMapper(), new SimpleMeterRegistry(),
+				Optional.ofNullable(store), Duration.ofSeconds(5), 65536, maxSubscriptionsPerSession, 2, 1000,
+				Duration.ofMinutes(10));
+		broadcasters.add(broadcaster);
+		return broadcaster;
+	}
+
+	private static WebSocketSession session(String id, List<String> received) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn(id);
+		when(session.isOpen()).thenReturn(true);
+		when(session.getAttributes()).thenReturn(new HashMap<>());
+		try {
+			doAnswer(invocation -> received.add(invocation.<TextMessage>getArgument(0).getPayload()))
+					.when(session).sendMessage(any());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return session;
+	}
+
+	private static void awaitMessages(List<String> received, int count) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (received.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, received.size(), received.toString());
+	}
+}
@@ -0,0 +1,235 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.example.stripeintegration.config.StripeHttpProperties;
+import com.example.stripeintegration.support.AdaptiveRateLimiter;
+import com.example.stripeintegration.support.CircuitBreaker;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.AuthenticationException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.PermissionException;
+import com.stripe.model.PaymentIntent;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+
+class ReactiveStripeGatewayTest {
+
+	private static final String PAYMENT_INTENT = "{\"id\":\"pi_1\",\"object\":\"payment_intent\",\"status\":\"succeeded\"}";
+	private static final Reply NO_ANSWER = new Reply(0, "");
+	private static final Reply DROPPED = new Reply(0, "");
+
+	private final Queue<Reply> replies = new ConcurrentLinkedQueue<>();
+	private final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+	private final CountDownLatch hung = new CountDownLatch(1);
+	private final ExecutorService handlers = Executors.newCachedThreadPool();
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker(20, 0.5, Duration.ofMillis(100));
+	private final StripeHttpProperties properties = new StripeHttpProperties();
+	private HttpServer server;
+	private StripeAccount account;
+	private ReactiveStripeGateway gateway;
+
+	@BeforeEach
+	void start() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(handlers);
+		server.createContext("/v1/", exchange -> {
+			idempotencyKeys.add(String.valueOf(exchange.getRequestHeaders().getFirst("Idempotency-Key")));
+			Reply reply = replies.poll();
+			if (reply == DROPPED) {
+				exchange.close();
+				return;
+			}
+			if (reply == null || reply == NO_ANSWER) {
+				// The client times out or gives up first.
+				try {
+					hung.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.close();
+				return;
+			}
+			byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(reply.status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		properties.setReadTimeout(Duration.ofSeconds(5));
+	}
+
+	@AfterEach
+	void stop() {
+		hung.countDown();
+		if (gateway != null) {
+			gateway.stop();
+		}
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	@Test
+	void mapsErrorStatusesLikeTheSdk() {
+		ReactiveStripeGateway gateway = gateway(0);
+		replies.add(error(400, "invalid_request_error", "amount"));
+		replies.add(error(400, "idempotency_error", null));
+		replies.add(error(401, "invalid_request_error", null));
+		replies.add(error(402, "card_error", null));
+		replies.add(error(403, "invalid_request_error", null));
+		replies.add(error(404, "invalid_request_error", "id"));
+		replies.add(error(500, "api_error", null));
+		replies.add(new Reply(500, "<html>Bad gateway</html>"));
+
+		assertEquals("amount", assertInstanceOf(InvalidRequestException.class, call(gateway)).getParam());
+		assertInstanceOf(IdempotencyException.class, call(gateway));
+		assertInstanceOf(AuthenticationException.class, call(gateway));
+		assertInstanceOf(CardException.class, call(gateway));
+		assertInstanceOf(PermissionException.class, call(gateway));
+		assertEquals(404, assertInstanceOf(InvalidRequestException.class, call(gateway)).getStatusCode());
+		assertNotNull(assertInstanceOf(ApiException.class, call(gateway)).getStripeError());
+		assertTrue(call(gateway).getMessage().startsWith("Invalid response object from API"));
+	}
+
+	@Test
+	void retriesAPostWithTheSameIdempotencyKey() {
+		ReactiveStripeGateway gateway = gateway(2);
+		replies.add(error(503, "api_error", null));
+		replies.add(error(409, "idempotency_error", null));
+		replies.add(new Reply(200, PAYMENT_INTENT));
+
+		PaymentIntent paymentIntent = gateway.post(account, "payment_intents.create", "/v1/payment_intents", null, null,
+				PaymentIntent.class).block(Duration.ofSeconds(10));
+
+		assertEquals("pi_1", paymentIntent.getId());
+		assertEquals(3, idempotencyKeys.size());
+		// A key is generated when the caller has none, and every attempt carries the same one.
+		assertEquals(1, idempotencyKeys.stream().distinct().count());
+		assertNotEquals("null", idempotencyKeys.get(0));
+	}
+
+	@Test
+	void sendsTheCallersKeyAndDoesNotRetryAFinalError() {
+		ReactiveStripeGateway gateway = gateway(2);
+		replies.add(error(402, "card_error", null));
+
+		assertInstanceOf(CardException.class, assertThrows(RuntimeException.class, () -> gateway.post(account,
+				"payment_intents.create", "/v1/payment_intents", null, "order-42", PaymentIntent.class).block(Duration.ofSeconds(10)))
+				.getCause());
+		assertEquals(List.of("order-42"), idempotencyKeys);
+	}
+
+	@Test
+	void releasesTheProbeWhenAHalfOpenCallIsCancelled() throws Exception {
+		ReactiveStripeGateway gateway = gateway(0);
+		halfOpen();
+		replies.add(NO_ANSWER);
+
+		Disposable cancelled = gateway.get(account, "payment_intents.retrieve", "/v1/payment_intents/{id}", null,
+				PaymentIntent.class, "pi_1").subscribe(result -> { }, e -> { });
+		awaitRequests(1);
+		cancelled.dispose();
+
+		// Still half-open, and the next call is let through as the probe.
+		assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+		replies.add(new Reply(200, PAYMENT_INTENT));
+		assertEquals("pi_1", retrieve(gateway).getId());
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+	}
+
+	@Test
+	void aProbeThatFailsOpensTheBreakerAgain() throws Exception {
+		ReactiveStripeGateway gateway = gateway(0);
+		halfOpen();
+		replies.add(DROPPED);
+
+		assertInstanceOf(ApiConnectionException.class, assertThrows(RuntimeException.class, () -> retrieve(gateway)).getCause());
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+		Thread.sleep(150);
+		replies.add(new Reply(200, PAYMENT_INTENT));
+		assertEquals("pi_1", retrieve(gateway).getId());
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+	}
+
+	private ReactiveStripeGateway gateway(int maxNetworkRetries) {
+		account = new StripeAccount("default", null, null, null, "sk_test_123",
+				"http://127.0.0.1:" + server.getAddress().getPort(), maxNetworkRetries,
+				new AdaptiveRateLimiter(100, 1, 100, 1, 0.5, 100, 0.5, Duration.ofSeconds(1)), circuitBreaker);
+		StripeAccountRegistry registry = mock(StripeAccountRegistry.class);
+		when(registry.all()).thenReturn(List.of(account));
+		gateway = new ReactiveStripeGateway(registry, WebClient.builder(), properties, new SimpleMeterRegistry());
+		return gateway;
+	}
+
+	private Exception call(ReactiveStripeGateway gateway) {
+		try {
+			retrieve(gateway);
+		} catch (RuntimeException e) {
+			// block() wraps checked exceptions.
+			return (Exception) e.getCause();
+		}
+		throw new AssertionError("expected an error");
+	}
+
+	private PaymentIntent retrieve(ReactiveStripeGateway gateway) {
+		return gateway.get(account, "payment_intents.retrieve", "/v1/payment_intents/{id}", null, PaymentIntent.class, "pi_1")
+				.block(Duration.ofSeconds(10));
+	}
+
+	private void halfOpen() throws InterruptedException {
+		for (int i = 0; i < 20; i++) {
+			circuitBreaker.tryAcquire().onFailure();
+		}
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		Thread.sleep(150);
+	}
+
+	private void awaitRequests(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (idempotencyKeys.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, idempotencyKeys.size());
+	}
+
+	private static Reply error(int status, String type, String param) {
+		return new Reply(status, "{\"error\":{\"type\":\"" + type + "\",\"message\":\"Failed\""
+				+ (param != null ? ",\"param\":\"" + param + "\"" : "") + "}}");
+	}
+
+	private record Reply(int status, String body) {
+	}
+}
@@ -0,0 +1,71 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.SetupIntent;
+
+import reactor.core.publisher.Mono;
+
+class ReactiveStripeServiceTest {
+
+	private final StripeAccount account = new StripeAccount("default", null, null, null, null, null, 0, null, null);
+	private final ReactiveStripeGateway gateway = mock(ReactiveStripeGateway.class);
+	private final StripeLookupCache lookupCache = mock(StripeLookupCache.class);
+	private final DefaultPaymentMethodIndex defaultPaymentMethods = mock(DefaultPaymentMethodIndex.class);
+	private final Map<String, String> threads = new ConcurrentHashMap<>();
+	private final ReactiveStripeService service = new ReactiveStripeService(gateway, lookupCache, defaultPaymentMethods,
+			mock(PaymentRecordWriter.class), mock(Userservice.class), mock(PaymentIntentStatusStore.class));
+
+	ReactiveStripeServiceTest() {
+		// In cluster mode both publish to Redis, so neither may run on the event loop that delivered the response.
+		doAnswer(invocation -> threads.put("invalidatePaymentMethods", Thread.currentThread().getName()))
+				.when(lookupCache).invalidatePaymentMethods(anyString());
+		doAnswer(invocation -> threads.put("removeIfMatches", Thread.currentThread().getName()))
+				.when(defaultPaymentMethods).removeIfMatches(anyString(), anyString());
+	}
+
+	@Test
+	void invalidatesTheCacheOffTheEventLoopAfterASetupIntent() {
+		SetupIntent setupIntent = new SetupIntent();
+		when(gateway.post(eq(account), eq("setup_intents.create"), anyString(), any(), isNull(), eq(SetupIntent.class)))
+				.thenReturn(Mono.just(setupIntent));
+
+		assertSame(setupIntent, service.createSetupIntent(account, "cus_1").block(Duration.ofSeconds(5)));
+
+		assertEquals(List.of("invalidatePaymentMethods"), List.copyOf(threads.keySet()));
+		assertTrue(threads.get("invalidatePaymentMethods").startsWith("boundedElastic"), threads.toString());
+	}
+
+	@Test
+	void invalidatesTheCacheAndIndexOffTheEventLoopAfterADetach() {
+		PaymentMethod attached = new PaymentMethod();
+		attached.setCustomer("cus_1");
+		PaymentMethod detached = new PaymentMethod();
+		when(gateway.get(eq(account), eq("payment_methods.retrieve"), anyString(), isNull(), eq(PaymentMethod.class), eq("pm_1")))
+				.thenReturn(Mono.just(attached));
+		when(gateway.post(eq(account), eq("payment_methods.detach"), anyString(), isNull(), isNull(), eq(PaymentMethod.class),
+				eq("pm_1"))).thenReturn(Mono.just(detached));
+
+		assertSame(detached, service.detachPaymentMethod(account, "pm_1").block(Duration.ofSeconds(5)));
+
+		assertEquals(2, threads.size());
+		threads.values().forEach(thread -> assertTrue(thread.startsWith("boundedElastic"), threads.toString()));
+	}
+}
@@ -0,0 +1,317 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.StripeCustomer;
+import com.example.stripeintegration.entity.StripePaymentIntent;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.StripeCustomerRepository;
+import com.example.stripeintegration.repository.StripePaymentIntentRepository;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.InMemorySharedStore;
+import com.example.stripeintegration.support.SharedStore;
+import com.stripe.StripeClient;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.model.Customer;
+import com.stripe.model.HasId;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentMethod;
+import com.stripe.model.StripeCollection;
+import com.stripe.net.ApiResource;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.CustomerListParams;
+import com.stripe.param.PaymentIntentListParams;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReconciliationServiceTest {
+
+	private static final Instant BEFORE = Instant.parse("2024-01-01T00:00:00Z");
+
+	@TempDir
+	Path dir;
+
+	private final StripeAccountRegistry registry = mock(StripeAccountRegistry.class);
+	private final StripeCallScheduler scheduler = mock(StripeCallScheduler.class);
+	private final StripeCustomerRepository customerRepository = mock(StripeCustomerRepository.class);
+	private final StripePaymentIntentRepository paymentIntentRepository = mock(StripePaymentIntentRepository.class);
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final List<StripeCustomer> customerRows = new ArrayList<>();
+	private final List<StripePaymentIntent> paymentIntentRows = new ArrayList<>();
+	private final List<User> users = new ArrayList<>();
+	// "<account> <operation> <starting_after>" for every list call.
+	private final List<String> listCalls = new CopyOnWriteArrayList<>();
+	private final List<StripeAccount> accounts = new ArrayList<>();
+	// The customers page after this ID fails once, as if the node died there.
+	private volatile String failAfter;
+
+	ReconciliationServiceTest() throws Exception {
+		when(registry.all()).thenAnswer(invocation -> accounts);
+		when(scheduler.call(any(), any(), anyString(), any())).thenAnswer(invocation ->
+				invocation.<IdempotencyStore.StripeCall<?>>getArgument(3).call());
+		when(customerRepository.findByStripeCustomerIdIn(anyCollection())).thenAnswer(invocation -> customerRows.stream()
+				.filter(row -> invocation.<Collection<?>>getArgument(0).contains(row.getStripeCustomerId())).toList());
+		when(customerRepository.markReconciled(anyCollection(), any())).thenAnswer(invocation -> {
+			customerRows.stream()
+					.filter(row -> invocation.<Collection<?>>getArgument(0).contains(row.getStripeCustomerId()))
+					.forEach(row -> row.setLastReconciledAt(invocation.getArgument(1)));
+			return 0;
+		});
+		when(customerRepository.findNotReconciledSince(anyLong(), any(), any())).thenAnswer(invocation ->
+				notReconciled(customerRows.stream(), StripeCustomer::getId, StripeCustomer::getUpdatedAt,
+						StripeCustomer::getLastReconciledAt, invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+		when(paymentIntentRepository.findByPaymentIntentIdIn(anyCollection())).thenAnswer(invocation -> paymentIntentRows.stream()
+				.filter(row -> invocation.<Collection<?>>getArgument(0).contains(row.getPaymentIntentId())).toList());
+		when(paymentIntentRepository.markReconciled(anyCollection(), any())).thenAnswer(invocation -> {
+			paymentIntentRows.stream()
+					.filter(row -> invocation.<Collection<?>>getArgument(0).contains(row.getPaymentIntentId()))
+					.forEach(row -> row.setLastReconciledAt(invocation.getArgument(1)));
+			return 0;
+		});
+		when(paymentIntentRepository.findNotReconciledSince(anyLong(), any(), any())).thenAnswer(invocation ->
+				notReconciled(paymentIntentRows.stream(), StripePaymentIntent::getId, StripePaymentIntent::getUpdatedAt,
+						StripePaymentIntent::getLastReconciledAt, invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+		when(userRepository.findWithDefaultPaymentMethodAfter(anyLong(), any())).thenAnswer(invocation -> users.stream()
+				.filter(user -> user.getId() > invocation.<Long>getArgument(0))
+				.limit(invocation.<Pageable>getArgument(1).getPageSize())
+				.toList());
+	}
+
+	@Test
+	void comparesLocalRowsWithEveryAccount() throws Exception {
+		account("default",
+				List.of(customer("cus_1", "ada@example.com"), customer("cus_2", "grace@example.com"), customer("cus_3", null)),
+				List.of(paymentIntent("pi_1", "succeeded"), paymentIntent("pi_2", "requires_payment_method")),
+				Map.of("pm_2", paymentMethod("pm_2", "cus_other")));
+		account("eu", List.of(customer("cus_4", null)), List.of(), Map.of("pm_1", paymentMethod("pm_1", "cus_1")));
+		customerRow(1L, "cus_1", "ada@example.com");
+		customerRow(2L, "cus_2", "old@example.com");
+		customerRow(3L, "cus_4", null);
+		customerRow(4L, "cus_5", null);
+		paymentIntentRow(1L, "pi_3");
+		user(1L, "cus_1", "pm_1");
+		user(2L, "cus_1", "pm_2");
+		user(3L, "cus_1", "pm_gone");
+
+		Path report = service(null).run();
+
+		assertEquals(List.of(
+				"default customer cus_2 mismatch",
+				"default customer cus_3 missing_locally",
+				"default payment_intent pi_1 missing_locally",
+				"- customer cus_5 missing_in_stripe",
+				"- payment_intent pi_3 missing_in_stripe",
+				"default payment_method pm_2 mismatch",
+				"- payment_method pm_gone missing_in_stripe"), lines(report));
+	}
+
+	@Test
+	void resumesFromTheLastPageAfterAFailure() throws Exception {
+		List<Customer> customers = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			customers.add(customer("cus_" + i, null));
+		}
+		account("default", customers, List.of(), Map.of());
+		failAfter = "cus_4";
+		ReconciliationService service = service(null);
+
+		assertThrows(ApiConnectionException.class, service::run);
+		Path report = service.run();
+
+		assertEquals(List.of("default customers null", "default customers cus_2", "default customers cus_4",
+				"default customers cus_4"), listCalls.stream().filter(call -> call.contains("customers")).toList());
+		// Every page reported once, in one report.
+		assertEquals(List.of("cus_1", "cus_2", "cus_3", "cus_4", "cus_5"),
+				lines(report).stream().map(line -> line.split(" ")[2]).toList());
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("report-")).count());
+		}
+	}
+
+	@Test
+	void releasesItsLockAfterTheRun() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(100)) {
+			account("default", List.of(customer("cus_1", null)), List.of(), Map.of());
+
+			service(store).scheduledRun();
+
+			assertEquals(List.of("default customers null", "default payment_intents null"), listCalls);
+			assertNull(store.get("reconciliation:lock"));
+		}
+	}
+
+	@Test
+	void keepsALockThatAnotherNodeTookOver() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(100)) {
+			account("default", List.of(), List.of(), Map.of());
+			// The TTL runs out mid-run and another node takes the lock.
+			doAnswer(invocation -> {
+				store.put("reconciliation:lock", "b:token", Duration.ofHours(1));
+				return List.of();
+			}).when(userRepository).findWithDefaultPaymentMethodAfter(anyLong(), any());
+
+			service(store).scheduledRun();
+
+			assertEquals("b:token", store.get("reconciliation:lock"));
+		}
+	}
+
+	@Test
+	void skipsTheRunWhileAnotherNodeHoldsTheLock() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(100)) {
+			account("default", List.of(customer("cus_1", null)), List.of(), Map.of());
+			store.put("reconciliation:lock", "b:token", Duration.ofHours(1));
+
+			service(store).scheduledRun();
+
+			assertEquals(List.of(), listCalls);
+			assertEquals("b:token", store.get("reconciliation:lock"));
+		}
+	}
+
+	private ReconciliationService service(SharedStore store) {
+		ClusterProperties cluster = new ClusterProperties();
+		cluster.setNodeId("a");
+		return new ReconciliationService(registry, scheduler, customerRepository, paymentIntentRepository, userRepository,
+				Optional.ofNullable(store), cluster, new SimpleMeterRegistry(), dir.toString(), Duration.ofHours(1));
+	}
+
+	// "<account or -> <type> <id> <kind>" for each report line.
+	@SuppressWarnings("unchecked")
+	private static List<String> lines(Path report) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (String line : Files.readAllLines(report)) {
+			Map<String, Object> json = ApiResource.GSON.fromJson(line, Map.class);
+			lines.add(json.getOrDefault("account", "-") + " " + json.get("type") + " " + json.get("id") + " " + json.get("kind"));
+		}
+		return lines;
+	}
+
+	// Stripe lists of two per page, so every list has more than one page.
+	private void account(String name, List<Customer> customers, List<PaymentIntent> paymentIntents,
+								  Map<String, PaymentMethod> paymentMethods) throws Exception {
+		StripeClient client = mock(StripeClient.class, RETURNS_DEEP_STUBS);
+		when(client.customers().list(any(CustomerListParams.class), any(RequestOptions.class))).thenAnswer(invocation -> {
+			CustomerListParams params = invocation.getArgument(0);
+			listCalls.add(name + " customers " + params.getStartingAfter());
+			if (params.getStartingAfter() != null && params.getStartingAfter().equals(failAfter)) {
+				failAfter = null;
+				throw new ApiConnectionException("Connection reset", new IOException("Connection reset"));
+			}
+			return page(customers, params.getStartingAfter());
+		});
+		when(client.paymentIntents().list(any(PaymentIntentListParams.class), any(RequestOptions.class))).thenAnswer(invocation -> {
+			PaymentIntentListParams params = invocation.getArgument(0);
+			listCalls.add(name + " payment_intents " + params.getStartingAfter());
+			return page(paymentIntents, params.getStartingAfter());
+		});
+		when(client.paymentMethods().retrieve(anyString(), any(RequestOptions.class))).thenAnswer(invocation -> {
+			PaymentMethod paymentMethod = paymentMethods.get(invocation.<String>getArgument(0));
+			if (paymentMethod == null) {
+				throw new InvalidRequestException("No such PaymentMethod", "id", null, "resource_missing", 404, null);
+			}
+			return paymentMethod;
+		});
+		StripeAccount account = new StripeAccount(name, client, null, null, null, null, 0, null, null);
+		accounts.add(account);
+	}
+
+	private static <T extends HasId> StripeCollection<T> page(List<T> all, String startingAfter) {
+		int from = 0;
+		while (startingAfter != null && from < all.size() && !all.get(from++).getId().equals(startingAfter)) {
+			// Skips up to and including the cursor.
+		}
+		StripeCollection<T> page = new StripeCollection<>();
+		page.setData(new ArrayList<>(all.subList(from, Math.min(from + 2, all.size()))));
+		page.setHasMore(from + 2 < all.size());
+		return page;
+	}
+
+	private static <T> List<T> notReconciled(Stream<T> rows, Function<T, Long> id,
+											 Function<T, Instant> updatedAt,
+											 Function<T, Instant> reconciledAt,
+											 long afterId, Instant runStart, Pageable page) {
+		return rows.filter(row -> id.apply(row) > afterId && updatedAt.apply(row).isBefore(runStart)
+						&& (reconciledAt.apply(row) == null || reconciledAt.apply(row).isBefore(runStart)))
+				.sorted(Comparator.comparing(id))
+				.limit(page.getPageSize())
+				.toList();
+	}
+
+	private static Customer customer(String id, String email) {
+		Customer customer = new Customer();
+		customer.setId(id);
+		customer.setEmail(email);
+		return customer;
+	}
+
+	private static PaymentIntent paymentIntent(String id, String status) {
+		PaymentIntent paymentIntent = new PaymentIntent();
+		paymentIntent.setId(id);
+		paymentIntent.setStatus(status);
+		return paymentIntent;
+	}
+
+	private static PaymentMethod paymentMethod(String id, String customer) {
+		PaymentMethod paymentMethod = new PaymentMethod();
+		paymentMethod.setId(id);
+		paymentMethod.setCustomer(customer);
+		return paymentMethod;
+	}
+
+	private void customerRow(Long id, String stripeCustomerId, String email) {
+		StripeCustomer row = new StripeCustomer();
+		row.setId(id);
+		row.setStripeCustomerId(stripeCustomerId);
+		row.setEmail(email);
+		row.setUpdatedAt(BEFORE);
+		customerRows.add(row);
+	}
+
+	private void paymentIntentRow(Long id, String paymentIntentId) {
+		StripePaymentIntent row = new StripePaymentIntent();
+		row.setId(id);
+		row.setPaymentIntentId(paymentIntentId);
+		row.setUpdatedAt(BEFORE);
+		paymentIntentRows.add(row);
+	}
+
+	private void user(Long id, String stripeCustomerId, String defaultPaymentMethodId) {
+		User user = new User();
+		user.setId(id);
+		user.setStripeCustomerId(stripeCustomerId);
+		user.setDefaultPaymentMethodId(defaultPaymentMethodId);
+		users.add(user);
+	}
+}
@@ -0,0 +1,99 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.stripeintegration.config.StripeSchedulerProperties;
+import com.example.stripeintegration.support.AdaptiveRateLimiter;
+import com.example.stripeintegration.support.CircuitBreaker;
+import com.example.stripeintegration.support.ResilientStripeHttpClient;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class StripeCallSchedulerTest {
+
+	private final StripeAccount account = new StripeAccount("default", null, null, null, null, null, 0, null, null);
+	private final AdaptiveRateLimiter rateLimiter = mock(AdaptiveRateLimiter.class);
+	private final HttpClient delegate = mock(HttpClient.class);
+	private final ResilientStripeHttpClient client = new ResilientStripeHttpClient("default", delegate, rateLimiter,
+			Duration.ofSeconds(1), Duration.ofSeconds(1), new CircuitBreaker(100, 0.5, Duration.ofMinutes(1)), new SimpleMeterRegistry());
+
+	StripeCallSchedulerTest() throws Exception {
+		when(rateLimiter.tryAcquire(anyString(), anyLong(), any())).thenReturn(true);
+		when(rateLimiter.tryAcquireBackground(anyString(), anyLong(), any())).thenReturn(true);
+		when(delegate.request(any())).thenReturn(new StripeResponse(200, HttpHeaders.of(Map.of()), "{}"));
+	}
+
+	@Test
+	void backgroundCallsTakeTheBackgroundShareOfTheRateLimit() throws Exception {
+		StripeCallScheduler scheduler = scheduler(1);
+
+		scheduler.call(account, StripeLane.BACKGROUND, "customers.retrieve", () -> client.requestWithRetries(request()));
+		verify(rateLimiter).tryAcquireBackground(anyString(), anyLong(), any());
+		verify(rateLimiter, never()).tryAcquire(anyString(), anyLong(), any());
+
+		scheduler.call(account, StripeLane.INTERACTIVE, "customers.retrieve", () -> client.requestWithRetries(request()));
+		verify(rateLimiter).tryAcquire(anyString(), anyLong(), any());
+		verify(rateLimiter, times(1)).tryAcquireBackground(anyString(), anyLong(), any());
+	}
+
+	@Test
+	void aFailedCallReleasesItsSlotAndScope() throws Exception {
+		StripeCallScheduler scheduler = scheduler(1);
+
+		assertThrows(ApiConnectionException.class, () -> scheduler.call(account, StripeLane.BACKGROUND, "customers.retrieve", () -> {
+			throw new ApiConnectionException("Connection reset");
+		}));
+		assertThrows(IllegalStateException.class, () -> scheduler.call(account, StripeLane.BACKGROUND, "customers.retrieve", () -> {
+			throw new IllegalStateException("Bug");
+		}));
+
+		// With one background slot, this would be rejected if either failure had kept it.
+		assertEquals("ok", scheduler.call(account, StripeLane.BACKGROUND, "customers.retrieve", () -> "ok"));
+		// Outside the scheduler the request is interactive again.
+		client.requestWithRetries(request());
+		verify(rateLimiter).tryAcquire(anyString(), anyLong(), any());
+	}
+
+	@Test
+	void rejectsACallThatFindsNoSlotInTime() throws Exception {
+		StripeCallScheduler scheduler = scheduler(1);
+
+		ApiConnectionException e = assertThrows(ApiConnectionException.class,
+				() -> scheduler.call(account, StripeLane.BACKGROUND, "customers.retrieve",
+						() -> scheduler.call(account, StripeLane.BACKGROUND, "customers.retrieve", () -> "nested")));
+		assertEquals("No background Stripe slot on account default within PT0.05S", e.getMessage());
+	}
+
+	private static StripeCallScheduler scheduler(int backgroundSlots) {
+		StripeSchedulerProperties properties = new StripeSchedulerProperties();
+		properties.setBackground(new StripeSchedulerProperties.Lane(1, backgroundSlots, Duration.ofMillis(50)));
+		return new StripeCallScheduler(properties, new SimpleMeterRegistry());
+	}
+
+	private static StripeRequest request() throws StripeException {
+		RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").setMaxNetworkRetries(0).build();
+		return new StripeRequest(ApiResource.RequestMethod.GET, "https://api.stripe.com/v1/customers/cus_1", Map.of(), options);
+	}
+}
@@ -0,0 +1,147 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.support.InMemorySharedStore;
+import com.example.stripeintegration.support.SharedStore;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentMethod;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class StripeLookupCacheTest {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	void invalidatingACustomerDropsItsTypedPaymentMethodLists() throws Exception {
+		StripeLookupCache cache = cache(null, "local");
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("default", "cus_2", "card", StripeLane.INTERACTIVE, this::load);
+		assertEquals(2, loads.get());
+
+		cache.invalidatePaymentMethods("cus_1");
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("default", "cus_2", "card", StripeLane.INTERACTIVE, this::load);
+		assertEquals(3, loads.get());
+	}
+
+	@Test
+	void keepsAccountsAndTypesApartButInvalidatesThemTogether() throws Exception {
+		StripeLookupCache cache = cache(null, "local");
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("eu", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("default", "cus_1", null, StripeLane.INTERACTIVE, this::load);
+		assertEquals(3, loads.get());
+
+		cache.invalidatePaymentMethods("cus_1");
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("eu", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		cache.getPaymentMethods("default", "cus_1", null, StripeLane.INTERACTIVE, this::load);
+		assertEquals(6, loads.get());
+	}
+
+	@Test
+	void invalidatesCustomers() throws Exception {
+		StripeLookupCache cache = cache(null, "local");
+		Customer customer = new Customer();
+		assertSame(customer, cache.getCustomer("default", "cus_1", StripeLane.INTERACTIVE, () -> customer));
+		assertSame(customer, cache.getCustomer("default", "cus_1", StripeLane.INTERACTIVE, () -> new Customer()));
+
+		cache.invalidateCustomer("cus_1");
+		Customer reloaded = new Customer();
+		assertSame(reloaded, cache.getCustomer("default", "cus_1", StripeLane.INTERACTIVE, () -> reloaded));
+	}
+
+	@Test
+	void doesNotCacheALoadThatRacedWithAnInvalidationOfItsCustomer() throws Exception {
+		StripeLookupCache cache = cache(null, "local");
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, () -> {
+			cache.invalidatePaymentMethods("cus_1");
+			return load();
+		});
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void cachesALoadThatRacedWithAnInvalidationOfAnotherCustomer() throws Exception {
+		StripeLookupCache cache = cache(null, "local");
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, () -> {
+			cache.invalidatePaymentMethods("cus_2");
+			cache.invalidateCustomer("cus_1");
+			return load();
+		});
+		cache.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void interactiveLoadsDoNotWaitForABackgroundLoad() throws Exception {
+		StripeLookupCache cache = cache(null, "local");
+		CountDownLatch backgroundQueued = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService background = Executors.newSingleThreadExecutor();
+		Future<Customer> queued = background.submit(() -> cache.getCustomer("default", "cus_1", StripeLane.BACKGROUND, () -> {
+			backgroundQueued.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new Customer();
+		}));
+		assertTrue(backgroundQueued.await(5, TimeUnit.SECONDS));
+
+		Customer interactive = new Customer();
+		assertSame(interactive, cache.getCustomer("default", "cus_1", StripeLane.INTERACTIVE, () -> interactive));
+		release.countDown();
+		queued.get(5, TimeUnit.SECONDS);
+		background.shutdown();
+	}
+
+	@Test
+	void invalidationReachesOtherNodes() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(1000)) {
+			StripeLookupCache nodeA = cache(store, "a");
+			StripeLookupCache nodeB = cache(store, "b");
+			nodeB.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+			nodeA.invalidatePaymentMethods("cus_1");
+
+			long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+			while (loads.get() < 2 && System.nanoTime() < deadline) {
+				nodeB.getPaymentMethods("default", "cus_1", "card", StripeLane.INTERACTIVE, this::load);
+				Thread.sleep(10);
+			}
+			assertEquals(2, loads.get());
+		}
+	}
+
+	private List<PaymentMethod> load() {
+		loads.incrementAndGet();
+		return List.of(new PaymentMethod());
+	}
+
+	private static StripeLookupCache cache(SharedStore store, String nodeId) {
+		ClusterProperties cluster = new ClusterProperties();
+		cluster.setNodeId(nodeId);
+		return new StripeLookupCache(new SimpleMeterRegistry(), Optional.ofNullable(store), cluster,
+				1000, Duration.ofMinutes(10), 1000, Duration.ofMinutes(10));
+	}
+}
@@ -0,0 +1,46 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TenantConcurrencyLimiterTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final TenantConcurrencyLimiter limiter = new TenantConcurrencyLimiter(meterRegistry, 2, 3,
+			new String[] { "acme", "globex" }, Duration.ZERO);
+
+	@Test
+	void unknownTenantIdsShareTheDefaultLimit() throws Exception {
+		assertEquals("acme", limiter.resolve("acme"));
+		assertTrue(limiter.tryAcquire(limiter.resolve("made-up-1")));
+		assertTrue(limiter.tryAcquire(limiter.resolve("made-up-2")));
+		assertFalse(limiter.tryAcquire(limiter.resolve("made-up-3")));
+		assertFalse(limiter.tryAcquire(limiter.resolve(null)));
+		assertTrue(limiter.tryAcquire("acme"));
+		// One gauge per configured tenant, whatever IDs clients send.
+		assertEquals(3, meterRegistry.find("stripe.concurrency.in-flight").gauges().size());
+	}
+
+	@Test
+	void theGlobalLimitCapsAllTenantsTogether() throws Exception {
+		assertTrue(limiter.tryAcquire("acme"));
+		assertTrue(limiter.tryAcquire("acme"));
+		assertTrue(limiter.tryAcquire("globex"));
+		assertFalse(limiter.tryAcquire("globex"));
+
+		limiter.release("acme");
+		assertTrue(limiter.tryAcquire("globex"));
+		// The tenant permit taken before the global one failed was given back.
+		limiter.release("globex");
+		limiter.release("globex");
+		assertTrue(limiter.tryAcquire("globex"));
+		assertTrue(limiter.tryAcquire("globex"));
+	}
+}
@@ -0,0 +1,87 @@
+package com.example.stripeintegration.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.UserRepository;
+import com.example.stripeintegration.support.InMemorySharedStore;
+
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+
+class UserCacheInvalidatorTest {
+
+	private final EntityManagerFactory localFactory = mock(EntityManagerFactory.class);
+	private final EntityManagerFactory remoteFactory = mock(EntityManagerFactory.class);
+	private final Cache localCache = mock(Cache.class);
+	private final Cache remoteCache = mock(Cache.class);
+	private final SessionFactory remoteSessionFactory = mock(SessionFactory.class);
+	private final org.hibernate.Cache remoteQueryCache = mock(org.hibernate.Cache.class);
+
+	UserCacheInvalidatorTest() {
+		when(localFactory.getCache()).thenReturn(localCache);
+		when(remoteFactory.getCache()).thenReturn(remoteCache);
+		when(remoteFactory.unwrap(SessionFactory.class)).thenReturn(remoteSessionFactory);
+		when(remoteSessionFactory.getCache()).thenReturn(remoteQueryCache);
+	}
+
+	@Test
+	void otherNodesEvictOnlyTheChangedRows() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(1000)) {
+			UserCacheInvalidator local = invalidator(localFactory, store, "a");
+			invalidator(remoteFactory, store, "b");
+
+			local.usersChanged(List.of(7L, 9L), false);
+			verify(remoteCache, timeout(5000)).evict(User.class, 7L);
+			verify(remoteCache, timeout(5000)).evict(User.class, 9L);
+			verify(remoteCache, never()).evict(User.class);
+			verify(remoteQueryCache, never()).evictQueryRegion(anyString());
+			verify(localCache, never()).evict(any(), any());
+		}
+	}
+
+	@Test
+	void newLookupKeysAlsoDropCachedLookups() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(1000)) {
+			UserCacheInvalidator local = invalidator(localFactory, store, "a");
+			invalidator(remoteFactory, store, "b");
+
+			local.usersChanged(List.of(7L), true);
+			verify(remoteCache, timeout(5000)).evict(User.class, 7L);
+			verify(remoteQueryCache, timeout(5000))
+					.evictQueryRegion(UserRepository.QUERY_CACHE_REGION);
+			verify(remoteCache, never()).evict(User.class);
+		}
+	}
+
+	@Test
+	void aBulkChangeEvictsEverything() throws Exception {
+		try (InMemorySharedStore store = new InMemorySharedStore(1000)) {
+			UserCacheInvalidator local = invalidator(localFactory, store, "a");
+			invalidator(remoteFactory, store, "b");
+
+			local.allUsersChanged();
+			verify(remoteCache, timeout(5000)).evict(User.class);
+			verify(remoteQueryCache, timeout(5000)).evictQueryRegion(anyString());
+		}
+	}
+
+	private static UserCacheInvalidator invalidator(EntityManagerFactory factory, InMemorySharedStore store, String nodeId) {
+		ClusterProperties cluster = new ClusterProperties();
+		cluster.setNodeId(nodeId);
+		return new UserCacheInvalidator(factory, Optional.of(store), cluster);
+	}
+}
@@ -0,0 +1,194 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.stripeintegration.dto.UserImportProgress;
+import com.example.stripeintegration.dto.UserImportRowError;
+import com.example.stripeintegration.entity.User;
+import com.example.stripeintegration.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.exception.RateLimitException;
+import com.stripe.model.Customer;
+
+class UserImportServiceTest {
+
+	private final StripeAccount account = new StripeAccount("default", null, null, null, null, null, 0, null, null);
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final Userservice userService = mock(Userservice.class);
+	private final StripeService stripeService = mock(StripeService.class);
+	private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+	private final UserCacheInvalidator cacheInvalidator = mock(UserCacheInvalidator.class);
+	private final Map<String, User> users = new ConcurrentHashMap<>();
+	private final AtomicLong ids = new AtomicLong();
+	private final List<UserImportRowError> errors = Collections.synchronizedList(new ArrayList<>());
+	private final List<UserImportProgress> progress = new ArrayList<>();
+
+	UserImportServiceTest() {
+		doAnswer(invocation -> {
+			Consumer<TransactionStatus> action = invocation.getArgument(0);
+			action.accept(mock(TransactionStatus.class));
+			return null;
+		}).when(transactionTemplate).executeWithoutResult(any());
+		when(userRepository.findByEmailIn(anyCollection())).thenAnswer(invocation -> {
+			List<User> found = new ArrayList<>();
+			for (Object email : (Iterable<?>) invocation.getArgument(0)) {
+				if (users.containsKey(email)) {
+					found.add(users.get(email));
+				}
+			}
+			return found;
+		});
+		when(userRepository.saveAll(any())).thenAnswer(invocation -> {
+			Iterable<User> saved = invocation.getArgument(0);
+			saved.forEach(this::store);
+			return saved;
+		});
+	}
+
+	@Test
+	void importsCsvRowsAndReportsRejectedLines() throws Exception {
+		User existing = user("ada@example.com", "Ada");
+		store(existing);
+		String csv = "id,Email,Name\n"
+				+ "1,ada@example.com,Ada Lovelace\n"
+				+ "2,\"grace@example.com\",\"Hopper, Grace\"\n"
+				+ "\n"
+				+ "3,not-an-email,Nobody\n"
+				+ "4,,Nobody\n"
+				+ "5,grace@example.com,Grace Hopper\n";
+
+		UserImportProgress result = run(csv, UserImportService.Format.CSV, 10, false);
+
+		assertEquals(5, result.getRows());
+		assertEquals(1, result.getInserted());
+		assertEquals(2, result.getUpdated());
+		assertEquals(2, result.getFailed());
+		assertEquals(List.of(5L, 6L), errors.stream().map(UserImportRowError::getLine).toList());
+		assertEquals("Ada Lovelace", existing.getName());
+		// Within a chunk the last row for an email wins.
+		assertEquals("Grace Hopper", users.get("grace@example.com").getName());
+	}
+
+	@Test
+	void rejectsMalformedNdjsonLinesOnly() throws Exception {
+		String ndjson = "{\"email\":\"ada@example.com\",\"name\":\"Ada\"}\n"
+				+ "{\"email\":\n"
+				+ "[1,2]\n"
+				+ "{\"email\":\"grace@example.com\"}\n";
+
+		UserImportProgress result = run(ndjson, UserImportService.Format.NDJSON, 10, false);
+
+		assertEquals(2, result.getInserted());
+		assertEquals(2, result.getFailed());
+		assertEquals(List.of(2L, 3L), errors.stream().map(UserImportRowError::getLine).toList());
+	}
+
+	@Test
+	void retriesAChunkRowByRowWhenAConstraintRejectsIt() throws Exception {
+		doThrow(new DataIntegrityViolationException("Data too long for column 'name'")).when(userRepository).saveAll(any());
+		when(userService.findByEmail(anyString())).thenReturn(Optional.empty());
+		when(userService.addUser(any())).thenAnswer(invocation -> {
+			User user = invocation.getArgument(0);
+			if (user.getName() != null && user.getName().length() > 10) {
+				throw new DataIntegrityViolationException("Data too long for column 'name'");
+			}
+			return store(user);
+		});
+
+		UserImportProgress result = run("email,name\na@example.com,Ada\nb@example.com,Much too long a name\nc@example.com,Cy\n",
+				UserImportService.Format.CSV, 10, false);
+
+		assertEquals(2, result.getInserted());
+		assertEquals(1, result.getFailed());
+		assertEquals(3L, errors.get(0).getLine());
+		assertEquals("b@example.com", errors.get(0).getEmail());
+	}
+
+	@Test
+	void flushesTheUserCacheOnceForTheWholeImport() throws Exception {
+		StringBuilder csv = new StringBuilder("email\n");
+		for (int i = 0; i < 25; i++) {
+			csv.append("user").append(i).append("@example.com\n");
+		}
+
+		UserImportProgress result = run(csv.toString(), UserImportService.Format.CSV, 10, false);
+
+		assertEquals(25, result.getInserted());
+		// Progress after each of the three chunks, but a single flush at the end.
+		assertEquals(3, progress.size());
+		verify(cacheInvalidator, times(1)).allUsersChanged();
+		verify(cacheInvalidator, never()).usersChanged(any(), anyBoolean());
+	}
+
+	@Test
+	void createsMissingStripeCustomersWithAKeyPerUser() throws Exception {
+		User linked = user("ada@example.com", "Ada");
+		linked.setStripeCustomerId("cus_ada");
+		store(linked);
+		Customer customer = new Customer();
+		customer.setId("cus_new");
+		when(stripeService.createStripeCustomer(eq(account), anyString(), any(), eq(StripeLane.BACKGROUND), anyString()))
+				.thenThrow(new RateLimitException("Too many requests", null, null, "rate_limit", 429, null))
+				.thenReturn(customer);
+
+		UserImportProgress result = run("email\nada@example.com\ngrace@example.com\n", UserImportService.Format.CSV, 10, true);
+
+		assertEquals(1, result.getCustomersCreated());
+		assertEquals(0, result.getCustomersFailed());
+		long graceId = users.get("grace@example.com").getId();
+		verify(stripeService, times(2)).createStripeCustomer(eq(account), eq("grace@example.com"), any(), eq(StripeLane.BACKGROUND),
+				eq("user-import:" + graceId));
+		verify(stripeService, never()).createStripeCustomer(any(), eq("ada@example.com"), any(), any(), any());
+	}
+
+	private UserImportProgress run(String upload, UserImportService.Format format, int chunkSize, boolean createStripeCustomers)
+			throws Exception {
+		UserImportService service = new UserImportService(userRepository, userService, stripeService, transactionTemplate,
+				cacheInvalidator, new ObjectMapper(), chunkSize, 2, 1000);
+		return service.importUsers(account, new ByteArrayInputStream(upload.getBytes(StandardCharsets.UTF_8)), format,
+				createStripeCustomers, errors::add, progress::add);
+	}
+
+	private User store(User user) {
+		if (user.getId() == null) {
+			user.setId(ids.incrementAndGet());
+		}
+		users.put(user.getEmail(), user);
+		return user;
+	}
+
+	private static User user(String email, String name) {
+		User user = new User();
+		user.setEmail(email);
+		user.setName(name);
+		return user;
+	}
+}
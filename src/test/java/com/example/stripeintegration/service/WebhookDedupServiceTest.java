@@ -0,0 +1,112 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import com.example.stripeintegration.config.ClusterProperties;
+import com.example.stripeintegration.entity.ProcessedWebhookEvent;
+import com.example.stripeintegration.repository.ProcessedWebhookEventRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WebhookDedupServiceTest {
+
+	private final ProcessedWebhookEventRepository repository = mock(ProcessedWebhookEventRepository.class);
+	private WebhookDedupService service;
+
+	@AfterEach
+	void stop() throws Exception {
+		service.stop();
+	}
+
+	@Test
+	void recognizesARetainedIdThatIsNoLongerInTheLruSetAfterARestart() {
+		// Only the most recent ID fits the LRU set; the table still holds an older one.
+		when(repository.findRecentEventIds(any())).thenReturn(List.of("evt_recent"));
+		when(repository.findEventIdsAfter(eq(""), any())).thenReturn(List.of("evt_old", "evt_recent"));
+		when(repository.existsById("evt_old")).thenReturn(true);
+		service = new WebhookDedupService(repository, Optional.empty(), new ClusterProperties(), new SimpleMeterRegistry(),
+				1, 1000, Duration.ofDays(7));
+		service.start();
+		verify(repository, timeout(5000)).findEventIdsAfter(eq(""), any());
+
+		assertFalse(service.firstDelivery("evt_recent"));
+		assertFalse(service.firstDelivery("evt_old"));
+		assertTrue(service.firstDelivery("evt_new"));
+		assertFalse(service.firstDelivery("evt_new"));
+	}
+
+	@Test
+	void storesTheRestOfABatchWhenAnIdIsAlreadyStored() {
+		Set<String> table = new HashSet<>();
+		when(repository.findExistingEventIds(any())).thenAnswer(invocation -> {
+			Collection<String> ids = invocation.getArgument(0);
+			return ids.stream().filter(table::contains).toList();
+		});
+		when(repository.saveAll(any())).thenAnswer(invocation -> {
+			List<ProcessedWebhookEvent> events = new ArrayList<>();
+			invocation.<Iterable<ProcessedWebhookEvent>>getArgument(0).forEach(events::add);
+			for (ProcessedWebhookEvent event : events) {
+				if (!table.add(event.getEventId())) {
+					throw new DataIntegrityViolationException("Duplicate entry '" + event.getEventId() + "'");
+				}
+			}
+			return events;
+		});
+		service = service();
+
+		service.markProcessed("evt_1", "payment_intent.succeeded");
+		assertTrue(service.flush());
+		// Replayed from the log after a restart, and marked twice in one batch.
+		service.markProcessed("evt_1", "payment_intent.succeeded");
+		service.markProcessed("evt_2", "payment_intent.succeeded");
+		service.markProcessed("evt_3", "payment_intent.succeeded");
+		service.markProcessed("evt_3", "payment_intent.succeeded");
+		assertTrue(service.flush());
+
+		assertEquals(Set.of("evt_1", "evt_2", "evt_3"), table);
+	}
+
+	@Test
+	void requeuesABatchThatCannotBeWritten() {
+		when(repository.findExistingEventIds(any())).thenReturn(List.of());
+		when(repository.saveAll(any())).thenThrow(new CannotCreateTransactionException("database down")).thenReturn(List.of());
+		service = service();
+
+		service.markProcessed("evt_1", "payment_intent.succeeded");
+		assertFalse(service.flush());
+		assertTrue(service.flush());
+
+		ArgumentCaptor<Iterable<ProcessedWebhookEvent>> saved = ArgumentCaptor.captor();
+		verify(repository, times(2)).saveAll(saved.capture());
+		assertEquals("evt_1", saved.getAllValues().get(1).iterator().next().getEventId());
+	}
+
+	// Not started, so only the test flushes.
+	private WebhookDedupService service() {
+		return new WebhookDedupService(repository, Optional.empty(), new ClusterProperties(), new SimpleMeterRegistry(),
+				100, 1000, Duration.ofDays(7));
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.stripeintegration.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.stripeintegration.support.WebhookEventLog;
+import com.stripe.model.Event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WebhookEventDispatcherTest {
+
+	@TempDir
+	Path dir;
+
+	private final WebhookEventHandler handler = mock(WebhookEventHandler.class);
+	private final WebhookDedupService dedupService = mock(WebhookDedupService.class);
+	private WebhookEventLog log;
+	private WebhookEventDispatcher dispatcher;
+
+	@AfterEach
+	void stop() throws Exception {
+		if (dispatcher != null) {
+			dispatcher.stop();
+		}
+		log.close();
+	}
+
+	@Test
+	void tailKeepsGoingAfterAReadFails() throws Exception {
+		log = spy(new WebhookEventLog(dir, 4096, false));
+		// The first read is the startup scan of pending events, the second the tail's.
+		doCallRealMethod().doThrow(new IllegalStateException("disk hiccup")).doCallRealMethod().when(log).read(0L);
+		append("evt_1");
+
+		start();
+		verify(handler, timeout(5000)).handle(any());
+		verify(dedupService, timeout(5000)).markProcessed("evt_1", "payment_intent.succeeded");
+	}
+
+	@Test
+	void failingEventIsParkedBelowTheCheckpointAndRetriedUntilHandled() throws Exception {
+		log = new WebhookEventLog(dir, 4096, false);
+		AtomicBoolean databaseDown = new AtomicBoolean(true);
+		doAnswer(invocation -> {
+			Event event = invocation.getArgument(0);
+			if ("evt_1".equals(event.getId()) && databaseDown.get()) {
+				throw new IllegalStateException("database down");
+			}
+			return null;
+		}).when(handler).handle(any());
+		long first = log.getEndOffset();
+		append("evt_1");
+		append("evt_2");
+
+		start();
+		verify(dedupService, timeout(5000)).markProcessed("evt_2", "payment_intent.succeeded");
+		// Retried on every redrive, and the checkpoint never passes it.
+		verify(handler, timeout(5000).atLeast(5)).handle(argThat(event -> "evt_1".equals(event.getId())));
+		assertEquals(first, dispatcher.committedOffset());
+		verify(dedupService, never()).markProcessed(eq("evt_1"), any());
+
+		databaseDown.set(false);
+		verify(dedupService, timeout(5000)).markProcessed("evt_1", "payment_intent.succeeded");
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (dispatcher.committedOffset() != log.getEndOffset() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(log.getEndOffset(), dispatcher.committedOffset());
+	}
+
+	@Test
+	void checkpointsOnlyOnceTheDedupTableIsStoredAndSurvivesAFailedRun() throws Exception {
+		log = new WebhookEventLog(dir, 4096, false);
+		when(handler.flush()).thenThrow(new IllegalStateException("flush failed")).thenReturn(true);
+		AtomicBoolean dedupStored = new AtomicBoolean();
+		when(dedupService.flush()).thenAnswer(invocation -> dedupStored.get());
+		append("evt_1");
+
+		start();
+		verify(dedupService, timeout(5000)).markProcessed("evt_1", "payment_intent.succeeded");
+		// The first run threw; the later ones wait for the dedup table.
+		verify(dedupService, timeout(5000).atLeast(2)).flush();
+		Path checkpoint = dir.resolve("consumer.offset");
+		assertFalse(Files.exists(checkpoint));
+
+		dedupStored.set(true);
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!Files.exists(checkpoint) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(Long.toString(log.getEndOffset()), Files.readString(checkpoint));
+	}
+
+	private void append(String eventId) throws Exception {
+		String json = "{\"id\":\"" + eventId + "\",\"object\":\"event\",\"type\":\"payment_intent.succeeded\",\"created\":1700000000}";
+		// Different keys, so the events run on different lanes.
+		log.append("payment_intent.succeeded", eventId, "cus_" + eventId, 1700000000L, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void start() throws Exception {
+		dispatcher = new WebhookEventDispatcher(log, handler, dedupService, dir.toString(), 2, 10, -1,
+				2, Duration.ofMillis(10), Duration.ofMillis(100), Duration.ofDays(3), new SimpleMeterRegistry());
+		dispatcher.start();
+	}
+}
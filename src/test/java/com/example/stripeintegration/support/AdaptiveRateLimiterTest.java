@@ -0,0 +1,45 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveRateLimiterTest {
+
+	@Test
+	void backgroundCannotTakeTheInteractiveShare() throws Exception {
+		// Slow enough that nothing refills during the test.
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(0.01, 0.01, 100, 1, 0.5, 10, 0.5, Duration.ofSeconds(1));
+		for (int i = 0; i < 5; i++) {
+			assertTrue(limiter.tryAcquireBackground("payment_intents", 0, TimeUnit.NANOSECONDS));
+		}
+		assertFalse(limiter.tryAcquireBackground("payment_intents", 0, TimeUnit.NANOSECONDS));
+		for (int i = 0; i < 5; i++) {
+			assertTrue(limiter.tryAcquire("payment_intents", 0, TimeUnit.NANOSECONDS));
+		}
+		assertFalse(limiter.tryAcquire("payment_intents", 0, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	void interactiveCanUseTheWholeBucket() throws Exception {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(0.01, 0.01, 100, 1, 0.5, 10, 0.5, Duration.ofSeconds(1));
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.tryAcquire("customers", 0, TimeUnit.NANOSECONDS));
+		}
+		assertFalse(limiter.tryAcquireBackground("customers", 0, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	void aBurstOf429sCountsOnce() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(20, 1, 100, 1, 0.5, 10, 0.5, Duration.ofMinutes(1));
+		limiter.onThrottled("customers");
+		limiter.onThrottled("customers");
+		assertEquals(10, limiter.getRate("customers"), 1e-9);
+		assertEquals(20, limiter.getRate("payment_intents"), 1e-9);
+	}
+}
@@ -0,0 +1,104 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+	@Test
+	void opensOnceAFullWindowReachesTheFailureRate() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5, Duration.ofMinutes(1));
+		breaker.tryAcquire().onFailure();
+		breaker.tryAcquire().onSuccess();
+		breaker.tryAcquire().onFailure();
+		// Two failures of three calls, but the window is not full yet.
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		breaker.tryAcquire().onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+	}
+
+	@Test
+	void ignoredOutcomesDoNotCount() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 0.5, Duration.ofMinutes(1));
+		for (int i = 0; i < 10; i++) {
+			breaker.tryAcquire().onIgnored();
+		}
+		breaker.tryAcquire().onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void letsOneProbeThroughAfterTheOpenDuration() {
+		CircuitBreaker breaker = openBreaker();
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		assertNotNull(probe);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+
+		probe.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertNotNull(breaker.tryAcquire());
+	}
+
+	@Test
+	void aFailedProbeOpensTheBreakerAgain() {
+		CircuitBreaker breaker = openBreaker();
+		breaker.tryAcquire().onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	void anIgnoredProbeLetsTheNextOneThrough() {
+		CircuitBreaker breaker = openBreaker();
+		breaker.tryAcquire().onIgnored();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNotNull(breaker.tryAcquire());
+	}
+
+	@Test
+	void callsFromBeforeTheBreakerOpenedCannotDecideTheProbe() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1.0, Duration.ZERO);
+		CircuitBreaker.Permit slowSuccess = breaker.tryAcquire();
+		CircuitBreaker.Permit slowFailure = breaker.tryAcquire();
+		CircuitBreaker.Permit slowIgnored = breaker.tryAcquire();
+		breaker.tryAcquire().onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		slowSuccess.onSuccess();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		slowFailure.onFailure();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		slowIgnored.onIgnored();
+		// The probe is still out, so no second one.
+		assertNull(breaker.tryAcquire());
+
+		probe.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void onlyTheFirstReleaseOfAPermitCounts() {
+		CircuitBreaker breaker = openBreaker();
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		probe.onSuccess();
+		probe.onFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	// Open for no time at all, so the next call is the probe.
+	private static CircuitBreaker openBreaker() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1.0, Duration.ZERO);
+		breaker.tryAcquire().onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		return breaker;
+	}
+}
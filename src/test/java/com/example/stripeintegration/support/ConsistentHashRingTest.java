@@ -0,0 +1,56 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+	@Test
+	void ringsBuiltFromTheSameNodesAgree() {
+		ConsistentHashRing<String> a = new ConsistentHashRing<>(List.of("node-a", "node-b", "node-c"), 100);
+		ConsistentHashRing<String> b = new ConsistentHashRing<>(List.of("node-c", "node-a", "node-b"), 100);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(a.nodeFor("cus_" + i), b.nodeFor("cus_" + i));
+		}
+	}
+
+	@Test
+	void spreadsKeysAcrossNodes() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(List.of("node-a", "node-b", "node-c"), 100);
+		Map<String, Integer> owned = new HashMap<>();
+		for (int i = 0; i < 30_000; i++) {
+			owned.merge(ring.nodeFor("cus_" + i), 1, Integer::sum);
+		}
+		assertEquals(3, owned.size());
+		owned.values().forEach(count -> assertTrue(count > 5_000 && count < 15_000, "uneven share: " + owned));
+	}
+
+	@Test
+	void addingANodeOnlyMovesKeysToIt() {
+		ConsistentHashRing<String> before = new ConsistentHashRing<>(List.of("node-a", "node-b", "node-c"), 100);
+		ConsistentHashRing<String> after = new ConsistentHashRing<>(List.of("node-a", "node-b", "node-c", "node-d"), 100);
+		int moved = 0;
+		for (int i = 0; i < 10_000; i++) {
+			String key = "cus_" + i;
+			String owner = after.nodeFor(key);
+			if (!owner.equals(before.nodeFor(key))) {
+				assertEquals("node-d", owner);
+				moved++;
+			}
+		}
+		// Roughly a quarter of the keys, never most of them.
+		assertTrue(moved > 1_000 && moved < 4_000, "moved " + moved);
+	}
+
+	@Test
+	void needsAtLeastOneNode() {
+		assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<String>(List.of(), 100));
+	}
+}
@@ -0,0 +1,82 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponseStream;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class JdkStripeHttpClientTest {
+
+	private static final byte[] BODY = "x".repeat(64 * 1024).getBytes(StandardCharsets.UTF_8);
+
+	private HttpServer server;
+	private JdkStripeHttpClient client;
+
+	@BeforeEach
+	void start() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v1/files", exchange -> {
+			exchange.sendResponseHeaders(200, BODY.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(BODY);
+			}
+		});
+		server.start();
+		// A single slot, and a short wait for it.
+		client = new JdkStripeHttpClient("default", Duration.ofMillis(300), key -> Duration.ofSeconds(5), 1, null, false,
+				new SimpleMeterRegistry());
+	}
+
+	@AfterEach
+	void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	void aStreamedBodyHoldsItsSlotUntilClosed() throws Exception {
+		StripeResponseStream first = client.requestStream(request());
+		assertThrows(ApiConnectionException.class, () -> client.requestStream(request()));
+
+		first.body().close();
+		client.requestStream(request()).body().close();
+	}
+
+	@Test
+	void aStreamedBodyReadToTheEndReleasesItsSlot() throws Exception {
+		StripeResponseStream first = client.requestStream(request());
+		assertEquals(BODY.length, first.body().readAllBytes().length);
+
+		StripeResponseStream second = client.requestStream(request());
+		assertEquals(BODY.length, second.body().readAllBytes().length);
+		// Closing after the end must not give the slot back a second time.
+		second.body().close();
+		first.body().close();
+		StripeResponseStream held = client.requestStream(request());
+		assertThrows(ApiConnectionException.class, () -> client.request(request()));
+		held.body().close();
+		assertEquals(200, client.request(request()).code());
+	}
+
+	private StripeRequest request() throws Exception {
+		RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+		return new StripeRequest(ApiResource.RequestMethod.GET, "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/files/file_123",
+				Map.of(), options);
+	}
+}
@@ -0,0 +1,87 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class KeyedExecutorTest {
+
+	@Test
+	void runsTasksOfOneKeyInSubmissionOrder() throws Exception {
+		KeyedExecutor executor = new KeyedExecutor("test", 4, 100);
+		Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			String key = "cus_" + (i % 7);
+			int sequence = i;
+			executor.execute(key, () -> seen.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(sequence));
+		}
+		assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+		assertEquals(7, seen.size());
+		seen.values().forEach(sequences -> {
+			List<Integer> sorted = new ArrayList<>(sequences);
+			Collections.sort(sorted);
+			assertEquals(sorted, sequences);
+		});
+	}
+
+	@Test
+	void blocksInsteadOfRejectingWhenALaneIsFull() throws Exception {
+		// One lane with a single slot: every submitter races the worker for it.
+		KeyedExecutor executor = new KeyedExecutor("test", 1, 1);
+		AtomicInteger ran = new AtomicInteger();
+		ExecutorService submitters = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int s = 0; s < 4; s++) {
+			futures.add(submitters.submit(() -> {
+				for (int i = 0; i < 5000; i++) {
+					executor.execute("key", ran::incrementAndGet);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		submitters.shutdown();
+		assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+		assertEquals(20_000, ran.get());
+	}
+
+	@Test
+	void aFailingTaskDoesNotLoseItsSlot() throws Exception {
+		KeyedExecutor executor = new KeyedExecutor("test", 1, 1);
+		CountDownLatch done = new CountDownLatch(1);
+		for (int i = 0; i < 10; i++) {
+			executor.execute("key", () -> {
+				throw new IllegalStateException("handler failed");
+			});
+		}
+		executor.execute("key", done::countDown);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		executor.shutdown(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void rejectsAfterShutdownWithoutLeakingTheSlot() throws Exception {
+		KeyedExecutor executor = new KeyedExecutor("test", 1, 1);
+		executor.shutdown(5, TimeUnit.SECONDS);
+		assertThrows(RejectedExecutionException.class, () -> executor.execute("key", () -> { }));
+		// Had the slot leaked, this would block instead of being rejected again.
+		assertThrows(RejectedExecutionException.class, () -> executor.execute("key", () -> { }));
+	}
+}
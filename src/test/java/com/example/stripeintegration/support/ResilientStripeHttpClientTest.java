@@ -0,0 +1,124 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ResilientStripeHttpClientTest {
+
+	private final HttpClient delegate = mock(HttpClient.class);
+
+	@Test
+	void retriesAGetOnRetryableStatuses() throws Exception {
+		when(delegate.request(any())).thenReturn(response(409), response(429), response(503), response(200));
+		assertEquals(200, client(breaker()).requestWithRetries(request(ApiResource.RequestMethod.GET, null, 3)).code());
+		verify(delegate, times(4)).request(any());
+	}
+
+	@Test
+	void retriesAfterAnIoError() throws Exception {
+		when(delegate.request(any()))
+				.thenThrow(new ApiConnectionException("Connection reset", new IOException("Connection reset")))
+				.thenReturn(response(200));
+		assertEquals(200, client(breaker()).requestWithRetries(request(ApiResource.RequestMethod.DELETE, null, 1)).code());
+		verify(delegate, times(2)).request(any());
+	}
+
+	@Test
+	void retriesAPostOnlyWithAnIdempotencyKey() throws Exception {
+		when(delegate.request(any())).thenReturn(response(503), response(200));
+		assertEquals(200, client(breaker()).requestWithRetries(request(ApiResource.RequestMethod.POST, "key-1", 1)).code());
+		verify(delegate, times(2)).request(any());
+	}
+
+	@Test
+	void doesNotRetryAPostWithoutAnIdempotencyKey() throws Exception {
+		when(delegate.request(any())).thenReturn(response(503), response(200));
+		// The SDK keys every POST it builds, so only a hand-built request can lack one.
+		StripeRequest request = mock(StripeRequest.class);
+		when(request.method()).thenReturn(ApiResource.RequestMethod.POST);
+		when(request.url()).thenReturn(new URL("https://api.stripe.com/v1/payment_intents"));
+		when(request.headers()).thenReturn(HttpHeaders.of(Map.of()));
+		when(request.options()).thenReturn(RequestOptions.builder().setMaxNetworkRetries(2).build());
+		when(request.withAdditionalHeader(anyString(), anyString())).thenReturn(request);
+		assertEquals(503, client(breaker()).requestWithRetries(request).code());
+		verify(delegate, times(1)).request(any());
+	}
+
+	@Test
+	void honoursStripeShouldRetry() throws Exception {
+		when(delegate.request(any())).thenReturn(response(503, "false"), response(200));
+		assertEquals(503, client(breaker()).requestWithRetries(request(ApiResource.RequestMethod.GET, null, 2)).code());
+
+		when(delegate.request(any())).thenReturn(response(400, "true"), response(200));
+		assertEquals(200, client(breaker()).requestWithRetries(request(ApiResource.RequestMethod.GET, null, 2)).code());
+		verify(delegate, times(3)).request(any());
+	}
+
+	@Test
+	void doesNotRetryFinalStatuses() throws Exception {
+		when(delegate.request(any())).thenReturn(response(500), response(200));
+		assertEquals(500, client(breaker()).requestWithRetries(request(ApiResource.RequestMethod.GET, null, 2)).code());
+		verify(delegate, times(1)).request(any());
+	}
+
+	@Test
+	void doesNotRetryALocalRejection() throws Exception {
+		when(delegate.request(any())).thenReturn(response(503));
+		// One failure opens this breaker, so the retry is refused locally and not attempted again.
+		CircuitBreaker breaker = new CircuitBreaker(1, 1.0, Duration.ofMinutes(1));
+		assertThrows(CircuitOpenException.class,
+				() -> client(breaker).requestWithRetries(request(ApiResource.RequestMethod.GET, null, 3)));
+		verify(delegate, times(1)).request(any());
+	}
+
+	private ResilientStripeHttpClient client(CircuitBreaker breaker) {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1000, 1, 1000, 1, 0.5, 1000, 0.5, Duration.ofMinutes(1));
+		return new ResilientStripeHttpClient("default", delegate, limiter, Duration.ofSeconds(1), Duration.ofSeconds(1), breaker,
+				new SimpleMeterRegistry());
+	}
+
+	private static CircuitBreaker breaker() {
+		return new CircuitBreaker(100, 0.5, Duration.ofMinutes(1));
+	}
+
+	private static StripeRequest request(ApiResource.RequestMethod method, String idempotencyKey, int maxNetworkRetries) throws Exception {
+		RequestOptions options = RequestOptions.builder()
+				.setApiKey("sk_test_123")
+				.setIdempotencyKey(idempotencyKey)
+				.setMaxNetworkRetries(maxNetworkRetries)
+				.build();
+		return new StripeRequest(method, "https://api.stripe.com/v1/customers/cus_1", Map.of(), options);
+	}
+
+	private static StripeResponse response(int status) {
+		return new StripeResponse(status, HttpHeaders.of(Map.of()), "{}");
+	}
+
+	private static StripeResponse response(int status, String shouldRetry) {
+		return new StripeResponse(status, HttpHeaders.of(Map.of("Stripe-Should-Retry", List.of(shouldRetry))), "{}");
+	}
+}
@@ -0,0 +1,117 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+	private final SingleFlight<String, String> flight = new SingleFlight<>();
+	private final ExecutorService callers = Executors.newFixedThreadPool(8);
+
+	@AfterEach
+	void stop() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	void concurrentCallersShareOneCall() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> leader = callers.submit(() -> flight.execute("cus_1", () -> {
+			calls.incrementAndGet();
+			started.countDown();
+			await(release);
+			return "value";
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		List<Future<String>> followers = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			followers.add(callers.submit(() -> flight.execute("cus_1", () -> {
+				calls.incrementAndGet();
+				return "other";
+			})));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (flight.getFollowerCount() < 5 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		release.countDown();
+
+		assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+		for (Future<String> follower : followers) {
+			assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, calls.get());
+		assertEquals(1, flight.getLeaderCount());
+		assertEquals(5, flight.getFollowerCount());
+		assertEquals(0, flight.getInFlightCount());
+	}
+
+	@Test
+	void followersGetTheLeadersException() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> leader = callers.submit(() -> flight.<IOException>execute("cus_1", () -> {
+			started.countDown();
+			await(release);
+			throw new IOException("Stripe unreachable");
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<String> follower = callers.submit(() -> flight.execute("cus_1", () -> "other"));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (flight.getFollowerCount() < 1 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		release.countDown();
+
+		assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+		assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS)).getCause());
+		assertEquals(0, flight.getInFlightCount());
+	}
+
+	@Test
+	void remembersNothingOnceTheCallFinishes() throws Exception {
+		assertEquals("first", flight.execute("cus_1", () -> "first"));
+		assertEquals("second", flight.execute("cus_1", () -> "second"));
+		assertEquals(2, flight.getLeaderCount());
+		assertEquals(0, flight.getFollowerCount());
+	}
+
+	@Test
+	void differentKeysDoNotWaitForEachOther() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> slow = callers.submit(() -> flight.execute("cus_1", () -> {
+			await(release);
+			return "slow";
+		}));
+		assertEquals("fast", callers.submit(() -> flight.execute("cus_2", () -> "fast")).get(5, TimeUnit.SECONDS));
+		release.countDown();
+		assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WebhookEventLogTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void appendedRecordsReadBackInOrderAcrossSegments() throws Exception {
+		try (WebhookEventLog log = new WebhookEventLog(dir, 256, false)) {
+			long offset = 0;
+			for (int i = 0; i < 20; i++) {
+				log.append("payment_intent.succeeded", "evt_" + i, 1700000000L + i, ("{\"n\":" + i + "}").getBytes(StandardCharsets.UTF_8));
+			}
+			for (int i = 0; i < 20; i++) {
+				WebhookEventLog.Entry entry = log.read(offset);
+				assertEquals("evt_" + i, entry.getEventId());
+				assertEquals(1700000000L + i, entry.getCreated());
+				offset = entry.getNextOffset();
+			}
+			assertNull(log.read(offset));
+		}
+	}
+
+	@Test
+	void reopenedLogContinuesAfterLastRecord() throws Exception {
+		long end;
+		try (WebhookEventLog log = new WebhookEventLog(dir, 4096, false)) {
+			log.append("setup_intent.succeeded", "evt_1", 1L, "{}".getBytes(StandardCharsets.UTF_8));
+			end = log.getEndOffset();
+		}
+		try (WebhookEventLog log = new WebhookEventLog(dir, 4096, false)) {
+			assertEquals(end, log.getEndOffset());
+			long offset = log.append("setup_intent.succeeded", "evt_2", 2L, "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+			assertEquals(end, offset);
+			assertEquals("evt_1", log.read(0).getEventId());
+			assertArrayEquals("{\"a\":1}".getBytes(StandardCharsets.UTF_8), log.read(offset).getPayload());
+		}
+	}
+
+	@Test
+	void orderingKeyIsStoredWithRecord() throws Exception {
+		try (WebhookEventLog log = new WebhookEventLog(dir, 4096, false)) {
+			long keyed = log.append("payment_intent.succeeded", "evt_1", "cus_1", 1L, "{}".getBytes(StandardCharsets.UTF_8));
+			long unkeyed = log.append("payment_intent.succeeded", "evt_2", 2L, "{}".getBytes(StandardCharsets.UTF_8));
+			assertEquals("cus_1", log.read(keyed).getOrderingKey());
+			assertNull(log.read(unkeyed).getOrderingKey());
+		}
+	}
+
+	@Test
+	void truncateKeepsSegmentHoldingOffset() throws Exception {
+		try (WebhookEventLog log = new WebhookEventLog(dir, 128, false)) {
+			long last = 0;
+			for (int i = 0; i < 10; i++) {
+				last = log.append("payment_intent.succeeded", "evt_" + i, i, new byte[40]);
+			}
+			log.truncateBefore(last);
+			assertEquals("evt_9", log.read(last).getEventId());
+		}
+	}
+}
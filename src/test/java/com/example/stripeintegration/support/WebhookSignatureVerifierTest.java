@@ -0,0 +1,46 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.net.Webhook;
+
+class WebhookSignatureVerifierTest {
+
+	private static final String SECRET = "whsec_test";
+	private static final String PAYLOAD = "{\"id\":\"evt_1\",\"type\":\"payment_intent.succeeded\",\"note\":\"café\"}";
+
+	private final WebhookSignatureVerifier verifier = new WebhookSignatureVerifier(SECRET, 300);
+
+	@Test
+	void acceptsWhatTheSdkAccepts() throws Exception {
+		long now = Webhook.Util.getTimeNow();
+		String header = "t=" + now + ",v0=ignored,v1=" + "00".repeat(32) + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, now + "." + PAYLOAD);
+		Webhook.Signature.verifyHeader(PAYLOAD, header, SECRET, 300);
+		assertDoesNotThrow(() -> verifier.verify(PAYLOAD.getBytes(StandardCharsets.UTF_8), header));
+	}
+
+	@Test
+	void rejectsTamperedPayloadStaleTimestampAndMissingParts() throws Exception {
+		long now = Webhook.Util.getTimeNow();
+		String header = "t=" + now + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, now + "." + PAYLOAD);
+		byte[] tampered = PAYLOAD.replace("evt_1", "evt_2").getBytes(StandardCharsets.UTF_8);
+		assertEquals("No signatures found matching the expected signature for payload",
+				assertThrows(SignatureVerificationException.class, () -> verifier.verify(tampered, header)).getMessage());
+
+		long old = now - 600;
+		String stale = "t=" + old + ",v1=" + Webhook.Util.computeHmacSha256(SECRET, old + "." + PAYLOAD);
+		assertEquals("Timestamp outside the tolerance zone",
+				assertThrows(SignatureVerificationException.class, () -> verifier.verify(PAYLOAD.getBytes(StandardCharsets.UTF_8), stale)).getMessage());
+
+		assertThrows(SignatureVerificationException.class, () -> verifier.verify(PAYLOAD.getBytes(StandardCharsets.UTF_8), null));
+		assertThrows(SignatureVerificationException.class, () -> verifier.verify(PAYLOAD.getBytes(StandardCharsets.UTF_8), "t=" + now));
+		assertThrows(SignatureVerificationException.class, () -> verifier.verify(PAYLOAD.getBytes(StandardCharsets.UTF_8), "v1=" + "00".repeat(32)));
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.stripeintegration.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class WeightedFairSchedulerTest {
+
+	private enum Lane { INTERACTIVE, BACKGROUND }
+
+	@Test
+	void aLaneAtItsBudgetLeavesSlotsToTheOthers() throws Exception {
+		WeightedFairScheduler<Lane> scheduler = scheduler(4, 1);
+		assertTrue(scheduler.acquire(Lane.BACKGROUND, 0, TimeUnit.NANOSECONDS));
+		assertFalse(scheduler.acquire(Lane.BACKGROUND, 10, TimeUnit.MILLISECONDS));
+		assertEquals(0, scheduler.getQueueDepth(Lane.BACKGROUND));
+		for (int i = 0; i < 3; i++) {
+			assertTrue(scheduler.acquire(Lane.INTERACTIVE, 0, TimeUnit.NANOSECONDS));
+		}
+		assertEquals(1, scheduler.getRunning(Lane.BACKGROUND));
+		assertEquals(3, scheduler.getRunning(Lane.INTERACTIVE));
+	}
+
+	@Test
+	void grantsQueuedCallersInProportionToTheirWeights() throws Exception {
+		WeightedFairScheduler<Lane> scheduler = scheduler(1, 1);
+		assertTrue(scheduler.acquire(Lane.BACKGROUND, 0, TimeUnit.NANOSECONDS));
+		List<Lane> granted = Collections.synchronizedList(new ArrayList<>());
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 8; i++) {
+			Lane lane = i % 2 == 0 ? Lane.INTERACTIVE : Lane.BACKGROUND;
+			callers.submit(() -> {
+				if (scheduler.acquire(lane, 10, TimeUnit.SECONDS)) {
+					granted.add(lane);
+					scheduler.release(lane);
+				}
+				return null;
+			});
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (scheduler.getQueueDepth(Lane.INTERACTIVE) + scheduler.getQueueDepth(Lane.BACKGROUND) < 8
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		scheduler.release(Lane.BACKGROUND);
+		callers.shutdown();
+		assertTrue(callers.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals(8, granted.size());
+		// Weight 3 against 1: the first three freed slots all go to the interactive lane.
+		assertEquals(List.of(Lane.INTERACTIVE, Lane.INTERACTIVE, Lane.INTERACTIVE), granted.subList(0, 3));
+	}
+
+	@Test
+	void aTimedOutCallerLeavesTheQueue() throws Exception {
+		WeightedFairScheduler<Lane> scheduler = scheduler(1, 1);
+		assertTrue(scheduler.acquire(Lane.INTERACTIVE, 0, TimeUnit.NANOSECONDS));
+		assertFalse(scheduler.acquire(Lane.INTERACTIVE, 10, TimeUnit.MILLISECONDS));
+		assertEquals(0, scheduler.getQueueDepth(Lane.INTERACTIVE));
+		scheduler.release(Lane.INTERACTIVE);
+		assertTrue(scheduler.acquire(Lane.BACKGROUND, 0, TimeUnit.NANOSECONDS));
+	}
+
+	private static WeightedFairScheduler<Lane> scheduler(int maxConcurrent, int backgroundMaxConcurrent) {
+		return new WeightedFairScheduler<Lane>(maxConcurrent)
+				.lane(Lane.INTERACTIVE, 3, maxConcurrent)
+				.lane(Lane.BACKGROUND, 1, backgroundMaxConcurrent);
+	}
+}